@@ -0,0 +1,48 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkState;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineService;
+
+/**
+ * Spring context shared by all benchmark threads. Built once per trial, because context startup is not what's being
+ * measured.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkContext {
+
+    private AnnotationConfigApplicationContext applicationContext;
+
+    @Setup(Level.Trial)
+    public void startApplicationContext() {
+        applicationContext = new AnnotationConfigApplicationContext(BenchmarkStateMachineConfig.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplicationContext() {
+        applicationContext.close();
+    }
+
+    public BenchmarkService getBenchmarkService() {
+        return applicationContext.getBean(BenchmarkService.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StateMachineService<BenchmarkState, BenchmarkEvent> getStateMachineService() {
+        return applicationContext.getBean(StateMachineService.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StateMachineRuntimePersister<BenchmarkState, BenchmarkEvent, String> getStateMachineRuntimePersister() {
+        return applicationContext.getBean(StateMachineRuntimePersister.class);
+    }
+
+}
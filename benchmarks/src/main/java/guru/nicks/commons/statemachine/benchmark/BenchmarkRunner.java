@@ -0,0 +1,44 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with 1, 8, and 64 threads, one JSON report per thread count ({@code jmh-result-<threads>.json}).
+ * Any JMH command line option is supported, for example:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar StateMachinePhaseBenchmark -f 2
+ * </pre>
+ * To run a single thread count, use JMH's own runner: {@code java -cp benchmarks.jar org.openjdk.jmh.Main -t 8}.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] THREAD_COUNTS = {1, 8, 64};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        var commandLineOptions = new CommandLineOptions(args);
+
+        for (int threads : THREAD_COUNTS) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-" + threads + ".json");
+
+            if (commandLineOptions.getIncludes().isEmpty()) {
+                options.include(BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+            }
+
+            new Runner(options.build()).run();
+        }
+    }
+
+}
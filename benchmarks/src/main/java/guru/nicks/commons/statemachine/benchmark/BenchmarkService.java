@@ -0,0 +1,70 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineStartCompletionListener;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkExtendedState;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkState;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.service.StateMachineService;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Same flow as a typical {@link StateMachineAware} service, minus the entity existence check (no DB here).
+ * <p>
+ * If {@link #setReleaseAfterUse(boolean)} is {@code false}, machines are not released after use, so the next call
+ * for the same entity gets the started machine from the {@link StateMachineService}'s in-memory cache ('cached'
+ * scenario). Otherwise, each call restores and starts a new machine ('cold' scenario).
+ */
+public class BenchmarkService
+        implements StateMachineAware<BenchmarkState, BenchmarkEvent, BenchmarkExtendedState, UUID> {
+
+    private final StateMachineService<BenchmarkState, BenchmarkEvent> stateMachineService;
+
+    private volatile boolean releaseAfterUse = true;
+
+    public BenchmarkService(StateMachineService<BenchmarkState, BenchmarkEvent> stateMachineService) {
+        this.stateMachineService = stateMachineService;
+    }
+
+    public void setReleaseAfterUse(boolean releaseAfterUse) {
+        this.releaseAfterUse = releaseAfterUse;
+    }
+
+    @Nullable
+    @Override
+    public <T> T withStateMachine(UUID entityId, Function<StateMachine<BenchmarkState, BenchmarkEvent>, T> mapper) {
+        var stateMachine = waitForStateMachineStart(entityId);
+        T result = mapper.apply(stateMachine);
+
+        if (releaseAfterUse) {
+            waitForStateMachineStop(entityId);
+        }
+
+        return result;
+    }
+
+    @Override
+    public StateMachine<BenchmarkState, BenchmarkEvent> waitForStateMachineStart(UUID entityId) {
+        var stateMachine = stateMachineService.acquireStateMachine(convertToStateMachineId(entityId), false);
+        BenchmarkExtendedState.ENTITY_ID.saveInStateMachine(stateMachine, entityId);
+        // returns immediately for cached (already running) machines
+        StateMachineStartCompletionListener.waitForStateMachineStart(stateMachine);
+        return stateMachine;
+    }
+
+    @Override
+    public void waitForStateMachineStop(UUID entityId) {
+        stateMachineService.releaseStateMachine(convertToStateMachineId(entityId));
+    }
+
+    @Override
+    public String convertToStateMachineId(UUID entityId) {
+        return "benchmark:" + entityId;
+    }
+
+}
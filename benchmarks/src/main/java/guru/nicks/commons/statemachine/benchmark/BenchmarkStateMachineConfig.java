@@ -0,0 +1,81 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.StateMachineInMemoryRuntimePersister;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkState;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.statemachine.config.EnableStateMachineFactory;
+import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
+import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
+import org.springframework.statemachine.config.builders.StateMachineTransitionConfigurer;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.DefaultStateMachineService;
+import org.springframework.statemachine.service.StateMachineService;
+
+import java.util.EnumSet;
+
+/**
+ * Minimal state machine: no listeners, no monitors, no actions - so that benchmarks measure the starter's overhead
+ * and not the business logic.
+ */
+@Configuration
+@EnableStateMachineFactory(name = "benchmarkStateMachineFactory")
+public class BenchmarkStateMachineConfig extends EnumStateMachineConfigurerAdapter<BenchmarkState, BenchmarkEvent> {
+
+    @Override
+    public void configure(StateMachineConfigurationConfigurer<BenchmarkState, BenchmarkEvent> config)
+            throws Exception {
+        // @formatter:off
+        config.withPersistence()
+                .runtimePersister(benchmarkStateMachineRuntimePersister());
+        // @formatter:on
+    }
+
+    @Override
+    public void configure(StateMachineStateConfigurer<BenchmarkState, BenchmarkEvent> states) throws Exception {
+        states.withStates()
+                .states(EnumSet.allOf(BenchmarkState.class))
+                .initial(BenchmarkState.NEW);
+    }
+
+    @Override
+    public void configure(StateMachineTransitionConfigurer<BenchmarkState, BenchmarkEvent> transitions)
+            throws Exception {
+        // @formatter:off
+        transitions
+                .withExternal()
+                    .source(BenchmarkState.NEW)
+                    .event(BenchmarkEvent.TOGGLE)
+                    .target(BenchmarkState.ACTIVE)
+                .and()
+                .withExternal()
+                    .source(BenchmarkState.ACTIVE)
+                    .event(BenchmarkEvent.TOGGLE)
+                    .target(BenchmarkState.NEW);
+        // @formatter:on
+    }
+
+    @Bean
+    public StateMachineService<BenchmarkState, BenchmarkEvent> benchmarkStateMachineService(
+            StateMachineFactory<BenchmarkState, BenchmarkEvent> stateMachineFactory,
+            StateMachineRuntimePersister<BenchmarkState, BenchmarkEvent, String> stateMachineRuntimePersister) {
+        return new DefaultStateMachineService<>(stateMachineFactory, stateMachineRuntimePersister);
+    }
+
+    @Bean
+    public StateMachineRuntimePersister<BenchmarkState, BenchmarkEvent, String>
+    benchmarkStateMachineRuntimePersister() {
+        return new StateMachineInMemoryRuntimePersister<>();
+    }
+
+    @Bean
+    public BenchmarkService benchmarkService(
+            StateMachineService<BenchmarkState, BenchmarkEvent> benchmarkStateMachineService) {
+        return new BenchmarkService(benchmarkStateMachineService);
+    }
+
+}
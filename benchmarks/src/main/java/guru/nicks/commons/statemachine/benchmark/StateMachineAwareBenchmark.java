@@ -0,0 +1,102 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.domain.StateMachineException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link StateMachineAware#processEventInStateMachine(Object, Object)} round-trip: acquire, start, send event,
+ * persist, release. Each benchmark thread owns its entity, so threads don't contend on the same machine.
+ *
+ * @see StateMachinePhaseBenchmark per-phase breakdown
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateMachineAwareBenchmark {
+
+    @Benchmark
+    public void acceptedEvent(Machines machines, Entity entity) {
+        machines.benchmarkService.processEventInStateMachine(entity.entityId, BenchmarkEvent.TOGGLE);
+    }
+
+    @Benchmark
+    public StateMachineException deniedEvent(Machines machines, Entity entity) {
+        try {
+            machines.benchmarkService.processEventInStateMachine(entity.entityId, BenchmarkEvent.CLOSE);
+        } catch (StateMachineException e) {
+            return e;
+        }
+
+        throw new IllegalStateException("Event " + BenchmarkEvent.CLOSE + " must have been denied");
+    }
+
+    public enum MachineMode {
+
+        /**
+         * Machine is released (stopped) after each event, so the next event restores and starts a new one.
+         */
+        COLD,
+
+        /**
+         * Machine is kept in {@link org.springframework.statemachine.service.StateMachineService}'s cache.
+         */
+        CACHED
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Machines {
+
+        @Param
+        public MachineMode mode;
+
+        private BenchmarkService benchmarkService;
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            benchmarkService = benchmarkContext.getBenchmarkService();
+            benchmarkService.setReleaseAfterUse(mode == MachineMode.COLD);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Entity {
+
+        private final UUID entityId = UUID.randomUUID();
+
+        private BenchmarkService benchmarkService;
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            benchmarkService = benchmarkContext.getBenchmarkService();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            benchmarkService.waitForStateMachineStop(entityId);
+        }
+
+    }
+
+}
@@ -0,0 +1,227 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineStartCompletionListener;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkExtendedState;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkState;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachineEventResult;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaks {@link StateMachineAware#processEventInStateMachine(Object, Object)} down into phases, each measured
+ * separately, to find out which one dominates the per-event latency:
+ * <ul>
+ *     <li>{@link StateMachineService#acquireStateMachine(String, boolean)} - build machine, restore its context</li>
+ *     <li>{@link StateMachineStartCompletionListener#waitForStateMachineStart(StateMachine)}</li>
+ *     <li>{@link StateMachine#sendEvent(Mono)} - including {@code blockLast()}</li>
+ *     <li>{@link StateMachineRuntimePersister} write</li>
+ *     <li>{@link StateMachineService#releaseStateMachine(String)} - stop machine</li>
+ * </ul>
+ * Phases measured with per-invocation setup/teardown are slow enough (tens of microseconds and more) for JMH's
+ * {@link Level#Invocation} overhead to be negligible.
+ *
+ * @see StateMachineAwareBenchmark full round-trip
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateMachinePhaseBenchmark {
+
+    @Benchmark
+    public StateMachine<BenchmarkState, BenchmarkEvent> acquire(ReleasedMachine machine) {
+        machine.stateMachine = machine.stateMachineService.acquireStateMachine(machine.machineId, false);
+        return machine.stateMachine;
+    }
+
+    @Benchmark
+    public StateMachine<BenchmarkState, BenchmarkEvent> start(AcquiredMachine machine) {
+        StateMachineStartCompletionListener.waitForStateMachineStart(machine.stateMachine);
+        return machine.stateMachine;
+    }
+
+    @Benchmark
+    public StateMachineEventResult<BenchmarkState, BenchmarkEvent> sendEvent(StartedMachine machine) {
+        return machine.stateMachine
+                .sendEvent(Mono.just(
+                        MessageBuilder.withPayload(BenchmarkEvent.TOGGLE).build()))
+                .blockLast();
+    }
+
+    @Benchmark
+    public void persist(PersistedContext persistedContext) throws Exception {
+        persistedContext.stateMachineRuntimePersister.write(persistedContext.context, persistedContext.machineId);
+    }
+
+    @Benchmark
+    public void release(StartedMachineToRelease machine) {
+        machine.stateMachineService.releaseStateMachine(machine.machineId);
+    }
+
+    /**
+     * Base class for per-thread machines, each thread has its own entity.
+     */
+    public abstract static class ThreadMachine {
+
+        protected final UUID entityId = UUID.randomUUID();
+
+        protected StateMachineService<BenchmarkState, BenchmarkEvent> stateMachineService;
+        protected String machineId;
+        protected StateMachine<BenchmarkState, BenchmarkEvent> stateMachine;
+
+        protected void init(BenchmarkContext benchmarkContext) {
+            stateMachineService = benchmarkContext.getStateMachineService();
+            machineId = benchmarkContext.getBenchmarkService().convertToStateMachineId(entityId);
+        }
+
+        protected void acquireMachine() {
+            stateMachine = stateMachineService.acquireStateMachine(machineId, false);
+            BenchmarkExtendedState.ENTITY_ID.saveInStateMachine(stateMachine, entityId);
+        }
+
+        protected void startMachine() {
+            acquireMachine();
+            StateMachineStartCompletionListener.waitForStateMachineStart(stateMachine);
+        }
+
+        protected void releaseMachine() {
+            stateMachineService.releaseStateMachine(machineId);
+            stateMachine = null;
+        }
+
+    }
+
+    /**
+     * Not acquired before invocation, released after it.
+     */
+    @State(Scope.Thread)
+    public static class ReleasedMachine extends ThreadMachine {
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            init(benchmarkContext);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            releaseMachine();
+        }
+
+    }
+
+    /**
+     * Acquired (but not started) before invocation, released after it.
+     */
+    @State(Scope.Thread)
+    public static class AcquiredMachine extends ThreadMachine {
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            init(benchmarkContext);
+        }
+
+        @Setup(Level.Invocation)
+        public void acquire() {
+            acquireMachine();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            releaseMachine();
+        }
+
+    }
+
+    /**
+     * Started once per iteration, so all invocations within the iteration work with the same running machine.
+     */
+    @State(Scope.Thread)
+    public static class StartedMachine extends ThreadMachine {
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            init(benchmarkContext);
+        }
+
+        @Setup(Level.Iteration)
+        public void start() {
+            startMachine();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            releaseMachine();
+        }
+
+    }
+
+    /**
+     * Started before invocation; the invocation itself releases it.
+     */
+    @State(Scope.Thread)
+    public static class StartedMachineToRelease extends ThreadMachine {
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            init(benchmarkContext);
+        }
+
+        @Setup(Level.Invocation)
+        public void start() {
+            startMachine();
+        }
+
+    }
+
+    /**
+     * Context as it's passed to the runtime persister on each transition.
+     */
+    @State(Scope.Thread)
+    public static class PersistedContext {
+
+        private StateMachineRuntimePersister<BenchmarkState, BenchmarkEvent, String> stateMachineRuntimePersister;
+        private String machineId;
+        private StateMachineContext<BenchmarkState, BenchmarkEvent> context;
+
+        @Setup(Level.Trial)
+        public void setup(BenchmarkContext benchmarkContext) {
+            UUID entityId = UUID.randomUUID();
+            stateMachineRuntimePersister = benchmarkContext.getStateMachineRuntimePersister();
+            machineId = benchmarkContext.getBenchmarkService().convertToStateMachineId(entityId);
+
+            Map<Object, Object> variables = new HashMap<>();
+            variables.put(BenchmarkExtendedState.ENTITY_ID, entityId);
+            context = new DefaultStateMachineContext<>(BenchmarkState.ACTIVE, BenchmarkEvent.TOGGLE, null,
+                    new DefaultExtendedState(variables), null, machineId);
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package guru.nicks.commons.statemachine.benchmark;
+
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkEvent;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkExtendedState;
+import guru.nicks.commons.statemachine.benchmark.domain.BenchmarkState;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+import guru.nicks.commons.statemachine.persist.CompactStateMachineSerialisationService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link StateMachineContext} serialisation services on a context as it's written by runtime persisters on
+ * each transition (state, event with message headers, one extended state variable). Payload sizes are printed during
+ * setup, since JMH doesn't report them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateMachineSerialisationBenchmark {
+
+    @Param({"KRYO", "KRYO_REGISTERED", "COMPACT"})
+    private Codec codec;
+
+    private StateMachineSerialisationService<BenchmarkState, BenchmarkEvent> serialisationService;
+    private StateMachineContext<BenchmarkState, BenchmarkEvent> context;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        serialisationService = codec.createSerialisationService();
+
+        UUID entityId = UUID.randomUUID();
+        Map<Object, Object> variables = new HashMap<>();
+        variables.put(BenchmarkExtendedState.ENTITY_ID, entityId);
+
+        context = new DefaultStateMachineContext<>(BenchmarkState.ACTIVE, BenchmarkEvent.TOGGLE,
+                MessageBuilder.withPayload(BenchmarkEvent.TOGGLE).build().getHeaders(),
+                new DefaultExtendedState(variables), null, "benchmark:" + entityId);
+        payload = serialisationService.serialiseStateMachineContext(context);
+
+        System.out.printf("%n%s payload size: %d bytes%n", codec, payload.length);
+    }
+
+    @Benchmark
+    public byte[] serialise() throws Exception {
+        return serialisationService.serialiseStateMachineContext(context);
+    }
+
+    @Benchmark
+    public StateMachineContext<BenchmarkState, BenchmarkEvent> deserialise() throws Exception {
+        return serialisationService.deserialiseStateMachineContext(payload);
+    }
+
+    public enum Codec {
+
+        /**
+         * Kryo without registered classes - class names are written in full.
+         */
+        KRYO {
+            @Override
+            StateMachineSerialisationService<BenchmarkState, BenchmarkEvent> createSerialisationService() {
+                return new KryoStateMachineSerialisationService<>();
+            }
+        },
+
+        /**
+         * Kryo with state machine classes registered.
+         */
+        KRYO_REGISTERED {
+            @Override
+            StateMachineSerialisationService<BenchmarkState, BenchmarkEvent> createSerialisationService() {
+                var classRegistry = KryoClassRegistry.of(
+                        KryoClassRegistry.forStateMachineAware(List.of(BenchmarkService.class)));
+                return new KryoStateMachineSerialisationService<>(classRegistry, false,
+                        KryoStateMachineSerialisationService.DEFAULT_POOL_SIZE);
+            }
+        },
+
+        COMPACT {
+            @Override
+            StateMachineSerialisationService<BenchmarkState, BenchmarkEvent> createSerialisationService() {
+                return new CompactStateMachineSerialisationService<>(BenchmarkState.class, BenchmarkEvent.class,
+                        BenchmarkExtendedState.class, KRYO.createSerialisationService());
+            }
+        };
+
+        abstract StateMachineSerialisationService<BenchmarkState, BenchmarkEvent> createSerialisationService();
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package guru.nicks.commons.statemachine.benchmark.domain;
+
+/**
+ * Benchmark events.
+ *
+ * @see BenchmarkState
+ */
+public enum BenchmarkEvent {
+
+    /**
+     * Accepted in every state: {@link BenchmarkState#NEW} &lt;-&gt; {@link BenchmarkState#ACTIVE}.
+     */
+    TOGGLE,
+
+    /**
+     * Never accepted - there's no such transition in the graph.
+     */
+    CLOSE
+
+}
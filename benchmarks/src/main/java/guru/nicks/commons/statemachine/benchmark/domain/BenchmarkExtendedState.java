@@ -0,0 +1,25 @@
+package guru.nicks.commons.statemachine.benchmark.domain;
+
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+
+import java.util.UUID;
+
+/**
+ * State machine context variables for benchmark entities.
+ */
+public enum BenchmarkExtendedState implements ExtendedState {
+
+    ENTITY_ID(UUID.class);
+
+    private final Class<?> valueClass;
+
+    BenchmarkExtendedState(Class<?> valueClass) {
+        this.valueClass = valueClass;
+    }
+
+    @Override
+    public Class<?> getValueClass() {
+        return valueClass;
+    }
+
+}
@@ -0,0 +1,13 @@
+package guru.nicks.commons.statemachine.benchmark.domain;
+
+/**
+ * Benchmark entity states. The graph is a cycle, so the same event can be accepted over and over again.
+ *
+ * @see BenchmarkEvent
+ */
+public enum BenchmarkState {
+
+    NEW,
+    ACTIVE
+
+}
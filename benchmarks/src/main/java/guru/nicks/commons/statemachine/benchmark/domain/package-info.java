@@ -0,0 +1,4 @@
+@NonNullApi
+package guru.nicks.commons.statemachine.benchmark.domain;
+
+import org.springframework.lang.NonNullApi;
@@ -0,0 +1,410 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.jfr.StateMachineAcquireEvent;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.service.StateMachineService;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Keeps started state machines resident between {@link StateMachineAware#withStateMachine(Object, Function)} calls:
+ * {@link #releaseStateMachine(String)} doesn't stop the machine, so the next {@link #acquireStateMachine(String)}
+ * returns it as is - without building it from the factory, restoring its context, and starting it again. Machines
+ * are stopped (by releasing them in the delegate) only on eviction:
+ * <ul>
+ *     <li>when the cache exceeds its maximum size - least recently used machines first</li>
+ *     <li>when a machine has been idle longer than the TTL (checked on each call, see also
+ *         {@link #evictExpired()})</li>
+ * </ul>
+ * Machines currently in use (acquired, but not released yet) are never evicted, so the cache may temporarily exceed
+ * its maximum size. Evicted machines are stopped outside the cache lock; acquiring a machine which is being stopped
+ * waits until it's stopped. Machines are loaded from the delegate outside the lock too; concurrent acquisitions of a
+ * machine being loaded wait for it to be cached.
+ * <p>
+ * Usage: wrap the service returned to {@link StateMachineAware} implementations, e.g.
+ * {@code new CachingStateMachineService<>(new DefaultStateMachineService<>(factory, persister), 10_000,
+ * Duration.ofMinutes(10))}. Context persistence doesn't change - runtime persisters store contexts on each
+ * transition, not on machine stop.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+@Slf4j
+public class CachingStateMachineService<S, E> implements StateMachineService<S, E> {
+
+    private final StateMachineService<S, E> delegate;
+    private final int maxSize;
+    private final long idleTtlNanos;
+
+    /**
+     * Not {@code synchronized}: waiting for it doesn't pin virtual threads.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when evicted machines are stopped, or machines being loaded are cached (or fail to load).
+     */
+    private final Condition settled = lock.newCondition();
+
+    /**
+     * Access-ordered: the eldest entry is the least recently used one. Guarded by {@link #lock}.
+     */
+    private final LinkedHashMap<String, Entry<S, E>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Evicted machines being stopped (outside the lock). Guarded by {@link #lock}.
+     */
+    private final Set<String> stoppingIds = new HashSet<>();
+    /**
+     * Machines being loaded from the delegate (outside the lock). Guarded by {@link #lock}.
+     */
+    private final Set<String> loadingIds = new HashSet<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate service which builds, restores, starts, and stops machines
+     * @param maxSize  maximum number of cached machines
+     * @param idleTtl  how long a machine may stay unused before it's stopped
+     * @throws IllegalArgumentException invalid size or TTL
+     */
+    public CachingStateMachineService(StateMachineService<S, E> delegate, int maxSize, Duration idleTtl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+
+        if (idleTtl.isNegative() || idleTtl.isZero()) {
+            throw new IllegalArgumentException("Idle TTL must be positive");
+        }
+
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.idleTtlNanos = idleTtl.toNanos();
+    }
+
+    @Override
+    public StateMachine<S, E> acquireStateMachine(String machineId) {
+        return acquireStateMachine(machineId, true);
+    }
+
+    @Override
+    public StateMachine<S, E> acquireStateMachine(String machineId, boolean start) {
+        var jfrEvent = new StateMachineAcquireEvent();
+        jfrEvent.begin();
+
+        Entry<S, E> cachedEntry;
+        List<String> evictedIds;
+
+        lock.lock();
+        try {
+            awaitSettled(machineId);
+            evictedIds = evictExpired(System.nanoTime());
+            cachedEntry = entries.get(machineId);
+
+            if (cachedEntry != null) {
+                hits.increment();
+                cachedEntry.usages++;
+                cachedEntry.lastAccessNanos = System.nanoTime();
+            } else {
+                // until cached, the machine can't be acquired by others (and therefore released and evicted)
+                loadingIds.add(machineId);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        stopEvicted(evictedIds);
+
+        if (cachedEntry != null) {
+            commitAcquireEvent(jfrEvent, machineId, true);
+            return cachedEntry.stateMachine;
+        }
+
+        misses.increment();
+        StateMachine<S, E> stateMachine = null;
+        Entry<S, E> entry = null;
+        List<String> oversizedIds = List.of();
+
+        try {
+            // may be slow (restores context from DB) - don't block other machines
+            stateMachine = delegate.acquireStateMachine(machineId, start);
+        } finally {
+            lock.lock();
+            try {
+                loadingIds.remove(machineId);
+                settled.signalAll();
+
+                if (stateMachine != null) {
+                    entry = new Entry<>(stateMachine);
+                    entry.usages++;
+                    entry.lastAccessNanos = System.nanoTime();
+                    entries.put(machineId, entry);
+                    oversizedIds = evictOversized();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        stopEvicted(oversizedIds);
+        commitAcquireEvent(jfrEvent, machineId, false);
+        return entry.stateMachine;
+    }
+
+    /**
+     * Doesn't stop the machine (unless it's not in the cache) - just marks it as unused.
+     *
+     * @param machineId machine ID
+     */
+    @Override
+    public void releaseStateMachine(String machineId) {
+        releaseStateMachine(machineId, true);
+    }
+
+    /**
+     * Doesn't stop the machine (unless it's not in the cache) - just marks it as unused.
+     *
+     * @param machineId machine ID
+     * @param stop      passed to the delegate if the machine is not in the cache
+     */
+    @Override
+    public void releaseStateMachine(String machineId, boolean stop) {
+        List<String> evictedIds;
+
+        lock.lock();
+        try {
+            Entry<S, E> entry = entries.get(machineId);
+
+            if (entry == null) {
+                evictedIds = null;
+            } else {
+                entry.usages = Math.max(0, entry.usages - 1);
+                entry.lastAccessNanos = System.nanoTime();
+                evictedIds = evictOversized();
+                evictedIds.addAll(evictExpired(System.nanoTime()));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (evictedIds == null) {
+            delegate.releaseStateMachine(machineId, stop);
+        } else {
+            stopEvicted(evictedIds);
+        }
+    }
+
+    /**
+     * Checks if the machine is in the cache or in the delegate.
+     *
+     * @param machineId machine ID
+     * @return {@code true} if the machine is known
+     */
+    @Override
+    public boolean hasStateMachine(String machineId) {
+        lock.lock();
+        try {
+            if (entries.containsKey(machineId)) {
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return delegate.hasStateMachine(machineId);
+    }
+
+    /**
+     * Stops machines which have been idle longer than the TTL. Called on each acquire/release anyway, but can also be
+     * scheduled to free memory when there's no traffic.
+     */
+    public void evictExpired() {
+        List<String> evictedIds;
+
+        lock.lock();
+        try {
+            evictedIds = evictExpired(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+
+        stopEvicted(evictedIds);
+    }
+
+    /**
+     * Stops all machines not currently in use.
+     */
+    public void evictAll() {
+        List<String> evictedIds;
+
+        lock.lock();
+        try {
+            evictedIds = evictUnused(Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+
+        stopEvicted(evictedIds);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void commitAcquireEvent(StateMachineAcquireEvent jfrEvent, String machineId, boolean cached) {
+        jfrEvent.end();
+
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.setMachineId(machineId);
+            jfrEvent.setCached(cached);
+            jfrEvent.commit();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}. Waits until the machine with the given ID:
+     * <ul>
+     *     <li>if it's being stopped after eviction, is stopped - otherwise the delegate could return the instance
+     *         being stopped</li>
+     *     <li>if it's being loaded by another thread, is cached - otherwise it would be loaded twice, and the first
+     *         instance could be evicted (and stopped, or recycled by the delegate) before the second one is cached</li>
+     * </ul>
+     */
+    private void awaitSettled(String machineId) {
+        while (stoppingIds.contains(machineId) || loadingIds.contains(machineId)) {
+            settled.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}. Entries are access-ordered, so the scan stops at the first unused
+     * entry which hasn't expired yet.
+     *
+     * @return IDs of evicted machines, to be passed to {@link #stopEvicted(List)} after releasing the lock
+     */
+    private List<String> evictExpired(long nowNanos) {
+        List<String> evictedIds = new ArrayList<>();
+
+        for (Iterator<Map.Entry<String, Entry<S, E>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry<S, E>> mapEntry = it.next();
+            Entry<S, E> entry = mapEntry.getValue();
+
+            if (entry.usages > 0) {
+                continue;
+            }
+
+            if (nowNanos - entry.lastAccessNanos <= idleTtlNanos) {
+                break;
+            }
+
+            it.remove();
+            evictedIds.add(mapEntry.getKey());
+        }
+
+        stoppingIds.addAll(evictedIds);
+        return evictedIds;
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     *
+     * @return IDs of evicted machines, to be passed to {@link #stopEvicted(List)} after releasing the lock
+     */
+    private List<String> evictOversized() {
+        return evictUnused(entries.size() - maxSize);
+    }
+
+    /**
+     * Must be called while holding {@link #lock}. Evicts least recently used entries not currently in use.
+     *
+     * @param maxCount maximum number of entries to evict
+     * @return IDs of evicted machines, to be passed to {@link #stopEvicted(List)} after releasing the lock
+     */
+    private List<String> evictUnused(int maxCount) {
+        List<String> evictedIds = new ArrayList<>();
+
+        for (Iterator<Map.Entry<String, Entry<S, E>>> it = entries.entrySet().iterator();
+                it.hasNext() && (evictedIds.size() < maxCount); ) {
+            Map.Entry<String, Entry<S, E>> mapEntry = it.next();
+
+            if (mapEntry.getValue().usages == 0) {
+                it.remove();
+                evictedIds.add(mapEntry.getKey());
+            }
+        }
+
+        stoppingIds.addAll(evictedIds);
+        return evictedIds;
+    }
+
+    /**
+     * Must be called <b>without</b> holding {@link #lock}: stopping may block, and it would block all acquisitions
+     * and releases (and pin virtual threads). Acquisitions of the same machine IDs wait until they're stopped.
+     *
+     * @param machineIds IDs of machines already removed from the cache
+     */
+    private void stopEvicted(List<String> machineIds) {
+        for (String machineId : machineIds) {
+            evictions.increment();
+
+            try {
+                delegate.releaseStateMachine(machineId, true);
+            } catch (RuntimeException e) {
+                log.error("[{}] Failed to stop evicted state machine: {}", machineId, e.getMessage(), e);
+            } finally {
+                lock.lock();
+                try {
+                    stoppingIds.remove(machineId);
+                    settled.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Entry<S, E> {
+
+        private final StateMachine<S, E> stateMachine;
+        private int usages;
+        private long lastAccessNanos;
+
+        private Entry(StateMachine<S, E> stateMachine) {
+            this.stateMachine = stateMachine;
+        }
+
+    }
+
+}
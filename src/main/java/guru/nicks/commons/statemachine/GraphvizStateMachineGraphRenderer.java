@@ -0,0 +1,193 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+
+import guru.nidi.graphviz.attribute.Attributes;
+import guru.nidi.graphviz.attribute.Color;
+import guru.nidi.graphviz.attribute.Label;
+import guru.nidi.graphviz.attribute.Shape;
+import guru.nidi.graphviz.attribute.Style;
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+import guru.nidi.graphviz.model.Factory;
+import guru.nidi.graphviz.model.Link;
+import guru.nidi.graphviz.model.Node;
+import guru.nidi.graphviz.parse.Parser;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.entity.ContentType;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.transition.Transition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Renders state machine graphs with the GraphViz engine. Kept apart from {@link StateMachineGraphVisualizer}, so that
+ * the latter loads without the (optional) {@code guru.nidi:graphviz-java} dependency - this class is only loaded when
+ * the engine is actually needed. Nodes and links are customized by {@link GraphvizStateMachineGraphVisualizer}, if
+ * implemented.
+ */
+final class GraphvizStateMachineGraphRenderer {
+
+    private GraphvizStateMachineGraphRenderer() {
+    }
+
+    /**
+     * Returns content type for the specified state machine graph format.
+     *
+     * @param format format
+     * @return content type
+     */
+    static ContentType getContentType(Format format) {
+        return switch (format) {
+            case PNG -> ContentType.IMAGE_PNG;
+            case SVG, SVG_STANDALONE -> ContentType.IMAGE_SVG;
+            // JSON, DOT, etc.
+            default -> ContentType.TEXT_PLAIN;
+        };
+    }
+
+    /**
+     * Renders state machine graph with the GraphViz engine.
+     *
+     * @param visualizer provides state machine factory and node/link attributes
+     * @param format     output format
+     * @param <S>        state type
+     * @param <E>        event type
+     * @return content data
+     */
+    static <S, E> byte[] renderContent(StateMachineGraphVisualizer<S, E> visualizer,
+            StateMachineGraphFormat format) {
+        return renderWithEngine(visualizer, toGraphvizFormat(format)).getValue();
+    }
+
+    private static Format toGraphvizFormat(StateMachineGraphFormat format) {
+        return switch (format) {
+            case DOT -> Format.DOT;
+            case SVG -> Format.SVG;
+            case PNG -> Format.PNG;
+        };
+    }
+
+    /**
+     * Renders graph written in the DOT language with the GraphViz engine.
+     *
+     * @param dot    DOT text
+     * @param format output format
+     * @return content data
+     */
+    static byte[] renderDot(String dot, StateMachineGraphFormat format) {
+        try (var buffer = new ByteArrayOutputStream()) {
+            Graphviz.fromGraph(new Parser().read(dot))
+                    .render(toGraphvizFormat(format))
+                    .toOutputStream(buffer);
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Error rendering graph: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Renders state machine graph in DOT / SVG with {@link StateMachineGraphRenderer}, unless
+     * {@link StateMachineGraphVisualizer#isStateMachineGraphRenderedByGraphviz()} says otherwise, and in other formats
+     * with the GraphViz engine.
+     *
+     * @param visualizer provides state machine factory and node/link attributes
+     * @param format     output format
+     * @param <S>        state type
+     * @param <E>        event type
+     * @return content type and content data
+     */
+    static <S, E> Pair<ContentType, byte[]> render(StateMachineGraphVisualizer<S, E> visualizer, Format format) {
+        if (!visualizer.isStateMachineGraphRenderedByGraphviz()) {
+            String content = switch (format) {
+                case DOT -> StateMachineGraphRenderer.of(visualizer).renderDot();
+                case SVG -> StateMachineGraphRenderer.of(visualizer).renderSvg(false);
+                case SVG_STANDALONE -> StateMachineGraphRenderer.of(visualizer).renderSvg(true);
+                default -> null;
+            };
+
+            if (content != null) {
+                return Pair.of(getContentType(format), content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        return renderWithEngine(visualizer, format);
+    }
+
+    private static <S, E> Pair<ContentType, byte[]> renderWithEngine(StateMachineGraphVisualizer<S, E> visualizer,
+            Format format) {
+        // build new empty state machine in order to collect its state transitions
+        StateMachine<S, E> stateMachine = visualizer.getStateMachineFactory().getStateMachine();
+
+        // collect outbound transitions for each state
+        Map<S, List<Transition<S, E>>> transitionsGroupedBySourceState = stateMachine.getTransitions()
+                .stream()
+                .collect(Collectors.groupingBy(transition -> transition.getSource().getId()));
+
+        var graph = Factory.mutGraph().setDirected(true);
+
+        transitionsGroupedBySourceState.forEach((sourceState, transitions) -> {
+            Node sourceNode = createNode(visualizer, sourceState);
+
+            transitions.stream()
+                    .map(transition -> {
+                        S targetState = transition.getTarget().getId();
+                        Node targetNode = createNode(visualizer, targetState);
+
+                        E event = transition.getTrigger().getEvent();
+                        Label label = Label.of(StateMachineGraphRenderer.getEventName(event));
+
+                        return sourceNode.link(
+                                Link.to(targetNode).with(label, getLinkColor(visualizer)));
+                    }).forEach(graph::add);
+        });
+
+        // prevent node overlaps; see https://graphviz.org/docs/attrs/overlap/
+        graph.graphAttrs().add("overlap", "false");
+        Graphviz graphviz = Graphviz.fromGraph(graph);
+        ContentType contentType = getContentType(format);
+
+        try (var buffer = new ByteArrayOutputStream()) {
+            graphviz.render(format).toOutputStream(buffer);
+            return Pair.of(contentType, buffer.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Error rendering graph: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates node as described in {@link GraphvizStateMachineGraphVisualizer#createStateMachineGraphNode(Object)}.
+     *
+     * @param visualizer provides node fill color
+     * @param state      state
+     * @param <S>        state type
+     * @param <E>        event type
+     * @return graph node
+     */
+    static <S, E> Node createDefaultNode(StateMachineGraphVisualizer<S, E> visualizer, S state) {
+        return Factory
+                .node(StateMachineGraphRenderer.getStateName(state))
+                .with(Shape.ELLIPSE,
+                        Style.FILLED,
+                        Color.rgb(visualizer.getStateMachineGraphNodeRgb()).fill(),
+                        Attributes.attr("margin", "0.7,0.0"));
+    }
+
+    private static <S, E> Node createNode(StateMachineGraphVisualizer<S, E> visualizer, S state) {
+        return (visualizer instanceof GraphvizStateMachineGraphVisualizer<S, E> graphvizVisualizer)
+                ? graphvizVisualizer.createStateMachineGraphNode(state)
+                : createDefaultNode(visualizer, state);
+    }
+
+    private static Color getLinkColor(StateMachineGraphVisualizer<?, ?> visualizer) {
+        return (visualizer instanceof GraphvizStateMachineGraphVisualizer<?, ?> graphvizVisualizer)
+                ? graphvizVisualizer.getStateMachineGraphLinkColor()
+                : Color.rgb(visualizer.getStateMachineGraphLinkRgb());
+    }
+
+}
@@ -0,0 +1,76 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+
+import guru.nidi.graphviz.attribute.Color;
+import guru.nidi.graphviz.attribute.Shape;
+import guru.nidi.graphviz.attribute.Style;
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.model.Node;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.entity.ContentType;
+
+/**
+ * {@link StateMachineGraphVisualizer} having GraphViz types in its signatures: rendering in arbitrary
+ * {@link Format GraphViz formats} and customizing GraphViz nodes and links. Requires the optional
+ * {@code guru.nidi:graphviz-java} dependency - unlike {@link StateMachineGraphVisualizer}, which can be implemented
+ * without it (its GraphViz-rendered formats then fail at runtime).
+ * <p>
+ * The GraphViz engine uses the customizations below for all {@link StateMachineGraphFormat formats} it renders.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+public interface GraphvizStateMachineGraphVisualizer<S, E> extends StateMachineGraphVisualizer<S, E> {
+
+    /**
+     * Returns content type for the specified state machine graph format.
+     *
+     * @param format output format for graph visualization
+     * @return content type
+     * @see #renderStateMachineGraph(Format)
+     */
+    static ContentType getStateMachineGraphContentType(Format format) {
+        return GraphvizStateMachineGraphRenderer.getContentType(format);
+    }
+
+    /**
+     * Returns link color for the state machine graph rendered by GraphViz.
+     *
+     * @return link color (default is {@link #getStateMachineGraphLinkRgb()})
+     */
+    default Color getStateMachineGraphLinkColor() {
+        return Color.rgb(getStateMachineGraphLinkRgb());
+    }
+
+    /**
+     * Renders state machine graph in the specified GraphViz format. DOT and SVG are rendered without the GraphViz
+     * engine, unless {@link #isStateMachineGraphRenderedByGraphviz()} says otherwise. Not cached - see
+     * {@link #getStateMachineGraph(StateMachineGraphFormat)}.
+     *
+     * @param format output format for graph visualization
+     * @return content type and content data: text for SVG, binary for PNG, etc.
+     * @see #getStateMachineGraphContentType(Format)
+     */
+    default Pair<ContentType, byte[]> renderStateMachineGraph(Format format) {
+        return GraphvizStateMachineGraphRenderer.render(this, format);
+    }
+
+    /**
+     * Creates a graph node for the GraphViz engine for the specified state and the following customized attributes:
+     * <ul>
+     *     <li>shape: {@link Shape#ELLIPSE}</li>
+     *     <li>style: {@link Style#FILLED}</li>
+     *     <li>fill color: {@link #getStateMachineGraphNodeRgb()}</li>
+     *     <li>margin: {@code 0.7,0.0} (horizontal gap between nodes makes link labels further from each other -
+     *         needed to avoid label overlap</li>
+     * </ul>
+     *
+     * @param state state
+     * @return graph node
+     */
+    default Node createStateMachineGraphNode(S state) {
+        return GraphvizStateMachineGraphRenderer.createDefaultNode(this, state);
+    }
+
+}
@@ -0,0 +1,245 @@
+package guru.nicks.commons.statemachine;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachineException;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.service.DefaultStateMachineService;
+import org.springframework.statemachine.service.StateMachineService;
+import org.springframework.statemachine.support.AbstractStateMachine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Drop-in replacement for {@link DefaultStateMachineService} which recycles released machines instead of building a
+ * new one (states, transitions, triggers, etc.) from {@link StateMachineFactory} for each acquisition. Released
+ * machines are stopped and kept in a bounded pool of idle machines; acquisition takes one from the pool (or builds a
+ * new one if the pool is empty) and resets it, via the state machine accessor, to the persisted context - or to the
+ * initial state with an empty extended state if there's no persisted context, so that starting it runs the initial
+ * transition, as it does for a new machine.
+ * <p>
+ * That's what {@link StateMachineAware#waitForStateMachineStart(Object)} gets, so restoring a machine no longer means
+ * constructing it. Combine with {@link CachingStateMachineService} (which releases machines on eviction only) to
+ * recycle evicted machines: {@code new CachingStateMachineService<>(new PooledStateMachineService<>(factory, persister,
+ * 100, 10), 10_000, Duration.ofMinutes(10))}.
+ * <p>
+ * Only {@link AbstractStateMachine} subclasses (which all factory-built machines are) are recycled, because the
+ * machine ID has to be reassigned.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+@Slf4j
+public class PooledStateMachineService<S, E> implements StateMachineService<S, E> {
+
+    private final StateMachineFactory<S, E> stateMachineFactory;
+    @Nullable
+    private final StateMachinePersist<S, E, String> stateMachinePersist;
+
+    /**
+     * Acquired machines, by ID. Guarded by itself.
+     */
+    private final Map<String, StateMachine<S, E>> machines = new HashMap<>();
+    /**
+     * Stopped machines. Most recently released first - they're more likely to be in CPU caches.
+     */
+    private final BlockingDeque<StateMachine<S, E>> idleMachines;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder recycled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param stateMachineFactory builds machines when the pool is empty
+     * @param stateMachinePersist reads contexts to restore machines from, if not {@code null}
+     * @param maxIdle             max number of idle machines kept in the pool
+     * @param warmUp              number of machines to build right away (up to {@code maxIdle})
+     * @throws IllegalArgumentException invalid size
+     */
+    public PooledStateMachineService(StateMachineFactory<S, E> stateMachineFactory,
+            @Nullable StateMachinePersist<S, E, String> stateMachinePersist, int maxIdle, int warmUp) {
+        this.stateMachineFactory = checkNotNull(stateMachineFactory, "stateMachineFactory");
+        this.stateMachinePersist = stateMachinePersist;
+
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("Max idle machines must be positive");
+        }
+
+        idleMachines = new LinkedBlockingDeque<>(maxIdle);
+        warmUp(warmUp);
+    }
+
+    /**
+     * Builds machines and puts them in the pool, until the given number is built or the pool is full.
+     *
+     * @param count number of machines to build
+     * @return number of machines built
+     */
+    public int warmUp(int count) {
+        int built = 0;
+
+        while ((built < count) && (idleMachines.remainingCapacity() > 0)) {
+            created.increment();
+
+            if (!idleMachines.offerLast(stateMachineFactory.getStateMachine())) {
+                // filled concurrently
+                discarded.increment();
+                break;
+            }
+
+            built++;
+        }
+
+        log.debug("Warmed up {} state machines", built);
+        return built;
+    }
+
+    @Override
+    public StateMachine<S, E> acquireStateMachine(String machineId) {
+        return acquireStateMachine(machineId, true);
+    }
+
+    @Override
+    public StateMachine<S, E> acquireStateMachine(String machineId, boolean start) {
+        checkNotNull(machineId, "machineId");
+
+        // like in DefaultStateMachineService, the whole restoration is done under the lock, so concurrent
+        // acquisitions of the same ID get the same instance
+        synchronized (machines) {
+            StateMachine<S, E> stateMachine = machines.get(machineId);
+
+            if (stateMachine == null) {
+                stateMachine = takeIdleMachine(machineId);
+                machines.put(machineId, stateMachine);
+            }
+
+            if (start) {
+                stateMachine.startReactively().block();
+            }
+
+            return stateMachine;
+        }
+    }
+
+    @Override
+    public void releaseStateMachine(String machineId) {
+        releaseStateMachine(machineId, true);
+    }
+
+    /**
+     * Removes the machine from the acquired ones and, if {@code stop} is {@code true}, stops and recycles it.
+     * Machines released without stopping are not recycled - they may still be running.
+     *
+     * @param machineId machine ID
+     * @param stop      whether to stop the machine
+     */
+    @Override
+    public void releaseStateMachine(String machineId, boolean stop) {
+        StateMachine<S, E> stateMachine;
+
+        synchronized (machines) {
+            stateMachine = machines.remove(machineId);
+        }
+
+        if ((stateMachine == null) || !stop) {
+            return;
+        }
+
+        stateMachine.stopReactively().block();
+
+        if ((stateMachine instanceof AbstractStateMachine<?, ?>) && idleMachines.offerFirst(stateMachine)) {
+            return;
+        }
+
+        discarded.increment();
+    }
+
+    @Override
+    public boolean hasStateMachine(String machineId) {
+        synchronized (machines) {
+            return machines.containsKey(machineId);
+        }
+    }
+
+    public int getIdleCount() {
+        return idleMachines.size();
+    }
+
+    /**
+     * Returns the number of machines built by the factory (including warm-up).
+     *
+     * @return count
+     */
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    /**
+     * Returns the number of acquisitions served from the pool.
+     *
+     * @return count
+     */
+    public long getRecycledCount() {
+        return recycled.sum();
+    }
+
+    /**
+     * Returns the number of released machines not put in the pool because it was full (or they couldn't be recycled).
+     *
+     * @return count
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * Takes an idle machine and resets it for the given machine ID, or builds a new one.
+     */
+    private StateMachine<S, E> takeIdleMachine(String machineId) {
+        StateMachineContext<S, E> context = readContext(machineId);
+        StateMachine<S, E> stateMachine = idleMachines.pollFirst();
+
+        if (stateMachine == null) {
+            created.increment();
+            stateMachine = stateMachineFactory.getStateMachine(machineId);
+        } else {
+            recycled.increment();
+            // null context: no current state (so start runs the initial transition), no variables, no ID
+            stateMachine.getStateMachineAccessor().doWithAllRegions(access ->
+                    access.resetStateMachineReactively(null).block());
+            ((AbstractStateMachine<S, E>) stateMachine).setId(machineId);
+        }
+
+        if (context != null) {
+            stateMachine.getStateMachineAccessor().doWithAllRegions(access ->
+                    access.resetStateMachineReactively(context).block());
+        }
+
+        return stateMachine;
+    }
+
+    @Nullable
+    private StateMachineContext<S, E> readContext(String machineId) {
+        if (stateMachinePersist == null) {
+            return null;
+        }
+
+        try {
+            return stateMachinePersist.read(machineId);
+        } catch (Exception e) {
+            throw new StateMachineException("Unable to read context from store", e);
+        }
+    }
+
+}
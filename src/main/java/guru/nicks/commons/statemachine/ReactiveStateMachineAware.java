@@ -0,0 +1,194 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.exception.http.ConflictException;
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.StateMachineError;
+import guru.nicks.commons.statemachine.domain.StateMachineEventOutcome;
+import guru.nicks.commons.statemachine.domain.StateMachineException;
+
+import jakarta.annotation.Nullable;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineEventResult;
+import org.springframework.statemachine.service.StateMachineService;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Non-blocking counterpart of {@link StateMachineAware}: starting the state machine, processing events, reading state,
+ * and releasing the machine are all {@link Mono}-based, so no thread is blocked on the way (as long as
+ * implementations of {@link #startStateMachineReactively(Object)} and {@link #stopStateMachineReactively(Object)} don't
+ * block either). Method names have the {@code Reactively} suffix, so the same class can implement both interfaces.
+ * <p>
+ * Unlike {@link StateMachineAware}, there's no built-in per-entity locking - serialize events for the same entity
+ * upstream if needed (e.g. with {@code groupBy(entityId).concatMap(...)}).
+ * <p>
+ * State machines call transition-bound actions and listeners synchronously, on the thread processing the event. To
+ * keep blocking actions off the caller's thread (e.g. an event loop), return a scheduler from
+ * {@link #getStateMachineScheduler()}.
+ *
+ * @param <S>  state type
+ * @param <E>  event type
+ * @param <P>  extended state property type - often {@link Enum} to avoid using raw {@link String}
+ * @param <ID> entity ID type
+ */
+@SuppressWarnings("java:S119") // allow non-single-letter type names in generics
+public interface ReactiveStateMachineAware<S, E, P extends ExtendedState, ID> {
+
+    /**
+     * Sends event to state machine (calls {@link #withStateMachineReactively(Object, Function)} internally). The
+     * returned {@link Mono} completes after the event has been accepted, and fails otherwise.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param event    event related to the object being managed
+     * @return {@link Mono} failing with {@link StateMachineException} whose cause is the exception thrown by the
+     *         transition-bound action, or by the state machine itself, or {@link ConflictException} if rejected by the
+     *         transition graph
+     */
+    default Mono<Void> processEventInStateMachineReactively(ID entityId, E event) {
+        checkNotNull(entityId, "entityId");
+
+        return withStateMachineReactively(entityId, stateMachine ->
+                sendEventToStateMachineReactively(entityId, stateMachine, event))
+                .flatMap(outcome -> {
+                    Exception e = outcome.exception();
+
+                    return (e == null)
+                            ? Mono.empty()
+                            : Mono.error(new StateMachineException(
+                                    "Event processing failed in state machine: " + e.getMessage(), e));
+                });
+    }
+
+    /**
+     * Same as {@link StateMachineAware#isLastErrorSavedAsDescriptor()}, for
+     * {@link #sendEventToStateMachineReactively(Object, StateMachine, Object)}.
+     *
+     * @return {@code true} to keep {@link StateMachineError} descriptors, {@code false} (default) to keep exceptions
+     *         as saved
+     */
+    default boolean isLastErrorSavedAsDescriptorReactively() {
+        return false;
+    }
+
+    /**
+     * Returns the scheduler events are processed on by
+     * {@link #sendEventToStateMachineReactively(Object, StateMachine, Object)}.
+     *
+     * @return scheduler, or {@code null} (default) to process events on the subscribing thread
+     */
+    @Nullable
+    default StateMachineScheduler getStateMachineScheduler() {
+        return null;
+    }
+
+    /**
+     * Sends event to the given (started) state machine, on {@link #getStateMachineScheduler()} if configured. The
+     * returned {@link Mono} completes when the event processing completes.
+     *
+     * @param entityId     ID of entity whose state is being managed (for logging)
+     * @param stateMachine state machine
+     * @param event        event to send
+     * @return outcome
+     * @see StateMachineEventOutcome#of(StateMachine, Object, boolean)
+     */
+    default Mono<StateMachineEventOutcome<E>> sendEventToStateMachineReactively(ID entityId,
+            StateMachine<S, E> stateMachine, E event) {
+        Mono<StateMachineEventOutcome<E>> outcome = Mono.defer(() -> {
+            LoggerFactory.getLogger(AopUtils.getTargetClass(this))
+                    .debug("[{}] Sending event {} to state machine (current state machine state: {})",
+                            entityId, event, stateMachine.getState().getId());
+            // machine may be reused (see CachingStateMachineService) - don't report exceptions from previous events
+            ExtendedState.saveLastExceptionInStateMachine(stateMachine, null);
+
+            return stateMachine
+                    .sendEvent(Mono.just(
+                            MessageBuilder.withPayload(event).build()))
+                    .last()
+                    .map(result -> {
+                        if (isLastErrorSavedAsDescriptorReactively()) {
+                            ExtendedState.replaceLastExceptionWithErrorInStateMachine(stateMachine);
+                        }
+
+                        return StateMachineEventOutcome.of(stateMachine, event,
+                                result.getResultType() == StateMachineEventResult.ResultType.DENIED);
+                    });
+        });
+
+        StateMachineScheduler scheduler = getStateMachineScheduler();
+
+        return (scheduler == null)
+                ? outcome
+                : scheduler.schedule(outcome);
+    }
+
+    /**
+     * Starts state machine for the given entity ID, applies the given function, and releases the machine once the
+     * function's {@link Mono} completes, fails, or is cancelled.
+     *
+     * @param entityId ID of entity whose state is being managed (will be used to identify the state machine)
+     * @param mapper   function to apply to the state machine
+     * @param <T>      function result type
+     * @return what {@code mapper} has returned
+     */
+    default <T> Mono<T> withStateMachineReactively(ID entityId, Function<StateMachine<S, E>, Mono<T>> mapper) {
+        return Mono.usingWhen(
+                startStateMachineReactively(entityId),
+                mapper,
+                stateMachine -> stopStateMachineReactively(entityId));
+    }
+
+    /**
+     * Retrieves state from state machine.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return entity state
+     */
+    default Mono<S> getStateFromStateMachineReactively(ID entityId) {
+        return withStateMachineReactively(entityId, stateMachine ->
+                Mono.fromSupplier(() -> stateMachine.getState().getId()));
+    }
+
+    /**
+     * Retrieves property from state machine's extended state. This method is mainly for testing/debugging - it
+     * retrieves state machine internals.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param property property to retrieve
+     * @param clazz    property value class
+     * @param <T>      property value type
+     * @return property value; empty if there's no such property
+     */
+    default <T> Mono<T> getExtendedStateFromStateMachineReactively(ID entityId, P property, Class<T> clazz) {
+        return withStateMachineReactively(entityId, stateMachine ->
+                Mono.fromSupplier(() -> property.readFromStateMachine(stateMachine, clazz)));
+    }
+
+    /**
+     * Acquires the state machine (for example, with {@link StateMachineService#acquireStateMachine(String, boolean)})
+     * and starts it with {@link StateMachineStartCompletionListener#startStateMachineReactively(StateMachine)}. If the
+     * entity does not exist, the returned {@link Mono} should fail with a subclass of
+     * {@link guru.nicks.commons.exception.http.NotFoundException}.
+     * <p>
+     * WARNING: restoring a machine from a persistent storage is blocking I/O in most persisters - if so, it must be
+     * moved off the event loop, e.g. with {@code subscribeOn(Schedulers.boundedElastic())}.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return started state machine
+     */
+    Mono<StateMachine<S, E>> startStateMachineReactively(ID entityId);
+
+    /**
+     * Releases the state machine (for example, with {@link StateMachineService#releaseStateMachine(String)}).
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return {@link Mono} completing when the machine has been released
+     */
+    Mono<Void> stopStateMachineReactively(ID entityId);
+
+}
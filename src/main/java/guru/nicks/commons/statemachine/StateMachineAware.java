@@ -3,7 +3,11 @@ package guru.nicks.commons.statemachine;
 import guru.nicks.commons.exception.http.ConflictException;
 import guru.nicks.commons.exception.http.NotFoundException;
 import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.StateMachineBulkEventResult;
+import guru.nicks.commons.statemachine.domain.StateMachineError;
+import guru.nicks.commons.statemachine.domain.StateMachineEventOutcome;
 import guru.nicks.commons.statemachine.domain.StateMachineException;
+import guru.nicks.commons.statemachine.persist.BatchingStateMachineRuntimePersister;
 
 import jakarta.annotation.Nullable;
 import org.slf4j.Logger;
@@ -11,11 +15,26 @@ import org.slf4j.LoggerFactory;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachineEventResult;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
 import org.springframework.statemachine.service.StateMachineService;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
 
@@ -35,8 +54,81 @@ public interface StateMachineAware<S, E, P extends ExtendedState, ID> {
     }
 
     /**
-     * Sends event to state machine (calls {@link #withStateMachine(Object, Function)} internally). Returns after the
-     * event has been accepted/rejected (i.e. processed successfully, or rejected by the transition-bound action, or
+     * Returns locks which serialize {@link #withLockedStateMachine(Object, Function)} calls for the same entity. Events
+     * for one entity are then strictly ordered, while different entities are processed in parallel.
+     *
+     * @return locks, or {@code null} (default) to disable locking
+     */
+    @Nullable
+    default StripedEntityLock getStateMachineLock() {
+        return null;
+    }
+
+    /**
+     * Returns the transition graph compiled at startup. Together with {@link #findStateWithoutStateMachine(Object)},
+     * it's used to deny events which don't match the transition graph before a state machine is acquired.
+     *
+     * @return index, or {@code null} (default) to always send events to state machines
+     */
+    @Nullable
+    default StateMachineTransitionIndex<S, E> getStateMachineTransitionIndex() {
+        return null;
+    }
+
+    /**
+     * Returns the monitor to report events denied by {@link #getStateMachineTransitionIndex()} to - such events never
+     * reach state machines, so the monitor's listener doesn't see them.
+     *
+     * @return monitor, or {@code null} (default) if traffic is not monitored
+     */
+    @Nullable
+    default StateMachineTrafficMonitor<S, E> getStateMachineTrafficMonitor() {
+        return null;
+    }
+
+    /**
+     * Returns the entity state known without acquiring a state machine - typically, the state stored in the entity
+     * itself by a state machine listener. The state must be the committed one: if it lags behind the state machine, an
+     * event may be denied by {@link #getStateMachineTransitionIndex()} even though the state machine would accept it.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return state, or {@code null} (default) if unknown - then the state machine decides (or, if
+     *         {@link #isPersistedStatePreChecked()}, the persisted state)
+     */
+    @Nullable
+    default S findStateWithoutStateMachine(ID entityId) {
+        return null;
+    }
+
+    /**
+     * Tells whether events should be checked against {@link #getStateMachineTransitionIndex()} in the
+     * {@link #getPersistedState(Object) persisted state} if {@link #findStateWithoutStateMachine(Object)} doesn't
+     * know the state. The persisted state is read while holding the {@link #getStateMachineLock() entity lock}, so it
+     * reflects all events processed before. Costs a persister read per event - worth it if acquiring a state machine
+     * is much more expensive, e.g. if machines are not cached.
+     *
+     * @return {@code true} to read persisted states, {@code false} (default) to let state machines decide
+     */
+    default boolean isPersistedStatePreChecked() {
+        return false;
+    }
+
+    /**
+     * Tells whether {@link #sendEventToStateMachine(Object, StateMachine, Object)} should replace the exception saved
+     * by a transition-bound action with its compact {@link StateMachineError} descriptor (see
+     * {@link ExtendedState#replaceLastExceptionWithErrorInStateMachine(StateMachine)}), so machines kept in memory
+     * (see {@link CachingStateMachineService}) don't hold cause chains and full stack traces. The outcome then carries
+     * {@link StateMachineError#toException() the exception rebuilt} from the descriptor.
+     *
+     * @return {@code true} to keep descriptors, {@code false} (default) to keep exceptions as saved
+     */
+    default boolean isLastErrorSavedAsDescriptor() {
+        return false;
+    }
+
+    /**
+     * Sends event to state machine (calls {@link #withLockedStateMachine(Object, Function)} internally). Returns after
+     * the event has been accepted/rejected (i.e. processed successfully, or rejected by the transition-bound action, or
      * rejected because there's no such path in the transition graph).
      * <p>
      * Event processing is, internally, asynchronous and non-transactional (transition-bound actions must start own
@@ -49,32 +141,296 @@ public interface StateMachineAware<S, E, P extends ExtendedState, ID> {
      */
     default void processEventInStateMachine(ID entityId, E event) {
         checkNotNull(entityId, "entityId");
+        StateMachineEventOutcome<E> outcome = withLockedStateMachineUnlessDenied(entityId, event,
+                stateMachine -> sendEventToStateMachine(entityId, stateMachine, event), Function.identity());
+        Exception e = checkNotNull(outcome, "outcome").exception();
+
+        if (e != null) {
+            throw new StateMachineException("Event processing failed in state machine: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sends events to state machine one by one, in the given order, within a single
+     * {@link #withLockedStateMachine(Object, Function)} call - i.e. the machine is acquired, started, and released only
+     * once for the whole batch. Processing stops at the first event which is not accepted; the remaining events are
+     * reported as {@link StateMachineEventOutcome.Status#SKIPPED}.
+     * <p>
+     * Each event is checked against {@link #getStateMachineTransitionIndex()} first: the first one - as in
+     * {@link #processEventInStateMachine(Object, Object)}, the next ones - in the state machine's current state.
+     * <p>
+     * If {@link #getStateMachinePersist()} is a {@link BatchingStateMachineRuntimePersister}, the context is persisted
+     * once, after the last event; otherwise, the runtime persister writes it on each transition as usual.
+     * <p>
+     * Unlike {@link #processEventInStateMachine(Object, Object)}, this method doesn't throw exceptions for denied
+     * events or failed actions - they are reported in the outcomes.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param events   events to send
+     * @return outcome for each event, in the same order as the events
+     * @throws StateMachineException failed to persist the context after the batch
+     */
+    default List<StateMachineEventOutcome<E>> processEventsInStateMachine(ID entityId, List<E> events) {
+        checkNotNull(entityId, "entityId");
+        checkNotNull(events, "events");
 
-        Exception e = withStateMachine(entityId, stateMachine -> {
-            getLog().debug("[{}] Sending event {} to state machine (current state machine state: {})",
-                    entityId, event, stateMachine.getState().getId());
+        if (events.isEmpty()) {
+            return List.of();
+        }
+
+        // the next events depend on the first one's outcome, so they're checked against the state machine
+        List<StateMachineEventOutcome<E>> outcomes = withLockedStateMachineUnlessDenied(entityId, events.getFirst(),
+                stateMachine -> {
+                    Supplier<List<StateMachineEventOutcome<E>>> batch = () ->
+                            sendEventsToStateMachine(entityId, stateMachine, events);
 
-            boolean eventDenied = stateMachine
-                    .sendEvent(Mono.just(
-                            MessageBuilder.withPayload(event).build()))
-                    .blockLast()
-                    .getResultType() == StateMachineEventResult.ResultType.DENIED;
+                    // flushed while the machine is still locked, so concurrent events can't overtake the write
+                    return (getStateMachinePersist() instanceof BatchingStateMachineRuntimePersister<S, E, String> p)
+                            ? p.callInBatch(stateMachine.getId(), batch)
+                            : batch.get();
+                },
+                deniedOutcome -> {
+                    List<StateMachineEventOutcome<E>> result = new ArrayList<>(events.size());
+                    result.add(deniedOutcome);
+                    events.subList(1, events.size())
+                            .forEach(event -> result.add(StateMachineEventOutcome.skipped(event)));
+                    return result;
+                });
+
+        return checkNotNull(outcomes, "outcomes");
+    }
 
-            Exception lastException = ExtendedState.readLastExceptionFromStateMachine(stateMachine);
+    /**
+     * Returns the default maximum number of entities processed concurrently by
+     * {@link #processEventInStateMachines(Stream, Object)}.
+     *
+     * @return concurrency limit (default is 64)
+     */
+    default int getStateMachineBulkConcurrency() {
+        return 64;
+    }
+
+    /**
+     * Same as {@link #processEventInStateMachines(Stream, Object)}.
+     *
+     * @param entityIds IDs of entities whose state is being managed
+     * @param event     event to send to each entity's state machine
+     * @return aggregated result
+     */
+    default StateMachineBulkEventResult<ID, E> processEventInStateMachines(Collection<ID> entityIds, E event) {
+        return processEventInStateMachines(checkNotNull(entityIds, "entityIds").stream(), event);
+    }
+
+    /**
+     * Same as {@link #processEventInStateMachines(Stream, Object, int)}, with the concurrency limit returned by
+     * {@link #getStateMachineBulkConcurrency()}.
+     *
+     * @param entityIds IDs of entities whose state is being managed
+     * @param event     event to send to each entity's state machine
+     * @return aggregated result
+     */
+    default StateMachineBulkEventResult<ID, E> processEventInStateMachines(Stream<ID> entityIds, E event) {
+        return processEventInStateMachines(entityIds, event, getStateMachineBulkConcurrency());
+    }
+
+    /**
+     * Sends the same event to multiple entities' state machines in parallel, each on its own virtual thread (so
+     * blocking on event completion and on machine start is cheap). Each entity is processed as in
+     * {@link #processEventInStateMachine(Object, Object)}, including {@link #getStateMachineLock() locking}, but
+     * exceptions are reported in the result instead of being thrown.
+     * <p>
+     * The IDs are collected and validated before anything is sent, so a {@code null} ID fails the whole call without
+     * side effects. Duplicate IDs are processed once. No more than {@code maxConcurrency} entities are in flight at
+     * any time.
+     *
+     * @param entityIds      IDs of entities whose state is being managed
+     * @param event          event to send to each entity's state machine
+     * @param maxConcurrency maximum number of entities processed concurrently
+     * @return aggregated result, one outcome per distinct ID
+     * @throws IllegalArgumentException max concurrency is not positive
+     */
+    default StateMachineBulkEventResult<ID, E> processEventInStateMachines(Stream<ID> entityIds, E event,
+            int maxConcurrency) {
+        checkNotNull(entityIds, "entityIds");
+
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be positive");
+        }
 
-            // event denied, but there's no exception from a transition-bound action - this means no action was invoked
-            // at all because the event didn't match the transition graph
-            if (eventDenied && (lastException == null)) {
-                lastException = new ConflictException("Event '" + event + "' not accepted in state '"
-                        + stateMachine.getState().getId() + "'");
+        // the outcomes are kept for each ID anyway, so collecting the IDs up front doesn't change memory footprint
+        Set<ID> distinctEntityIds = new LinkedHashSet<>();
+        entityIds.forEach(entityId -> distinctEntityIds.add(checkNotNull(entityId, "entityId")));
+
+        Map<ID, StateMachineEventOutcome<E>> outcomes = new ConcurrentHashMap<>();
+        var permits = new Semaphore(maxConcurrency);
+
+        // close() waits for all tasks to complete
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ID entityId : distinctEntityIds) {
+                permits.acquireUninterruptibly();
+
+                executor.execute(() -> {
+                    try {
+                        outcomes.put(entityId, processEventInStateMachineSafely(entityId, event));
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+
+        return StateMachineBulkEventResult.of(outcomes);
+    }
+
+    /**
+     * Same as {@link #processEventInStateMachine(Object, Object)}, but returns outcome instead of throwing exceptions.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param event    event to send
+     * @return outcome
+     */
+    private StateMachineEventOutcome<E> processEventInStateMachineSafely(ID entityId, E event) {
+        try {
+            StateMachineEventOutcome<E> outcome = withLockedStateMachineUnlessDenied(entityId, event,
+                    stateMachine -> sendEventToStateMachine(entityId, stateMachine, event), Function.identity());
+            return checkNotNull(outcome, "outcome");
+        } catch (RuntimeException e) {
+            getLog().warn("[{}] Failed to process event {} in state machine: {}", entityId, event, e.getMessage());
+            return new StateMachineEventOutcome<>(event, StateMachineEventOutcome.Status.FAILED, e);
+        }
+    }
+
+    /**
+     * Sends events to the given (started) state machine, see {@link #processEventsInStateMachine(Object, List)}.
+     *
+     * @param entityId     ID of entity whose state is being managed
+     * @param stateMachine state machine
+     * @param events       events to send
+     * @return outcome for each event
+     */
+    private List<StateMachineEventOutcome<E>> sendEventsToStateMachine(ID entityId, StateMachine<S, E> stateMachine,
+            List<E> events) {
+        List<StateMachineEventOutcome<E>> result = new ArrayList<>(events.size());
+        boolean skipRemaining = false;
+
+        for (E event : events) {
+            if (skipRemaining) {
+                result.add(StateMachineEventOutcome.skipped(event));
+                continue;
+            }
+
+            // the first event has been checked already
+            StateMachineEventOutcome<E> outcome = result.isEmpty()
+                    ? null
+                    : denyEventByTransitionIndex(entityId, stateMachine.getState().getId(), event);
+
+            if (outcome == null) {
+                outcome = sendEventToStateMachine(entityId, stateMachine, event);
             }
 
-            return lastException;
+            result.add(outcome);
+            skipRemaining = !outcome.isAccepted();
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks the event against {@link #getStateMachineTransitionIndex()} in the state returned by
+     * {@link #findStateWithoutStateMachine(Object)} and then (if it's unknown and
+     * {@link #isPersistedStatePreChecked()}) in the persisted state. If the event may be accepted, calls
+     * {@link #withLockedStateMachine(Object, Function)}.
+     *
+     * @param entityId     ID of entity whose state is being managed
+     * @param event        event to check
+     * @param mapper       function to apply to the state machine
+     * @param deniedMapper function to apply to the {@link StateMachineEventOutcome.Status#DENIED} outcome
+     * @param <T>          function result type
+     * @return what either function has returned
+     */
+    @Nullable
+    private <T> T withLockedStateMachineUnlessDenied(ID entityId, E event, Function<StateMachine<S, E>, T> mapper,
+            Function<StateMachineEventOutcome<E>, T> deniedMapper) {
+        if (getStateMachineTransitionIndex() == null) {
+            return withLockedStateMachine(entityId, mapper);
+        }
+
+        S state = findStateWithoutStateMachine(entityId);
+        StateMachineEventOutcome<E> deniedOutcome = denyEventByTransitionIndex(entityId, state, event);
+
+        if (deniedOutcome != null) {
+            return deniedMapper.apply(deniedOutcome);
+        }
+
+        if ((state != null) || !isPersistedStatePreChecked()) {
+            return withLockedStateMachine(entityId, mapper);
+        }
+
+        // under the lock, the persisted state can't lag behind events sent before
+        return callLocked(entityId, () -> {
+            StateMachineEventOutcome<E> persistedStateOutcome = denyEventByTransitionIndex(entityId,
+                    getPersistedState(entityId), event);
+
+            return (persistedStateOutcome == null)
+                    ? withStateMachine(entityId, mapper)
+                    : deniedMapper.apply(persistedStateOutcome);
         });
+    }
 
-        if (e != null) {
-            throw new StateMachineException("Event processing failed in state machine: " + e.getMessage(), e);
+    /**
+     * Checks the event against {@link #getStateMachineTransitionIndex()} in the given state.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param state    current state, {@code null} if unknown
+     * @param event    event to check
+     * @return {@link StateMachineEventOutcome.Status#DENIED} outcome if the event doesn't match the transition graph,
+     *         {@code null} if the state machine has to decide
+     */
+    @Nullable
+    private StateMachineEventOutcome<E> denyEventByTransitionIndex(ID entityId, @Nullable S state, E event) {
+        StateMachineTransitionIndex<S, E> transitionIndex = getStateMachineTransitionIndex();
+
+        if ((transitionIndex == null) || (state == null) || transitionIndex.canAccept(state, event)) {
+            return null;
         }
+
+        getLog().debug("[{}] Event {} denied by transition graph in state {}", entityId, event, state);
+        StateMachineTrafficMonitor<S, E> trafficMonitor = getStateMachineTrafficMonitor();
+
+        if (trafficMonitor != null) {
+            trafficMonitor.recordDenial(state, event);
+        }
+
+        return StateMachineEventOutcome.denied(event, state);
+    }
+
+    /**
+     * Sends event to the given (started) state machine and waits for the event processing to complete.
+     *
+     * @param entityId     ID of entity whose state is being managed (for logging)
+     * @param stateMachine state machine
+     * @param event        event to send
+     * @return outcome
+     * @see StateMachineEventOutcome#of(StateMachine, Object, boolean)
+     */
+    default StateMachineEventOutcome<E> sendEventToStateMachine(ID entityId, StateMachine<S, E> stateMachine,
+            E event) {
+        getLog().debug("[{}] Sending event {} to state machine (current state machine state: {})",
+                entityId, event, stateMachine.getState().getId());
+        // machine may be reused (see CachingStateMachineService) - don't report exceptions from previous events
+        ExtendedState.saveLastExceptionInStateMachine(stateMachine, null);
+
+        boolean eventDenied = stateMachine
+                .sendEvent(Mono.just(
+                        MessageBuilder.withPayload(event).build()))
+                .blockLast()
+                .getResultType() == StateMachineEventResult.ResultType.DENIED;
+
+        if (isLastErrorSavedAsDescriptor()) {
+            ExtendedState.replaceLastExceptionWithErrorInStateMachine(stateMachine);
+        }
+
+        return StateMachineEventOutcome.of(stateMachine, event, eventDenied);
     }
 
     /**
@@ -97,6 +453,38 @@ public interface StateMachineAware<S, E, P extends ExtendedState, ID> {
     @Nullable
     <T> T withStateMachine(ID entityId, Function<StateMachine<S, E>, T> mapper);
 
+    /**
+     * Calls {@link #withStateMachine(Object, Function)} while holding the entity lock (if
+     * {@link #getStateMachineLock() configured}), so the whole acquire &rarr; apply &rarr; release cycle is atomic
+     * with respect to other calls for the same entity.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param mapper   function to apply to the state machine
+     * @param <T>      function result type
+     * @return what {@code function} has returned
+     */
+    @Nullable
+    default <T> T withLockedStateMachine(ID entityId, Function<StateMachine<S, E>, T> mapper) {
+        return callLocked(entityId, () -> withStateMachine(entityId, mapper));
+    }
+
+    /**
+     * Calls the given function while holding the entity lock (if {@link #getStateMachineLock() configured}).
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param supplier function to call
+     * @param <T>      function result type
+     * @return what {@code supplier} has returned
+     */
+    @Nullable
+    private <T> T callLocked(ID entityId, Supplier<T> supplier) {
+        StripedEntityLock lock = getStateMachineLock();
+
+        return (lock == null)
+                ? supplier.get()
+                : lock.callLocked(entityId, supplier);
+    }
+
     /**
      * Retrieves state from state machine.
      *
@@ -104,7 +492,7 @@ public interface StateMachineAware<S, E, P extends ExtendedState, ID> {
      * @return entity state
      */
     default S getStateFromStateMachine(ID entityId) {
-        S state = withStateMachine(entityId, stateMachine -> stateMachine.getState().getId());
+        S state = withLockedStateMachine(entityId, stateMachine -> stateMachine.getState().getId());
         return checkNotNull(state, "state");
     }
 
@@ -121,13 +509,99 @@ public interface StateMachineAware<S, E, P extends ExtendedState, ID> {
      */
     @Nullable
     default <T> T getExtendedStateFromStateMachine(ID entityId, P property, Class<T> clazz) {
-        return withStateMachine(entityId, stateMachine -> property.readFromStateMachine(stateMachine, clazz));
+        return withLockedStateMachine(entityId, stateMachine -> property.readFromStateMachine(stateMachine, clazz));
+    }
+
+    /**
+     * Returns the persister state machine contexts are restored from - usually the same
+     * {@link StateMachineRuntimePersister} the state machine service is built with. Needed for the read-only methods
+     * such as {@link #getPersistedState(Object)}.
+     *
+     * @return persister, or {@code null} (default) if read-only access is not supported
+     */
+    @Nullable
+    default StateMachinePersist<S, E, String> getStateMachinePersist() {
+        return null;
+    }
+
+    /**
+     * Converts entity ID to state machine ID. Implementations of {@link #waitForStateMachineStart(Object)} and
+     * {@link #waitForStateMachineStop(Object)} should use it too, otherwise {@link #readStateMachineContext(Object)}
+     * won't find persisted contexts.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return state machine ID (default is {@link String#valueOf(Object)})
+     */
+    default String convertToStateMachineId(ID entityId) {
+        return String.valueOf(entityId);
+    }
+
+    /**
+     * Reads persisted state machine context directly from {@link #getStateMachinePersist()}. No state machine is
+     * created, started, or locked, so this method is much cheaper than {@link #withStateMachine(Object, Function)}.
+     * <p>
+     * WARNING: events being processed concurrently may not be reflected in the context yet.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return context, {@code null} if it has never been persisted (i.e. state machine will start in its initial state)
+     * @throws IllegalStateException persister not configured
+     * @throws StateMachineException persister failed
+     */
+    @Nullable
+    default StateMachineContext<S, E> readStateMachineContext(ID entityId) {
+        checkNotNull(entityId, "entityId");
+        StateMachinePersist<S, E, String> persist = getStateMachinePersist();
+
+        if (persist == null) {
+            throw new IllegalStateException("State machine persister not configured");
+        }
+
+        try {
+            return persist.read(convertToStateMachineId(entityId));
+        } catch (Exception e) {
+            throw new StateMachineException("Failed to read state machine context: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read-only counterpart of {@link #getStateFromStateMachine(Object)}, see {@link #readStateMachineContext(Object)}.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @return entity state, {@code null} if state machine context has never been persisted
+     */
+    @Nullable
+    default S getPersistedState(ID entityId) {
+        StateMachineContext<S, E> context = readStateMachineContext(entityId);
+
+        return (context == null)
+                ? null
+                : context.getState();
+    }
+
+    /**
+     * Read-only counterpart of {@link #getExtendedStateFromStateMachine(Object, ExtendedState, Class)}, see
+     * {@link #readStateMachineContext(Object)}.
+     *
+     * @param entityId ID of entity whose state is being managed
+     * @param property property to retrieve
+     * @param clazz    property value class
+     * @param <T>      property value type
+     * @return property value, {@code null} if missing or if state machine context has never been persisted
+     */
+    @Nullable
+    default <T> T getPersistedExtendedState(ID entityId, P property, Class<T> clazz) {
+        StateMachineContext<S, E> context = readStateMachineContext(entityId);
+
+        return (context == null)
+                ? null
+                : property.readFromStateMachineContext(context, clazz);
     }
 
     /**
      * Calls {@link StateMachineService#acquireStateMachine(String, boolean)} which either returns the machine from its
-     * in-memory cache, or restores it from a persistent state, or creates a new machine. Then, implementations MUST
-     * wait until the (asynchronous) state machine is started.
+     * in-memory cache, or restores it from a persistent state, or creates a new machine (with
+     * {@link PooledStateMachineService}, restoring and creating reuse released machines instead of building new ones).
+     * Then, implementations MUST wait until the (asynchronous) state machine is started.
      *
      * @param entityId ID of entity whose state is being managed
      * @return state machine
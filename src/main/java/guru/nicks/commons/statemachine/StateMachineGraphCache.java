@@ -0,0 +1,123 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.RenderedStateMachineGraph;
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Renders state machine graph once per format and then serves it from memory. State machine configuration doesn't
+ * change at runtime, so cached graphs never go stale (unless {@link #invalidate()} is called explicitly).
+ * <p>
+ * Concurrent requests for a graph not rendered yet wait for the same rendering. Failed renderings (including errors
+ * such as {@link LinkageError}) aren't cached.
+ * <p>
+ * To use, return an instance from {@link StateMachineGraphVisualizer#getStateMachineGraphCache()}:
+ * <pre>{@code
+ * @Getter(onMethod_ = @Override)
+ * private final StateMachineGraphCache stateMachineGraphCache = new StateMachineGraphCache(this);
+ * }</pre>
+ */
+@Slf4j
+public class StateMachineGraphCache {
+
+    private final StateMachineGraphVisualizer<?, ?> visualizer;
+    private final Map<StateMachineGraphFormat, CompletableFuture<RenderedStateMachineGraph>> graphs =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructor. Doesn't render anything.
+     *
+     * @param visualizer renders graphs with
+     *                   {@link StateMachineGraphVisualizer#renderStateMachineGraphContent(StateMachineGraphFormat)}
+     */
+    public StateMachineGraphCache(StateMachineGraphVisualizer<?, ?> visualizer) {
+        this.visualizer = checkNotNull(visualizer, "visualizer");
+    }
+
+    /**
+     * Returns cached graph, rendering it on first call (in the calling thread).
+     *
+     * @param format format
+     * @return graph
+     * @throws RuntimeException rendering failed
+     */
+    public RenderedStateMachineGraph get(StateMachineGraphFormat format) {
+        checkNotNull(format, "format");
+        CompletableFuture<RenderedStateMachineGraph> future = graphs.get(format);
+
+        if (future == null) {
+            var newFuture = new CompletableFuture<RenderedStateMachineGraph>();
+            future = graphs.putIfAbsent(format, newFuture);
+
+            if (future == null) {
+                future = newFuture;
+                render(format, newFuture);
+            }
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+
+            throw (e.getCause() instanceof RuntimeException cause)
+                    ? cause
+                    : e;
+        }
+    }
+
+    /**
+     * Renders graphs not rendered yet, for example, at application startup - rendering PNG (or SVG by GraphViz)
+     * initializes the GraphViz engine first, which may take seconds.
+     *
+     * @param formats  formats to render
+     * @param executor runs rendering
+     * @return future completed when all graphs are rendered (or failed to)
+     */
+    public CompletableFuture<Void> prerender(Collection<StateMachineGraphFormat> formats, Executor executor) {
+        checkNotNull(formats, "formats");
+        checkNotNull(executor, "executor");
+
+        return CompletableFuture.runAsync(() -> formats.forEach(format -> {
+            try {
+                get(format);
+            } catch (RuntimeException | LinkageError e) {
+                log.warn("Failed to prerender state machine graph in {} format: {}", format, e.getMessage(), e);
+            }
+        }), executor);
+    }
+
+    /**
+     * Drops all cached graphs.
+     */
+    public void invalidate() {
+        graphs.clear();
+    }
+
+    private void render(StateMachineGraphFormat format, CompletableFuture<RenderedStateMachineGraph> future) {
+        try {
+            long start = System.nanoTime();
+            byte[] content = visualizer.renderStateMachineGraphContent(format);
+            future.complete(RenderedStateMachineGraph.of(format, content));
+            log.debug("Rendered state machine graph in {} format in {} ms", format,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Throwable e) {
+            // let subsequent calls retry; never leave the future incomplete - they'd wait for it forever
+            graphs.remove(format, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Once the application is ready, renders state machine graphs of all {@link StateMachineGraphVisualizer} beans having
+ * {@link StateMachineGraphVisualizer#getStateMachineGraphCache() caches}, in a background thread, so the first
+ * request to the graph endpoint is served from memory (and doesn't wait for the GraphViz engine to initialize, if
+ * it's used).
+ */
+@Slf4j
+public class StateMachineGraphPrerenderer implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final ListableBeanFactory beanFactory;
+    private final List<StateMachineGraphFormat> formats;
+    private final Executor executor = runnable -> Thread.ofPlatform()
+            .name("statemachine-graph-prerender")
+            .daemon()
+            .start(runnable);
+
+    /**
+     * Constructor.
+     *
+     * @param beanFactory bean factory to look up visualizers in
+     * @param formats     formats to render
+     */
+    public StateMachineGraphPrerenderer(ListableBeanFactory beanFactory, List<StateMachineGraphFormat> formats) {
+        this.beanFactory = checkNotNull(beanFactory, "beanFactory");
+        this.formats = List.copyOf(checkNotNull(formats, "formats"));
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (formats.isEmpty()) {
+            return;
+        }
+
+        beanFactory.getBeanProvider(StateMachineGraphVisualizer.class)
+                .orderedStream()
+                .map(StateMachineGraphVisualizer::getStateMachineGraphCache)
+                .filter(Objects::nonNull)
+                .distinct()
+                .forEach(cache -> {
+                    log.debug("Prerendering state machine graphs in formats {}", formats);
+                    cache.prerender(formats, executor);
+                });
+    }
+
+}
@@ -0,0 +1,683 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineTrafficSnapshot;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.trigger.Trigger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Pure-Java state machine graph renderer: writes DOT text and SVG (with a built-in layered layout) straight from the
+ * transition list, without the GraphViz engine. Meant for the small, flat graphs typical of entity lifecycles; nested
+ * states are drawn as ordinary nodes.
+ * <p>
+ * Layout: back edges are found by depth-first search from the initial state, the remaining edges form a DAG whose
+ * nodes are assigned to layers by longest path, layers are ordered by a few barycenter sweeps to reduce crossings.
+ * Forward edges go down, back edges curve around the right side, self-loops are drawn next to their nodes. Parallel
+ * edges (same source and target) are merged, with their labels stacked.
+ * <p>
+ * SVG markup follows GraphViz conventions where it's cheap to do so: each node and edge is a {@code <g>} group with a
+ * {@code <title>} and preceded by a comment ({@code <!-- NEW -->}, {@code <!-- NEW&#45;&gt;PAID -->}).
+ * <p>
+ * Graphs can be overlaid with traffic recorded by {@link StateMachineTrafficMonitor} (heatmap): edges get thicker and
+ * redder the more they're taken, relative to the busiest edge; edge labels show counts, p50/p99 latencies, and the
+ * share of the event's occurrences denied in the source state. Denials of events having no edge in the state are
+ * listed under the state, which is outlined in red.
+ */
+public final class StateMachineGraphRenderer {
+
+    private static final int FONT_SIZE = 14;
+    private static final int LABEL_FONT_SIZE = 12;
+    /**
+     * Rough average glyph width of the serif font at {@link #FONT_SIZE} - no font metrics are available here.
+     */
+    private static final int CHAR_WIDTH = 8;
+    private static final int LABEL_CHAR_WIDTH = 7;
+    private static final int NODE_HEIGHT = 36;
+    private static final int NODE_MIN_WIDTH = 80;
+    private static final int NODE_PADDING = 40;
+    private static final int NODE_GAP = 50;
+    private static final int LAYER_GAP = 90;
+    private static final int MARGIN = 30;
+    /**
+     * Extra room on the right for back edges and self-loops.
+     */
+    private static final int BACK_EDGE_ROOM = 140;
+    private static final int BARYCENTER_SWEEPS = 4;
+    /**
+     * Heatmap color of the busiest edge and of states having denials.
+     */
+    private static final String HOT_RGB = "E34A33";
+    private static final double MAX_STROKE_WIDTH = 6;
+
+    @Nullable
+    private final String initialState;
+    private final String nodeRgb;
+    private final String linkRgb;
+    /**
+     * Initial state first, then in order of appearance.
+     */
+    private final List<String> nodes;
+    /**
+     * Labels of merged parallel edges, by source and target.
+     */
+    private final Map<String, Map<String, List<String>>> edges = new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param initialState initial state name, if any - laid out at the top
+     * @param transitions  transitions, possibly parallel
+     * @param nodeRgb      node fill color, e.g. {@code D6CADD}
+     * @param linkRgb      edge color, e.g. {@code B6B5D8}
+     */
+    public StateMachineGraphRenderer(@Nullable String initialState, List<Edge> transitions, String nodeRgb,
+            String linkRgb) {
+        checkNotNull(transitions, "transitions");
+        this.initialState = initialState;
+        this.nodeRgb = checkNotNull(nodeRgb, "nodeRgb");
+        this.linkRgb = checkNotNull(linkRgb, "linkRgb");
+
+        Set<String> nodeSet = new LinkedHashSet<>();
+
+        if (initialState != null) {
+            nodeSet.add(initialState);
+        }
+
+        for (Edge edge : transitions) {
+            nodeSet.add(edge.source());
+            nodeSet.add(edge.target());
+            edges.computeIfAbsent(edge.source(), source -> new LinkedHashMap<>())
+                    .computeIfAbsent(edge.target(), target -> new ArrayList<>())
+                    .add(edge.label());
+        }
+
+        nodes = List.copyOf(nodeSet);
+    }
+
+    /**
+     * Creates renderer for the visualizer's state machine (a new one is built to collect transitions) and colors.
+     *
+     * @param visualizer visualizer
+     * @param <S>        state type
+     * @param <E>        event type
+     * @return renderer
+     */
+    public static <S, E> StateMachineGraphRenderer of(StateMachineGraphVisualizer<S, E> visualizer) {
+        StateMachine<S, E> stateMachine = visualizer.getStateMachineFactory().getStateMachine();
+
+        List<Edge> edges = stateMachine.getTransitions()
+                .stream()
+                .map(transition -> {
+                    Trigger<S, E> trigger = transition.getTrigger();
+                    return new Edge(
+                            getStateName(transition.getSource().getId()),
+                            getStateName(transition.getTarget().getId()),
+                            // triggerless transitions (e.g. from choice pseudostates) have no label
+                            (trigger == null) ? "" : getEventName(trigger.getEvent()));
+                })
+                .toList();
+
+        State<S, E> initialState = stateMachine.getInitialState();
+        return new StateMachineGraphRenderer((initialState == null) ? null : getStateName(initialState.getId()),
+                edges, visualizer.getStateMachineGraphNodeRgb(), visualizer.getStateMachineGraphLinkRgb());
+    }
+
+    /**
+     * Returns state name for graphs: enum constant name or {@link Object#toString()}.
+     *
+     * @param state state
+     * @return name
+     */
+    static String getStateName(@Nullable Object state) {
+        return (state instanceof Enum<?> en)
+                ? en.name()
+                : Objects.toString(state, "<null>");
+    }
+
+    /**
+     * Returns event name for graphs: lowercase enum constant name or {@link Object#toString()}.
+     *
+     * @param event event
+     * @return name
+     */
+    static String getEventName(@Nullable Object event) {
+        return (event instanceof Enum<?> en)
+                ? en.name().toLowerCase()
+                : Objects.toString(event, "<null>");
+    }
+
+    /**
+     * Renders graph in the DOT language, with the same attributes as the GraphViz-based renderer.
+     *
+     * @return DOT text
+     */
+    public String renderDot() {
+        return renderDot(null);
+    }
+
+    /**
+     * Renders graph in the DOT language, overlaid with traffic (if any).
+     *
+     * @param traffic traffic to show, {@code null} for a plain graph
+     * @return DOT text
+     */
+    public String renderDot(@Nullable StateMachineTrafficSnapshot traffic) {
+        Map<String, Map<String, EdgeStyle>> edgeStyles = getEdgeStyles(traffic);
+        Map<String, String> nodeDenials = getNodeDenials(traffic);
+        var dot = new StringBuilder(256)
+                .append("digraph {\n")
+                .append("  graph [overlap=\"false\"]\n")
+                .append("  node [shape=\"ellipse\", style=\"filled\", fillcolor=\"#").append(nodeRgb)
+                .append("\", margin=\"0.7,0.0\"]\n")
+                .append("  edge [color=\"#").append(linkRgb).append("\"]\n");
+
+        for (String node : nodes) {
+            dot.append("  ").append(quoteDot(node));
+            String denials = nodeDenials.get(node);
+
+            if (denials != null) {
+                dot.append(" [color=\"#").append(HOT_RGB).append("\", penwidth=\"2\", xlabel=")
+                        .append(quoteDot(denials)).append(']');
+            }
+
+            dot.append('\n');
+        }
+
+        edgeStyles.forEach((source, targets) -> targets.forEach((target, style) -> style.labels().forEach(label -> {
+            dot.append("  ").append(quoteDot(source))
+                    .append(" -> ").append(quoteDot(target))
+                    .append(" [label=").append(quoteDot(label));
+
+            if (traffic != null) {
+                dot.append(", color=\"#").append(style.rgb())
+                        .append("\", penwidth=\"").append(formatStrokeWidth(style.strokeWidth())).append('"');
+            }
+
+            dot.append("]\n");
+        })));
+
+        return dot.append("}\n").toString();
+    }
+
+    /**
+     * Renders graph in SVG.
+     *
+     * @param standalone whether to prepend XML declaration (for saving to files)
+     * @return SVG markup
+     */
+    public String renderSvg(boolean standalone) {
+        return renderSvg(standalone, null);
+    }
+
+    /**
+     * Renders graph in SVG, overlaid with traffic (if any).
+     *
+     * @param standalone whether to prepend XML declaration (for saving to files)
+     * @param traffic    traffic to show, {@code null} for a plain graph
+     * @return SVG markup
+     */
+    public String renderSvg(boolean standalone, @Nullable StateMachineTrafficSnapshot traffic) {
+        Map<String, Map<String, EdgeStyle>> edgeStyles = getEdgeStyles(traffic);
+        Map<String, String> nodeDenials = getNodeDenials(traffic);
+        Layout layout = layout(edgeStyles);
+        var svg = new StringBuilder(1024);
+
+        if (standalone) {
+            svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        }
+
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(layout.width())
+                .append("pt\" height=\"").append(layout.height())
+                .append("pt\" viewBox=\"0 0 ").append(layout.width()).append(' ').append(layout.height())
+                .append("\">\n")
+                .append("<defs><marker id=\"arrow\" viewBox=\"0 0 10 10\" refX=\"10\" refY=\"5\" markerWidth=\"8\"")
+                .append(" markerHeight=\"8\" orient=\"auto-start-reverse\"><path d=\"M0,0 L10,5 L0,10 z\" fill=\"#")
+                .append(linkRgb).append("\"/></marker></defs>\n")
+                .append("<g class=\"graph\" font-family=\"Times,serif\">\n");
+
+        for (String node : nodes) {
+            Box box = layout.boxes().get(node);
+            String denials = nodeDenials.get(node);
+
+            svg.append("<!-- ").append(escapeComment(node)).append(" -->\n")
+                    .append("<g class=\"node\"><title>").append(escapeXml(node)).append("</title>\n")
+                    .append("<ellipse cx=\"").append(box.cx()).append("\" cy=\"").append(box.cy())
+                    .append("\" rx=\"").append(box.rx()).append("\" ry=\"").append(NODE_HEIGHT / 2)
+                    .append("\" fill=\"#").append(nodeRgb).append("\" stroke=\"")
+                    .append((denials == null) ? "black" : ('#' + HOT_RGB)).append("\" stroke-width=\"")
+                    .append((node.equals(initialState) || (denials != null)) ? 2 : 1).append("\"/>\n")
+                    .append("<text text-anchor=\"middle\" x=\"").append(box.cx()).append("\" y=\"")
+                    .append(box.cy() + FONT_SIZE / 3).append("\" font-size=\"").append(FONT_SIZE).append("\">")
+                    .append(escapeXml(node)).append("</text>\n");
+
+            if (denials != null) {
+                svg.append("<text text-anchor=\"middle\" x=\"").append(box.cx()).append("\" y=\"")
+                        .append(box.cy() + NODE_HEIGHT / 2 + LABEL_FONT_SIZE + 2).append("\" font-size=\"")
+                        .append(LABEL_FONT_SIZE).append("\" fill=\"#").append(HOT_RGB).append("\">")
+                        .append(escapeXml(denials)).append("</text>\n");
+            }
+
+            svg.append("</g>\n");
+        }
+
+        edgeStyles.forEach((source, targets) -> targets.forEach((target, style) ->
+                appendSvgEdge(svg, layout, source, target, style)));
+
+        return svg.append("</g>\n</svg>\n").toString();
+    }
+
+    private void appendSvgEdge(StringBuilder svg, Layout layout, String source, String target, EdgeStyle style) {
+        List<String> labels = style.labels();
+        Box from = layout.boxes().get(source);
+        Box to = layout.boxes().get(target);
+        String path;
+        int labelX;
+        int labelY;
+
+        if (source.equals(target)) {
+            int x = from.cx() + from.rx() * 7 / 10;
+            int offset = from.rx() * 3 / 10 + 40;
+            path = "M" + x + "," + (from.cy() - NODE_HEIGHT / 3)
+                    + " C" + (x + offset) + "," + (from.cy() - 30) + " " + (x + offset) + "," + (from.cy() + 30)
+                    + " " + x + "," + (from.cy() + NODE_HEIGHT / 3);
+            labelX = x + offset + 4;
+            labelY = from.cy();
+        } else if (layout.layers().get(target) > layout.layers().get(source)) {
+            // downwards, S-shaped
+            int y1 = from.cy() + NODE_HEIGHT / 2;
+            int y2 = to.cy() - NODE_HEIGHT / 2;
+            int middle = (y1 + y2) / 2;
+            path = "M" + from.cx() + "," + y1 + " C" + from.cx() + "," + middle + " " + to.cx() + "," + middle
+                    + " " + to.cx() + "," + y2;
+            labelX = (from.cx() + to.cx()) / 2 + 6;
+            labelY = middle;
+        } else if (layout.layers().get(target).equals(layout.layers().get(source))) {
+            // same layer: arc above
+            int y = from.cy() - NODE_HEIGHT / 2;
+            int top = y - 40;
+            path = "M" + from.cx() + "," + y + " C" + from.cx() + "," + top + " " + to.cx() + "," + top
+                    + " " + to.cx() + "," + y;
+            labelX = (from.cx() + to.cx()) / 2;
+            labelY = top;
+        } else {
+            // upwards: around the right side
+            int x1 = from.cx() + from.rx();
+            int x2 = to.cx() + to.rx();
+            int offset = 50 + 20 * (layout.layers().get(source) - layout.layers().get(target));
+            int right = Math.max(x1, x2) + offset;
+            path = "M" + x1 + "," + from.cy() + " C" + right + "," + from.cy() + " " + right + "," + to.cy()
+                    + " " + x2 + "," + to.cy();
+            labelX = right - offset / 4 + 4;
+            labelY = (from.cy() + to.cy()) / 2;
+        }
+
+        svg.append("<!-- ").append(escapeComment(source + "->" + target)).append(" -->\n")
+                .append("<g class=\"edge\"><title>").append(escapeXml(source + "->" + target)).append("</title>\n")
+                .append("<path fill=\"none\" stroke=\"#").append(style.rgb()).append("\" stroke-width=\"")
+                .append(formatStrokeWidth(style.strokeWidth())).append("\" d=\"").append(path)
+                .append("\" marker-end=\"url(#arrow)\"/>\n")
+                .append("<text x=\"").append(labelX).append("\" y=\"").append(labelY)
+                .append("\" font-size=\"").append(LABEL_FONT_SIZE).append("\">");
+
+        // one line per merged edge
+        for (int i = 0; i < labels.size(); i++) {
+            svg.append("<tspan x=\"").append(labelX).append("\" dy=\"").append((i == 0) ? 0 : LABEL_FONT_SIZE + 2)
+                    .append("\">").append(escapeXml(labels.get(i))).append("</tspan>");
+        }
+
+        svg.append("</text>\n</g>\n");
+    }
+
+    /**
+     * Returns style of each (merged) edge: plain if there's no traffic, otherwise heat-colored and with traffic in
+     * labels.
+     */
+    private Map<String, Map<String, EdgeStyle>> getEdgeStyles(@Nullable StateMachineTrafficSnapshot traffic) {
+        Map<String, Map<String, EdgeStyle>> styles = new LinkedHashMap<>();
+
+        if (traffic == null) {
+            edges.forEach((source, targets) -> targets.forEach((target, labels) -> styles
+                    .computeIfAbsent(source, key -> new LinkedHashMap<>())
+                    .put(target, new EdgeStyle(labels, linkRgb, 1))));
+            return styles;
+        }
+
+        Map<String, Map<String, Long>> edgeCounts = new HashMap<>();
+        long maxCount = 0;
+
+        for (StateMachineTrafficSnapshot.Transition transition : traffic.transitions()) {
+            long count = edgeCounts.computeIfAbsent(transition.source(), key -> new HashMap<>())
+                    .merge(transition.target(), transition.count(), Long::sum);
+            maxCount = Math.max(maxCount, count);
+        }
+
+        for (Map.Entry<String, Map<String, List<String>>> sourceEntry : edges.entrySet()) {
+            String source = sourceEntry.getKey();
+
+            for (Map.Entry<String, List<String>> targetEntry : sourceEntry.getValue().entrySet()) {
+                String target = targetEntry.getKey();
+                long count = edgeCounts.getOrDefault(source, Map.of()).getOrDefault(target, 0L);
+                double heat = (maxCount == 0) ? 0 : ((double) count / maxCount);
+
+                List<String> labels = targetEntry.getValue()
+                        .stream()
+                        .map(label -> annotateLabel(traffic, source, target, label))
+                        .toList();
+
+                styles.computeIfAbsent(source, key -> new LinkedHashMap<>())
+                        .put(target, new EdgeStyle(labels, mixRgb(linkRgb, HOT_RGB, heat),
+                                1 + heat * (MAX_STROKE_WIDTH - 1)));
+            }
+        }
+
+        return styles;
+    }
+
+    /**
+     * Appends transition count, latencies, and denial rate to the event name, e.g.
+     * {@code pay: 120, p50 3 ms, p99 41 ms, 2.5% denied}.
+     */
+    private static String annotateLabel(StateMachineTrafficSnapshot traffic, String source, String target,
+            String label) {
+        var annotated = new StringBuilder(label);
+
+        if (!label.isEmpty()) {
+            annotated.append(": ");
+        }
+
+        traffic.transitions()
+                .stream()
+                .filter(transition -> transition.source().equals(source) && transition.target().equals(target)
+                        && transition.event().equals(label))
+                .findFirst()
+                .ifPresentOrElse(transition -> annotated
+                                .append(transition.count())
+                                .append(", p50 ").append(transition.p50Millis())
+                                .append(" ms, p99 ").append(transition.p99Millis()).append(" ms"),
+                        () -> annotated.append('0'));
+
+        double denialRate = traffic.getDenialRate(source, label);
+
+        if (denialRate > 0) {
+            annotated.append(String.format(Locale.ROOT, ", %.1f%% denied", denialRate * 100));
+        }
+
+        return annotated.toString();
+    }
+
+    /**
+     * Returns, by state, denials of events having no edge from the state (e.g. {@code denied: pay 3, cancel 1}) - other
+     * denials are shown on edges.
+     */
+    private Map<String, String> getNodeDenials(@Nullable StateMachineTrafficSnapshot traffic) {
+        if (traffic == null) {
+            return Map.of();
+        }
+
+        Map<String, List<String>> deniedEvents = new HashMap<>();
+
+        for (StateMachineTrafficSnapshot.Denial denial : traffic.denials()) {
+            boolean hasEdge = edges.getOrDefault(denial.state(), Map.of())
+                    .values()
+                    .stream()
+                    .anyMatch(labels -> labels.contains(denial.event()));
+
+            if (!hasEdge && nodes.contains(denial.state())) {
+                deniedEvents.computeIfAbsent(denial.state(), key -> new ArrayList<>())
+                        .add(denial.event() + " " + denial.count());
+            }
+        }
+
+        Map<String, String> nodeDenials = new HashMap<>();
+        deniedEvents.forEach((state, events) -> nodeDenials.put(state, "denied: " + String.join(", ", events)));
+        return nodeDenials;
+    }
+
+    /**
+     * Linear interpolation between two RGB hex codes.
+     *
+     * @param ratio 0 for {@code fromRgb}, 1 for {@code toRgb}
+     */
+    private static String mixRgb(String fromRgb, String toRgb, double ratio) {
+        int from = Integer.parseInt(fromRgb, 16);
+        int to = Integer.parseInt(toRgb, 16);
+        int mixed = 0;
+
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int fromComponent = (from >> shift) & 0xFF;
+            int toComponent = (to >> shift) & 0xFF;
+            mixed |= ((int) Math.round(fromComponent + (toComponent - fromComponent) * ratio)) << shift;
+        }
+
+        return String.format(Locale.ROOT, "%06X", mixed);
+    }
+
+    private static String formatStrokeWidth(double strokeWidth) {
+        return String.format(Locale.ROOT, "%.1f", strokeWidth);
+    }
+
+    private Layout layout(Map<String, Map<String, EdgeStyle>> edgeStyles) {
+        Map<String, Integer> layers = assignLayers();
+        int layerCount = layers.values().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+
+        List<List<String>> layerNodes = new ArrayList<>(layerCount);
+
+        for (int i = 0; i < layerCount; i++) {
+            layerNodes.add(new ArrayList<>());
+        }
+
+        nodes.forEach(node -> layerNodes.get(layers.get(node)).add(node));
+        orderLayers(layerNodes);
+
+        Map<String, Integer> widths = new HashMap<>();
+        nodes.forEach(node -> widths.put(node, Math.max(NODE_MIN_WIDTH, node.length() * CHAR_WIDTH + NODE_PADDING)));
+
+        int maxLayerWidth = 0;
+
+        for (List<String> layer : layerNodes) {
+            maxLayerWidth = Math.max(maxLayerWidth, layerWidth(layer, widths));
+        }
+
+        int maxLabelWidth = edgeStyles.values().stream()
+                .flatMap(targets -> targets.values().stream())
+                .flatMap(style -> style.labels().stream())
+                .mapToInt(String::length)
+                .max()
+                .orElse(0) * LABEL_CHAR_WIDTH;
+
+        Map<String, Box> boxes = new HashMap<>();
+
+        for (int i = 0; i < layerCount; i++) {
+            List<String> layer = layerNodes.get(i);
+            int x = MARGIN + (maxLayerWidth - layerWidth(layer, widths)) / 2;
+            int cy = MARGIN + i * (NODE_HEIGHT + LAYER_GAP) + NODE_HEIGHT / 2;
+
+            for (String node : layer) {
+                int width = widths.get(node);
+                boxes.put(node, new Box(x + width / 2, cy, width / 2));
+                x += width + NODE_GAP;
+            }
+        }
+
+        int width = 2 * MARGIN + maxLayerWidth + BACK_EDGE_ROOM + maxLabelWidth;
+        int height = 2 * MARGIN + layerCount * NODE_HEIGHT + (layerCount - 1) * LAYER_GAP;
+        return new Layout(layers, boxes, width, height);
+    }
+
+    /**
+     * Finds back edges by depth-first search (initial state first), then assigns layers by longest path over the
+     * remaining edges.
+     */
+    private Map<String, Integer> assignLayers() {
+        Map<String, Integer> visitState = new HashMap<>();
+        List<String> postOrder = new ArrayList<>(nodes.size());
+        Set<String> backEdges = new LinkedHashSet<>();
+
+        for (String node : nodes) {
+            if (!visitState.containsKey(node)) {
+                visit(node, visitState, postOrder, backEdges);
+            }
+        }
+
+        Map<String, Integer> layers = new HashMap<>();
+        nodes.forEach(node -> layers.put(node, 0));
+
+        // reverse post-order is a topological order of the DAG
+        for (int i = postOrder.size() - 1; i >= 0; i--) {
+            String source = postOrder.get(i);
+            int sourceLayer = layers.get(source);
+
+            for (String target : edges.getOrDefault(source, Map.of()).keySet()) {
+                if (!backEdges.contains(source + '\n' + target)) {
+                    layers.merge(target, sourceLayer + 1, Math::max);
+                }
+            }
+        }
+
+        return layers;
+    }
+
+    /**
+     * Recursive DFS - graphs are small.
+     */
+    private void visit(String node, Map<String, Integer> visitState, List<String> postOrder, Set<String> backEdges) {
+        // 1 = on stack, 2 = done
+        visitState.put(node, 1);
+
+        for (String target : edges.getOrDefault(node, Map.of()).keySet()) {
+            Integer targetState = visitState.get(target);
+
+            if (targetState == null) {
+                visit(target, visitState, postOrder, backEdges);
+            } else if (targetState == 1) {
+                // includes self-loops
+                backEdges.add(node + '\n' + target);
+            }
+        }
+
+        visitState.put(node, 2);
+        postOrder.add(node);
+    }
+
+    /**
+     * Reorders nodes in each layer by the average position of their neighbors in the adjacent layer, sweeping down and
+     * up alternately.
+     */
+    private void orderLayers(List<List<String>> layerNodes) {
+        Map<String, List<String>> predecessors = new HashMap<>();
+        edges.forEach((source, targets) -> targets.keySet().forEach(target ->
+                predecessors.computeIfAbsent(target, key -> new ArrayList<>()).add(source)));
+
+        for (int sweep = 0; sweep < BARYCENTER_SWEEPS; sweep++) {
+            boolean down = (sweep % 2 == 0);
+
+            for (int j = 1; j < layerNodes.size(); j++) {
+                int i = down ? j : (layerNodes.size() - 1 - j);
+                List<String> adjacent = layerNodes.get(down ? (i - 1) : (i + 1));
+                Map<String, Double> positions = new HashMap<>();
+
+                for (int k = 0; k < adjacent.size(); k++) {
+                    positions.put(adjacent.get(k), k - (adjacent.size() - 1) / 2.0);
+                }
+
+                List<String> layer = layerNodes.get(i);
+                Map<String, Double> barycenters = new HashMap<>();
+
+                for (int k = 0; k < layer.size(); k++) {
+                    String node = layer.get(k);
+                    List<String> neighbors = down
+                            ? predecessors.getOrDefault(node, List.of())
+                            : List.copyOf(edges.getOrDefault(node, Map.of()).keySet());
+                    double barycenter = neighbors.stream()
+                            .map(positions::get)
+                            .filter(Objects::nonNull)
+                            .mapToDouble(Double::doubleValue)
+                            .average()
+                            // no neighbors in the adjacent layer - stay put
+                            .orElse(k - (layer.size() - 1) / 2.0);
+                    barycenters.put(node, barycenter);
+                }
+
+                // stable sort
+                layer.sort(Comparator.comparingDouble(barycenters::get));
+            }
+        }
+    }
+
+    private static int layerWidth(List<String> layer, Map<String, Integer> widths) {
+        int width = -NODE_GAP;
+
+        for (String node : layer) {
+            width += widths.get(node) + NODE_GAP;
+        }
+
+        return Math.max(width, 0);
+    }
+
+    private static String quoteDot(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+
+    /**
+     * Like GraphViz, escapes hyphens too, because {@code --} is not allowed in XML comments.
+     */
+    private static String escapeComment(String value) {
+        return escapeXml(value).replace("-", "&#45;");
+    }
+
+    /**
+     * Graph edge.
+     *
+     * @param source source state name
+     * @param target target state name
+     * @param label  event name
+     */
+    public record Edge(String source, String target, String label) {
+    }
+
+    /**
+     * Node position.
+     *
+     * @param cx center X
+     * @param cy center Y
+     * @param rx horizontal radius
+     */
+    private record Box(int cx, int cy, int rx) {
+    }
+
+    /**
+     * Edge appearance.
+     *
+     * @param labels      labels of merged parallel edges
+     * @param rgb         color
+     * @param strokeWidth line width
+     */
+    private record EdgeStyle(List<String> labels, String rgb, double strokeWidth) {
+    }
+
+    private record Layout(Map<String, Integer> layers, Map<String, Box> boxes, int width, int height) {
+    }
+
+}
@@ -1,30 +1,27 @@
 package guru.nicks.commons.statemachine;
 
-import guru.nidi.graphviz.attribute.Attributes;
-import guru.nidi.graphviz.attribute.Color;
-import guru.nidi.graphviz.attribute.Label;
-import guru.nidi.graphviz.attribute.Shape;
-import guru.nidi.graphviz.attribute.Style;
-import guru.nidi.graphviz.engine.Format;
-import guru.nidi.graphviz.engine.Graphviz;
-import guru.nidi.graphviz.model.Factory;
-import guru.nidi.graphviz.model.Link;
-import guru.nidi.graphviz.model.Node;
-import org.apache.commons.lang3.tuple.Pair;
-import org.apache.http.entity.ContentType;
-import org.springframework.statemachine.StateMachine;
+import guru.nicks.commons.statemachine.domain.RenderedStateMachineGraph;
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+import guru.nicks.commons.statemachine.domain.StateMachineTrafficSnapshot;
+
+import jakarta.annotation.Nullable;
 import org.springframework.statemachine.config.StateMachineFactory;
-import org.springframework.statemachine.transition.Transition;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Renders state machine graph in various {@link Format formats} supported by GraphViz.
+ * Renders state machine graph. DOT and SVG are rendered by the pure-Java {@link StateMachineGraphRenderer}; PNG (as
+ * well as SVG if {@link #isStateMachineGraphRenderedByGraphviz()} is overridden) requires the GraphViz engine, i.e. the
+ * optional {@code guru.nidi:graphviz-java} dependency.
+ * <p>
+ * This interface has no GraphViz types in its signatures, so it can be implemented without GraphViz on the classpath
+ * (all GraphViz-related code lives in a separate class loaded on demand). Rendering in other GraphViz formats and
+ * customizing GraphViz nodes and links is offered by {@link GraphvizStateMachineGraphVisualizer}. Graphs served
+ * repeatedly should be obtained with {@link #getStateMachineGraph(StateMachineGraphFormat)} backed by
+ * {@link #getStateMachineGraphCache()}.
+ * <p>
+ * Graphs overlaid with live traffic recorded by {@link StateMachineTrafficMonitor} are rendered with
+ * {@link #renderStateMachineHeatmapContent(StateMachineTrafficSnapshot, StateMachineGraphFormat)}.
  *
  * @param <S> state type
  * @param <E> event type
@@ -32,117 +29,125 @@ import java.util.stream.Collectors;
 public interface StateMachineGraphVisualizer<S, E> {
 
     /**
-     * Returns state machine factory. Needed for {@link #renderStateMachineGraph(Format)}.
+     * Returns state machine factory. Needed for rendering.
      *
      * @return state machine factory
      */
     StateMachineFactory<S, E> getStateMachineFactory();
 
     /**
-     * Returns content type for the specified state machine graph format.
+     * Returns cache for {@link #getStateMachineGraph(StateMachineGraphFormat)}.
+     *
+     * @return cache (default is {@code null}, i.e. graphs are rendered on each call)
+     */
+    @Nullable
+    default StateMachineGraphCache getStateMachineGraphCache() {
+        return null;
+    }
+
+    /**
+     * Returns state machine graph from {@link #getStateMachineGraphCache()}, if any, otherwise renders it with
+     * {@link #renderStateMachineGraphContent(StateMachineGraphFormat)}.
      *
      * @param format output format for graph visualization
-     * @return content type
-     * @see #renderStateMachineGraph(Format)
+     * @return graph with its content type and ETag
      */
-    static ContentType getStateMachineGraphContentType(Format format) {
-        return switch (format) {
-            case PNG -> ContentType.IMAGE_PNG;
-            case SVG, SVG_STANDALONE -> ContentType.IMAGE_SVG;
-            // JSON, DOT, etc.
-            default -> ContentType.TEXT_PLAIN;
-        };
+    default RenderedStateMachineGraph getStateMachineGraph(StateMachineGraphFormat format) {
+        StateMachineGraphCache cache = getStateMachineGraphCache();
+
+        return (cache != null)
+                ? cache.get(format)
+                : RenderedStateMachineGraph.of(format, renderStateMachineGraphContent(format));
+    }
+
+    /**
+     * Whether SVG should be rendered by the GraphViz engine (better layout of large graphs, at the cost of engine
+     * startup time and memory) instead of {@link StateMachineGraphRenderer}.
+     *
+     * @return default is {@code false}
+     */
+    default boolean isStateMachineGraphRenderedByGraphviz() {
+        return false;
+    }
+
+    /**
+     * Returns node fill color for the state machine graph.
+     *
+     * @return RGB hex code (default is {@code D6CADD})
+     */
+    default String getStateMachineGraphNodeRgb() {
+        return "D6CADD";
     }
 
     /**
      * Returns link color for the state machine graph.
      *
-     * @return link color (default is {@code #B6B5D8})
+     * @return RGB hex code (default is {@code B6B5D8})
      */
-    default Color getStateMachineGraphLinkColor() {
-        return Color.rgb("B6B5D8");
+    default String getStateMachineGraphLinkRgb() {
+        return "B6B5D8";
     }
 
     /**
-     * Renders state machine graph in the specified format using GraphViz.
+     * Renders state machine graph. Not cached - see {@link #getStateMachineGraph(StateMachineGraphFormat)}.
      *
-     * @param format output format for graph visualization
-     * @return content type and content data: text for SVG, binary for PNG, etc.
-     * @see #getStateMachineGraphContentType(Format)
+     * @param format output format
+     * @return content data: text for DOT and SVG, binary for PNG
+     * @throws IllegalStateException format requires the GraphViz engine, which is not on the classpath
      */
-    default Pair<ContentType, byte[]> renderStateMachineGraph(Format format) {
-        // build new empty state machine in order to collect its state transitions
-        StateMachine<S, E> stateMachine = getStateMachineFactory().getStateMachine();
-
-        // collect outbound transitions for each state
-        Map<S, List<Transition<S, E>>> transitionsGroupedBySourceState = stateMachine.getTransitions()
-                .stream()
-                .collect(Collectors.groupingBy(transition -> transition.getSource().getId()));
-
-        var graph = Factory.mutGraph().setDirected(true);
-
-        transitionsGroupedBySourceState.forEach((sourceState, transitions) -> {
-            Node sourceNode = createStateMachineGraphNode(sourceState);
-
-            transitions.stream()
-                    .map(transition -> {
-                        S targetState = transition.getTarget().getId();
-                        Node targetNode = createStateMachineGraphNode(targetState);
-
-                        E event = transition.getTrigger().getEvent();
-                        Label label = Label.of(getStateMachineGraphEventName(event));
-
-                        return sourceNode.link(
-                                Link.to(targetNode).with(label, getStateMachineGraphLinkColor()));
-                    }).forEach(graph::add);
-        });
-
-        // prevent node overlaps; see https://graphviz.org/docs/attrs/overlap/
-        graph.graphAttrs().add("overlap", "false");
-        Graphviz graphviz = Graphviz.fromGraph(graph);
-        ContentType contentType = StateMachineGraphVisualizer.getStateMachineGraphContentType(format);
-
-        try (var buffer = new ByteArrayOutputStream()) {
-            graphviz.render(format).toOutputStream(buffer);
-            return Pair.of(contentType, buffer.toByteArray());
-        } catch (IOException e) {
-            throw new RuntimeException("Error rendering graph: " + e.getMessage(), e);
-        }
+    default byte[] renderStateMachineGraphContent(StateMachineGraphFormat format) {
+        return switch (format) {
+            case DOT -> StateMachineGraphRenderer.of(this).renderDot().getBytes(StandardCharsets.UTF_8);
+            case SVG -> isStateMachineGraphRenderedByGraphviz()
+                    ? renderContentWithGraphviz(this, format)
+                    : StateMachineGraphRenderer.of(this).renderSvg(false).getBytes(StandardCharsets.UTF_8);
+            case PNG -> renderContentWithGraphviz(this, format);
+        };
     }
 
     /**
-     * Creates a graph node for the specified state and the following customized attributes:
-     * <ul>
-     *     <li>shape: {@link Shape#ELLIPSE}</li>
-     *     <li>style: {@link Style#FILLED}</li>
-     *     <li>fill color: {@code #D6CADD}</li>
-     *     <li>margin: {@code 0.7,0.0} (horizontal gap between nodes makes link labels further from each other -
-     *         needed to avoid label overlap</li>
-     * </ul>
+     * Renders state machine graph overlaid with traffic (heatmap) - see {@link StateMachineGraphRenderer} for what's
+     * shown. Not cached, because traffic changes all the time. PNG is rendered by the GraphViz engine from the DOT
+     * text, so it looks the same as DOT rendered elsewhere.
      *
-     * @param state state
-     * @return graph node
+     * @param traffic traffic, usually {@link StateMachineTrafficMonitor#getSnapshot()}
+     * @param format  output format
+     * @return content data: text for DOT and SVG, binary for PNG
+     * @throws IllegalStateException format requires the GraphViz engine, which is not on the classpath
      */
-    default Node createStateMachineGraphNode(S state) {
-        return Factory
-                .node(getStateMachineGraphStateName(state))
-                .with(Shape.ELLIPSE,
-                        Style.FILLED,
-                        Color.rgb("D6CADD").fill(),
-                        Attributes.attr("margin", "0.7,0.0"));
+    default byte[] renderStateMachineHeatmapContent(StateMachineTrafficSnapshot traffic,
+            StateMachineGraphFormat format) {
+        StateMachineGraphRenderer renderer = StateMachineGraphRenderer.of(this);
+
+        return switch (format) {
+            case DOT -> renderer.renderDot(traffic).getBytes(StandardCharsets.UTF_8);
+            case SVG -> renderer.renderSvg(false, traffic).getBytes(StandardCharsets.UTF_8);
+            case PNG -> {
+                checkGraphvizPresent();
+                yield GraphvizStateMachineGraphRenderer.renderDot(renderer.renderDot(traffic), format);
+            }
+        };
     }
 
-    private String getStateMachineGraphStateName(S state) {
-        return state instanceof Enum<?> en
-                ? en.name()
-                : Objects.toString(state, "<null>");
+    private static byte[] renderContentWithGraphviz(StateMachineGraphVisualizer<?, ?> visualizer,
+            StateMachineGraphFormat format) {
+        checkGraphvizPresent();
+        return GraphvizStateMachineGraphRenderer.renderContent(visualizer, format);
     }
 
-    private String getStateMachineGraphEventName(E event) {
-        // lowercase enum member name
-        return event instanceof Enum<?> en
-                ? en.name().toLowerCase()
-                : Objects.toString(event, "<null>");
+    /**
+     * Fails fast if the GraphViz engine is absent. Otherwise {@link GraphvizStateMachineGraphRenderer} would throw
+     * {@link NoClassDefFoundError}, which callers catching exceptions don't expect.
+     *
+     * @throws IllegalStateException {@code guru.nidi:graphviz-java} is not on the classpath
+     */
+    private static void checkGraphvizPresent() {
+        try {
+            Class.forName("guru.nidi.graphviz.engine.Graphviz", false,
+                    StateMachineGraphVisualizer.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IllegalStateException("GraphViz engine ('guru.nidi:graphviz-java') is not on the classpath", e);
+        }
     }
 
 }
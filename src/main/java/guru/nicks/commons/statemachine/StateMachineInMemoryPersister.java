@@ -1,5 +1,7 @@
 package guru.nicks.commons.statemachine;
 
+import guru.nicks.commons.statemachine.persist.BoundedInMemoryStateMachineRuntimePersister;
+
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachinePersist;
 
@@ -8,6 +10,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Interceptor performing in-memory state machine context persistence. To be used for testing purposes only.
+ *
+ * @see BoundedInMemoryStateMachineRuntimePersister
  */
 public class StateMachineInMemoryPersister<S, E> implements StateMachinePersist<S, E, Object> {
 
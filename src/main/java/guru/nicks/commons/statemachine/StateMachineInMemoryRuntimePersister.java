@@ -1,5 +1,7 @@
 package guru.nicks.commons.statemachine;
 
+import guru.nicks.commons.statemachine.persist.BoundedInMemoryStateMachineRuntimePersister;
+
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.StateMachinePersist;
 import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
@@ -8,6 +10,8 @@ import org.springframework.statemachine.support.StateMachineInterceptor;
 
 /**
  * Interceptor performing in-memory state machine context persistence. To be used for testing purposes only.
+ *
+ * @see BoundedInMemoryStateMachineRuntimePersister
  */
 public class StateMachineInMemoryRuntimePersister<S, E, T>
         extends AbstractPersistingStateMachineInterceptor<S, E, T>
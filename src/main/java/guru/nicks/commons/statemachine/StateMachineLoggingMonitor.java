@@ -2,6 +2,7 @@ package guru.nicks.commons.statemachine;
 
 import guru.nicks.commons.utils.text.TimeUtils;
 
+import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateContext;
 import org.springframework.statemachine.StateMachine;
@@ -11,35 +12,50 @@ import org.springframework.statemachine.transition.Transition;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
-import java.util.Optional;
 import java.util.function.Function;
 
 /**
- * Logs how long it took to perform state transitions and actions.
+ * Logs how long it took to perform state transitions and actions. Does nothing (not even formatting) if DEBUG level is
+ * disabled.
+ *
+ * @see StateMachineMetricsMonitor
  */
 @Slf4j
 public class StateMachineLoggingMonitor<S, E> extends AbstractStateMachineMonitor<S, E> {
 
     @Override
     public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
-        // null during initialization
-        S from = Optional.ofNullable(transition.getSource())
-                .map(State::getId)
-                .orElse(null);
+        if (!log.isDebugEnabled()) {
+            return;
+        }
 
-        S to = Optional.ofNullable(transition.getTarget())
-                .map(State::getId)
-                .orElse(null);
-
-        log.debug("[{}] Transition from {} to {} took {}", stateMachine.getId(), from, to,
+        log.debug("[{}] Transition from {} to {} took {}", stateMachine.getId(),
+                getStateId(transition.getSource()), getStateId(transition.getTarget()),
                 TimeUtils.humanFormatDuration(Duration.ofMillis(duration)));
     }
 
     @Override
     public void action(StateMachine<S, E> stateMachine,
             Function<StateContext<S, E>, Mono<Void>> action, long duration) {
+        if (!log.isDebugEnabled()) {
+            return;
+        }
+
         log.debug("[{}] Last action took {}", stateMachine.getId(),
                 TimeUtils.humanFormatDuration(Duration.ofMillis(duration)));
     }
 
+    /**
+     * Returns state ID.
+     *
+     * @param state state; {@code null} during initialization
+     * @return state ID
+     */
+    @Nullable
+    private S getStateId(@Nullable State<S, E> state) {
+        return (state == null)
+                ? null
+                : state.getId();
+    }
+
 }
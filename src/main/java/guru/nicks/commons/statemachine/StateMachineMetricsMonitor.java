@@ -0,0 +1,202 @@
+package guru.nicks.commons.statemachine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.action.Action;
+import org.springframework.statemachine.monitor.AbstractStateMachineMonitor;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.Trigger;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Records Micrometer timers (with percentile histograms, so p99 latency can be alerted on per edge of the state
+ * graph):
+ * <ul>
+ *     <li>{@value #TRANSITION_TIMER} - tagged by machine type, source state, target state, and event</li>
+ *     <li>{@value #ACTION_TIMER} - tagged by machine type, state the machine was in, and (optionally) action name</li>
+ * </ul>
+ * Timers are created once per tag combination and then looked up by a cheap key, so recording doesn't allocate tags.
+ * <p>
+ * The monitor receives actions as reactive functions. Spring State Machine wraps each {@link Action} into such a
+ * function (a lambda in {@code Actions}), so their classes tell nothing about the actions, and the action tag is
+ * omitted by default. If actions are registered as reactive functions (e.g. with {@code actionFunction(...)}), pass
+ * {@link #byFunctionClassName()} or a custom naming function to tag action timers by action.
+ * <p>
+ * Machine type is either given explicitly or derived from the state class (e.g. {@code OrderState}).
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @see StateMachineLoggingMonitor
+ */
+public class StateMachineMetricsMonitor<S, E> extends AbstractStateMachineMonitor<S, E> {
+
+    public static final String TRANSITION_TIMER = "statemachine.transition";
+    public static final String ACTION_TIMER = "statemachine.action";
+
+    /**
+     * Tag value for missing source state / event (initial transition).
+     */
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+    @Nullable
+    private final String machineType;
+
+    private final Map<TransitionKey<S, E>, Timer> transitionTimers = new ConcurrentHashMap<>();
+    private final Map<ActionKey<S>, Timer> actionTimers = new ConcurrentHashMap<>();
+    @Nullable
+    private final Function<Function<StateContext<S, E>, Mono<Void>>, String> actionNamer;
+
+    /**
+     * Constructor. Machine type is derived from the state class.
+     *
+     * @param meterRegistry meter registry
+     */
+    public StateMachineMetricsMonitor(MeterRegistry meterRegistry) {
+        this(meterRegistry, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param meterRegistry meter registry
+     * @param machineType   value of the {@code machine} tag; if {@code null}, derived from the state class
+     */
+    public StateMachineMetricsMonitor(MeterRegistry meterRegistry, @Nullable String machineType) {
+        this(meterRegistry, machineType, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param meterRegistry meter registry
+     * @param machineType   value of the {@code machine} tag; if {@code null}, derived from the state class
+     * @param actionNamer   returns value of the {@code action} tag (must be of low cardinality); if {@code null}, the
+     *                      tag is omitted
+     */
+    public StateMachineMetricsMonitor(MeterRegistry meterRegistry, @Nullable String machineType,
+            @Nullable Function<Function<StateContext<S, E>, Mono<Void>>, String> actionNamer) {
+        this.meterRegistry = meterRegistry;
+        this.machineType = machineType;
+        this.actionNamer = actionNamer;
+    }
+
+    /**
+     * Returns action naming function which uses the simple class name of the action function, without lambda suffix
+     * ({@code Foo$$Lambda/0x...} becomes {@code Foo}). Useless for {@link Action}s - they're all wrapped into the same
+     * lambda class.
+     *
+     * @param <S> state type
+     * @param <E> event type
+     * @return naming function
+     */
+    public static <S, E> Function<Function<StateContext<S, E>, Mono<Void>>, String> byFunctionClassName() {
+        return action -> {
+            String name = action.getClass().getSimpleName();
+            int lambdaPos = name.indexOf("$$Lambda");
+
+            return (lambdaPos > 0)
+                    ? name.substring(0, lambdaPos)
+                    : name;
+        };
+    }
+
+    @Override
+    public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
+        // null during initialization
+        S source = getStateId(transition.getSource());
+        S target = getStateId(transition.getTarget());
+        Trigger<S, E> trigger = transition.getTrigger();
+        E event = (trigger == null)
+                ? null
+                : trigger.getEvent();
+
+        transitionTimers
+                .computeIfAbsent(new TransitionKey<>(source, target, event), key -> Timer.builder(TRANSITION_TIMER)
+                        .description("State machine transition duration")
+                        .tags(Tags.of(
+                                "machine", getMachineType(source, target),
+                                "source", toTagValue(source),
+                                "target", toTagValue(target),
+                                "event", toTagValue(event)))
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void action(StateMachine<S, E> stateMachine, Function<StateContext<S, E>, Mono<Void>> action,
+            long duration) {
+        S state = getStateId(stateMachine.getState());
+        String actionName = (actionNamer == null)
+                ? null
+                : actionNamer.apply(action);
+
+        actionTimers
+                .computeIfAbsent(new ActionKey<>(state, actionName), key -> {
+                    Tags tags = Tags.of(
+                            "machine", getMachineType(state, null),
+                            "state", toTagValue(state));
+
+                    return Timer.builder(ACTION_TIMER)
+                            .description("State machine action duration")
+                            .tags((actionName == null) ? tags : tags.and("action", actionName))
+                            .publishPercentileHistogram()
+                            .register(meterRegistry);
+                })
+                .record(duration, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    private S getStateId(@Nullable State<S, E> state) {
+        return (state == null)
+                ? null
+                : state.getId();
+    }
+
+    private String getMachineType(@Nullable S state1, @Nullable S state2) {
+        if (machineType != null) {
+            return machineType;
+        }
+
+        S state = (state1 != null)
+                ? state1
+                : state2;
+
+        if (state == null) {
+            return NONE;
+        }
+
+        return (state instanceof Enum<?> en)
+                ? en.getDeclaringClass().getSimpleName()
+                : state.getClass().getSimpleName();
+    }
+
+    private String toTagValue(@Nullable Object value) {
+        if (value == null) {
+            return NONE;
+        }
+
+        return (value instanceof Enum<?> en)
+                ? en.name()
+                : Objects.toString(value);
+    }
+
+    private record TransitionKey<S, E>(@Nullable S source, @Nullable S target, @Nullable E event) {
+    }
+
+    private record ActionKey<S>(@Nullable S state, @Nullable String actionName) {
+    }
+
+}
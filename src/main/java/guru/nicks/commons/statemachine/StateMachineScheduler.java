@@ -0,0 +1,199 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineExecutionStrategy;
+
+import lombok.Getter;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotBlank;
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Reactor {@link Scheduler} for state machine event processing, chosen by {@link StateMachineExecutionStrategy}, and
+ * its saturation counters. Spring State Machine processes events on the subscribing thread, calling transition-bound
+ * actions and listeners synchronously - so a blocking action sent from an event loop stalls all machines served by
+ * that loop. {@link ReactiveStateMachineAware} offloads events with {@link #schedule(Mono)} to avoid this.
+ * <p>
+ * Counters (zero for {@link StateMachineExecutionStrategy#CALLER_RUNS}) can be exported with
+ * {@link StateMachineSchedulerMeterBinder}.
+ */
+public class StateMachineScheduler implements AutoCloseable {
+
+    @Getter
+    private final StateMachineExecutionStrategy strategy;
+    @Getter
+    private final Scheduler scheduler;
+    /**
+     * Max number of tasks run concurrently, 0 if unbounded.
+     */
+    @Getter
+    private final int threadCap;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param strategy  strategy {@code scheduler} implements (for reporting)
+     * @param scheduler scheduler, disposed by {@link #close()}
+     * @param threadCap max number of tasks run concurrently, 0 if unbounded
+     */
+    public StateMachineScheduler(StateMachineExecutionStrategy strategy, Scheduler scheduler, int threadCap) {
+        this.strategy = checkNotNull(strategy, "strategy");
+        this.scheduler = checkNotNull(scheduler, "scheduler");
+
+        if (threadCap < 0) {
+            throw new IllegalArgumentException("Thread cap must not be negative");
+        }
+
+        this.threadCap = threadCap;
+    }
+
+    /**
+     * Creates scheduler for the given strategy.
+     *
+     * @param strategy      strategy
+     * @param threadCap     for {@link StateMachineExecutionStrategy#BOUNDED_ELASTIC}: max number of threads
+     * @param queuedTaskCap for {@link StateMachineExecutionStrategy#BOUNDED_ELASTIC}: max number of tasks waiting for
+     *                      a thread
+     * @param name          thread name prefix
+     * @return scheduler
+     */
+    public static StateMachineScheduler create(StateMachineExecutionStrategy strategy, int threadCap,
+            int queuedTaskCap, String name) {
+        checkNotNull(strategy, "strategy");
+        checkNotBlank(name, "name");
+
+        return switch (strategy) {
+            case VIRTUAL_THREADS -> new StateMachineScheduler(strategy,
+                    Schedulers.fromExecutorService(Executors.newThreadPerTaskExecutor(
+                            Thread.ofVirtual().name(name + "-", 0).factory()), name),
+                    0);
+            case BOUNDED_ELASTIC -> new StateMachineScheduler(strategy,
+                    Schedulers.newBoundedElastic(threadCap, queuedTaskCap, name, 60, true),
+                    threadCap);
+            case CALLER_RUNS -> new StateMachineScheduler(strategy, Schedulers.immediate(), 0);
+        };
+    }
+
+    /**
+     * Subscribes to the given {@link Mono} on {@link #getScheduler()}, counting the time it waits for a thread.
+     * Subscription fails with {@link RejectedExecutionException} if the scheduler is saturated.
+     *
+     * @param mono what to run
+     * @param <T>  result type
+     * @return {@link Mono} running on the scheduler (or {@code mono} itself for
+     *         {@link StateMachineExecutionStrategy#CALLER_RUNS})
+     */
+    public <T> Mono<T> schedule(Mono<T> mono) {
+        checkNotNull(mono, "mono");
+
+        if (strategy == StateMachineExecutionStrategy.CALLER_RUNS) {
+            return mono;
+        }
+
+        return Mono.defer(() -> {
+            long submittedAt = System.nanoTime();
+            // whoever flips it first (task start or early cancellation/rejection) takes the task off the queue
+            var dequeued = new AtomicBoolean();
+            queued.increment();
+
+            return Mono
+                    .defer(() -> {
+                        if (!dequeued.compareAndSet(false, true)) {
+                            return Mono.<T>empty();
+                        }
+
+                        queued.decrement();
+                        active.increment();
+                        started.increment();
+                        waitNanos.add(System.nanoTime() - submittedAt);
+
+                        return mono.doFinally(signal -> {
+                            active.decrement();
+                            completed.increment();
+                        });
+                    })
+                    .subscribeOn(scheduler)
+                    .doOnError(RejectedExecutionException.class, e -> rejected.increment())
+                    .doFinally(signal -> {
+                        if (dequeued.compareAndSet(false, true)) {
+                            queued.decrement();
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     *
+     * @return queue size
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /**
+     * Returns the number of tasks running.
+     *
+     * @return active task count
+     */
+    public long getActiveCount() {
+        return active.sum();
+    }
+
+    /**
+     * Returns the share of {@link #getThreadCap()} in use.
+     *
+     * @return saturation (0..1), 0 if the number of threads is unbounded
+     */
+    public double getSaturation() {
+        return (threadCap == 0)
+                ? 0
+                : Math.min(1, (double) active.sum() / threadCap);
+    }
+
+    public long getStartedCount() {
+        return started.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the total time started tasks have waited for a thread.
+     *
+     * @return wait time in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * Disposes the scheduler (unless it's the shared immediate one).
+     */
+    @Override
+    public void close() {
+        if (strategy != StateMachineExecutionStrategy.CALLER_RUNS) {
+            scheduler.dispose();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package guru.nicks.commons.statemachine;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports {@link StateMachineScheduler} saturation, tagged by {@code scheduler} name and {@code strategy}:
+ * <ul>
+ *     <li>{@value #ACTIVE_GAUGE} - events being processed</li>
+ *     <li>{@value #QUEUED_GAUGE} - events waiting for a thread</li>
+ *     <li>{@value #SATURATION_GAUGE} - share of the thread cap in use (0 if unbounded)</li>
+ *     <li>{@value #WAIT_TIMER} - time events have waited for a thread</li>
+ *     <li>{@value #COMPLETED_COUNTER} - events processed</li>
+ *     <li>{@value #REJECTED_COUNTER} - events rejected because the queue was full</li>
+ * </ul>
+ * Register as a bean (Spring Boot binds all {@link MeterBinder} beans) or call {@link #bindTo(MeterRegistry)}.
+ */
+@RequiredArgsConstructor
+public class StateMachineSchedulerMeterBinder implements MeterBinder {
+
+    public static final String ACTIVE_GAUGE = "statemachine.scheduler.active";
+    public static final String QUEUED_GAUGE = "statemachine.scheduler.queued";
+    public static final String SATURATION_GAUGE = "statemachine.scheduler.saturation";
+    public static final String WAIT_TIMER = "statemachine.scheduler.wait";
+    public static final String COMPLETED_COUNTER = "statemachine.scheduler.completed";
+    public static final String REJECTED_COUNTER = "statemachine.scheduler.rejected";
+
+    private final StateMachineScheduler scheduler;
+    private final String schedulerName;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of(
+                "scheduler", schedulerName,
+                "strategy", scheduler.getStrategy().name());
+
+        Gauge.builder(ACTIVE_GAUGE, scheduler, StateMachineScheduler::getActiveCount)
+                .tags(tags)
+                .description("State machine events being processed")
+                .register(registry);
+        Gauge.builder(QUEUED_GAUGE, scheduler, StateMachineScheduler::getQueuedCount)
+                .tags(tags)
+                .description("State machine events waiting for a thread")
+                .register(registry);
+        Gauge.builder(SATURATION_GAUGE, scheduler, StateMachineScheduler::getSaturation)
+                .tags(tags)
+                .description("Share of state machine scheduler threads in use")
+                .register(registry);
+        FunctionTimer.builder(WAIT_TIMER, scheduler, StateMachineScheduler::getStartedCount,
+                        StateMachineScheduler::getTotalWaitNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("Time state machine events have waited for a thread")
+                .register(registry);
+        FunctionCounter.builder(COMPLETED_COUNTER, scheduler, StateMachineScheduler::getCompletedCount)
+                .tags(tags)
+                .description("State machine events processed")
+                .register(registry);
+        FunctionCounter.builder(REJECTED_COUNTER, scheduler, StateMachineScheduler::getRejectedCount)
+                .tags(tags)
+                .description("State machine events rejected by saturated scheduler")
+                .register(registry);
+    }
+
+}
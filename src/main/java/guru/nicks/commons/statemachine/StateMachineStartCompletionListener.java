@@ -1,9 +1,14 @@
 package guru.nicks.commons.statemachine;
 
+import guru.nicks.commons.statemachine.jfr.StateMachineStartEvent;
+
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.listener.StateMachineListenerAdapter;
+import org.springframework.statemachine.support.LifecycleObjectSupport;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import java.util.concurrent.CountDownLatch;
 
@@ -13,6 +18,7 @@ import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
  * Lets wait until state machine's asynchronous start completes, i.e. machine state becomes non-null.
  *
  * @see #waitForStateMachineStart(StateMachine)
+ * @see #startStateMachineReactively(StateMachine)
  */
 @Slf4j
 public class StateMachineStartCompletionListener<S, E> extends StateMachineListenerAdapter<S, E> {
@@ -20,14 +26,24 @@ public class StateMachineStartCompletionListener<S, E> extends StateMachineListe
     @Getter
     private final CountDownLatch startLock = new CountDownLatch(1);
 
+    private final Sinks.Empty<Void> startSink = Sinks.empty();
+
     /**
      * Lets state machine start up and initialize its state. This process is asynchronous from the state machine
-     * perspective, and this method makes is synchronous.
+     * perspective, and this method makes is synchronous. Machines which are already running (for example, returned by
+     * {@link CachingStateMachineService}) are returned as is - they would never notify of their start again.
      *
      * @throws NullPointerException current state machine state is {@code null}, which means the listener was not
      *                              installed or worked as expected
      */
     public static <S, E> void waitForStateMachineStart(StateMachine<S, E> stateMachine) {
+        if (isStateMachineRunning(stateMachine)) {
+            return;
+        }
+
+        var jfrEvent = new StateMachineStartEvent();
+        jfrEvent.begin();
+
         var listener = new StateMachineStartCompletionListener<S, E>();
         stateMachine.addStateListener(listener);
         stateMachine.startReactively().block();
@@ -40,12 +56,62 @@ public class StateMachineStartCompletionListener<S, E> extends StateMachineListe
         }
 
         checkNotNull(stateMachine.getState().getId(), "state machine state");
+        commitStartEvent(jfrEvent, stateMachine);
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #waitForStateMachineStart(StateMachine)}: the returned {@link Mono} completes
+     * when the state machine has started (immediately if it's already running).
+     *
+     * @param stateMachine state machine
+     * @return {@link Mono} completing upon state machine start
+     */
+    public static <S, E> Mono<Void> startStateMachineReactively(StateMachine<S, E> stateMachine) {
+        return Mono.defer(() -> {
+            if (isStateMachineRunning(stateMachine)) {
+                return Mono.empty();
+            }
+
+            var jfrEvent = new StateMachineStartEvent();
+            jfrEvent.begin();
+
+            var listener = new StateMachineStartCompletionListener<S, E>();
+            stateMachine.addStateListener(listener);
+
+            return stateMachine.startReactively()
+                    .then(listener.startSink.asMono())
+                    .then(Mono.fromRunnable(() -> {
+                        checkNotNull(stateMachine.getState().getId(), "state machine state");
+                        commitStartEvent(jfrEvent, stateMachine);
+                    }));
+        });
+    }
+
+    /**
+     * Checks if the given state machine has been started and not stopped yet.
+     *
+     * @param stateMachine state machine
+     * @return {@code true} if the machine is running
+     */
+    public static boolean isStateMachineRunning(StateMachine<?, ?> stateMachine) {
+        return (stateMachine instanceof LifecycleObjectSupport lifecycle) && lifecycle.isRunning();
+    }
+
+    private static void commitStartEvent(StateMachineStartEvent jfrEvent, StateMachine<?, ?> stateMachine) {
+        jfrEvent.end();
+
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.setMachineId(stateMachine.getId());
+            jfrEvent.setState(String.valueOf(stateMachine.getState().getId()));
+            jfrEvent.commit();
+        }
     }
 
     @Override
     public void stateMachineStarted(StateMachine<S, E> stateMachine) {
         stateMachine.removeStateListener(this);
         startLock.countDown();
+        startSink.tryEmitEmpty();
     }
 
 }
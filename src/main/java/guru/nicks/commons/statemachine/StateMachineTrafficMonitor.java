@@ -0,0 +1,248 @@
+package guru.nicks.commons.statemachine;
+
+import guru.nicks.commons.statemachine.domain.StateMachineTrafficSnapshot;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.listener.StateMachineListener;
+import org.springframework.statemachine.listener.StateMachineListenerAdapter;
+import org.springframework.statemachine.monitor.AbstractStateMachineMonitor;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.Trigger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records per-transition traffic (count and latency histogram) and per-state denials in memory, for heatmaps rendered
+ * by {@link StateMachineGraphVisualizer}. Unlike {@link StateMachineMetricsMonitor}, needs no metrics backend.
+ * <p>
+ * Recording is lock-free: counters are found in concurrent maps (created once per transition) and updated with atomic
+ * increments. Latencies go to log-linear histograms with 4 sub-buckets per power of two, so percentiles are reported
+ * as bucket upper bounds, at most 25% above the actual value (and never above the max recorded).
+ * <p>
+ * Denials are not reported to monitors, so they're recorded from two other places:
+ * <ul>
+ *     <li>{@link #getListener()} - events denied by state machines</li>
+ *     <li>{@link #recordDenial(Object, Object)} - called by {@link StateMachineAware} for events denied by
+ *         {@link StateMachineTransitionIndex} without reaching state machines (if
+ *         {@link StateMachineAware#getStateMachineTrafficMonitor()} returns this monitor)</li>
+ * </ul>
+ * Plugging in:
+ * <pre>{@code
+ * config.withConfiguration()
+ *         .listener(trafficMonitor.getListener())
+ *         .and()
+ *         .withMonitoring()
+ *         .monitor(trafficMonitor);
+ * }</pre>
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+public class StateMachineTrafficMonitor<S, E> extends AbstractStateMachineMonitor<S, E> {
+
+    private final Map<TransitionKey<S, E>, LatencyHistogram> transitions = new ConcurrentHashMap<>();
+    private final Map<DenialKey<S, E>, LongAdder> denials = new ConcurrentHashMap<>();
+
+    private final StateMachineListener<S, E> listener = new StateMachineListenerAdapter<>() {
+        @Override
+        public void stateContext(StateContext<S, E> stateContext) {
+            if (stateContext.getStage() != StateContext.Stage.EVENT_NOT_ACCEPTED) {
+                return;
+            }
+
+            State<S, E> state = stateContext.getStateMachine().getState();
+            E event = stateContext.getEvent();
+
+            if ((state != null) && (event != null)) {
+                recordDenial(state.getId(), event);
+            }
+        }
+    };
+
+    @Override
+    public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
+        // initial transition has no source - it's not an edge of the graph
+        if (transition.getSource() == null) {
+            return;
+        }
+
+        Trigger<S, E> trigger = transition.getTrigger();
+        E event = (trigger == null)
+                ? null
+                : trigger.getEvent();
+
+        transitions
+                .computeIfAbsent(new TransitionKey<>(transition.getSource().getId(), transition.getTarget().getId(),
+                        event), key -> new LatencyHistogram())
+                .record(duration);
+    }
+
+    /**
+     * Returns listener recording events denied by state machines.
+     *
+     * @return listener
+     */
+    public StateMachineListener<S, E> getListener() {
+        return listener;
+    }
+
+    /**
+     * Records the event as denied in the state.
+     *
+     * @param state state
+     * @param event event
+     */
+    public void recordDenial(S state, E event) {
+        denials.computeIfAbsent(new DenialKey<>(state, event), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Copies traffic recorded so far. Counters are read one by one, so concurrent updates may be partially reflected.
+     *
+     * @return snapshot
+     */
+    public StateMachineTrafficSnapshot getSnapshot() {
+        List<StateMachineTrafficSnapshot.Transition> transitionTraffic = new ArrayList<>(transitions.size());
+
+        transitions.forEach((key, histogram) -> {
+            long[] counts = histogram.getCounts();
+            long count = 0;
+
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+
+            if (count > 0) {
+                long max = histogram.getMax();
+
+                transitionTraffic.add(new StateMachineTrafficSnapshot.Transition(
+                        StateMachineGraphRenderer.getStateName(key.source()),
+                        StateMachineGraphRenderer.getStateName(key.target()),
+                        (key.event() == null) ? "" : StateMachineGraphRenderer.getEventName(key.event()),
+                        count,
+                        Math.min(LatencyHistogram.getPercentile(counts, count, 0.5), max),
+                        Math.min(LatencyHistogram.getPercentile(counts, count, 0.99), max),
+                        max));
+            }
+        });
+
+        List<StateMachineTrafficSnapshot.Denial> denialTraffic = new ArrayList<>(denials.size());
+
+        denials.forEach((key, count) -> denialTraffic.add(new StateMachineTrafficSnapshot.Denial(
+                StateMachineGraphRenderer.getStateName(key.state()),
+                StateMachineGraphRenderer.getEventName(key.event()),
+                count.sum())));
+
+        return new StateMachineTrafficSnapshot(transitionTraffic, denialTraffic);
+    }
+
+    /**
+     * Forgets all traffic recorded so far, e.g. to start a new observation window. Updates racing with this call may be
+     * lost.
+     */
+    public void reset() {
+        transitions.clear();
+        denials.clear();
+    }
+
+    private record TransitionKey<S, E>(S source, S target, @Nullable E event) {
+    }
+
+    private record DenialKey<S, E>(S state, E event) {
+    }
+
+    /**
+     * Lock-free log-linear histogram of non-negative millisecond values: values below 8 have their own buckets, larger
+     * ones are split into 4 buckets per power of two.
+     */
+    static final class LatencyHistogram {
+
+        private static final int EXACT_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        /**
+         * Highest bit of {@link Long#MAX_VALUE} is 62.
+         */
+        private static final int BUCKET_COUNT = EXACT_BUCKETS + (62 - 3 + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long millis) {
+            long value = Math.max(millis, 0);
+            counts.incrementAndGet(getBucket(value));
+            max.accumulate(value);
+        }
+
+        long[] getCounts() {
+            long[] result = new long[BUCKET_COUNT];
+
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = counts.get(i);
+            }
+
+            return result;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        static int getBucket(long value) {
+            if (value < EXACT_BUCKETS) {
+                return (int) value;
+            }
+
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return EXACT_BUCKETS + (highestBit - 3) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Returns the largest value falling into the bucket.
+         */
+        static long getUpperBound(int bucket) {
+            if (bucket < EXACT_BUCKETS) {
+                return bucket;
+            }
+
+            int highestBit = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 3;
+            long subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+            long width = 1L << (highestBit - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + subBucket) * width + (width - 1);
+        }
+
+        /**
+         * Returns upper bound of the bucket containing the value of the given rank.
+         *
+         * @param counts     bucket counts
+         * @param total      sum of {@code counts}
+         * @param percentile percentile (0..1)
+         */
+        static long getPercentile(long[] counts, long total, double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(total * percentile));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    return getUpperBound(i);
+                }
+            }
+
+            return getUpperBound(counts.length - 1);
+        }
+
+    }
+
+}
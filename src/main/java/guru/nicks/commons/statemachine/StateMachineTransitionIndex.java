@@ -0,0 +1,296 @@
+package guru.nicks.commons.statemachine;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.Trigger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Immutable source state &rarr; event &rarr; target states index compiled from the state machine configuration. Answers
+ * 'can an entity in state X accept event E?' without creating, restoring, or starting a state machine. Enum states and
+ * events are indexed with {@link EnumMap}s.
+ * <p>
+ * The index reflects the transition graph and deferred events only: guards are not evaluated, therefore
+ * {@link #canAccept(Object, Object)} returning {@code true} means the event <i>may</i> be accepted (or deferred), while
+ * {@code false} means it's denied for sure. Transitions without an event trigger (initial, timer-based, etc.) are not
+ * indexed. Transitions and deferred events of composite states are inherited by their substates.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+public final class StateMachineTransitionIndex<S, E> {
+
+    @Nullable
+    private final S initialState;
+    private final Map<S, Map<E, Set<S>>> targetStatesBySourceState;
+    private final Map<S, Set<E>> allowedEventsBySourceState;
+    private final Map<S, Set<E>> deferredEventsByState;
+    private final Set<E> allEvents;
+    private final List<Transition<S, E>> transitions;
+
+    private StateMachineTransitionIndex(StateMachine<S, E> stateMachine) {
+        initialState = (stateMachine.getInitialState() == null)
+                ? null
+                : stateMachine.getInitialState().getId();
+        transitions = List.copyOf(stateMachine.getTransitions());
+
+        // register all states, including those without outbound transitions
+        Collection<State<S, E>> states = collectStates(stateMachine.getStates());
+        S sampleState = states.isEmpty()
+                ? initialState
+                : states.iterator().next().getId();
+
+        Map<S, Map<E, Set<S>>> targetStates = newMap(sampleState);
+        states.forEach(state -> targetStates.put(state.getId(), null));
+        Set<E> events = new LinkedHashSet<>();
+
+        for (Transition<S, E> transition : transitions) {
+            Trigger<S, E> trigger = transition.getTrigger();
+
+            if ((trigger == null) || (trigger.getEvent() == null)
+                    || (transition.getSource() == null) || (transition.getTarget() == null)) {
+                continue;
+            }
+
+            E event = trigger.getEvent();
+            S targetState = transition.getTarget().getId();
+            events.add(event);
+
+            // composite state transitions apply to all its substates (including the state itself)
+            for (State<S, E> sourceState : collectStates(List.of(transition.getSource()))) {
+                Map<E, Set<S>> targetStatesByEvent = targetStates.get(sourceState.getId());
+
+                if (targetStatesByEvent == null) {
+                    targetStatesByEvent = newMap(event);
+                    targetStates.put(sourceState.getId(), targetStatesByEvent);
+                }
+
+                targetStatesByEvent.computeIfAbsent(event, e -> new LinkedHashSet<>()).add(targetState);
+            }
+        }
+
+        // deferred events are neither accepted nor denied - they're kept until a state accepting them is entered
+        Map<S, Set<E>> deferredEvents = newMap(sampleState);
+
+        for (State<S, E> state : states) {
+            Collection<E> stateDeferredEvents = state.getDeferredEvents();
+
+            if ((stateDeferredEvents == null) || stateDeferredEvents.isEmpty()) {
+                continue;
+            }
+
+            events.addAll(stateDeferredEvents);
+
+            for (State<S, E> substate : collectStates(List.of(state))) {
+                deferredEvents.computeIfAbsent(substate.getId(), id -> new LinkedHashSet<>())
+                        .addAll(stateDeferredEvents);
+            }
+        }
+
+        deferredEvents.replaceAll((state, stateDeferredEvents) -> Collections.unmodifiableSet(stateDeferredEvents));
+
+        Map<S, Map<E, Set<S>>> immutableTargetStates = newMap(sampleState);
+        Map<S, Set<E>> immutableAllowedEvents = newMap(sampleState);
+
+        targetStates.forEach((sourceState, targetStatesByEvent) -> {
+            if (targetStatesByEvent == null) {
+                immutableTargetStates.put(sourceState, Map.of());
+                immutableAllowedEvents.put(sourceState, Set.of());
+                return;
+            }
+
+            targetStatesByEvent.replaceAll((event, targets) -> Collections.unmodifiableSet(targets));
+            immutableTargetStates.put(sourceState, Collections.unmodifiableMap(targetStatesByEvent));
+            immutableAllowedEvents.put(sourceState, Collections.unmodifiableSet(targetStatesByEvent.keySet()));
+        });
+
+        targetStatesBySourceState = Collections.unmodifiableMap(immutableTargetStates);
+        allowedEventsBySourceState = Collections.unmodifiableMap(immutableAllowedEvents);
+        deferredEventsByState = Collections.unmodifiableMap(deferredEvents);
+        allEvents = Collections.unmodifiableSet(events);
+    }
+
+    /**
+     * Compiles the index from a new (never started) state machine created by the given factory. Should be called once,
+     * at startup - for example, in a {@code @Bean} method.
+     *
+     * @param stateMachineFactory state machine factory
+     * @param <S>                 state type
+     * @param <E>                 event type
+     * @return index
+     */
+    public static <S, E> StateMachineTransitionIndex<S, E> of(StateMachineFactory<S, E> stateMachineFactory) {
+        checkNotNull(stateMachineFactory, "stateMachineFactory");
+        return of(stateMachineFactory.getStateMachine());
+    }
+
+    /**
+     * Compiles the index from the given state machine configuration. The machine doesn't have to be started.
+     *
+     * @param stateMachine state machine
+     * @param <S>          state type
+     * @param <E>          event type
+     * @return index
+     */
+    public static <S, E> StateMachineTransitionIndex<S, E> of(StateMachine<S, E> stateMachine) {
+        checkNotNull(stateMachine, "stateMachine");
+        return new StateMachineTransitionIndex<>(stateMachine);
+    }
+
+    /**
+     * Checks if the transition graph has a transition from the given state triggered by the given event, or if the
+     * state defers the event.
+     *
+     * @param state source state
+     * @param event event
+     * @return {@code false} if the event is denied for sure (guards are not evaluated)
+     */
+    public boolean canAccept(S state, E event) {
+        Map<E, Set<S>> targetStatesByEvent = targetStatesBySourceState.get(state);
+        return ((targetStatesByEvent != null) && targetStatesByEvent.containsKey(event)) || isDeferred(state, event);
+    }
+
+    /**
+     * Checks if the given state (or its parent state) defers the given event.
+     *
+     * @param state state
+     * @param event event
+     * @return {@code true} if the event is deferred
+     */
+    public boolean isDeferred(S state, E event) {
+        return deferredEvents(state).contains(event);
+    }
+
+    /**
+     * Returns events deferred in the given state (including those deferred by its parent states).
+     *
+     * @param state state
+     * @return events (immutable), empty for unknown states
+     */
+    public Set<E> deferredEvents(S state) {
+        return deferredEventsByState.getOrDefault(state, Set.of());
+    }
+
+    /**
+     * Returns events which have transitions from the given state.
+     *
+     * @param state source state
+     * @return events (immutable), empty for unknown states
+     */
+    public Set<E> allowedEvents(S state) {
+        return allowedEventsBySourceState.getOrDefault(state, Set.of());
+    }
+
+    /**
+     * Returns states the given event may lead to from the given state. More than one target state is possible if
+     * transitions have guards.
+     *
+     * @param state source state
+     * @param event event
+     * @return target states (immutable), empty if the event is not accepted in the given state
+     */
+    public Set<S> targetStates(S state, E event) {
+        Map<E, Set<S>> targetStatesByEvent = targetStatesBySourceState.get(state);
+
+        return (targetStatesByEvent == null)
+                ? Set.of()
+                : targetStatesByEvent.getOrDefault(event, Set.of());
+    }
+
+    /**
+     * Checks if the event triggers at least one transition, or is deferred by at least one state, in the whole graph.
+     *
+     * @param event event
+     * @return {@code false} if the event is denied in any state
+     */
+    public boolean isKnownEvent(E event) {
+        return allEvents.contains(event);
+    }
+
+    /**
+     * Returns all states known to the state machine configuration.
+     *
+     * @return states (immutable)
+     */
+    public Set<S> getStates() {
+        return targetStatesBySourceState.keySet();
+    }
+
+    @Nullable
+    public S getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Returns the transitions the index was compiled from (as configured, including those without event triggers).
+     *
+     * @return transitions (immutable)
+     */
+    public List<Transition<S, E>> getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Collects the given states and their substates (for composite states - recursively).
+     *
+     * @param states states
+     * @param <S>    state type
+     * @param <E>    event type
+     * @return states in encounter order, without duplicates
+     */
+    private static <S, E> Collection<State<S, E>> collectStates(Collection<State<S, E>> states) {
+        Set<State<S, E>> result = new LinkedHashSet<>();
+        Set<State<S, E>> seen = new HashSet<>();
+
+        for (State<S, E> state : states) {
+            collectStates(state, result, seen);
+        }
+
+        return result;
+    }
+
+    private static <S, E> void collectStates(State<S, E> state, Set<State<S, E>> result, Set<State<S, E>> seen) {
+        if (!seen.add(state)) {
+            return;
+        }
+
+        result.add(state);
+        Collection<State<S, E>> substates = state.getStates();
+
+        if (substates != null) {
+            for (State<S, E> substate : substates) {
+                collectStates(substate, result, seen);
+            }
+        }
+    }
+
+    /**
+     * Creates {@link EnumMap} if the sample key is an enum member, otherwise {@link HashMap}.
+     *
+     * @param sampleKey sample key
+     * @param <K>       key type
+     * @param <V>       value type
+     * @return mutable map
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Map<K, V> newMap(@Nullable K sampleKey) {
+        return (sampleKey instanceof Enum<?> en)
+                ? new EnumMap(en.getDeclaringClass())
+                : new HashMap<>();
+    }
+
+}
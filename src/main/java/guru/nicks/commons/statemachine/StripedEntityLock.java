@@ -0,0 +1,98 @@
+package guru.nicks.commons.statemachine;
+
+import jakarta.annotation.Nullable;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Fixed set of locks (stripes) shared by all entities: each entity ID is mapped to one stripe by its hash code. Calls
+ * for the same entity are therefore serialized (and, in fair mode, executed in arrival order), while calls for
+ * different entities most likely hit different stripes and run in parallel - without one global lock and without
+ * storing a lock per entity.
+ * <p>
+ * Locks are reentrant, so nested calls for the same entity in the same thread don't deadlock. However, nesting calls
+ * for <b>different</b> entities may deadlock if two threads do so in opposite order (their stripes may coincide).
+ *
+ * @see StateMachineAware#getStateMachineLock()
+ */
+public class StripedEntityLock {
+
+    /**
+     * Golden ratio multiplier (Fibonacci hashing) - spreads sequential hash codes (e.g. of numeric IDs) evenly.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    private final Lock[] stripes;
+    private final int shift;
+
+    /**
+     * Constructor.
+     *
+     * @param stripeCount number of locks; rounded up to the nearest power of two
+     * @param fair        if {@code true}, locks are granted in arrival order (at the cost of throughput under
+     *                    contention)
+     * @throws IllegalArgumentException stripe count is not positive or too large
+     */
+    public StripedEntityLock(int stripeCount, boolean fair) {
+        if ((stripeCount <= 0) || (stripeCount > (1 << 30))) {
+            throw new IllegalArgumentException("Stripe count must be in range [1, 2^30]");
+        }
+
+        int bits = (stripeCount == 1)
+                ? 0
+                : Integer.SIZE - Integer.numberOfLeadingZeros(stripeCount - 1);
+        stripes = new Lock[1 << bits];
+        // highest bits of the multiplied hash are the best mixed ones
+        shift = Integer.SIZE - bits;
+
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock(fair);
+        }
+    }
+
+    /**
+     * Returns the actual number of stripes (a power of two).
+     *
+     * @return number of stripes
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the lock (stripe) for the given entity ID. The same ID always maps to the same lock.
+     *
+     * @param entityId entity ID
+     * @return lock
+     */
+    public Lock getLock(Object entityId) {
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+
+        return stripes[(entityId.hashCode() * HASH_MULTIPLIER) >>> shift];
+    }
+
+    /**
+     * Calls the given supplier while holding the lock for the given entity ID.
+     *
+     * @param entityId entity ID
+     * @param supplier code to call
+     * @param <T>      result type
+     * @return what {@code supplier} has returned
+     */
+    @Nullable
+    public <T> T callLocked(Object entityId, Supplier<T> supplier) {
+        Lock lock = getLock(entityId);
+        lock.lock();
+
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
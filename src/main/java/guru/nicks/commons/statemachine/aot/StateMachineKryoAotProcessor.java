@@ -0,0 +1,44 @@
+package guru.nicks.commons.statemachine.aot;
+
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.config.StateMachineProperties;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotContribution;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+import java.util.Set;
+
+/**
+ * Registers {@link StateMachineKryoRuntimeHints#registerSerializedTypes serialization hints} for application classes
+ * written by Kryo: states, events, extended state keys and values of all {@link StateMachineAware} /
+ * {@link ReactiveStateMachineAware} beans, and {@code commons.statemachine.kryo.additional-classes}. They're resolved
+ * at build time, out of bean definitions - like {@link KryoClassRegistry} is at runtime.
+ * <p>
+ * Registered in {@code META-INF/spring/aot.factories}.
+ */
+@Slf4j
+class StateMachineKryoAotProcessor implements BeanFactoryInitializationAotProcessor {
+
+    @Override
+    public BeanFactoryInitializationAotContribution processAheadOfTime(ConfigurableListableBeanFactory beanFactory) {
+        Set<Class<?>> classes = KryoClassRegistry.forStateMachineAwareBeans(beanFactory);
+
+        Environment environment = beanFactory.getBeanProvider(Environment.class).getIfAvailable();
+        if (environment != null) {
+            Binder.get(environment)
+                    .bind("commons.statemachine.kryo", StateMachineProperties.KryoSettings.class)
+                    .ifBound(settings -> classes.addAll(settings.getAdditionalClasses()));
+        }
+
+        log.debug("Registering Kryo serialization hints for {} classes", classes.size());
+        return (generationContext, beanFactoryInitializationCode) -> StateMachineKryoRuntimeHints
+                .registerSerializedTypes(generationContext.getRuntimeHints(), classes);
+    }
+
+}
@@ -0,0 +1,92 @@
+package guru.nicks.commons.statemachine.aot;
+
+import guru.nicks.commons.statemachine.domain.ExtendedStateVariables;
+import guru.nicks.commons.statemachine.domain.StateMachineError;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+import com.esotericsoftware.kryo.serializers.DefaultArraySerializers;
+import com.esotericsoftware.kryo.serializers.DefaultSerializers;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.esotericsoftware.kryo.serializers.MapSerializer;
+import jakarta.annotation.Nullable;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Native image hints for what {@link Kryo} does reflectively when serializing state machine contexts:
+ * <ul>
+ *     <li>instantiates default serializers (registered by class, not instance, in the {@link Kryo} constructor)</li>
+ *     <li>instantiates serialized objects via their no-arg constructors (collections, etc.)</li>
+ *     <li>reads/writes their fields ({@link FieldSerializer}) or record components ({@code RecordSerializer})</li>
+ *     <li>looks up classes by name, for classes missing in {@link KryoClassRegistry}</li>
+ * </ul>
+ * This covers {@link KryoClassRegistry#getStateMachineContextClasses()} and {@link StateMachineError}. Application
+ * classes (states, events, extended state values) are covered by {@link StateMachineKryoAotProcessor} which discovers
+ * them from bean definitions.
+ */
+public class StateMachineKryoRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final MemberCategory[] SERIALIZED_TYPE_CATEGORIES = {
+            MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+            MemberCategory.INVOKE_DECLARED_METHODS,
+            MemberCategory.DECLARED_FIELDS
+    };
+
+    /**
+     * Serializers {@link Kryo} instantiates via {@code ReflectionSerializerFactory}.
+     */
+    private static final List<Class<?>> SERIALIZER_CLASSES = Stream
+            .concat(
+                    Stream.of(DefaultSerializers.class.getDeclaredClasses()),
+                    Stream.of(DefaultArraySerializers.class.getDeclaredClasses()))
+            .filter(Serializer.class::isAssignableFrom)
+            .toList();
+
+    /**
+     * Registered by {@link Kryo} by name, only if records are supported.
+     */
+    private static final String RECORD_SERIALIZER_CLASS = "com.esotericsoftware.kryo.serializers.RecordSerializer";
+
+    /**
+     * Registers reflection hints for classes written by Kryo.
+     *
+     * @param hints   hints to add to
+     * @param classes serialized classes
+     */
+    public static void registerSerializedTypes(RuntimeHints hints, Collection<Class<?>> classes) {
+        checkNotNull(hints, "hints");
+        checkNotNull(classes, "classes");
+
+        classes.forEach(clazz -> hints.reflection().registerType(clazz, SERIALIZED_TYPE_CATEGORIES));
+    }
+
+    @Override
+    public void registerHints(RuntimeHints hints, @Nullable ClassLoader classLoader) {
+        SERIALIZER_CLASSES.forEach(clazz -> hints.reflection()
+                .registerType(clazz, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS));
+
+        for (Class<?> clazz : List.of(FieldSerializer.class, CollectionSerializer.class, MapSerializer.class)) {
+            hints.reflection().registerType(clazz, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+
+        hints.reflection().registerType(TypeReference.of(RECORD_SERIALIZER_CLASS),
+                MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+
+        registerSerializedTypes(hints, KryoClassRegistry.getStateMachineContextClasses());
+        // not in KryoClassRegistry - looked up by name in lenient mode
+        registerSerializedTypes(hints, List.of(StateMachineError.class));
+        hints.reflection().registerType(ExtendedStateVariables.class);
+    }
+
+}
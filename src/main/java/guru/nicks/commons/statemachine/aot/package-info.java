@@ -0,0 +1,7 @@
+/**
+ * Spring AOT / GraalVM native image support: reflection hints for Kryo serialization of state machine contexts.
+ */
+@NonNullApi
+package guru.nicks.commons.statemachine.aot;
+
+import org.springframework.lang.NonNullApi;
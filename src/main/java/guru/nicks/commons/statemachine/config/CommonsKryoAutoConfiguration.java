@@ -1,13 +1,28 @@
 package guru.nicks.commons.statemachine.config;
 
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.aot.StateMachineKryoRuntimeHints;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.util.Pool;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.context.annotation.Primary;
+import org.springframework.statemachine.data.jpa.JpaPersistingStateMachineInterceptor;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
 import org.springframework.statemachine.support.DefaultStateMachineContext;
 
+import java.util.Set;
+
 /**
  * Autoconfiguration that fixes Kryo serialization error 'Class not registered' for {@link DefaultStateMachineContext},
  * arrays, etc. The {@link Kryo} bean is declared as primary to override the default one. To disable this behavior,
@@ -15,19 +30,95 @@ import org.springframework.statemachine.support.DefaultStateMachineContext;
  * <pre>{@code
  * @SpringBootApplication(exclude = CommonsKryoAutoConfiguration.class)
  * }</pre>
- *
+ * <p>
+ * Also provides a pooled {@link KryoStateMachineSerialisationService}; in strict mode, its {@link KryoClassRegistry} is
+ * built from the generics of all {@link StateMachineAware} / {@link ReactiveStateMachineAware} beans. Pass it to
+ * {@link JpaPersistingStateMachineInterceptor} explicitly -
+ * {@code new JpaPersistingStateMachineInterceptor<>(repository, stateMachineSerialisationService)} - otherwise the
+ * interceptor creates its own service without the registry.
  */
 @AutoConfiguration
 @ConditionalOnClass(Kryo.class)
+@EnableConfigurationProperties(StateMachineProperties.class)
+@ImportRuntimeHints(StateMachineKryoRuntimeHints.class)
 @Slf4j
 public class CommonsKryoAutoConfiguration {
 
+    /**
+     * Kryo instances are not thread-safe - consider {@link #kryoPool()} instead.
+     *
+     * @return Kryo instance
+     */
     @Bean
     @Primary
     public Kryo kryo() {
         log.debug("Building (overriding!) {} bean - setting registrationRequired=false to fix serialization errors",
                 Kryo.class.getSimpleName());
+        return createKryo();
+    }
+
+    /**
+     * Thread-safe pool of Kryo instances configured the same way as {@link #kryo()}.
+     *
+     * @return pool
+     */
+    @ConditionalOnMissingBean(name = "kryoPool")
+    @Bean
+    public Pool<Kryo> kryoPool() {
+        return new Pool<>(true, false, KryoStateMachineSerialisationService.DEFAULT_POOL_SIZE) {
+            @Override
+            protected Kryo create() {
+                return createKryo();
+            }
+        };
+    }
+
+    /**
+     * Builds the registry out of the bean definitions' classes, see
+     * {@link KryoClassRegistry#forStateMachineAwareBeans(ListableBeanFactory)}.
+     *
+     * @param beanFactory bean factory
+     * @param properties  settings
+     * @return registry
+     */
+    @ConditionalOnMissingBean
+    @Bean
+    public KryoClassRegistry stateMachineKryoClassRegistry(ListableBeanFactory beanFactory,
+            StateMachineProperties properties) {
+        Set<Class<?>> classes = KryoClassRegistry.forStateMachineAwareBeans(beanFactory);
+        classes.addAll(properties.getKryo().getAdditionalClasses());
+
+        var registry = KryoClassRegistry.of(classes);
+        log.debug("Built {}", registry);
+        return registry;
+    }
+
+    /**
+     * Creates pooled serialisation service. The class registry is applied only in strict mode
+     * ({@code registration-required=true}): registered classes are written as IDs which depend on the set of
+     * registered classes, so payloads written in the default (lenient) mode stay in the upstream Kryo format and
+     * remain readable whatever classes are added or removed later.
+     *
+     * @param stateMachineKryoClassRegistry classes to register in strict mode
+     * @param properties                    settings
+     * @return service bean
+     */
+    @ConditionalOnMissingBean(StateMachineSerialisationService.class)
+    @Bean
+    public KryoStateMachineSerialisationService<?, ?> stateMachineSerialisationService(
+            KryoClassRegistry stateMachineKryoClassRegistry, StateMachineProperties properties) {
+        StateMachineProperties.KryoSettings kryoSettings = properties.getKryo();
+        boolean registrationRequired = kryoSettings.isRegistrationRequired();
+
+        log.debug("Building {} bean: pool size {}, registrationRequired={}",
+                KryoStateMachineSerialisationService.class.getSimpleName(), kryoSettings.getEffectivePoolSize(),
+                registrationRequired);
+        return new KryoStateMachineSerialisationService<>(
+                registrationRequired ? stateMachineKryoClassRegistry : KryoClassRegistry.empty(),
+                registrationRequired, kryoSettings.getEffectivePoolSize());
+    }
 
+    private static Kryo createKryo() {
         Kryo kryo = new Kryo();
         kryo.setRegistrationRequired(false);
         kryo.register(DefaultStateMachineContext.class);
@@ -0,0 +1,69 @@
+package guru.nicks.commons.statemachine.config;
+
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineGraphPrerenderer;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
+import guru.nicks.commons.statemachine.StripedEntityLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Autoconfiguration for state machine infrastructure beans. All of them are opt-in from the
+ * {@link StateMachineAware} perspective, for example, to serialize events per entity, inject
+ * {@link StripedEntityLock} and return it from {@link StateMachineAware#getStateMachineLock()}.
+ */
+@AutoConfiguration
+@EnableConfigurationProperties(StateMachineProperties.class)
+@Slf4j
+public class CommonsStateMachineAutoConfiguration {
+
+    @ConditionalOnMissingBean
+    @Bean
+    public StripedEntityLock stateMachineStripedEntityLock(StateMachineProperties properties) {
+        StateMachineProperties.Lock lockProperties = properties.getLock();
+
+        var lock = new StripedEntityLock(lockProperties.getEffectiveStripes(), lockProperties.isFair());
+        log.debug("Built {} bean: {} stripes, fair={}", StripedEntityLock.class.getSimpleName(),
+                lock.getStripeCount(), lockProperties.isFair());
+        return lock;
+    }
+
+    /**
+     * Creates scheduler for {@link ReactiveStateMachineAware} event processing. It's closed
+     * (disposed) together with the application context. Not created (and therefore not exported as metrics) unless
+     * there's at least one {@link ReactiveStateMachineAware} bean - its threads would never be used.
+     *
+     * @param properties properties
+     * @return scheduler
+     */
+    @ConditionalOnBean(ReactiveStateMachineAware.class)
+    @ConditionalOnMissingBean
+    @Bean
+    public StateMachineScheduler stateMachineScheduler(StateMachineProperties properties) {
+        StateMachineProperties.Execution executionProperties = properties.getExecution();
+
+        var scheduler = StateMachineScheduler.create(executionProperties.getStrategy(),
+                executionProperties.getEffectiveThreadCap(), executionProperties.getQueuedTaskCap(), "statemachine");
+        log.debug("Built {} bean: strategy={}, threadCap={}", StateMachineScheduler.class.getSimpleName(),
+                scheduler.getStrategy(), scheduler.getThreadCap());
+        return scheduler;
+    }
+
+    @ConditionalOnProperty(prefix = "commons.statemachine.graph", name = "prerender", havingValue = "true")
+    @ConditionalOnMissingBean
+    @Bean
+    public StateMachineGraphPrerenderer stateMachineGraphPrerenderer(ListableBeanFactory beanFactory,
+            StateMachineProperties properties) {
+        log.debug("Building {} bean", StateMachineGraphPrerenderer.class.getSimpleName());
+        return new StateMachineGraphPrerenderer(beanFactory, properties.getGraph().getPrerenderFormats());
+    }
+
+}
@@ -0,0 +1,62 @@
+package guru.nicks.commons.statemachine.config;
+
+import guru.nicks.commons.statemachine.StateMachineMetricsMonitor;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
+import guru.nicks.commons.statemachine.StateMachineSchedulerMeterBinder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Autoconfiguration for {@link StateMachineMetricsMonitor}, active if a {@link MeterRegistry} bean exists. The monitor
+ * must still be plugged into each state machine configuration:
+ * <pre>{@code
+ * config.withMonitoring().monitor(stateMachineMetricsMonitor);
+ * }</pre>
+ */
+@AutoConfiguration(after = CommonsStateMachineAutoConfiguration.class, afterName = {
+        // Spring Boot 3
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration",
+        // Spring Boot 4
+        "org.springframework.boot.micrometer.metrics.autoconfigure.CompositeMeterRegistryAutoConfiguration"
+})
+@ConditionalOnClass(MeterRegistry.class)
+@ConditionalOnBean(MeterRegistry.class)
+@Slf4j
+public class CommonsStateMachineMetricsAutoConfiguration {
+
+    /**
+     * Creates monitor which derives the machine type tag from the state class, so one monitor serves all state
+     * machine types.
+     *
+     * @param meterRegistry meter registry
+     * @return monitor bean
+     */
+    @ConditionalOnMissingBean
+    @Bean
+    public StateMachineMetricsMonitor<?, ?> stateMachineMetricsMonitor(MeterRegistry meterRegistry) {
+        log.debug("Building {} bean", StateMachineMetricsMonitor.class.getSimpleName());
+        return new StateMachineMetricsMonitor<>(meterRegistry);
+    }
+
+    /**
+     * Exports saturation of the scheduler created by {@link CommonsStateMachineAutoConfiguration} - only if it exists,
+     * i.e. if there are reactive state machine services.
+     *
+     * @param scheduler scheduler
+     * @return meter binder
+     */
+    @ConditionalOnBean(StateMachineScheduler.class)
+    @ConditionalOnMissingBean
+    @Bean
+    public StateMachineSchedulerMeterBinder stateMachineSchedulerMeterBinder(StateMachineScheduler scheduler) {
+        log.debug("Building {} bean", StateMachineSchedulerMeterBinder.class.getSimpleName());
+        return new StateMachineSchedulerMeterBinder(scheduler, "statemachine");
+    }
+
+}
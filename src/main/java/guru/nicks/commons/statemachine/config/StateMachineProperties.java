@@ -0,0 +1,143 @@
+package guru.nicks.commons.statemachine.config;
+
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineGraphCache;
+import guru.nicks.commons.statemachine.StateMachineGraphVisualizer;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
+import guru.nicks.commons.statemachine.StripedEntityLock;
+import guru.nicks.commons.statemachine.domain.StateMachineExecutionStrategy;
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State machine starter settings.
+ */
+@ConfigurationProperties(prefix = "commons.statemachine")
+@Data
+public class StateMachineProperties {
+
+    private Lock lock = new Lock();
+    private KryoSettings kryo = new KryoSettings();
+    private Graph graph = new Graph();
+    private Execution execution = new Execution();
+
+    /**
+     * {@link StripedEntityLock} settings.
+     */
+    @Data
+    public static class Lock {
+
+        /**
+         * Number of stripes (rounded up to a power of two). If not positive, defaults to 4 stripes per CPU core, which
+         * keeps the probability of two unrelated entities sharing a stripe low.
+         */
+        private int stripes;
+
+        /**
+         * Whether waiting threads get the lock in arrival order. Fair locks have lower throughput under contention.
+         */
+        private boolean fair;
+
+        public int getEffectiveStripes() {
+            return (stripes > 0)
+                    ? stripes
+                    : 4 * Runtime.getRuntime().availableProcessors();
+        }
+
+    }
+
+    /**
+     * {@link KryoStateMachineSerialisationService} settings.
+     */
+    @Data
+    public static class KryoSettings {
+
+        /**
+         * Maximum number of idle Kryo instances kept in the pool. If not positive, defaults to
+         * {@link KryoStateMachineSerialisationService#DEFAULT_POOL_SIZE}.
+         */
+        private int poolSize;
+
+        /**
+         * Strict mode: register {@link KryoClassRegistry} classes and fail on classes missing in it instead of
+         * writing their fully qualified names. Exceptions (or {@code StateMachineError} descriptors) stored in the
+         * extended state by transition-bound actions must be registered too (see {@link #additionalClasses}).
+         * Registered classes are written as IDs, therefore payloads can only be read back with the same set of
+         * registered classes - don't enable it for existing data. If disabled (default), the registry is not applied
+         * and the payload format is the upstream one.
+         */
+        private boolean registrationRequired;
+
+        /**
+         * Classes to register in addition to those discovered automatically (in strict mode only).
+         */
+        private List<Class<?>> additionalClasses = new ArrayList<>();
+
+        public int getEffectivePoolSize() {
+            return (poolSize > 0)
+                    ? poolSize
+                    : KryoStateMachineSerialisationService.DEFAULT_POOL_SIZE;
+        }
+
+    }
+
+    /**
+     * {@link StateMachineGraphVisualizer} settings.
+     */
+    @Data
+    public static class Graph {
+
+        /**
+         * Whether to render graphs of visualizers having {@link StateMachineGraphCache caches} in background once the
+         * application is ready.
+         */
+        private boolean prerender;
+
+        /**
+         * Formats to prerender.
+         */
+        private List<StateMachineGraphFormat> prerenderFormats = new ArrayList<>(List.of(StateMachineGraphFormat.SVG));
+
+    }
+
+    /**
+     * {@link StateMachineScheduler} settings. The scheduler is autoconfigured only if there are
+     * {@link ReactiveStateMachineAware} beans.
+     */
+    @Data
+    public static class Execution {
+
+        /**
+         * Where events are processed.
+         */
+        private StateMachineExecutionStrategy strategy = StateMachineExecutionStrategy.BOUNDED_ELASTIC;
+
+        /**
+         * Max number of threads for {@link StateMachineExecutionStrategy#BOUNDED_ELASTIC}. If not positive, defaults
+         * to {@link Schedulers#DEFAULT_BOUNDED_ELASTIC_SIZE} (10 per CPU core).
+         */
+        private int threadCap;
+
+        /**
+         * Max number of events waiting for a thread for {@link StateMachineExecutionStrategy#BOUNDED_ELASTIC}; further
+         * events are rejected.
+         */
+        private int queuedTaskCap = 100_000;
+
+        public int getEffectiveThreadCap() {
+            return (threadCap > 0)
+                    ? threadCap
+                    : Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE;
+        }
+
+    }
+
+}
@@ -3,20 +3,23 @@ package guru.nicks.commons.statemachine.domain;
 import jakarta.annotation.Nullable;
 import org.slf4j.LoggerFactory;
 import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
 
 import java.lang.invoke.MethodHandles;
+import java.util.Map;
 
 /**
  * State machine context variables that can exist in {@link org.springframework.statemachine.ExtendedState}. This
  * interface is supposed to be implemented by {@link Enum}s.
  *
  * @see #getValueClass()
+ * @see ExtendedStateVariables
  */
 public interface ExtendedState {
 
     /**
      * Must be managed by a listener as follows: cleared before entering a new state, set on state machine error (caused
-     * by a transition-bound action).
+     * by a transition-bound action). Holds either the exception or its {@link StateMachineError} descriptor.
      */
     String LAST_EXCEPTION_KEY = "_lastException";
 
@@ -24,13 +27,47 @@ public interface ExtendedState {
      * Reads last exception ({@value #LAST_EXCEPTION_KEY}) from the given state machine's extended state.
      *
      * @param stateMachine state machine
-     * @return last exception; can be {@code null}
+     * @return last exception, rebuilt with {@link StateMachineError#toException()} if a {@link StateMachineError} was
+     *         saved; can be {@code null}
      */
     @Nullable
     static Exception readLastExceptionFromStateMachine(StateMachine<?, ?> stateMachine) {
-        return stateMachine
+        Object lastError = stateMachine
+                .getExtendedState()
+                .getVariables()
+                .get(LAST_EXCEPTION_KEY);
+
+        return switch (lastError) {
+            case null -> null;
+            case Exception e -> e;
+            case StateMachineError error -> error.toException();
+            default -> throw new IllegalArgumentException("Unexpected last exception class ["
+                    + lastError.getClass().getName() + "]");
+        };
+    }
+
+    /**
+     * Same as {@link #readLastExceptionFromStateMachine(StateMachine)}, but returns the error descriptor, building it
+     * with {@link StateMachineError#of(Throwable)} if an exception was saved.
+     *
+     * @param stateMachine state machine
+     * @return last error; can be {@code null}
+     * @throws IllegalArgumentException neither exception nor error descriptor was saved
+     */
+    @Nullable
+    static StateMachineError readLastErrorFromStateMachine(StateMachine<?, ?> stateMachine) {
+        Object lastError = stateMachine
                 .getExtendedState()
-                .get(LAST_EXCEPTION_KEY, Exception.class);
+                .getVariables()
+                .get(LAST_EXCEPTION_KEY);
+
+        return switch (lastError) {
+            case null -> null;
+            case Exception e -> StateMachineError.of(e);
+            case StateMachineError error -> error;
+            default -> throw new IllegalArgumentException("Unexpected last exception class ["
+                    + lastError.getClass().getName() + "]");
+        };
     }
 
     /**
@@ -54,6 +91,45 @@ public interface ExtendedState {
         }
     }
 
+    /**
+     * Saves compact descriptor of the last exception ({@value #LAST_EXCEPTION_KEY}) in the given state machine's
+     * extended state - an alternative to {@link #saveLastExceptionInStateMachine(StateMachine, Exception)} which keeps
+     * persisted contexts small: no cause chain, trimmed stack trace. The error is logged without stack trace.
+     * {@link #readLastExceptionFromStateMachine(StateMachine)} rebuilds exception out of it.
+     *
+     * @param stateMachine state machine
+     * @param error        error to save, usually built with {@link StateMachineError#of(Throwable)}; can be
+     *                     {@code null}, in which case the last exception is cleared
+     */
+    static void saveLastErrorInStateMachine(StateMachine<?, ?> stateMachine, @Nullable StateMachineError error) {
+        if (error == null) {
+            stateMachine.getExtendedState()
+                    .getVariables()
+                    .remove(LAST_EXCEPTION_KEY);
+        } else {
+            stateMachine.getExtendedState()
+                    .getVariables()
+                    .put(LAST_EXCEPTION_KEY, error);
+            LoggerFactory
+                    .getLogger(MethodHandles.lookup().lookupClass())
+                    .error("Saved last error in state machine '{}': {}", stateMachine.getId(), error);
+        }
+    }
+
+    /**
+     * Replaces the exception saved by {@link #saveLastExceptionInStateMachine(StateMachine, Exception)}, if any, with
+     * its {@link StateMachineError#of(Throwable)} descriptor. The exception isn't logged again.
+     *
+     * @param stateMachine state machine
+     */
+    static void replaceLastExceptionWithErrorInStateMachine(StateMachine<?, ?> stateMachine) {
+        Map<Object, Object> variables = stateMachine.getExtendedState().getVariables();
+
+        if (variables.get(LAST_EXCEPTION_KEY) instanceof Exception e) {
+            variables.put(LAST_EXCEPTION_KEY, StateMachineError.of(e));
+        }
+    }
+
     Class<?> getValueClass();
 
     /**
@@ -71,6 +147,22 @@ public interface ExtendedState {
                 .get(this, clazz);
     }
 
+    /**
+     * Reads variable from the given (persisted) state machine context's
+     * {@link org.springframework.statemachine.ExtendedState}.
+     *
+     * @param stateMachineContext state machine context
+     * @param clazz               value class
+     * @param <T>                 value type
+     * @return value
+     */
+    @Nullable
+    default <T> T readFromStateMachineContext(StateMachineContext<?, ?> stateMachineContext, Class<T> clazz) {
+        return stateMachineContext
+                .getExtendedState()
+                .get(this, clazz);
+    }
+
     /**
      * Saves variable in the given state machine's {@link org.springframework.statemachine.ExtendedState}.
      *
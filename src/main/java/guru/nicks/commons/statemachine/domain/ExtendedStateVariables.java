@@ -0,0 +1,386 @@
+package guru.nicks.commons.statemachine.domain;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.util.ClassUtils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Extended state variables stored in slots indexed by {@link ExtendedState} enum ordinals instead of hash map entries.
+ * Value classes are resolved once per property (at construction), and {@link Long}, {@link Integer}, {@link Boolean},
+ * {@link Double} values are stored unboxed - use {@link #getLong(Enum, long)}, {@link #putLong(Enum, long)}, etc. to
+ * access them without boxing. Keys which are not {@code P} constants (for example,
+ * {@link ExtendedState#LAST_EXCEPTION_KEY}) are kept in a regular map.
+ * <p>
+ * It's still a {@link Map}, so it can back {@link DefaultExtendedState}:
+ * {@code new DefaultExtendedState(new ExtendedStateVariables<>(OrderExtendedState.class))}. Unlike the default
+ * {@link DefaultExtendedState} variables, it's <b>not thread-safe</b> and doesn't notify extended state listeners -
+ * it's meant for state machine contexts (which are restored into machines by copying their variables), not for running
+ * machines.
+ * <p>
+ * Like in the default (concurrent map based) variables, {@code null} values are not stored: putting {@code null}
+ * removes the variable.
+ *
+ * @param <P> extended state property type
+ */
+public class ExtendedStateVariables<P extends Enum<P> & ExtendedState> extends AbstractMap<Object, Object> {
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_INT = 2;
+    private static final byte KIND_BOOLEAN = 3;
+    private static final byte KIND_DOUBLE = 4;
+
+    private final Class<P> propertyClass;
+    private final P[] properties;
+    /**
+     * {@link ExtendedState#getValueClass()} of each property, primitives resolved to their wrappers.
+     */
+    private final Class<?>[] valueClasses;
+    private final byte[] kinds;
+
+    private final Object[] objects;
+    /**
+     * Values of primitive slots: longs and ints as is, booleans as 0/1, doubles as raw bits.
+     */
+    private final long[] primitives;
+    private final BitSet presentSlots;
+    private int slotCount;
+
+    /**
+     * Created on first non-slot key.
+     */
+    @Nullable
+    private Map<Object, Object> otherVariables;
+
+    /**
+     * Constructor.
+     *
+     * @param propertyClass extended state property enum
+     */
+    public ExtendedStateVariables(Class<P> propertyClass) {
+        this.propertyClass = checkNotNull(propertyClass, "propertyClass");
+        properties = propertyClass.getEnumConstants();
+
+        valueClasses = new Class<?>[properties.length];
+        kinds = new byte[properties.length];
+        for (P property : properties) {
+            Class<?> valueClass = ClassUtils.resolvePrimitiveIfNecessary(
+                    checkNotNull(property.getValueClass(), "valueClass"));
+            valueClasses[property.ordinal()] = valueClass;
+            kinds[property.ordinal()] = getKind(valueClass);
+        }
+
+        objects = new Object[properties.length];
+        primitives = new long[properties.length];
+        presentSlots = new BitSet(properties.length);
+    }
+
+    private static byte getKind(Class<?> valueClass) {
+        if (valueClass == Long.class) {
+            return KIND_LONG;
+        } else if (valueClass == Integer.class) {
+            return KIND_INT;
+        } else if (valueClass == Boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (valueClass == Double.class) {
+            return KIND_DOUBLE;
+        }
+
+        return KIND_OBJECT;
+    }
+
+    public Class<P> getPropertyClass() {
+        return propertyClass;
+    }
+
+    /**
+     * Checks if the given key is stored in a slot, i.e. is a {@code P} constant.
+     *
+     * @param key key
+     * @return {@code true} if it's a slot key
+     */
+    public boolean isSlot(@Nullable Object key) {
+        return propertyClass.isInstance(key);
+    }
+
+    /**
+     * Reads typed value.
+     *
+     * @param property property
+     * @param clazz    value class
+     * @param <T>      value type
+     * @return value, {@code null} if absent
+     * @throws ClassCastException value is not of the given class
+     */
+    @Nullable
+    public <T> T get(P property, Class<T> clazz) {
+        checkNotNull(property, "property");
+        return clazz.cast(getSlot(property.ordinal()));
+    }
+
+    public long getLong(P property, long defaultValue) {
+        int slot = getPrimitiveSlot(property, KIND_LONG);
+        return presentSlots.get(slot) ? primitives[slot] : defaultValue;
+    }
+
+    public void putLong(P property, long value) {
+        setPrimitive(getPrimitiveSlot(property, KIND_LONG), value);
+    }
+
+    public int getInt(P property, int defaultValue) {
+        int slot = getPrimitiveSlot(property, KIND_INT);
+        return presentSlots.get(slot) ? (int) primitives[slot] : defaultValue;
+    }
+
+    public void putInt(P property, int value) {
+        setPrimitive(getPrimitiveSlot(property, KIND_INT), value);
+    }
+
+    public boolean getBoolean(P property, boolean defaultValue) {
+        int slot = getPrimitiveSlot(property, KIND_BOOLEAN);
+        return presentSlots.get(slot) ? (primitives[slot] != 0) : defaultValue;
+    }
+
+    public void putBoolean(P property, boolean value) {
+        setPrimitive(getPrimitiveSlot(property, KIND_BOOLEAN), value ? 1 : 0);
+    }
+
+    public double getDouble(P property, double defaultValue) {
+        int slot = getPrimitiveSlot(property, KIND_DOUBLE);
+        return presentSlots.get(slot) ? Double.longBitsToDouble(primitives[slot]) : defaultValue;
+    }
+
+    public void putDouble(P property, double value) {
+        setPrimitive(getPrimitiveSlot(property, KIND_DOUBLE), Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public int size() {
+        return slotCount + ((otherVariables == null) ? 0 : otherVariables.size());
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        if (isSlot(key)) {
+            return presentSlots.get(((Enum<?>) key).ordinal());
+        }
+
+        return (otherVariables != null) && otherVariables.containsKey(key);
+    }
+
+    @Nullable
+    @Override
+    public Object get(@Nullable Object key) {
+        if (isSlot(key)) {
+            return getSlot(((Enum<?>) key).ordinal());
+        }
+
+        return (otherVariables == null) ? null : otherVariables.get(key);
+    }
+
+    /**
+     * Stores value.
+     *
+     * @param key   key
+     * @param value if {@code null}, the variable is removed
+     * @return previous value
+     * @throws IllegalArgumentException value is not of the {@link ExtendedState#getValueClass() property value class}
+     */
+    @Nullable
+    @Override
+    public Object put(Object key, @Nullable Object value) {
+        checkNotNull(key, "key");
+
+        if (value == null) {
+            return remove(key);
+        }
+
+        if (!isSlot(key)) {
+            if (otherVariables == null) {
+                otherVariables = new HashMap<>();
+            }
+
+            return otherVariables.put(key, value);
+        }
+
+        int slot = ((Enum<?>) key).ordinal();
+        if (!valueClasses[slot].isInstance(value)) {
+            throw new IllegalArgumentException("Value must be of class [" + valueClasses[slot].getName() + "]");
+        }
+
+        Object previousValue = getSlot(slot);
+
+        switch (kinds[slot]) {
+            case KIND_LONG -> setPrimitive(slot, (Long) value);
+            case KIND_INT -> setPrimitive(slot, (Integer) value);
+            case KIND_BOOLEAN -> setPrimitive(slot, ((Boolean) value) ? 1 : 0);
+            case KIND_DOUBLE -> setPrimitive(slot, Double.doubleToRawLongBits((Double) value));
+            default -> {
+                objects[slot] = value;
+                markPresent(slot);
+            }
+        }
+
+        return previousValue;
+    }
+
+    @Nullable
+    @Override
+    public Object remove(@Nullable Object key) {
+        if (!isSlot(key)) {
+            return (otherVariables == null) ? null : otherVariables.remove(key);
+        }
+
+        int slot = ((Enum<?>) key).ordinal();
+        Object previousValue = getSlot(slot);
+        clearSlot(slot);
+        return previousValue;
+    }
+
+    @Override
+    public void clear() {
+        presentSlots.clear();
+        slotCount = 0;
+        Arrays.fill(objects, null);
+
+        if (otherVariables != null) {
+            otherVariables.clear();
+        }
+    }
+
+    /**
+     * Returns entries: slots in property ordinal order, then other variables. Slot entries are immutable - use
+     * {@link #put(Object, Object)} to change values. Boxes primitive slot values.
+     *
+     * @return entries backed by this map (removal is supported)
+     */
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Object, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return ExtendedStateVariables.this.size();
+            }
+        };
+    }
+
+    private int getPrimitiveSlot(P property, byte kind) {
+        checkNotNull(property, "property");
+        int slot = property.ordinal();
+
+        if (kinds[slot] != kind) {
+            throw new IllegalArgumentException("Property '" + property.name() + "' holds values of class ["
+                    + valueClasses[slot].getName() + "]");
+        }
+
+        return slot;
+    }
+
+    @Nullable
+    private Object getSlot(int slot) {
+        if (!presentSlots.get(slot)) {
+            return null;
+        }
+
+        long primitive = primitives[slot];
+
+        return switch (kinds[slot]) {
+            case KIND_LONG -> primitive;
+            case KIND_INT -> (int) primitive;
+            case KIND_BOOLEAN -> primitive != 0;
+            case KIND_DOUBLE -> Double.longBitsToDouble(primitive);
+            default -> objects[slot];
+        };
+    }
+
+    private void setPrimitive(int slot, long value) {
+        primitives[slot] = value;
+        markPresent(slot);
+    }
+
+    private void markPresent(int slot) {
+        if (!presentSlots.get(slot)) {
+            presentSlots.set(slot);
+            slotCount++;
+        }
+    }
+
+    private void clearSlot(int slot) {
+        if (presentSlots.get(slot)) {
+            presentSlots.clear(slot);
+            objects[slot] = null;
+            slotCount--;
+        }
+    }
+
+    /**
+     * Iterates over present slots, then over other variables.
+     */
+    private class EntryIterator implements Iterator<Entry<Object, Object>> {
+
+        private int nextSlot = presentSlots.nextSetBit(0);
+        private int lastSlot = -1;
+        @Nullable
+        private Iterator<Entry<Object, Object>> otherIterator;
+
+        @Override
+        public boolean hasNext() {
+            if (nextSlot >= 0) {
+                return true;
+            }
+
+            if ((otherIterator == null) && (otherVariables != null)) {
+                otherIterator = otherVariables.entrySet().iterator();
+            }
+
+            return (otherIterator != null) && otherIterator.hasNext();
+        }
+
+        @Override
+        public Entry<Object, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (nextSlot >= 0) {
+                lastSlot = nextSlot;
+                nextSlot = presentSlots.nextSetBit(nextSlot + 1);
+                return new SimpleImmutableEntry<>(properties[lastSlot], getSlot(lastSlot));
+            }
+
+            lastSlot = -1;
+            return otherIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot >= 0) {
+                clearSlot(lastSlot);
+                lastSlot = -1;
+            } else if (otherIterator != null) {
+                otherIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package guru.nicks.commons.statemachine.domain;
+
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.entity.ContentType;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * State machine graph rendered in a certain format.
+ *
+ * @param format      format
+ * @param contentType content type matching the format
+ * @param content     content data: text for SVG, binary for PNG, etc.; must not be modified, because rendered graphs
+ *                    are cached and shared
+ * @param etag        strong HTTP entity tag (quoted content hash), for conditional requests
+ */
+public record RenderedStateMachineGraph(
+        StateMachineGraphFormat format,
+        ContentType contentType,
+        byte[] content,
+        String etag) {
+
+    /**
+     * Number of SHA-256 bytes in ETags - 128 bits are more than enough to tell graph versions apart.
+     */
+    private static final int ETAG_HASH_BYTES = 16;
+
+    /**
+     * Creates graph, computing its ETag.
+     *
+     * @param format  format
+     * @param content content
+     * @return graph
+     */
+    public static RenderedStateMachineGraph of(StateMachineGraphFormat format, byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            String etag = '"' + HexFormat.of().formatHex(hash, 0, ETAG_HASH_BYTES) + '"';
+            return new RenderedStateMachineGraph(format, format.getContentType(), content, etag);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory for all JVMs
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * Checks if the graph matches the {@code If-None-Match} HTTP header value, i.e. the client already has it, and
+     * {@code 304 Not Modified} should be returned. Weak ETags ({@code W/"..."}) are compared by their values, as
+     * RFC 9110 requires for {@code If-None-Match}.
+     *
+     * @param ifNoneMatch header value: {@code *} or comma-separated ETags
+     * @return {@code true} if matches
+     */
+    public boolean matchesETag(@Nullable String ifNoneMatch) {
+        if (StringUtils.isBlank(ifNoneMatch)) {
+            return false;
+        }
+
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::strip)
+                .map(tag -> StringUtils.removeStart(tag, "W/"))
+                .anyMatch(tag -> "*".equals(tag) || etag.equals(tag));
+    }
+
+}
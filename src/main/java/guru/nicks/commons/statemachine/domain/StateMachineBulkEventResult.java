@@ -0,0 +1,50 @@
+package guru.nicks.commons.statemachine.domain;
+
+import java.util.Map;
+
+/**
+ * Aggregated result of sending the same event to multiple state machines.
+ *
+ * @param acceptedCount number of {@link StateMachineEventOutcome.Status#ACCEPTED} outcomes
+ * @param deniedCount   number of {@link StateMachineEventOutcome.Status#DENIED} outcomes
+ * @param failedCount   number of {@link StateMachineEventOutcome.Status#FAILED} outcomes (including entities not found,
+ *                      etc.)
+ * @param outcomes      outcome for each entity ID
+ * @param <ID>          entity ID type
+ * @param <E>           event type
+ */
+@SuppressWarnings("java:S119") // allow non-single-letter type names in generics
+public record StateMachineBulkEventResult<ID, E>(
+        int acceptedCount,
+        int deniedCount,
+        int failedCount,
+        Map<ID, StateMachineEventOutcome<E>> outcomes) {
+
+    /**
+     * Counts outcomes by their status.
+     *
+     * @param outcomes outcome for each entity ID
+     * @param <ID>     entity ID type
+     * @param <E>      event type
+     * @return result
+     */
+    public static <ID, E> StateMachineBulkEventResult<ID, E> of(Map<ID, StateMachineEventOutcome<E>> outcomes) {
+        int accepted = 0;
+        int denied = 0;
+        int failed = 0;
+
+        for (StateMachineEventOutcome<E> outcome : outcomes.values()) {
+            switch (outcome.status()) {
+                case ACCEPTED -> accepted++;
+                case DENIED -> denied++;
+                case FAILED -> failed++;
+                default -> {
+                    // skipped events are not sent at all
+                }
+            }
+        }
+
+        return new StateMachineBulkEventResult<>(accepted, denied, failed, Map.copyOf(outcomes));
+    }
+
+}
@@ -0,0 +1,109 @@
+package guru.nicks.commons.statemachine.domain;
+
+import jakarta.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotBlank;
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Compact descriptor of an exception raised by a transition-bound action, to be stored in the extended state instead
+ * of the exception itself (see {@link ExtendedState#saveLastErrorInStateMachine}). Unlike exceptions, it has no cause
+ * chain and at most a few stack frames, so it's cheap to build, log, and persist.
+ *
+ * @param type       exception class name
+ * @param message    exception message
+ * @param code       application-specific error code
+ * @param stackTrace top stack frames, one per line, {@code null} if not kept
+ */
+public record StateMachineError(
+        String type,
+        @Nullable String message,
+        @Nullable String code,
+        @Nullable String stackTrace) {
+
+    /**
+     * Default number of stack frames kept by {@link #of(Throwable)}.
+     */
+    public static final int DEFAULT_MAX_STACK_FRAMES = 5;
+
+    public StateMachineError {
+        checkNotBlank(type, "type");
+    }
+
+    /**
+     * Same as {@link #of(Throwable, String, int)}, without error code, with {@link #DEFAULT_MAX_STACK_FRAMES}.
+     *
+     * @param e exception
+     * @return descriptor
+     */
+    public static StateMachineError of(Throwable e) {
+        return of(e, null, DEFAULT_MAX_STACK_FRAMES);
+    }
+
+    /**
+     * Describes the given exception. Its cause chain is discarded.
+     *
+     * @param e              exception
+     * @param code           application-specific error code
+     * @param maxStackFrames number of top stack frames to keep, 0 to keep none
+     * @return descriptor
+     */
+    public static StateMachineError of(Throwable e, @Nullable String code, int maxStackFrames) {
+        checkNotNull(e, "e");
+
+        StackTraceElement[] frames = e.getStackTrace();
+        String stackTrace = null;
+
+        if ((maxStackFrames > 0) && (frames.length > 0)) {
+            stackTrace = Arrays.stream(frames)
+                    .limit(maxStackFrames)
+                    .map(frame -> "\tat " + frame)
+                    .collect(Collectors.joining("\n"));
+
+            if (frames.length > maxStackFrames) {
+                stackTrace += "\n\t... " + (frames.length - maxStackFrames) + " more";
+            }
+        }
+
+        return new StateMachineError(e.getClass().getName(), e.getMessage(), code, stackTrace);
+    }
+
+    /**
+     * Rebuilds exception out of this descriptor. Its message consists of the code (if any), the original exception
+     * type and message; its stack trace is empty - it would point to this method, not to where the error happened
+     * ({@link #stackTrace()} does).
+     *
+     * @return exception
+     */
+    public StateMachineException toException() {
+        var e = new StateMachineException(toString());
+        e.setStackTrace(new StackTraceElement[0]);
+        return e;
+    }
+
+    /**
+     * Returns {@code [code] type: message}, like {@link Throwable#toString()}.
+     *
+     * @return string representation without the stack trace
+     */
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+
+        if (code != null) {
+            sb.append('[').append(code).append("] ");
+        }
+
+        sb.append(type);
+
+        if (message != null) {
+            sb.append(": ").append(message);
+        }
+
+        return sb.toString();
+    }
+
+}
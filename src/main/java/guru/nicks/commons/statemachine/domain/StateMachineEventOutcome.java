@@ -0,0 +1,99 @@
+package guru.nicks.commons.statemachine.domain;
+
+import guru.nicks.commons.exception.http.ConflictException;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachine;
+
+/**
+ * Outcome of sending one event to a state machine.
+ *
+ * @param event     event
+ * @param status    what happened to the event
+ * @param exception {@code null} for {@link Status#ACCEPTED} and {@link Status#SKIPPED}; {@link ConflictException} for
+ *                  {@link Status#DENIED}; exception thrown by the transition-bound action (or by the state machine
+ *                  itself) for {@link Status#FAILED}
+ * @param <E>       event type
+ */
+public record StateMachineEventOutcome<E>(
+        E event,
+        Status status,
+        @Nullable Exception exception) {
+
+    /**
+     * Builds outcome of an event which has just been processed by the given state machine.
+     *
+     * @param stateMachine state machine
+     * @param event        event sent
+     * @param eventDenied  whether the state machine has reported the event as denied
+     * @param <E>          event type
+     * @return {@link Status#FAILED} if the transition-bound action has stored an exception in
+     *         {@link ExtendedState#LAST_EXCEPTION_KEY}, {@link Status#DENIED} if the event doesn't match the transition
+     *         graph, {@link Status#ACCEPTED} otherwise
+     */
+    public static <E> StateMachineEventOutcome<E> of(StateMachine<?, E> stateMachine, E event, boolean eventDenied) {
+        Exception lastException = ExtendedState.readLastExceptionFromStateMachine(stateMachine);
+
+        if (lastException != null) {
+            return new StateMachineEventOutcome<>(event, Status.FAILED, lastException);
+        }
+
+        // event denied, but there's no exception from a transition-bound action - this means no action was invoked
+        // at all because the event didn't match the transition graph
+        if (eventDenied) {
+            return denied(event, stateMachine.getState().getId());
+        }
+
+        return accepted(event);
+    }
+
+    /**
+     * Builds {@link Status#DENIED} outcome.
+     *
+     * @param event event denied
+     * @param state state in which the event was denied (for the exception message)
+     * @param <E>   event type
+     * @return outcome with {@link ConflictException}
+     */
+    public static <E> StateMachineEventOutcome<E> denied(E event, @Nullable Object state) {
+        return new StateMachineEventOutcome<>(event, Status.DENIED,
+                new ConflictException("Event '" + event + "' not accepted in state '" + state + "'"));
+    }
+
+    public static <E> StateMachineEventOutcome<E> accepted(E event) {
+        return new StateMachineEventOutcome<>(event, Status.ACCEPTED, null);
+    }
+
+    public static <E> StateMachineEventOutcome<E> skipped(E event) {
+        return new StateMachineEventOutcome<>(event, Status.SKIPPED, null);
+    }
+
+    public boolean isAccepted() {
+        return status == Status.ACCEPTED;
+    }
+
+    public enum Status {
+
+        /**
+         * Event processed successfully, transition has taken place.
+         */
+        ACCEPTED,
+
+        /**
+         * Event doesn't match the transition graph in the current state - no action was invoked.
+         */
+        DENIED,
+
+        /**
+         * Transition-bound action (or the state machine itself) failed.
+         */
+        FAILED,
+
+        /**
+         * Event was not sent at all because a previous event in the same batch was not accepted.
+         */
+        SKIPPED
+
+    }
+
+}
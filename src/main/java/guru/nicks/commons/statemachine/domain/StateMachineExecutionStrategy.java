@@ -0,0 +1,25 @@
+package guru.nicks.commons.statemachine.domain;
+
+/**
+ * Where state machine events (including transition-bound actions and listeners, which the state machine calls
+ * synchronously while processing events) are executed.
+ */
+public enum StateMachineExecutionStrategy {
+
+    /**
+     * New virtual thread per event. Blocking I/O in actions costs almost nothing, but {@code synchronized} blocks
+     * holding I/O pin carrier threads.
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * Bounded pool of platform threads with a bounded task queue; events are rejected when both are exhausted.
+     */
+    BOUNDED_ELASTIC,
+
+    /**
+     * Thread which sends the event - no offloading (the state machine default).
+     */
+    CALLER_RUNS
+
+}
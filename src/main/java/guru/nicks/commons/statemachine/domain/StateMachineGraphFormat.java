@@ -0,0 +1,31 @@
+package guru.nicks.commons.statemachine.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.http.entity.ContentType;
+
+/**
+ * State machine graph formats. Unlike GraphViz formats, usable without the (optional) GraphViz dependency.
+ */
+@RequiredArgsConstructor
+@Getter
+public enum StateMachineGraphFormat {
+
+    /**
+     * GraphViz DOT language, rendered without the GraphViz engine.
+     */
+    DOT(ContentType.TEXT_PLAIN),
+
+    /**
+     * SVG, rendered without the GraphViz engine unless requested otherwise.
+     */
+    SVG(ContentType.IMAGE_SVG),
+
+    /**
+     * PNG, rendered by the GraphViz engine (requires {@code guru.nidi:graphviz-java}).
+     */
+    PNG(ContentType.IMAGE_PNG);
+
+    private final ContentType contentType;
+
+}
@@ -0,0 +1,99 @@
+package guru.nicks.commons.statemachine.domain;
+
+import java.util.List;
+
+/**
+ * Point-in-time copy of the traffic recorded by {@code StateMachineTrafficMonitor}, with states and events already
+ * converted to the names used in state machine graphs.
+ *
+ * @param transitions transitions taken, with their latencies
+ * @param denials     events denied, by the state they were denied in
+ */
+public record StateMachineTrafficSnapshot(
+        List<Transition> transitions,
+        List<Denial> denials) {
+
+    public StateMachineTrafficSnapshot {
+        transitions = List.copyOf(transitions);
+        denials = List.copyOf(denials);
+    }
+
+    /**
+     * Returns the number of times the event was denied in the state.
+     *
+     * @param state state name
+     * @param event event name
+     * @return denial count
+     */
+    public long getDenialCount(String state, String event) {
+        return denials.stream()
+                .filter(denial -> denial.state().equals(state) && denial.event().equals(event))
+                .mapToLong(Denial::count)
+                .sum();
+    }
+
+    /**
+     * Returns the number of times the event was accepted in the state, for all target states.
+     *
+     * @param state state name
+     * @param event event name
+     * @return acceptance count
+     */
+    public long getAcceptanceCount(String state, String event) {
+        return transitions.stream()
+                .filter(transition -> transition.source().equals(state) && transition.event().equals(event))
+                .mapToLong(Transition::count)
+                .sum();
+    }
+
+    /**
+     * Returns the share of the event's occurrences in the state that were denied.
+     *
+     * @param state state name
+     * @param event event name
+     * @return denial rate (0..1), 0 if the event hasn't occurred in the state
+     */
+    public double getDenialRate(String state, String event) {
+        long denied = getDenialCount(state, event);
+        long total = denied + getAcceptanceCount(state, event);
+
+        return (total == 0)
+                ? 0
+                : (double) denied / total;
+    }
+
+    /**
+     * Transition traffic. Latency percentiles are approximate (see {@code StateMachineTrafficMonitor}).
+     *
+     * @param source    source state name
+     * @param target    target state name
+     * @param event     event name, empty for triggerless transitions
+     * @param count     number of times the transition has been taken
+     * @param p50Millis median duration
+     * @param p99Millis 99th percentile duration
+     * @param maxMillis max duration
+     */
+    public record Transition(
+            String source,
+            String target,
+            String event,
+            long count,
+            long p50Millis,
+            long p99Millis,
+            long maxMillis) {
+    }
+
+    /**
+     * Denied event.
+     *
+     * @param state state name
+     * @param event event name
+     * @param count number of denials
+     */
+    public record Denial(
+            String state,
+            String event,
+            long count) {
+    }
+
+}
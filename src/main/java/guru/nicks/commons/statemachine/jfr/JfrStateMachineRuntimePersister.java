@@ -0,0 +1,75 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.util.Objects;
+
+/**
+ * Runtime persister which emits {@link StateMachinePersistEvent} around each write/read of the delegate, for example:
+ * <pre>{@code
+ * new JfrStateMachineRuntimePersister<>(new JpaPersistingStateMachineInterceptor<>(repository))
+ * }</pre>
+ * Only the delegate's {@link StateMachinePersist} methods are used - its interceptor (if any) is replaced by this one.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ */
+public class JfrStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T> {
+
+    private final StateMachinePersist<S, E, T> delegate;
+
+    public JfrStateMachineRuntimePersister(StateMachinePersist<S, E, T> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        var jfrEvent = new StateMachinePersistEvent();
+        jfrEvent.begin();
+
+        delegate.write(context, contextObj);
+
+        jfrEvent.end();
+
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.setMachineId(Objects.toString(contextObj));
+            jfrEvent.setOperation("write");
+            jfrEvent.setState(Objects.toString(context.getState(), null));
+            jfrEvent.commit();
+        }
+    }
+
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        var jfrEvent = new StateMachinePersistEvent();
+        jfrEvent.begin();
+
+        StateMachineContext<S, E> context = delegate.read(contextObj);
+
+        jfrEvent.end();
+
+        if (jfrEvent.shouldCommit()) {
+            jfrEvent.setMachineId(Objects.toString(contextObj));
+            jfrEvent.setOperation("read");
+            jfrEvent.setState((context == null)
+                    ? null
+                    : Objects.toString(context.getState(), null));
+            jfrEvent.commit();
+        }
+
+        return context;
+    }
+
+}
@@ -0,0 +1,33 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import guru.nicks.commons.statemachine.CachingStateMachineService;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * State machine acquisition: returned from cache, or built and restored from a persistent storage.
+ *
+ * @see CachingStateMachineService
+ */
+@Name("guru.nicks.commons.statemachine.Acquire")
+@Label("State Machine Acquire")
+@Category({"Nicks.Guru", "State Machine"})
+@Description("State machine acquired from cache or built and restored from persistent storage")
+@StackTrace(false)
+@Setter
+public class StateMachineAcquireEvent extends Event {
+
+    @Label("Machine ID")
+    String machineId;
+
+    @Label("Cached")
+    @Description("Whether the machine was already started and cached")
+    boolean cached;
+
+}
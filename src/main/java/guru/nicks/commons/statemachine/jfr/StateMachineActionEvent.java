@@ -0,0 +1,40 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import lombok.Setter;
+
+/**
+ * Completed action. The state machine reports actions after the fact, so the event is committed at the end of the
+ * action and its duration is in {@link #actionDuration}.
+ *
+ * @see StateMachineJfrMonitor
+ */
+@Name("guru.nicks.commons.statemachine.Action")
+@Label("State Machine Action")
+@Category({"Nicks.Guru", "State Machine"})
+@Description("Action execution, reported by the state machine monitor upon completion")
+@StackTrace(false)
+@Setter
+public class StateMachineActionEvent extends Event {
+
+    @Label("Machine ID")
+    String machineId;
+
+    @Label("State")
+    @Description("State the machine was in when the action completed")
+    String state;
+
+    @Label("Action")
+    String action;
+
+    @Label("Action Duration")
+    @Timespan(Timespan.MILLISECONDS)
+    long actionDuration;
+
+}
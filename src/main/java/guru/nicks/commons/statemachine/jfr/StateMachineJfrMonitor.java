@@ -0,0 +1,68 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.monitor.AbstractStateMachineMonitor;
+import org.springframework.statemachine.state.State;
+import org.springframework.statemachine.transition.Transition;
+import org.springframework.statemachine.trigger.Trigger;
+import reactor.core.publisher.Mono;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Emits {@link StateMachineTransitionEvent} and {@link StateMachineActionEvent}. If the events are not enabled in the
+ * current recording (or there's no recording at all), nothing is converted to strings.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+public class StateMachineJfrMonitor<S, E> extends AbstractStateMachineMonitor<S, E> {
+
+    @Override
+    public void transition(StateMachine<S, E> stateMachine, Transition<S, E> transition, long duration) {
+        var jfrEvent = new StateMachineTransitionEvent();
+
+        if (!jfrEvent.shouldCommit()) {
+            return;
+        }
+
+        Trigger<S, E> trigger = transition.getTrigger();
+
+        jfrEvent.setMachineId(stateMachine.getId());
+        // null during initialization
+        jfrEvent.setSource(toString(transition.getSource()));
+        jfrEvent.setTarget(toString(transition.getTarget()));
+        jfrEvent.setEvent((trigger == null)
+                ? null
+                : Objects.toString(trigger.getEvent(), null));
+        jfrEvent.setTransitionDuration(duration);
+        jfrEvent.commit();
+    }
+
+    @Override
+    public void action(StateMachine<S, E> stateMachine, Function<StateContext<S, E>, Mono<Void>> action,
+            long duration) {
+        var jfrEvent = new StateMachineActionEvent();
+
+        if (!jfrEvent.shouldCommit()) {
+            return;
+        }
+
+        jfrEvent.setMachineId(stateMachine.getId());
+        jfrEvent.setState(toString(stateMachine.getState()));
+        jfrEvent.setAction(action.getClass().getName());
+        jfrEvent.setActionDuration(duration);
+        jfrEvent.commit();
+    }
+
+    @Nullable
+    private String toString(@Nullable State<S, E> state) {
+        return (state == null)
+                ? null
+                : Objects.toString(state.getId(), null);
+    }
+
+}
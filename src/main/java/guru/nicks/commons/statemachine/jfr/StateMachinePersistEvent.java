@@ -0,0 +1,34 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * State machine context written to (or read from) a persistent storage.
+ *
+ * @see JfrStateMachineRuntimePersister
+ */
+@Name("guru.nicks.commons.statemachine.Persist")
+@Label("State Machine Persist")
+@Category({"Nicks.Guru", "State Machine"})
+@Description("State machine context written to or read from persistent storage")
+@StackTrace(false)
+@Setter
+public class StateMachinePersistEvent extends Event {
+
+    @Label("Machine ID")
+    String machineId;
+
+    @Label("Operation")
+    @Description("'write' or 'read'")
+    String operation;
+
+    @Label("State")
+    String state;
+
+}
@@ -0,0 +1,33 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import guru.nicks.commons.statemachine.StateMachineStartCompletionListener;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Waiting for state machine start (including the start itself).
+ *
+ * @see StateMachineStartCompletionListener
+ */
+@Name("guru.nicks.commons.statemachine.Start")
+@Label("State Machine Start")
+@Category({"Nicks.Guru", "State Machine"})
+@Description("State machine start, until the machine has notified of it")
+@StackTrace(false)
+@Setter
+public class StateMachineStartEvent extends Event {
+
+    @Label("Machine ID")
+    String machineId;
+
+    @Label("State")
+    @Description("State after start")
+    String state;
+
+}
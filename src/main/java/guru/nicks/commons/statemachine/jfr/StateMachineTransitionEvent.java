@@ -0,0 +1,42 @@
+package guru.nicks.commons.statemachine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import lombok.Setter;
+
+/**
+ * Completed state transition. The state machine reports transitions after the fact, so the event is committed at the
+ * end of the transition and its duration is in {@link #transitionDuration}.
+ *
+ * @see StateMachineJfrMonitor
+ */
+@Name("guru.nicks.commons.statemachine.Transition")
+@Label("State Machine Transition")
+@Category({"Nicks.Guru", "State Machine"})
+@Description("State transition, reported by the state machine monitor upon completion")
+@StackTrace(false)
+@Setter
+public class StateMachineTransitionEvent extends Event {
+
+    @Label("Machine ID")
+    String machineId;
+
+    @Label("Source State")
+    String source;
+
+    @Label("Target State")
+    String target;
+
+    @Label("Event")
+    String event;
+
+    @Label("Transition Duration")
+    @Timespan(Timespan.MILLISECONDS)
+    long transitionDuration;
+
+}
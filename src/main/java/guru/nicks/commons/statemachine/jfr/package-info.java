@@ -0,0 +1,9 @@
+/**
+ * Java Flight Recorder events. All of them are in the {@code State Machine} category, so they can be enabled in a
+ * recording settings file by name (e.g. {@code guru.nicks.commons.statemachine.Transition#enabled=true}) or all at
+ * once in JDK Mission Control. When recording is off, emitting them costs next to nothing.
+ */
+@NonNullApi
+package guru.nicks.commons.statemachine.jfr;
+
+import org.springframework.lang.NonNullApi;
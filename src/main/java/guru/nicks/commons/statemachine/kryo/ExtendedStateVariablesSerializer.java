@@ -0,0 +1,74 @@
+package guru.nicks.commons.statemachine.kryo;
+
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.ExtendedStateVariables;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Map;
+
+/**
+ * Writes {@link ExtendedStateVariables} slots as property ordinals followed by values, instead of {@link ExtendedState}
+ * keys (class and constant name). Other variables are written as key/value pairs.
+ * <p>
+ * The class is not in {@link KryoClassRegistry} (registering it would shift the IDs of already registered classes), so
+ * in strict mode it has to be added to {@code commons.statemachine.kryo.additional-classes}.
+ */
+public class ExtendedStateVariablesSerializer extends Serializer<ExtendedStateVariables<?>> {
+
+    @Override
+    public void write(Kryo kryo, Output output, ExtendedStateVariables<?> variables) {
+        kryo.writeClass(output, variables.getPropertyClass());
+
+        int slotCount = (int) variables.keySet()
+                .stream()
+                .filter(variables::isSlot)
+                .count();
+        output.writeVarInt(slotCount, true);
+        output.writeVarInt(variables.size() - slotCount, true);
+
+        // slots come first
+        for (Map.Entry<Object, Object> entry : variables.entrySet()) {
+            if (variables.isSlot(entry.getKey())) {
+                output.writeVarInt(((Enum<?>) entry.getKey()).ordinal(), true);
+            } else {
+                kryo.writeClassAndObject(output, entry.getKey());
+            }
+
+            kryo.writeClassAndObject(output, entry.getValue());
+        }
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public ExtendedStateVariables<?> read(Kryo kryo, Input input, Class<? extends ExtendedStateVariables<?>> type) {
+        Class propertyClass = kryo.readClass(input).getType();
+        Object[] properties = propertyClass.getEnumConstants();
+
+        var variables = new ExtendedStateVariables(propertyClass);
+        kryo.reference(variables);
+
+        int slotCount = input.readVarInt(true);
+        int otherCount = input.readVarInt(true);
+
+        for (int i = 0; i < slotCount; i++) {
+            int ordinal = input.readVarInt(true);
+            if (ordinal >= properties.length) {
+                throw new KryoException("Extended state property ordinal out of range: " + ordinal);
+            }
+
+            variables.put(properties[ordinal], kryo.readClassAndObject(input));
+        }
+
+        for (int i = 0; i < otherCount; i++) {
+            variables.put(kryo.readClassAndObject(input), kryo.readClassAndObject(input));
+        }
+
+        return variables;
+    }
+
+}
@@ -0,0 +1,217 @@
+package guru.nicks.commons.statemachine.kryo;
+
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+
+import com.esotericsoftware.kryo.Kryo;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Immutable list of classes registered in each {@link Kryo} instance under fixed IDs. Registered classes are written
+ * as small varint IDs instead of fully qualified class names, which makes payloads smaller and faster to decode.
+ * <p>
+ * Classes are sorted by name, so the same set of classes always gets the same IDs, regardless of the order they were
+ * discovered in (bean definition order, etc.). However, <b>adding or removing classes changes the IDs</b> of the
+ * classes sorted after them - payloads written with registration IDs can only be read back with the same registry.
+ * That's why the autoconfigured serialisation service applies the registry in strict mode only
+ * ({@code registration-required=true}), when the set of classes is pinned anyway.
+ *
+ * @see #forStateMachineAware(Class)
+ */
+public final class KryoClassRegistry {
+
+    /**
+     * Kryo's own default registrations (primitives, {@link String}, etc.) occupy the lowest IDs.
+     */
+    public static final int FIRST_REGISTRATION_ID = 100;
+
+    /**
+     * Classes {@link DefaultStateMachineContext} object graphs consist of, apart from states, events, and extended
+     * state keys/values.
+     */
+    private static final List<Class<?>> STATE_MACHINE_CONTEXT_CLASSES = List.of(
+            StateMachineContext.class,
+            DefaultStateMachineContext.class,
+            MessageHeaders.class,
+            UUID.class,
+            ArrayList.class,
+            HashMap.class,
+            LinkedHashMap.class,
+            ConcurrentHashMap.class,
+            Collections.emptyList().getClass(),
+            Collections.emptyMap().getClass());
+
+    private static final KryoClassRegistry EMPTY = new KryoClassRegistry(List.of());
+
+    private final List<Class<?>> classes;
+
+    private KryoClassRegistry(List<Class<?>> classes) {
+        this.classes = classes;
+    }
+
+    public static KryoClassRegistry empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Creates registry out of the given classes. Duplicates, primitives, their wrappers, and {@link String} (which are
+     * registered by Kryo itself) are skipped.
+     *
+     * @param classes classes to register
+     * @return registry
+     */
+    public static KryoClassRegistry of(Collection<Class<?>> classes) {
+        checkNotNull(classes, "classes");
+
+        List<Class<?>> sortedClasses = classes.stream()
+                .filter(clazz -> !ClassUtils.isPrimitiveOrWrapper(clazz) && (clazz != String.class))
+                .distinct()
+                .sorted(Comparator.comparing(Class::getName))
+                .toList();
+        return new KryoClassRegistry(sortedClasses);
+    }
+
+    /**
+     * Collects classes needed to serialize state machine contexts of the given {@link StateMachineAware} /
+     * {@link ReactiveStateMachineAware} implementations: the {@link DefaultStateMachineContext} object graph, state and
+     * event types, extended state property types, and their {@link ExtendedState#getValueClass() value classes}.
+     * <p>
+     * Only class metadata is inspected, no beans are instantiated.
+     *
+     * @param stateMachineAwareClasses implementation classes
+     * @return classes to be passed to {@link #of(Collection)}
+     */
+    public static Set<Class<?>> forStateMachineAware(Collection<Class<?>> stateMachineAwareClasses) {
+        checkNotNull(stateMachineAwareClasses, "stateMachineAwareClasses");
+
+        Set<Class<?>> result = new LinkedHashSet<>(STATE_MACHINE_CONTEXT_CLASSES);
+        stateMachineAwareClasses.forEach(clazz -> result.addAll(forStateMachineAware(clazz)));
+        return result;
+    }
+
+    /**
+     * Same as {@link #forStateMachineAware(Collection)}, for the {@link StateMachineAware} /
+     * {@link ReactiveStateMachineAware} bean definitions' classes - beans themselves are not instantiated, which avoids
+     * circular dependencies (state machine services depend on persisters which depend on serialisation services) and
+     * also works during AOT processing, when no beans exist.
+     *
+     * @param beanFactory bean factory
+     * @return classes to be passed to {@link #of(Collection)}
+     */
+    public static Set<Class<?>> forStateMachineAwareBeans(ListableBeanFactory beanFactory) {
+        checkNotNull(beanFactory, "beanFactory");
+        Set<Class<?>> stateMachineAwareClasses = new LinkedHashSet<>();
+
+        for (Class<?> interfaceClass : List.of(StateMachineAware.class, ReactiveStateMachineAware.class)) {
+            for (String beanName : beanFactory.getBeanNamesForType(interfaceClass, true, false)) {
+                Class<?> beanClass = beanFactory.getType(beanName, false);
+
+                if (beanClass != null) {
+                    stateMachineAwareClasses.add(beanClass);
+                }
+            }
+        }
+
+        return forStateMachineAware(stateMachineAwareClasses);
+    }
+
+    /**
+     * Returns classes {@link DefaultStateMachineContext} object graphs consist of, apart from states, events, and
+     * extended state keys/values. They're part of {@link #forStateMachineAware(Collection)} results.
+     *
+     * @return classes (immutable)
+     */
+    public static List<Class<?>> getStateMachineContextClasses() {
+        return STATE_MACHINE_CONTEXT_CLASSES;
+    }
+
+    /**
+     * Same as {@link #forStateMachineAware(Collection)}, for a single class, without the
+     * {@link DefaultStateMachineContext} object graph classes.
+     *
+     * @param stateMachineAwareClass implementation class (CGLIB proxies are unwrapped)
+     * @return state, event, extended state property types, and their value classes; empty if generics are unresolvable
+     */
+    public static Set<Class<?>> forStateMachineAware(Class<?> stateMachineAwareClass) {
+        checkNotNull(stateMachineAwareClass, "stateMachineAwareClass");
+
+        Class<?> userClass = ClassUtils.getUserClass(stateMachineAwareClass);
+        Set<Class<?>> result = new LinkedHashSet<>();
+
+        for (Class<?> interfaceClass : List.of(StateMachineAware.class, ReactiveStateMachineAware.class)) {
+            // <S, E, P, ID> - ID is not part of state machine context
+            ResolvableType[] generics = ResolvableType.forClass(userClass).as(interfaceClass).getGenerics();
+            if (generics.length < 3) {
+                continue;
+            }
+
+            for (int i = 0; i < 3; i++) {
+                Class<?> clazz = generics[i].resolve();
+
+                if ((clazz != null) && (clazz != Object.class)) {
+                    result.add(clazz);
+                }
+            }
+
+            Class<?> propertyClass = generics[2].resolve();
+            if ((propertyClass != null) && propertyClass.isEnum()
+                    && ExtendedState.class.isAssignableFrom(propertyClass)) {
+                for (Object property : propertyClass.getEnumConstants()) {
+                    result.add(((ExtendedState) property).getValueClass());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Registers all classes in the given Kryo instance, starting from {@link #FIRST_REGISTRATION_ID}. Default
+     * serializers must be added before this call - they're resolved at registration time.
+     *
+     * @param kryo Kryo instance
+     */
+    public void registerIn(Kryo kryo) {
+        for (int i = 0; i < classes.size(); i++) {
+            kryo.register(classes.get(i), FIRST_REGISTRATION_ID + i);
+        }
+    }
+
+    /**
+     * Returns registered classes in registration ID order.
+     *
+     * @return classes (immutable)
+     */
+    public List<Class<?>> getClasses() {
+        return classes;
+    }
+
+    @Override
+    public String toString() {
+        return classes.stream()
+                .map(Class::getName)
+                .collect(Collectors.joining(", ", "KryoClassRegistry[", "]"));
+    }
+
+}
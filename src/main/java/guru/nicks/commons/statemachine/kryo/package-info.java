@@ -0,0 +1,7 @@
+/**
+ * Kryo setup shared by state machine context serialization: class registry and instance pools.
+ */
+@NonNullApi
+package guru.nicks.commons.statemachine.kryo;
+
+import org.springframework.lang.NonNullApi;
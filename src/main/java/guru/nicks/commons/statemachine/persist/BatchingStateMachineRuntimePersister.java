@@ -0,0 +1,190 @@
+package guru.nicks.commons.statemachine.persist;
+
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.domain.StateMachineException;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Runtime persister which can suspend writes for a machine while a batch of events is being processed, and then write
+ * only the last context - so a batch costs one write instead of one per transition. Outside batches, writes go
+ * straight to the delegate, for example:
+ * <pre>{@code
+ * new BatchingStateMachineRuntimePersister<>(new JpaPersistingStateMachineInterceptor<>(repository))
+ * }</pre>
+ * {@link StateMachineAware#processEventsInStateMachine(Object, List)} uses batches automatically if this persister is
+ * returned by {@link StateMachineAware#getStateMachinePersist()}. Only the delegate's {@link StateMachinePersist}
+ * methods are used - its interceptor (if any) is replaced by this one.
+ * <p>
+ * While a batch is open, {@link #read(Object)} returns the context to be written, so read-only accessors see the
+ * machine's latest state. Intermediate contexts are never persisted: if the node crashes before the batch ends, the
+ * machine is restored in the state it had before the batch.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ */
+public class BatchingStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T> {
+
+    private final StateMachinePersist<S, E, T> delegate;
+    private final Map<T, Batch<S, E>> batches = new ConcurrentHashMap<>();
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder deferredWrites = new LongAdder();
+
+    public BatchingStateMachineRuntimePersister(StateMachinePersist<S, E, T> delegate) {
+        this.delegate = checkNotNull(delegate, "delegate");
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    /**
+     * Calls the given function with writes for the given machine suspended, then writes the last context stored
+     * meanwhile (if any). Batches may be nested - the context is written when the outermost one ends. The context is
+     * written even if the function fails, because the machine has changed anyway.
+     *
+     * @param contextObj context object (machine ID)
+     * @param function   function to call
+     * @param <R>        function result type
+     * @return what the function has returned
+     * @throws StateMachineException failed to write the context
+     */
+    @Nullable
+    public <R> R callInBatch(T contextObj, Supplier<R> function) {
+        checkNotNull(contextObj, "contextObj");
+        checkNotNull(function, "function");
+
+        batches.compute(contextObj, (id, batch) -> {
+            Batch<S, E> result = (batch == null) ? new Batch<>() : batch;
+            result.depth++;
+            return result;
+        });
+
+        R result;
+
+        try {
+            result = function.get();
+        } catch (RuntimeException e) {
+            try {
+                endBatch(contextObj);
+            } catch (RuntimeException writeException) {
+                e.addSuppressed(writeException);
+            }
+
+            throw e;
+        }
+
+        endBatch(contextObj);
+        return result;
+    }
+
+    /**
+     * Writes the context to the delegate, or (if a batch is open for the machine) keeps it until the batch ends.
+     */
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(contextObj, "contextObj");
+
+        Batch<S, E> batch = batches.computeIfPresent(contextObj, (id, openBatch) -> {
+            openBatch.pendingContext = context;
+            return openBatch;
+        });
+
+        if (batch != null) {
+            deferredWrites.increment();
+            return;
+        }
+
+        writes.increment();
+        delegate.write(context, contextObj);
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        checkNotNull(contextObj, "contextObj");
+        Batch<S, E> batch = batches.get(contextObj);
+        // field read is racy, but the context (if any) is complete - it's assigned after being built
+        StateMachineContext<S, E> pendingContext = (batch == null) ? null : batch.pendingContext;
+
+        return (pendingContext == null)
+                ? delegate.read(contextObj)
+                : pendingContext;
+    }
+
+    /**
+     * Returns the number of contexts written to the delegate.
+     *
+     * @return write count
+     */
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    /**
+     * Returns the number of contexts which were not written right away because a batch was open. Only the last one of
+     * each batch is written eventually.
+     *
+     * @return deferred write count
+     */
+    public long getDeferredWriteCount() {
+        return deferredWrites.sum();
+    }
+
+    private void endBatch(T contextObj) {
+        var batchToWrite = new Batch<S, E>();
+
+        batches.computeIfPresent(contextObj, (id, batch) -> {
+            if (--batch.depth > 0) {
+                return batch;
+            }
+
+            batchToWrite.pendingContext = batch.pendingContext;
+            return null;
+        });
+
+        StateMachineContext<S, E> context = batchToWrite.pendingContext;
+
+        if (context == null) {
+            return;
+        }
+
+        try {
+            writes.increment();
+            delegate.write(context, contextObj);
+        } catch (Exception e) {
+            throw new StateMachineException("Failed to write state machine context: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Open batch. Mutated only inside {@link ConcurrentHashMap} compute methods.
+     */
+    private static final class Batch<S, E> {
+
+        private int depth;
+        @Nullable
+        private volatile StateMachineContext<S, E> pendingContext;
+
+    }
+
+}
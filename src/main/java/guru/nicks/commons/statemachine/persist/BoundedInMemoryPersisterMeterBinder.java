@@ -0,0 +1,56 @@
+package guru.nicks.commons.statemachine.persist;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Exports {@link BoundedInMemoryStateMachineRuntimePersister} state, tagged by {@code persister} name:
+ * <ul>
+ *     <li>{@value #ENTRIES_GAUGE} - number of contexts held</li>
+ *     <li>{@value #BYTES_GAUGE} - estimated bytes of contexts held</li>
+ *     <li>{@value #EVICTIONS_COUNTER} - contexts evicted</li>
+ *     <li>{@value #SPILL_FAILURES_COUNTER} - evicted contexts the spill persister has failed to write</li>
+ * </ul>
+ * Register as a bean (Spring Boot binds all {@link MeterBinder} beans) or call {@link #bindTo(MeterRegistry)}.
+ */
+@RequiredArgsConstructor
+public class BoundedInMemoryPersisterMeterBinder implements MeterBinder {
+
+    public static final String ENTRIES_GAUGE = "statemachine.persister.entries";
+    public static final String BYTES_GAUGE = "statemachine.persister.bytes";
+    public static final String EVICTIONS_COUNTER = "statemachine.persister.evictions";
+    public static final String SPILL_FAILURES_COUNTER = "statemachine.persister.spill.failures";
+
+    private final BoundedInMemoryStateMachineRuntimePersister<?, ?, ?> persister;
+    private final String persisterName;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("persister", persisterName);
+
+        Gauge.builder(ENTRIES_GAUGE, persister, BoundedInMemoryStateMachineRuntimePersister::getSize)
+                .tags(tags)
+                .description("State machine contexts held in memory")
+                .register(registry);
+        Gauge.builder(BYTES_GAUGE, persister, BoundedInMemoryStateMachineRuntimePersister::getEstimatedBytes)
+                .tags(tags)
+                .description("Estimated size of state machine contexts held in memory")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder(EVICTIONS_COUNTER, persister,
+                        BoundedInMemoryStateMachineRuntimePersister::getEvictionCount)
+                .tags(tags)
+                .description("State machine contexts evicted from memory")
+                .register(registry);
+        FunctionCounter.builder(SPILL_FAILURES_COUNTER, persister,
+                        BoundedInMemoryStateMachineRuntimePersister::getSpillFailureCount)
+                .tags(tags)
+                .description("Evicted state machine contexts not written to spill persister")
+                .register(registry);
+    }
+
+}
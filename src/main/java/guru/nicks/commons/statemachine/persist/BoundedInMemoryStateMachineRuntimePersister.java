@@ -0,0 +1,284 @@
+package guru.nicks.commons.statemachine.persist;
+
+import guru.nicks.commons.statemachine.StateMachineInMemoryRuntimePersister;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Unlike {@link StateMachineInMemoryRuntimePersister}, holds at most {@code maxEntries} contexts taking at most
+ * {@code maxBytes} (as estimated by the size estimator) and evicts the least recently used ones (reads and writes
+ * both count as use). Evicted contexts are written to the optional spill persister, which is also consulted on
+ * misses - the memory just acts as a bounded hot tier. Evicted contexts are read from memory until the spill
+ * persister has written them, and they're written in eviction order per key: if a context is evicted again while its
+ * previous version is still being written, the thread writing it writes the newer version afterward. Contexts are lost
+ * if there's no spill persister, or if it fails (see {@link #getSpillFailureCount()}).
+ * <p>
+ * Keys are {@code contextObj.toString()}, same as in {@link StateMachineInMemoryRuntimePersister}. Contexts are
+ * stored as is, not copied.
+ * <p>
+ * Size, estimated bytes, and evictions can be exported with {@link BoundedInMemoryPersisterMeterBinder}.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ */
+@Slf4j
+public class BoundedInMemoryStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T> {
+
+    /**
+     * Rough per-object overhead (header + fields) used by {@link #estimateSize(StateMachineContext)}.
+     */
+    private static final long OBJECT_OVERHEAD = 32;
+    /**
+     * Rough size of a map entry (entry object + boxed / small key and value).
+     */
+    private static final long MAP_ENTRY_SIZE = 96;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ToLongFunction<StateMachineContext<S, E>> sizeEstimator;
+    @Nullable
+    private final StateMachinePersist<S, E, T> spillPersister;
+
+    // guarded by 'this'; access order = LRU
+    private final LinkedHashMap<String, Entry<S, E, T>> storage = new LinkedHashMap<>(16, 0.75F, true);
+    /**
+     * Latest evicted context of each key being written to the spill persister. Guarded by 'this'.
+     */
+    private final Map<String, Entry<S, E, T>> spillingEntries = new HashMap<>();
+    private long estimatedBytes;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder spillFailures = new LongAdder();
+
+    /**
+     * Constructor. Sizes are estimated with {@link #estimateSize(StateMachineContext)}, evicted contexts are dropped.
+     *
+     * @param maxEntries max number of contexts
+     * @param maxBytes   max estimated bytes of all contexts
+     */
+    public BoundedInMemoryStateMachineRuntimePersister(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, BoundedInMemoryStateMachineRuntimePersister::estimateSize, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries     max number of contexts
+     * @param maxBytes       max estimated bytes of all contexts
+     * @param sizeEstimator  estimates context size in bytes, for example
+     *                       {@code context -> serialisationService.serialiseStateMachineContext(context).length}
+     *                       (exact, but costs a serialisation per write)
+     * @param spillPersister receives evicted contexts and serves misses; if {@code null}, evicted contexts are lost
+     */
+    public BoundedInMemoryStateMachineRuntimePersister(int maxEntries, long maxBytes,
+            ToLongFunction<StateMachineContext<S, E>> sizeEstimator,
+            @Nullable StateMachinePersist<S, E, T> spillPersister) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive");
+        }
+
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.sizeEstimator = checkNotNull(sizeEstimator, "sizeEstimator");
+        this.spillPersister = spillPersister;
+    }
+
+    /**
+     * Estimates heap footprint of the context: fixed overhead plus the ID, message headers, extended state variables,
+     * history states, and child contexts (recursively). Values aren't inspected - each map entry is assumed to take
+     * {@value #MAP_ENTRY_SIZE} bytes, which is typical for enums, UUIDs, boxed numbers, and short strings.
+     *
+     * @param context context
+     * @return estimated size in bytes
+     */
+    public static long estimateSize(StateMachineContext<?, ?> context) {
+        long size = OBJECT_OVERHEAD * 3;
+
+        if (context.getId() != null) {
+            size += OBJECT_OVERHEAD + context.getId().length();
+        }
+
+        if (context.getEventHeaders() != null) {
+            size += OBJECT_OVERHEAD + MAP_ENTRY_SIZE * context.getEventHeaders().size();
+        }
+
+        if (context.getExtendedState() != null) {
+            size += OBJECT_OVERHEAD + MAP_ENTRY_SIZE * context.getExtendedState().getVariables().size();
+        }
+
+        if (context.getHistoryStates() != null) {
+            size += OBJECT_OVERHEAD + MAP_ENTRY_SIZE * context.getHistoryStates().size();
+        }
+
+        if (context.getChilds() != null) {
+            for (StateMachineContext<?, ?> child : context.getChilds()) {
+                size += estimateSize(child);
+            }
+        }
+
+        return size;
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(contextObj, "contextObj");
+
+        long size = sizeEstimator.applyAsLong(context);
+        String key = contextObj.toString();
+        int evictedCount = 0;
+        List<Entry<S, E, T>> entriesToSpill = new ArrayList<>(1);
+
+        synchronized (this) {
+            Entry<S, E, T> previous = storage.put(key, new Entry<>(key, contextObj, context, size));
+
+            if (previous != null) {
+                estimatedBytes -= previous.size();
+            }
+
+            estimatedBytes += size;
+
+            // keep at least the context just written, even if it alone exceeds max bytes
+            Iterator<Entry<S, E, T>> iterator = storage.values().iterator();
+
+            while (((storage.size() > maxEntries) || (estimatedBytes > maxBytes)) && (storage.size() > 1)) {
+                Entry<S, E, T> eldest = iterator.next();
+                iterator.remove();
+                estimatedBytes -= eldest.size();
+                evictedCount++;
+
+                // if an older version is being spilled, the thread spilling it will spill this one next
+                if ((spillPersister != null) && (spillingEntries.put(eldest.key(), eldest) == null)) {
+                    entriesToSpill.add(eldest);
+                }
+            }
+        }
+
+        evictions.add(evictedCount);
+
+        if ((spillPersister == null) && (evictedCount > 0)) {
+            log.debug("Evicted {} state machine contexts (no spill persister)", evictedCount);
+        }
+
+        // outside the lock, so slow spill persisters don't block other machines
+        entriesToSpill.forEach(this::spill);
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        checkNotNull(contextObj, "contextObj");
+        String key = contextObj.toString();
+        Entry<S, E, T> entry;
+
+        synchronized (this) {
+            entry = storage.get(key);
+
+            // evicted, but not written to the spill persister yet
+            if (entry == null) {
+                entry = spillingEntries.get(key);
+            }
+        }
+
+        if (entry != null) {
+            return entry.context();
+        }
+
+        return (spillPersister == null)
+                ? null
+                : spillPersister.read(contextObj);
+    }
+
+    public synchronized int getSize() {
+        return storage.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of evicted contexts which the spill persister has failed to write (and which are therefore
+     * lost).
+     *
+     * @return spill failure count
+     */
+    public long getSpillFailureCount() {
+        return spillFailures.sum();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Writes the evicted context to the spill persister, then - while a newer version of the same context has been
+     * evicted meanwhile - that version, so the spill persister receives them in eviction order. The last version
+     * written stops being served from memory only after that.
+     */
+    private void spill(Entry<S, E, T> entry) {
+        Entry<S, E, T> entryToSpill = entry;
+
+        while (entryToSpill != null) {
+            try {
+                spillPersister.write(entryToSpill.context(), entryToSpill.contextObj());
+            } catch (Exception e) {
+                spillFailures.increment();
+                log.error("Failed to spill evicted state machine context '{}': {}", entryToSpill.contextObj(),
+                        e.getMessage(), e);
+            }
+
+            synchronized (this) {
+                Entry<S, E, T> latestEntry = spillingEntries.get(entry.key());
+
+                if (latestEntry == entryToSpill) {
+                    spillingEntries.remove(entry.key());
+                    entryToSpill = null;
+                } else {
+                    entryToSpill = latestEntry;
+                }
+            }
+        }
+    }
+
+    private record Entry<S, E, T>(String key, T contextObj, StateMachineContext<S, E> context, long size) {
+    }
+
+}
@@ -0,0 +1,64 @@
+package guru.nicks.commons.statemachine.persist;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Exports {@link CachingStateMachineRuntimePersister} state, tagged by {@code persister} name:
+ * <ul>
+ *     <li>{@value BoundedInMemoryPersisterMeterBinder#ENTRIES_GAUGE} - number of contexts cached</li>
+ *     <li>{@value #HIT_RATIO_GAUGE} - share of reads served from the cache</li>
+ *     <li>{@value #READS_COUNTER} - reads, tagged by {@code result}: {@code hit} or {@code miss}</li>
+ *     <li>{@value #EXPIRATIONS_COUNTER} - contexts dropped because of TTL</li>
+ *     <li>{@value BoundedInMemoryPersisterMeterBinder#EVICTIONS_COUNTER} - contexts evicted because of size limit</li>
+ * </ul>
+ * Register as a bean (Spring Boot binds all {@link MeterBinder} beans) or call {@link #bindTo(MeterRegistry)}.
+ */
+@RequiredArgsConstructor
+public class CachingPersisterMeterBinder implements MeterBinder {
+
+    public static final String HIT_RATIO_GAUGE = "statemachine.persister.cache.hit.ratio";
+    public static final String READS_COUNTER = "statemachine.persister.cache.reads";
+    public static final String EXPIRATIONS_COUNTER = "statemachine.persister.cache.expirations";
+
+    private final CachingStateMachineRuntimePersister<?, ?, ?> persister;
+    private final String persisterName;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("persister", persisterName);
+
+        Gauge.builder(BoundedInMemoryPersisterMeterBinder.ENTRIES_GAUGE, persister,
+                        CachingStateMachineRuntimePersister::getSize)
+                .tags(tags)
+                .description("State machine contexts held in memory")
+                .register(registry);
+        Gauge.builder(HIT_RATIO_GAUGE, persister, CachingStateMachineRuntimePersister::getHitRatio)
+                .tags(tags)
+                .description("Share of state machine context reads served from cache")
+                .register(registry);
+        FunctionCounter.builder(READS_COUNTER, persister, CachingStateMachineRuntimePersister::getHitCount)
+                .tags(tags.and("result", "hit"))
+                .description("State machine context reads")
+                .register(registry);
+        FunctionCounter.builder(READS_COUNTER, persister, CachingStateMachineRuntimePersister::getMissCount)
+                .tags(tags.and("result", "miss"))
+                .description("State machine context reads")
+                .register(registry);
+        FunctionCounter.builder(EXPIRATIONS_COUNTER, persister,
+                        CachingStateMachineRuntimePersister::getExpirationCount)
+                .tags(tags)
+                .description("Cached state machine contexts expired")
+                .register(registry);
+        FunctionCounter.builder(BoundedInMemoryPersisterMeterBinder.EVICTIONS_COUNTER, persister,
+                        CachingStateMachineRuntimePersister::getEvictionCount)
+                .tags(tags)
+                .description("State machine contexts evicted from memory")
+                .register(registry);
+    }
+
+}
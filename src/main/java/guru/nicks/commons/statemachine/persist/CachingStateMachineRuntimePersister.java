@@ -0,0 +1,262 @@
+package guru.nicks.commons.statemachine.persist;
+
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Read-through, write-through cache in front of another persister (typically the JPA one), so that restoring a
+ * machine touched recently on this node costs neither a database round-trip nor (optionally) blob decoding.
+ * <p>
+ * Up to {@code maxEntries} contexts are kept, least recently used ones are evicted. Entries expire {@code ttl} after
+ * they've been cached - that's how long another node's writes to the same machine may go unnoticed, so keep it short
+ * unless machines are pinned to nodes.
+ * <p>
+ * Staleness on this node is detected per machine: each load from the delegate registers a token, which writes and
+ * invalidations of the same machine drop. A loaded context is cached only if its token is still there, so slow reads
+ * racing with writes never bring back stale contexts, while writes to other machines don't affect the load. Writes
+ * populate the cache anyway.
+ * <p>
+ * If a serialisation service is given, contexts are cached as bytes: smaller, and immune to callers mutating contexts
+ * after writing them, but decoded on each hit. Otherwise, decoded contexts are cached as is.
+ * <p>
+ * Hit/miss figures can be exported with {@link CachingPersisterMeterBinder}.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ */
+public class CachingStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T> {
+
+    private final StateMachinePersist<S, E, T> delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    @Nullable
+    private final StateMachineSerialisationService<S, E> serialisationService;
+
+    // guarded by 'this'; access order = LRU
+    private final LinkedHashMap<T, Entry> cache;
+    // guarded by 'this'; loads in progress, see class Javadoc
+    private final Map<T, Object> loadTokens = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate             persister to cache
+     * @param maxEntries           max number of cached contexts
+     * @param ttl                  how long contexts stay cached
+     * @param serialisationService if not {@code null}, contexts are cached as bytes
+     */
+    public CachingStateMachineRuntimePersister(StateMachinePersist<S, E, T> delegate, int maxEntries, Duration ttl,
+            @Nullable StateMachineSerialisationService<S, E> serialisationService) {
+        this.delegate = checkNotNull(delegate, "delegate");
+        checkNotNull(ttl, "ttl");
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive");
+        }
+
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.serialisationService = serialisationService;
+
+        cache = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<T, Entry> eldest) {
+                boolean evict = size() > CachingStateMachineRuntimePersister.this.maxEntries;
+
+                if (evict) {
+                    evictions.increment();
+                }
+
+                return evict;
+            }
+        };
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    /**
+     * Writes the context to the delegate and, if succeeded, to the cache. If failed, the cached context (if any) is
+     * dropped, because it's unknown what the delegate has stored. It's also dropped if the context has been written,
+     * but can't be encoded for the cache - the cached one is stale.
+     */
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(contextObj, "contextObj");
+
+        try {
+            delegate.write(context, contextObj);
+        } catch (Exception e) {
+            invalidate(contextObj);
+            throw e;
+        }
+
+        Object value;
+
+        try {
+            value = toCachedValue(context);
+        } catch (Exception e) {
+            // the cached context, if any, is stale now
+            invalidate(contextObj);
+            throw e;
+        }
+
+        synchronized (this) {
+            // makes a load in progress stale
+            loadTokens.remove(contextObj);
+            cache.put(contextObj, new Entry(value, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        checkNotNull(contextObj, "contextObj");
+        Entry entry;
+        var loadToken = new Object();
+
+        synchronized (this) {
+            entry = cache.get(contextObj);
+
+            if ((entry != null) && (entry.expiresAt() - System.nanoTime() <= 0)) {
+                cache.remove(contextObj);
+                expirations.increment();
+                entry = null;
+            }
+
+            if (entry == null) {
+                // replaces the token of a concurrent load of the same machine - only the latest load is cached
+                loadTokens.put(contextObj, loadToken);
+            }
+        }
+
+        // decode outside the lock
+        if (entry != null) {
+            hits.increment();
+            return fromCachedValue(entry.value());
+        }
+
+        misses.increment();
+        StateMachineContext<S, E> context = null;
+        Object value = null;
+
+        try {
+            context = delegate.read(contextObj);
+
+            if (context != null) {
+                value = toCachedValue(context);
+            }
+        } finally {
+            synchronized (this) {
+                // if the token is gone, the loaded context may be older than the one written (or invalidated)
+                // while loading
+                if (loadTokens.remove(contextObj, loadToken) && (value != null)) {
+                    cache.put(contextObj, new Entry(value, System.nanoTime() + ttlNanos));
+                }
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * Drops the cached context, e.g. when another node is known to have changed it.
+     *
+     * @param contextObj context object (machine ID)
+     */
+    public synchronized void invalidate(T contextObj) {
+        // makes a load in progress stale
+        loadTokens.remove(contextObj);
+        cache.remove(contextObj);
+    }
+
+    public synchronized void invalidateAll() {
+        loadTokens.clear();
+        cache.clear();
+    }
+
+    public synchronized int getSize() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the share of reads served from the cache.
+     *
+     * @return hit ratio (0..1), 0 if there have been no reads
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+
+        return (total == 0)
+                ? 0
+                : (double) hitCount / total;
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Object toCachedValue(StateMachineContext<S, E> context) throws Exception {
+        return (serialisationService == null)
+                ? context
+                : serialisationService.serialiseStateMachineContext(context);
+    }
+
+    @SuppressWarnings("unchecked")
+    private StateMachineContext<S, E> fromCachedValue(Object value) throws Exception {
+        return (serialisationService == null)
+                ? (StateMachineContext<S, E>) value
+                : serialisationService.deserialiseStateMachineContext((byte[]) value);
+    }
+
+    /**
+     * Cached context.
+     *
+     * @param value     context or its bytes
+     * @param expiresAt {@link System#nanoTime()} after which the entry is stale
+     */
+    private record Entry(Object value, long expiresAt) {
+    }
+
+}
@@ -0,0 +1,396 @@
+package guru.nicks.commons.statemachine.persist;
+
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.ExtendedStateVariables;
+import guru.nicks.commons.statemachine.domain.StateMachineError;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import jakarta.annotation.Nullable;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.data.jpa.JpaPersistingStateMachineInterceptor;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Serialises {@link StateMachineContext} of enum-based state machines into a compact binary form: states, events, and
+ * extended state keys are written as varint ordinals, values of common types ({@link String}, {@link UUID}, boxed
+ * primitives, the state/event/property enums, {@link StateMachineError}) - with type-specialised encoders. No class
+ * names are written at all.
+ * <p>
+ * Each payload carries a fingerprint of the three enums (class and constant names, in declaration order), so reading
+ * a payload after the enums have been changed (constants reordered, renamed, added, or removed) fails instead of
+ * silently mapping ordinals to wrong constants.
+ * <p>
+ * Contexts which don't fit the compact form (child contexts, values or keys of other types, e.g. exceptions stored in
+ * {@link ExtendedState#LAST_EXCEPTION_KEY} - unlike their {@link StateMachineError} descriptors) are written by the
+ * fallback service as a whole. Payloads without the
+ * compact format header are also read by the fallback service, which allows switching from
+ * {@link KryoStateMachineSerialisationService} without migrating the persisted contexts.
+ * <p>
+ * Read contexts keep their variables in {@link ExtendedStateVariables} - property values are stored in slots indexed
+ * by ordinal, primitives unboxed.
+ * <p>
+ * To use with JPA persistence, pass it to {@link JpaPersistingStateMachineInterceptor}:
+ * {@code new JpaPersistingStateMachineInterceptor<>(repository, compactSerialisationService)}.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <P> extended state property type
+ */
+public class CompactStateMachineSerialisationService<S extends Enum<S>, E extends Enum<E>,
+        P extends Enum<P> & ExtendedState> implements StateMachineSerialisationService<S, E> {
+
+    // header: magic (2 bytes), format (1 byte)
+    private static final byte MAGIC_1 = (byte) 0xC5;
+    private static final byte MAGIC_2 = (byte) 0x4D;
+    private static final byte FORMAT_COMPACT = 1;
+    private static final byte FORMAT_FALLBACK = 2;
+
+    private static final int INITIAL_BUFFER_SIZE = 128;
+
+    // value type tags
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_UUID = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_BOOLEAN = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_STATE = 7;
+    private static final int TAG_EVENT = 8;
+    private static final int TAG_PROPERTY = 9;
+    private static final int TAG_ERROR = 10;
+
+    private final Class<S> stateClass;
+    private final Class<E> eventClass;
+    private final Class<P> propertyClass;
+    private final S[] states;
+    private final E[] events;
+    private final P[] properties;
+    private final int schemaFingerprint;
+    private final StateMachineSerialisationService<S, E> fallback;
+
+    /**
+     * Constructor.
+     *
+     * @param stateClass    state enum
+     * @param eventClass    event enum
+     * @param propertyClass extended state property enum
+     * @param fallback      serialisation service for contexts which don't fit the compact form, usually
+     *                      {@link KryoStateMachineSerialisationService}
+     */
+    public CompactStateMachineSerialisationService(Class<S> stateClass, Class<E> eventClass, Class<P> propertyClass,
+            StateMachineSerialisationService<S, E> fallback) {
+        this.stateClass = checkNotNull(stateClass, "stateClass");
+        this.eventClass = checkNotNull(eventClass, "eventClass");
+        this.propertyClass = checkNotNull(propertyClass, "propertyClass");
+        this.fallback = checkNotNull(fallback, "fallback");
+
+        states = stateClass.getEnumConstants();
+        events = eventClass.getEnumConstants();
+        properties = propertyClass.getEnumConstants();
+        schemaFingerprint = computeSchemaFingerprint(stateClass, eventClass, propertyClass);
+    }
+
+    /**
+     * Computes 32-bit FNV-1a hash of enum class names and their constant names in declaration order.
+     *
+     * @param enumClasses enum classes
+     * @return fingerprint
+     */
+    static int computeSchemaFingerprint(Class<?>... enumClasses) {
+        int hash = 0x811C9DC5;
+
+        for (Class<?> enumClass : enumClasses) {
+            hash = fnv1a(hash, enumClass.getName());
+
+            for (Object constant : enumClass.getEnumConstants()) {
+                hash = fnv1a(hash, ((Enum<?>) constant).name());
+            }
+        }
+
+        return hash;
+    }
+
+    private static int fnv1a(int hash, String str) {
+        for (byte b : str.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= 0x01000193;
+        }
+
+        // separator, so that ('ab', 'c') and ('a', 'bc') differ
+        hash ^= 0xFF;
+        hash *= 0x01000193;
+        return hash;
+    }
+
+    public int getSchemaFingerprint() {
+        return schemaFingerprint;
+    }
+
+    @Override
+    public byte[] serialiseStateMachineContext(StateMachineContext<S, E> context) throws Exception {
+        checkNotNull(context, "context");
+
+        if (!fitsCompactForm(context)) {
+            byte[] fallbackPayload = fallback.serialiseStateMachineContext(context);
+            byte[] payload = new byte[fallbackPayload.length + 3];
+
+            payload[0] = MAGIC_1;
+            payload[1] = MAGIC_2;
+            payload[2] = FORMAT_FALLBACK;
+            System.arraycopy(fallbackPayload, 0, payload, 3, fallbackPayload.length);
+            return payload;
+        }
+
+        try (var output = new Output(INITIAL_BUFFER_SIZE, -1)) {
+            output.writeByte(MAGIC_1);
+            output.writeByte(MAGIC_2);
+            output.writeByte(FORMAT_COMPACT);
+            output.writeInt(schemaFingerprint);
+
+            writeOrdinal(output, context.getState());
+            writeOrdinal(output, context.getEvent());
+            output.writeString(context.getId());
+
+            Map<String, Object> headers = context.getEventHeaders();
+            output.writeVarInt((headers == null) ? 0 : headers.size(), true);
+            if (headers != null) {
+                for (Map.Entry<String, Object> entry : headers.entrySet()) {
+                    output.writeString(entry.getKey());
+                    writeValue(output, entry.getValue());
+                }
+            }
+
+            Map<Object, Object> variables = getVariables(context);
+            output.writeVarInt(variables.size(), true);
+            for (Map.Entry<Object, Object> entry : variables.entrySet()) {
+                writeValue(output, entry.getKey());
+                writeValue(output, entry.getValue());
+            }
+
+            Map<S, S> historyStates = context.getHistoryStates();
+            output.writeVarInt((historyStates == null) ? 0 : historyStates.size(), true);
+            if (historyStates != null) {
+                for (Map.Entry<S, S> entry : historyStates.entrySet()) {
+                    writeOrdinal(output, entry.getKey());
+                    writeOrdinal(output, entry.getValue());
+                }
+            }
+
+            return output.toBytes();
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> deserialiseStateMachineContext(byte[] data) throws Exception {
+        if ((data == null) || (data.length == 0)) {
+            return null;
+        }
+
+        if ((data.length < 3) || (data[0] != MAGIC_1) || (data[1] != MAGIC_2)) {
+            // written by the fallback service before switching to this one
+            return fallback.deserialiseStateMachineContext(data);
+        }
+
+        if (data[2] == FORMAT_FALLBACK) {
+            byte[] fallbackPayload = new byte[data.length - 3];
+            System.arraycopy(data, 3, fallbackPayload, 0, fallbackPayload.length);
+            return fallback.deserialiseStateMachineContext(fallbackPayload);
+        }
+
+        if (data[2] != FORMAT_COMPACT) {
+            throw new IllegalArgumentException("Unknown state machine context format: " + data[2]);
+        }
+
+        try (var input = new Input(data, 3, data.length - 3)) {
+            int fingerprint = input.readInt();
+            if (fingerprint != schemaFingerprint) {
+                throw new IllegalStateException("State machine context was written with different enums (fingerprint "
+                        + Integer.toHexString(fingerprint) + " instead of " + Integer.toHexString(schemaFingerprint)
+                        + ") - constants have been reordered, renamed, added, or removed");
+            }
+
+            S state = readOrdinal(input, states);
+            E event = readOrdinal(input, events);
+            String id = input.readString();
+
+            int headerCount = input.readVarInt(true);
+            Map<String, Object> headers = (headerCount == 0)
+                    ? null
+                    : new HashMap<>(headerCount * 2);
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(input.readString(), readValue(input));
+            }
+
+            int variableCount = input.readVarInt(true);
+            var variables = new ExtendedStateVariables<>(propertyClass);
+            var extendedState = new DefaultExtendedState(variables);
+            for (int i = 0; i < variableCount; i++) {
+                variables.put(readValue(input), readValue(input));
+            }
+
+            int historyStateCount = input.readVarInt(true);
+            Map<S, S> historyStates = (historyStateCount == 0)
+                    ? null
+                    : new LinkedHashMap<>(historyStateCount * 2);
+            for (int i = 0; i < historyStateCount; i++) {
+                historyStates.put(readOrdinal(input, states), readOrdinal(input, states));
+            }
+
+            return new DefaultStateMachineContext<>(state, event, headers, extendedState, historyStates, id);
+        }
+    }
+
+    private boolean fitsCompactForm(StateMachineContext<S, E> context) {
+        if (((context.getChilds() != null) && !context.getChilds().isEmpty())
+                || ((context.getChildReferences() != null) && !context.getChildReferences().isEmpty())) {
+            return false;
+        }
+
+        Map<String, Object> headers = context.getEventHeaders();
+        if ((headers != null) && !headers.values().stream().allMatch(this::isSupportedValue)) {
+            return false;
+        }
+
+        for (Map.Entry<Object, Object> entry : getVariables(context).entrySet()) {
+            if (!isSupportedValue(entry.getKey()) || !isSupportedValue(entry.getValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isSupportedValue(@Nullable Object value) {
+        return (value == null)
+                || (value instanceof String)
+                || (value instanceof UUID)
+                || (value instanceof Integer)
+                || (value instanceof Long)
+                || (value instanceof Boolean)
+                || (value instanceof Double)
+                || (value instanceof StateMachineError)
+                || stateClass.isInstance(value)
+                || eventClass.isInstance(value)
+                || propertyClass.isInstance(value);
+    }
+
+    private Map<Object, Object> getVariables(StateMachineContext<S, E> context) {
+        return (context.getExtendedState() == null)
+                ? Map.of()
+                : context.getExtendedState().getVariables();
+    }
+
+    /**
+     * Writes enum ordinal shifted by 1, so that 0 means {@code null}.
+     */
+    private void writeOrdinal(Output output, @Nullable Enum<?> value) {
+        output.writeVarInt((value == null) ? 0 : (value.ordinal() + 1), true);
+    }
+
+    @Nullable
+    private <T> T readOrdinal(Input input, T[] constants) {
+        int ordinal = input.readVarInt(true);
+
+        if (ordinal == 0) {
+            return null;
+        }
+
+        return getConstant(constants, ordinal - 1);
+    }
+
+    private void writeValue(Output output, @Nullable Object value) {
+        switch (value) {
+            case null -> output.writeVarInt(TAG_NULL, true);
+            case String str -> {
+                output.writeVarInt(TAG_STRING, true);
+                output.writeString(str);
+            }
+            case UUID uuid -> {
+                output.writeVarInt(TAG_UUID, true);
+                output.writeLong(uuid.getMostSignificantBits());
+                output.writeLong(uuid.getLeastSignificantBits());
+            }
+            case Integer i -> {
+                output.writeVarInt(TAG_INTEGER, true);
+                // zigzag - small negative numbers are short too
+                output.writeVarInt(i, false);
+            }
+            case Long l -> {
+                output.writeVarInt(TAG_LONG, true);
+                output.writeVarLong(l, false);
+            }
+            case Boolean b -> {
+                output.writeVarInt(TAG_BOOLEAN, true);
+                output.writeBoolean(b);
+            }
+            case Double d -> {
+                output.writeVarInt(TAG_DOUBLE, true);
+                output.writeDouble(d);
+            }
+            case StateMachineError error -> {
+                output.writeVarInt(TAG_ERROR, true);
+                output.writeString(error.type());
+                output.writeString(error.message());
+                output.writeString(error.code());
+                output.writeString(error.stackTrace());
+            }
+            default -> writeEnumValue(output, value);
+        }
+    }
+
+    private void writeEnumValue(Output output, Object value) {
+        // checked in fitsCompactForm()
+        int tag = stateClass.isInstance(value)
+                ? TAG_STATE
+                : eventClass.isInstance(value)
+                        ? TAG_EVENT
+                        : TAG_PROPERTY;
+
+        output.writeVarInt(tag, true);
+        output.writeVarInt(((Enum<?>) value).ordinal(), true);
+    }
+
+    @Nullable
+    private Object readValue(Input input) {
+        int tag = input.readVarInt(true);
+
+        return switch (tag) {
+            case TAG_NULL -> null;
+            case TAG_STRING -> input.readString();
+            case TAG_UUID -> new UUID(input.readLong(), input.readLong());
+            case TAG_INTEGER -> input.readVarInt(false);
+            case TAG_LONG -> input.readVarLong(false);
+            case TAG_BOOLEAN -> input.readBoolean();
+            case TAG_DOUBLE -> input.readDouble();
+            case TAG_STATE -> getConstant(states, input.readVarInt(true));
+            case TAG_EVENT -> getConstant(events, input.readVarInt(true));
+            case TAG_PROPERTY -> getConstant(properties, input.readVarInt(true));
+            case TAG_ERROR -> new StateMachineError(input.readString(), input.readString(), input.readString(),
+                    input.readString());
+            default -> throw new IllegalStateException("Unknown value tag: " + tag);
+        };
+    }
+
+    private <T> T getConstant(T[] constants, int ordinal) {
+        if (ordinal >= constants.length) {
+            throw new IllegalStateException("Enum ordinal out of range: " + ordinal);
+        }
+
+        return constants[ordinal];
+    }
+
+}
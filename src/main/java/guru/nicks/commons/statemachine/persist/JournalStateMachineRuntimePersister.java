@@ -0,0 +1,690 @@
+package guru.nicks.commons.statemachine.persist;
+
+import guru.nicks.commons.statemachine.StateMachineInMemoryRuntimePersister;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Durable local runtime persister which appends records to a memory-mapped journal split into fixed-size segment
+ * files ({@code journal-000001.seg}, etc.), so all writes are sequential. Unlike
+ * {@link StateMachineInMemoryRuntimePersister}, contexts survive restarts.
+ * <p>
+ * For each machine, the first write and then every {@code snapshotInterval}-th write after it (i.e. writes number 1,
+ * {@code 1 + snapshotInterval}, {@code 1 + 2 * snapshotInterval}, etc.) is a <i>snapshot</i> - the full context.
+ * Other writes are <i>transition records</i> carrying only the target state, the event, and the extended state
+ * variables changed (or removed) since the previous write. Both are encoded by the given
+ * {@link StateMachineSerialisationService}, so transition records are tiny with
+ * {@link CompactStateMachineSerialisationService}. Reading a context decodes the latest snapshot and replays the
+ * transition records written after it - at most {@code snapshotInterval - 1}.
+ * <p>
+ * Record layout: payload length (4 bytes, written last - a non-zero value marks a complete record), record type
+ * (1 byte), CRC32C of the payload (4 bytes), payload (machine ID length, machine ID in UTF-8, encoded context). On
+ * startup, segments are scanned to rebuild the in-memory index (machine ID &rarr; record locations); scanning stops at
+ * the first incomplete or corrupted record, which is then overwritten by subsequent writes.
+ * <p>
+ * Segments no longer referenced by any machine (because newer snapshots have been written for all machines they
+ * contained) are deleted. Segments whose dead record share exceeds {@code compactionThreshold} are compacted: the
+ * contexts of machines still having records there are copied forward as fresh snapshots, after which the segment is
+ * deleted - so disk usage stays proportional to the number of machines, even if some of them are rarely written.
+ * <p>
+ * The index keeps the latest extended state variables of each machine written since startup, in order to compute the
+ * changes. They're decoded from the written records rather than copied from the context, so values mutated in place
+ * by the next transition are still recognized as changed.
+ * <p>
+ * Reads run in parallel; writes (including compaction) are serialised. Reads copy records under the read lock and
+ * decode them outside it, so segments are never deleted while being read.
+ * <p>
+ * Memory-mapped writes survive process crashes, but not OS crashes or power loss, unless {@code forceOnWrite} is set
+ * (which makes each write wait for the disk).
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+@Slf4j
+public class JournalStateMachineRuntimePersister<S, E>
+        extends AbstractPersistingStateMachineInterceptor<S, E, String>
+        implements StateMachineRuntimePersister<S, E, String>, AutoCloseable {
+
+    /**
+     * Event header of transition records listing extended state variables removed since the previous write.
+     */
+    public static final String REMOVED_VARIABLES_HEADER = "_journalRemovedVariables";
+
+    /**
+     * Compaction threshold used by the constructor not accepting one.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private static final byte RECORD_SNAPSHOT = 1;
+    private static final byte RECORD_TRANSITION = 2;
+    // length + type + CRC
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 4;
+    private static final Pattern SEGMENT_FILE_NAME = Pattern.compile("journal-(\\d{6,})\\.seg");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int snapshotInterval;
+    private final boolean forceOnWrite;
+    private final double compactionThreshold;
+    private final StateMachineSerialisationService<S, E> serialisationService;
+
+    private final Map<String, MachineRecords> index = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // all below guarded by 'lock'
+    private Segment currentSegment;
+    private boolean closed;
+    private long compactionCount;
+    private long snapshotWriteCount;
+
+    /**
+     * Same as {@link #JournalStateMachineRuntimePersister(Path, int, int, boolean, double,
+     * StateMachineSerialisationService)} with {@link #DEFAULT_COMPACTION_THRESHOLD}.
+     *
+     * @param directory            directory for segment files
+     * @param segmentSize          segment file size in bytes; a single record can't be larger
+     * @param snapshotInterval     every this many writes of the same machine, write snapshot (1 - snapshots only)
+     * @param forceOnWrite         whether to flush each write to disk before returning
+     * @param serialisationService encodes snapshots and transition records
+     * @throws UncheckedIOException I/O error
+     */
+    public JournalStateMachineRuntimePersister(Path directory, int segmentSize, int snapshotInterval,
+            boolean forceOnWrite, StateMachineSerialisationService<S, E> serialisationService) {
+        this(directory, segmentSize, snapshotInterval, forceOnWrite, DEFAULT_COMPACTION_THRESHOLD,
+                serialisationService);
+    }
+
+    /**
+     * Opens the journal in the given directory (creating it if needed) and rebuilds the index from existing segments.
+     *
+     * @param directory            directory for segment files
+     * @param segmentSize          segment file size in bytes; a single record can't be larger
+     * @param snapshotInterval     every this many writes of the same machine, write snapshot (1 - snapshots only)
+     * @param forceOnWrite         whether to flush each write to disk before returning
+     * @param compactionThreshold  compact segments whose dead record share exceeds this value (0..1)
+     * @param serialisationService encodes snapshots and transition records
+     * @throws UncheckedIOException I/O error
+     */
+    public JournalStateMachineRuntimePersister(Path directory, int segmentSize, int snapshotInterval,
+            boolean forceOnWrite, double compactionThreshold,
+            StateMachineSerialisationService<S, E> serialisationService) {
+        this.directory = checkNotNull(directory, "directory");
+        this.serialisationService = checkNotNull(serialisationService, "serialisationService");
+
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small");
+        }
+
+        if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+
+        if ((compactionThreshold <= 0) || (compactionThreshold >= 1)) {
+            throw new IllegalArgumentException("Compaction threshold must be between 0 and 1");
+        }
+
+        this.segmentSize = segmentSize;
+        this.snapshotInterval = snapshotInterval;
+        this.forceOnWrite = forceOnWrite;
+        this.compactionThreshold = compactionThreshold;
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open state machine journal in " + directory, e);
+        }
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    @Override
+    public void write(StateMachineContext<S, E> context, String machineId) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(machineId, "machineId");
+        lock.writeLock().lock();
+
+        try {
+            if (closed) {
+                throw new IllegalStateException("State machine journal is closed");
+            }
+
+            MachineRecords records = index.get(machineId);
+            boolean hasChildren = (context.getChilds() != null) && !context.getChilds().isEmpty();
+
+            // snapshot followed by (snapshotInterval - 1) transition records
+            if ((records == null) || hasChildren || (records.transitions().size() >= snapshotInterval - 1)) {
+                index.put(machineId, appendSnapshot(machineId, context));
+                snapshotWriteCount++;
+
+                if (records != null) {
+                    releaseRecords(records);
+                }
+            } else {
+                index.put(machineId, appendTransition(machineId, context, records));
+            }
+
+            deleteUnusedSegments();
+            compactMostFragmentedSegment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(String machineId) throws Exception {
+        checkNotNull(machineId, "machineId");
+        List<byte[]> encodedRecords;
+        lock.readLock().lock();
+
+        try {
+            MachineRecords records = index.get(machineId);
+
+            if (records == null) {
+                return null;
+            }
+
+            encodedRecords = copyRecords(records);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return replay(encodedRecords);
+    }
+
+    /**
+     * Returns the number of segment files currently in use.
+     *
+     * @return segment count
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of machines having persisted contexts.
+     *
+     * @return machine count
+     */
+    public int getMachineCount() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of writes stored as snapshots, not counting snapshots copied forward by compaction.
+     *
+     * @return snapshot write count
+     */
+    public long getSnapshotWriteCount() {
+        lock.readLock().lock();
+
+        try {
+            return snapshotWriteCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        lock.readLock().lock();
+
+        try {
+            return compactionCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes all segments to disk. After this call, writes fail.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            segments.values().forEach(segment -> segment.buffer.force());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the write lock. The variables to diff the next write against are decoded from the
+     * record, so they don't share mutable values with the machine.
+     */
+    private MachineRecords appendSnapshot(String machineId, StateMachineContext<S, E> context) throws Exception {
+        byte[] encodedContext = serialisationService.serialiseStateMachineContext(context);
+        RecordLocation location = append(RECORD_SNAPSHOT, machineId, encodedContext);
+        Map<Object, Object> lastVariables = new HashMap<>(
+                getVariables(serialisationService.deserialiseStateMachineContext(encodedContext)));
+
+        return new MachineRecords(location, List.of(), lastVariables);
+    }
+
+    /**
+     * Must be called while holding the write lock. See {@link #appendSnapshot(String, StateMachineContext)} for the
+     * variables to diff the next write against.
+     */
+    private MachineRecords appendTransition(String machineId, StateMachineContext<S, E> context,
+            MachineRecords records) throws Exception {
+        // after restart, previous variables are restored once by replaying the journal
+        Map<Object, Object> previousVariables = (records.lastVariables() != null)
+                ? records.lastVariables()
+                : getVariables(replay(copyRecords(records)));
+        byte[] encodedContext = serialisationService.serialiseStateMachineContext(
+                createTransitionContext(context, previousVariables, getVariables(context)));
+        RecordLocation location = append(RECORD_TRANSITION, machineId, encodedContext);
+
+        Map<Object, Object> lastVariables = new HashMap<>(previousVariables);
+        applyTransition(lastVariables, serialisationService.deserialiseStateMachineContext(encodedContext));
+
+        List<RecordLocation> transitions = new ArrayList<>(records.transitions().size() + 1);
+        transitions.addAll(records.transitions());
+        transitions.add(location);
+        return new MachineRecords(records.snapshot(), List.copyOf(transitions), lastVariables);
+    }
+
+    private StateMachineContext<S, E> createTransitionContext(StateMachineContext<S, E> context,
+            Map<Object, Object> previousVariables, Map<Object, Object> variables) {
+        var changedVariables = new DefaultExtendedState();
+
+        variables.forEach((key, value) -> {
+            if (!previousVariables.containsKey(key) || !Objects.equals(previousVariables.get(key), value)) {
+                changedVariables.getVariables().put(key, value);
+            }
+        });
+
+        Map<String, Object> headers = (context.getEventHeaders() == null)
+                ? new HashMap<>()
+                : new HashMap<>(context.getEventHeaders());
+        List<Object> removedVariables = previousVariables.keySet()
+                .stream()
+                .filter(key -> !variables.containsKey(key))
+                .toList();
+
+        if (!removedVariables.isEmpty()) {
+            headers.put(REMOVED_VARIABLES_HEADER, new ArrayList<>(removedVariables));
+        }
+
+        return new DefaultStateMachineContext<>(context.getState(), context.getEvent(), headers, changedVariables,
+                context.getHistoryStates(), context.getId());
+    }
+
+    /**
+     * Decodes the snapshot and applies the transition records following it.
+     *
+     * @param encodedRecords snapshot, then transition records, as returned by {@link #copyRecords(MachineRecords)}
+     * @return context
+     */
+    private StateMachineContext<S, E> replay(List<byte[]> encodedRecords) throws Exception {
+        StateMachineContext<S, E> snapshot = serialisationService.deserialiseStateMachineContext(
+                encodedRecords.getFirst());
+        if (encodedRecords.size() == 1) {
+            return snapshot;
+        }
+
+        var extendedState = new DefaultExtendedState();
+        extendedState.getVariables().putAll(getVariables(snapshot));
+        StateMachineContext<S, E> last = snapshot;
+
+        for (byte[] encodedRecord : encodedRecords.subList(1, encodedRecords.size())) {
+            last = serialisationService.deserialiseStateMachineContext(encodedRecord);
+            applyTransition(extendedState.getVariables(), last);
+        }
+
+        Map<String, Object> headers = null;
+        if (last.getEventHeaders() != null) {
+            headers = new HashMap<>(last.getEventHeaders());
+            headers.remove(REMOVED_VARIABLES_HEADER);
+        }
+
+        return new DefaultStateMachineContext<>(snapshot.getChilds(), last.getState(), last.getEvent(), headers,
+                extendedState, last.getHistoryStates(), snapshot.getId());
+    }
+
+    private void applyTransition(Map<Object, Object> variables, StateMachineContext<S, E> transition) {
+        variables.putAll(getVariables(transition));
+
+        if ((transition.getEventHeaders() != null)
+                && (transition.getEventHeaders().get(REMOVED_VARIABLES_HEADER) instanceof List<?> removedVariables)) {
+            removedVariables.forEach(variables::remove);
+        }
+    }
+
+    /**
+     * Must be called while holding the lock (read or write): segments are deleted under the write lock.
+     *
+     * @return encoded snapshot, then encoded transition records
+     */
+    private List<byte[]> copyRecords(MachineRecords records) {
+        List<byte[]> encodedRecords = new ArrayList<>(records.transitions().size() + 1);
+        encodedRecords.add(copyRecord(records.snapshot()));
+        records.transitions().forEach(location -> encodedRecords.add(copyRecord(location)));
+        return encodedRecords;
+    }
+
+    private byte[] copyRecord(RecordLocation location) {
+        Segment segment = segments.get(location.segmentNumber());
+        if (segment == null) {
+            throw new IllegalStateException("Journal segment " + location.segmentNumber() + " has been deleted");
+        }
+
+        byte[] encodedContext = new byte[location.length()];
+        segment.buffer.get(location.offset(), encodedContext);
+        return encodedContext;
+    }
+
+    /**
+     * Must be called while holding the write lock.
+     */
+    private RecordLocation append(byte type, String machineId, byte[] encodedContext) throws IOException {
+        byte[] machineIdBytes = machineId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 4 + machineIdBytes.length + encodedContext.length;
+        // plus end-of-journal marker
+        int recordSize = RECORD_HEADER_SIZE + payloadLength + 4;
+
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + recordSize + " bytes exceeds segment size");
+        }
+
+        if ((currentSegment == null) || (currentSegment.position + recordSize > segmentSize)) {
+            currentSegment = createSegment((currentSegment == null) ? 1 : (currentSegment.number + 1));
+        }
+
+        MappedByteBuffer buffer = currentSegment.buffer;
+        int position = currentSegment.position;
+        int payloadOffset = position + RECORD_HEADER_SIZE;
+
+        buffer.putInt(payloadOffset, machineIdBytes.length);
+        buffer.put(payloadOffset + 4, machineIdBytes);
+        buffer.put(payloadOffset + 4 + machineIdBytes.length, encodedContext);
+
+        var crc = new CRC32C();
+        crc.update(buffer.slice(payloadOffset, payloadLength));
+
+        buffer.put(position + 4, type);
+        buffer.putInt(position + 5, (int) crc.getValue());
+        // end-of-journal marker, in case the space has been used before an unclean shutdown
+        buffer.putInt(payloadOffset + payloadLength, 0);
+        // length goes last - it marks the record complete
+        buffer.putInt(position, payloadLength);
+
+        if (forceOnWrite) {
+            buffer.force(position, recordSize);
+        }
+
+        currentSegment.position = payloadOffset + payloadLength;
+        currentSegment.liveRecords++;
+        currentSegment.totalRecords++;
+        return new RecordLocation(currentSegment.number, payloadOffset + 4 + machineIdBytes.length,
+                encodedContext.length);
+    }
+
+    private void releaseRecords(MachineRecords records) {
+        segments.get(records.snapshot().segmentNumber()).liveRecords--;
+        records.transitions().forEach(location -> segments.get(location.segmentNumber()).liveRecords--);
+    }
+
+    /**
+     * Must be called while holding the write lock (or from the constructor).
+     */
+    private void deleteUnusedSegments() {
+        for (Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+
+            if ((segment != currentSegment) && (segment.liveRecords == 0)) {
+                it.remove();
+
+                try {
+                    // the mapping itself remains valid until garbage-collected
+                    Files.deleteIfExists(segment.path);
+                    log.debug("Deleted unused state machine journal segment {}", segment.path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete state machine journal segment {}: {}", segment.path, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the write lock. Compacts at most one segment per call, to bound write latency: the
+     * most fragmented non-current one, if its dead record share exceeds the threshold. Machines having records there
+     * get fresh snapshots in the current segment, which leaves the compacted segment without live records.
+     */
+    private void compactMostFragmentedSegment() throws Exception {
+        Segment candidate = null;
+        double maxDeadShare = compactionThreshold;
+
+        for (Segment segment : segments.values()) {
+            if ((segment == currentSegment) || (segment.totalRecords == 0)) {
+                continue;
+            }
+
+            double deadShare = 1 - ((double) segment.liveRecords / segment.totalRecords);
+
+            if (deadShare > maxDeadShare) {
+                candidate = segment;
+                maxDeadShare = deadShare;
+            }
+        }
+
+        if (candidate == null) {
+            return;
+        }
+
+        int segmentNumber = candidate.number;
+        List<String> machineIds = index.entrySet()
+                .stream()
+                .filter(entry -> entry.getValue().isStoredIn(segmentNumber))
+                .map(Map.Entry::getKey)
+                .toList();
+
+        for (String machineId : machineIds) {
+            MachineRecords records = index.get(machineId);
+            index.put(machineId, appendSnapshot(machineId, replay(copyRecords(records))));
+            releaseRecords(records);
+        }
+
+        compactionCount++;
+        log.debug("Compacted state machine journal segment {}: copied {} machines forward", candidate.path,
+                machineIds.size());
+        deleteUnusedSegments();
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        Path path = directory.resolve(String.format("journal-%06d.seg", number));
+        var segment = new Segment(number, path, map(path));
+        segments.put(number, segment);
+
+        log.debug("Created state machine journal segment {}", path);
+        return segment;
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mapping beyond the end of file extends it with zeros
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        }
+    }
+
+    private void recover() throws IOException {
+        Map<Integer, Path> segmentPaths = new TreeMap<>();
+
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                Matcher matcher = SEGMENT_FILE_NAME.matcher(path.getFileName().toString());
+
+                if (matcher.matches()) {
+                    segmentPaths.put(Integer.parseInt(matcher.group(1)), path);
+                }
+            });
+        }
+
+        for (Map.Entry<Integer, Path> entry : segmentPaths.entrySet()) {
+            var segment = new Segment(entry.getKey(), entry.getValue(), map(entry.getValue()));
+            segments.put(segment.number, segment);
+            scan(segment);
+            currentSegment = segment;
+        }
+
+        deleteUnusedSegments();
+        log.info("Opened state machine journal in {}: {} segments, {} machines", directory, segments.size(),
+                index.size());
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int payloadLength = buffer.getInt(position);
+            int payloadOffset = position + RECORD_HEADER_SIZE;
+
+            if ((payloadLength <= 4) || (payloadOffset + payloadLength > buffer.capacity())) {
+                break;
+            }
+
+            var crc = new CRC32C();
+            crc.update(buffer.slice(payloadOffset, payloadLength));
+
+            if ((int) crc.getValue() != buffer.getInt(position + 5)) {
+                log.warn("Corrupted record in state machine journal segment {} at offset {} - ignoring the rest",
+                        segment.path, position);
+                break;
+            }
+
+            int machineIdLength = buffer.getInt(payloadOffset);
+            byte[] machineIdBytes = new byte[machineIdLength];
+            buffer.get(payloadOffset + 4, machineIdBytes);
+
+            var machineId = new String(machineIdBytes, StandardCharsets.UTF_8);
+            int contextOffset = payloadOffset + 4 + machineIdLength;
+            int contextLength = payloadOffset + payloadLength - contextOffset;
+            var location = new RecordLocation(segment.number, contextOffset, contextLength);
+            indexRecoveredRecord(buffer.get(position + 4), machineId, location);
+
+            segment.liveRecords++;
+            segment.totalRecords++;
+            position = payloadOffset + payloadLength;
+        }
+
+        segment.position = position;
+    }
+
+    private void indexRecoveredRecord(byte type, String machineId, RecordLocation location) {
+        MachineRecords records = index.get(machineId);
+
+        if (type == RECORD_SNAPSHOT) {
+            if (records != null) {
+                releaseRecords(records);
+            }
+
+            index.put(machineId, new MachineRecords(location, List.of(), null));
+        } else if (records != null) {
+            List<RecordLocation> transitions = new ArrayList<>(records.transitions());
+            transitions.add(location);
+            index.put(machineId, new MachineRecords(records.snapshot(), transitions, null));
+        } else {
+            // snapshot segment deleted - can't happen unless files were deleted manually
+            log.warn("No snapshot for state machine '{}' in journal - ignoring its transition record", machineId);
+            segments.get(location.segmentNumber()).liveRecords--;
+        }
+    }
+
+    private static Map<Object, Object> getVariables(StateMachineContext<?, ?> context) {
+        return (context.getExtendedState() == null)
+                ? Map.of()
+                : context.getExtendedState().getVariables();
+    }
+
+    private record RecordLocation(
+            int segmentNumber,
+            int offset,
+            int length) {
+    }
+
+    /**
+     * @param snapshot      latest snapshot
+     * @param transitions   transition records written after the snapshot
+     * @param lastVariables extended state variables as of the last write, {@code null} if not known yet (after
+     *                      restart)
+     */
+    private record MachineRecords(
+            RecordLocation snapshot,
+            List<RecordLocation> transitions,
+            @Nullable Map<Object, Object> lastVariables) {
+
+        boolean isStoredIn(int segmentNumber) {
+            return (snapshot.segmentNumber() == segmentNumber)
+                    || transitions.stream().anyMatch(location -> location.segmentNumber() == segmentNumber);
+        }
+
+    }
+
+    private static final class Segment {
+
+        private final int number;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // guarded by the persister lock
+        private int position;
+        private int liveRecords;
+        /**
+         * Live and dead records.
+         */
+        private int totalRecords;
+
+        private Segment(int number, Path path, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
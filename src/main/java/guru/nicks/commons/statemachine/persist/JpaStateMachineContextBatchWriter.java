@@ -0,0 +1,117 @@
+package guru.nicks.commons.statemachine.persist;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import lombok.RequiredArgsConstructor;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.data.jpa.JpaRepositoryStateMachine;
+import org.springframework.statemachine.data.jpa.JpaStateMachineRepository;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes contexts to the table of {@link JpaStateMachineRepository} the same way
+ * {@code JpaPersistingStateMachineInterceptor} does, but in one transaction: existing rows are loaded with one
+ * {@code IN} query (per {@value #MAX_IN_QUERY_SIZE} machines) and updated, missing ones are inserted with
+ * {@link EntityManager#persist(Object)}. Unlike {@code repository.saveAll(...)} with new entities (their IDs are
+ * assigned, so Spring Data merges them), this doesn't cost a {@code SELECT} per row. For Hibernate to send the rows
+ * in JDBC batches, set {@code spring.jpa.properties.hibernate.jdbc.batch_size} (and, for mixed inserts/updates,
+ * {@code hibernate.order_inserts} / {@code hibernate.order_updates}).
+ * <p>
+ * Usage: {@code new JpaStateMachineContextBatchWriter<>(entityManager, new TransactionTemplate(transactionManager),
+ * serialisationService)}, where {@code entityManager} is the shared (transaction-bound) one injected by Spring.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ */
+@RequiredArgsConstructor
+public class JpaStateMachineContextBatchWriter<S, E>
+        implements WriteBehindStateMachineRuntimePersister.BatchWriter<S, E, String> {
+
+    /**
+     * Max number of machine IDs per {@code IN} query - some databases limit the number of list elements.
+     */
+    public static final int MAX_IN_QUERY_SIZE = 1000;
+
+    private final EntityManager entityManager;
+    private final TransactionOperations transactionOperations;
+    private final StateMachineSerialisationService<S, E> serialisationService;
+
+    @Override
+    public void writeAll(Map<String, StateMachineContext<S, E>> contexts) throws Exception {
+        // encode outside the transaction
+        Map<String, byte[]> encodedContexts = new HashMap<>(contexts.size());
+
+        for (Map.Entry<String, StateMachineContext<S, E>> entry : contexts.entrySet()) {
+            encodedContexts.put(entry.getKey(), serialisationService.serialiseStateMachineContext(entry.getValue()));
+        }
+
+        transactionOperations.executeWithoutResult(status -> {
+            Map<String, JpaRepositoryStateMachine> existingEntities = findAllByMachineId(contexts.keySet());
+
+            for (Map.Entry<String, StateMachineContext<S, E>> entry : contexts.entrySet()) {
+                StateMachineContext<S, E> context = entry.getValue();
+                JpaRepositoryStateMachine entity = existingEntities.get(entry.getKey());
+                boolean isNew = (entity == null);
+
+                if (isNew) {
+                    entity = new JpaRepositoryStateMachine();
+                    entity.setMachineId(entry.getKey());
+                }
+
+                // managed entities are updated on commit
+                entity.setState((context.getState() == null) ? null : context.getState().toString());
+                entity.setStateMachineContext(encodedContexts.get(entry.getKey()));
+
+                if (isNew) {
+                    entityManager.persist(entity);
+                }
+            }
+        });
+    }
+
+    /**
+     * Must be called in a transaction, so the entities returned stay managed.
+     *
+     * @param machineIds machine IDs
+     * @return existing entities by machine ID
+     */
+    private Map<String, JpaRepositoryStateMachine> findAllByMachineId(Iterable<String> machineIds) {
+        Map<String, JpaRepositoryStateMachine> entities = new HashMap<>();
+        List<String> chunk = new ArrayList<>(MAX_IN_QUERY_SIZE);
+
+        for (String machineId : machineIds) {
+            chunk.add(machineId);
+
+            if (chunk.size() == MAX_IN_QUERY_SIZE) {
+                findAllByMachineId(chunk, entities);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            findAllByMachineId(chunk, entities);
+        }
+
+        return entities;
+    }
+
+    private void findAllByMachineId(List<String> machineIds, Map<String, JpaRepositoryStateMachine> entities) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JpaRepositoryStateMachine> query = criteriaBuilder.createQuery(JpaRepositoryStateMachine.class);
+        Root<JpaRepositoryStateMachine> root = query.from(JpaRepositoryStateMachine.class);
+        query.where(root.get("machineId").in(machineIds));
+
+        entityManager.createQuery(query)
+                .getResultList()
+                .forEach(entity -> entities.put(entity.getMachineId(), entity));
+    }
+
+}
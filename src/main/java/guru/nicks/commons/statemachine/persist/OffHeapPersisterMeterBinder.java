@@ -0,0 +1,69 @@
+package guru.nicks.commons.statemachine.persist;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Exports {@link OffHeapStateMachineRuntimePersister} state, tagged by {@code persister} name:
+ * <ul>
+ *     <li>{@value BoundedInMemoryPersisterMeterBinder#ENTRIES_GAUGE} - number of contexts held</li>
+ *     <li>{@value #ALLOCATED_BYTES_GAUGE} - off-heap memory taken by slabs</li>
+ *     <li>{@value #USED_BYTES_GAUGE} - size of records, live and dead</li>
+ *     <li>{@value #LIVE_BYTES_GAUGE} - size of live records</li>
+ *     <li>{@value #FRAGMENTATION_GAUGE} - share of dead records in used bytes</li>
+ *     <li>{@value #COMPACTIONS_COUNTER} - slabs compacted</li>
+ * </ul>
+ * Register as a bean (Spring Boot binds all {@link MeterBinder} beans) or call {@link #bindTo(MeterRegistry)}.
+ */
+@RequiredArgsConstructor
+public class OffHeapPersisterMeterBinder implements MeterBinder {
+
+    public static final String ALLOCATED_BYTES_GAUGE = "statemachine.persister.offheap.allocated";
+    public static final String USED_BYTES_GAUGE = "statemachine.persister.offheap.used";
+    public static final String LIVE_BYTES_GAUGE = "statemachine.persister.offheap.live";
+    public static final String FRAGMENTATION_GAUGE = "statemachine.persister.offheap.fragmentation";
+    public static final String COMPACTIONS_COUNTER = "statemachine.persister.offheap.compactions";
+
+    private final OffHeapStateMachineRuntimePersister<?, ?, ?> persister;
+    private final String persisterName;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("persister", persisterName);
+
+        Gauge.builder(BoundedInMemoryPersisterMeterBinder.ENTRIES_GAUGE, persister,
+                        OffHeapStateMachineRuntimePersister::getEntryCount)
+                .tags(tags)
+                .description("State machine contexts held in memory")
+                .register(registry);
+        Gauge.builder(ALLOCATED_BYTES_GAUGE, persister, OffHeapStateMachineRuntimePersister::getAllocatedBytes)
+                .tags(tags)
+                .description("Off-heap memory allocated for state machine contexts")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(USED_BYTES_GAUGE, persister, OffHeapStateMachineRuntimePersister::getUsedBytes)
+                .tags(tags)
+                .description("Off-heap memory taken by state machine context records, live and dead")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(LIVE_BYTES_GAUGE, persister, OffHeapStateMachineRuntimePersister::getLiveBytes)
+                .tags(tags)
+                .description("Off-heap memory taken by live state machine context records")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(FRAGMENTATION_GAUGE, persister, OffHeapStateMachineRuntimePersister::getFragmentation)
+                .tags(tags)
+                .description("Share of dead records in off-heap memory used")
+                .register(registry);
+        FunctionCounter.builder(COMPACTIONS_COUNTER, persister,
+                        OffHeapStateMachineRuntimePersister::getCompactionCount)
+                .tags(tags)
+                .description("Off-heap slabs compacted")
+                .register(registry);
+    }
+
+}
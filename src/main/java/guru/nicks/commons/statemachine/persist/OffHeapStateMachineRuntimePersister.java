@@ -0,0 +1,605 @@
+package guru.nicks.commons.statemachine.persist;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineSerialisationService;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Keeps serialised contexts outside the Java heap, in direct {@link ByteBuffer} slabs of {@code slabSize} bytes each,
+ * so millions of idle contexts don't burden the garbage collector. The heap holds only the index: an open-addressing
+ * (linear probing) hash table of primitive arrays - 12 bytes per slot, i.e. under 20 bytes per context at the maximum
+ * load factor. Keys are {@code contextObj.toString()}, stored off-heap next to the contexts.
+ * <p>
+ * Records are appended to the current slab; rewriting or deleting a context leaves a dead record behind. When dead
+ * records take more than {@code compactionThreshold} of a slab, its live records are moved to the current slab and
+ * the slab is reused. One slab is kept in reserve for that, and when the store is nearly full, slabs are compacted
+ * regardless of the threshold. Slab buffers are never released (direct memory is freed only by the garbage
+ * collector), so the footprint is at most {@code maxBytes}, which must fit into {@code -XX:MaxDirectMemorySize}.
+ * <p>
+ * Reads run in parallel; writes (including compaction) are serialised. Encoding and decoding happen outside locks.
+ * Fragmentation and other figures can be exported with {@link OffHeapPersisterMeterBinder}.
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ */
+@Slf4j
+public class OffHeapStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T> {
+
+    /**
+     * Machine ID length + payload length.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final int RECORD_ALIGNMENT = 8;
+    private static final float MAX_LOAD_FACTOR = 0.7F;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+    private final StateMachineSerialisationService<S, E> serialisationService;
+    private final int slabSize;
+    private final double compactionThreshold;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // all below guarded by 'lock'
+    private final Slab[] slabs;
+    private final Deque<Slab> freeSlabs = new ArrayDeque<>();
+    private int allocatedSlabCount;
+    @Nullable
+    private Slab currentSlab;
+
+    /**
+     * Hash of each slot's key, 0 = empty slot.
+     */
+    private int[] hashes = new int[INITIAL_INDEX_CAPACITY];
+    /**
+     * Slab number (high 32 bits) and record offset (low 32 bits) of each slot's record.
+     */
+    private long[] locations = new long[INITIAL_INDEX_CAPACITY];
+    private int entryCount;
+    private long compactionCount;
+
+    /**
+     * Constructor.
+     *
+     * @param serialisationService encodes contexts
+     * @param slabSize             slab size in bytes; a single record can't be larger
+     * @param maxBytes             max total size of slabs, at least two slabs
+     * @param compactionThreshold  compact slabs whose dead record share exceeds this value (0..1)
+     */
+    public OffHeapStateMachineRuntimePersister(StateMachineSerialisationService<S, E> serialisationService,
+            int slabSize, long maxBytes, double compactionThreshold) {
+        this.serialisationService = checkNotNull(serialisationService, "serialisationService");
+
+        if (slabSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Slab size is too small");
+        }
+
+        // one slab is reserved for compaction
+        if (maxBytes < 2L * slabSize) {
+            throw new IllegalArgumentException("Max bytes must be at least two slabs");
+        }
+
+        if ((compactionThreshold <= 0) || (compactionThreshold >= 1)) {
+            throw new IllegalArgumentException("Compaction threshold must be between 0 and 1");
+        }
+
+        this.slabSize = slabSize;
+        this.compactionThreshold = compactionThreshold;
+        slabs = new Slab[(int) Math.min(Integer.MAX_VALUE - 8, maxBytes / slabSize)];
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    /**
+     * Stores the context.
+     *
+     * @throws IllegalArgumentException encoded context doesn't fit into a slab
+     * @throws IllegalStateException    max bytes reached (even after compaction)
+     */
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(contextObj, "contextObj");
+
+        byte[] id = contextObj.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = serialisationService.serialiseStateMachineContext(context);
+        int recordSize = recordSize(id.length, payload.length);
+
+        if (recordSize > slabSize) {
+            throw new IllegalArgumentException("State machine context of " + payload.length
+                    + " bytes doesn't fit into off-heap slab");
+        }
+
+        int hash = hash(id);
+        lock.writeLock().lock();
+
+        try {
+            int slot = findSlot(id, hash);
+            // may compact slabs, which moves the old record (if any), but never changes slots
+            long location = allocate(recordSize, false);
+            Slab slab = slabs[slabNumber(location)];
+            int offset = recordOffset(location);
+            slab.buffer.putInt(offset, id.length);
+            slab.buffer.putInt(offset + 4, payload.length);
+            slab.buffer.put(offset + RECORD_HEADER_SIZE, id);
+            slab.buffer.put(offset + RECORD_HEADER_SIZE + id.length, payload);
+
+            if (slot >= 0) {
+                releaseRecord(locations[slot]);
+                locations[slot] = location;
+            } else {
+                insert(hash, location);
+            }
+
+            compactMostFragmentedSlab(compactionThreshold);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        checkNotNull(contextObj, "contextObj");
+
+        byte[] id = contextObj.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] payload;
+        lock.readLock().lock();
+
+        try {
+            int slot = findSlot(id, hash(id));
+
+            if (slot < 0) {
+                return null;
+            }
+
+            Slab slab = slabs[slabNumber(locations[slot])];
+            int offset = recordOffset(locations[slot]);
+            payload = new byte[slab.buffer.getInt(offset + 4)];
+            slab.buffer.get(offset + RECORD_HEADER_SIZE + id.length, payload);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return serialisationService.deserialiseStateMachineContext(payload);
+    }
+
+    /**
+     * Removes the context, e.g. when the machine has reached its final state.
+     *
+     * @param contextObj context object (machine ID)
+     * @return {@code true} if the context existed
+     */
+    public boolean delete(T contextObj) {
+        checkNotNull(contextObj, "contextObj");
+
+        byte[] id = contextObj.toString().getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+
+        try {
+            int slot = findSlot(id, hash(id));
+
+            if (slot < 0) {
+                return false;
+            }
+
+            releaseRecord(locations[slot]);
+            removeSlot(slot);
+            compactMostFragmentedSlab(compactionThreshold);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        lock.readLock().lock();
+
+        try {
+            return entryCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the total size of slabs allocated so far (they're allocated lazily, up to max bytes).
+     *
+     * @return allocated bytes
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+
+        try {
+            return (long) allocatedSlabCount * slabSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the total size of records, live and dead.
+     *
+     * @return used bytes
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+
+        try {
+            long usedBytes = 0;
+
+            for (int i = 0; i < allocatedSlabCount; i++) {
+                usedBytes += slabs[i].top;
+            }
+
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the total size of live records.
+     *
+     * @return live bytes
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+
+        try {
+            long liveBytes = 0;
+
+            for (int i = 0; i < allocatedSlabCount; i++) {
+                liveBytes += slabs[i].liveBytes;
+            }
+
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the share of dead records in used bytes: 0 means no waste, 1 means nothing but waste.
+     *
+     * @return fragmentation ratio
+     */
+    public double getFragmentation() {
+        lock.readLock().lock();
+
+        try {
+            long usedBytes = 0;
+            long liveBytes = 0;
+
+            for (int i = 0; i < allocatedSlabCount; i++) {
+                usedBytes += slabs[i].top;
+                liveBytes += slabs[i].liveBytes;
+            }
+
+            return (usedBytes == 0)
+                    ? 0
+                    : 1 - ((double) liveBytes / usedBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        lock.readLock().lock();
+
+        try {
+            return compactionCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reserves space for a record, switching to a free (or newly allocated) slab if the current one is full.
+     *
+     * @param recordSize record size
+     * @param compacting whether the record is being moved by compaction, which may use the reserved slab
+     * @return record location
+     * @throws IllegalStateException no space left
+     */
+    private long allocate(int recordSize, boolean compacting) {
+        if (!compacting && !fitsIntoCurrentSlab(recordSize)) {
+            // compaction moves records into the current slab, possibly switching it
+            while ((getAvailableSlabCount() <= 1) && compactMostFragmentedSlab(0)) {
+                log.debug("Compacted off-heap slab to reclaim space");
+            }
+        }
+
+        if (!fitsIntoCurrentSlab(recordSize)) {
+            currentSlab = nextSlab(compacting);
+        }
+
+        int offset = currentSlab.top;
+        currentSlab.top += recordSize;
+        currentSlab.liveBytes += recordSize;
+        return location(currentSlab.number, offset);
+    }
+
+    private boolean fitsIntoCurrentSlab(int recordSize) {
+        return (currentSlab != null) && (currentSlab.top + recordSize <= slabSize);
+    }
+
+    /**
+     * Takes a free slab or allocates a new one. One slab is always kept in reserve for compaction; when only the
+     * reserve is left, {@link #allocate(int, boolean)} compacts slabs regardless of the threshold, to reclaim space.
+     */
+    private Slab nextSlab(boolean compacting) {
+        if (getAvailableSlabCount() <= (compacting ? 0 : 1)) {
+            throw new IllegalStateException("Off-heap state machine context store is full (" + entryCount
+                    + " contexts, fragmentation " + Math.round(getFragmentation() * 100) + "%)");
+        }
+
+        if (!freeSlabs.isEmpty()) {
+            return freeSlabs.pop();
+        }
+
+        var slab = new Slab(allocatedSlabCount, ByteBuffer.allocateDirect(slabSize));
+        slabs[allocatedSlabCount++] = slab;
+        log.debug("Allocated off-heap slab #{} of {} bytes", slab.number, slabSize);
+        return slab;
+    }
+
+    private void releaseRecord(long location) {
+        Slab slab = slabs[slabNumber(location)];
+        int offset = recordOffset(location);
+        slab.liveBytes -= recordSize(slab.buffer.getInt(offset), slab.buffer.getInt(offset + 4));
+
+        // nothing live left - reuse right away, no copying needed
+        if ((slab.liveBytes == 0) && (slab != currentSlab)) {
+            slab.top = 0;
+            freeSlabs.push(slab);
+        }
+    }
+
+    private int getAvailableSlabCount() {
+        return freeSlabs.size() + slabs.length - allocatedSlabCount;
+    }
+
+    /**
+     * Compacts at most one slab per call, to bound write latency: the most fragmented non-current one, if its dead
+     * record share exceeds the threshold and its live records fit into free space.
+     *
+     * @param threshold min dead record share
+     * @return whether a slab has been compacted
+     */
+    private boolean compactMostFragmentedSlab(double threshold) {
+        Slab candidate = null;
+        double maxDeadShare = threshold;
+
+        for (int i = 0; i < allocatedSlabCount; i++) {
+            Slab slab = slabs[i];
+
+            if ((slab == currentSlab) || (slab.top == 0)) {
+                continue;
+            }
+
+            double deadShare = 1 - ((double) slab.liveBytes / slab.top);
+
+            if (deadShare > maxDeadShare) {
+                candidate = slab;
+                maxDeadShare = deadShare;
+            }
+        }
+
+        if ((candidate == null) || (candidate.liveBytes > getFreeBytes())) {
+            return false;
+        }
+
+        compact(candidate);
+        return true;
+    }
+
+    private long getFreeBytes() {
+        long freeBytes = (long) getAvailableSlabCount() * slabSize;
+
+        if (currentSlab != null) {
+            freeBytes += slabSize - currentSlab.top;
+        }
+
+        return freeBytes;
+    }
+
+    private void compact(Slab slab) {
+        int offset = 0;
+
+        while (offset < slab.top) {
+            int idLength = slab.buffer.getInt(offset);
+            int recordSize = recordSize(idLength, slab.buffer.getInt(offset + 4));
+            byte[] id = new byte[idLength];
+            slab.buffer.get(offset + RECORD_HEADER_SIZE, id);
+            int slot = findSlot(id, hash(id));
+
+            // live if the index still points here
+            if ((slot >= 0) && (locations[slot] == location(slab.number, offset))) {
+                long newLocation = allocate(recordSize, true);
+                Slab target = slabs[slabNumber(newLocation)];
+                target.buffer.put(recordOffset(newLocation), slab.buffer, offset, recordSize);
+                locations[slot] = newLocation;
+                slab.liveBytes -= recordSize;
+            }
+
+            offset += recordSize;
+        }
+
+        slab.top = 0;
+        slab.liveBytes = 0;
+        freeSlabs.push(slab);
+        compactionCount++;
+        log.debug("Compacted off-heap slab #{}", slab.number);
+    }
+
+    /**
+     * Looks up the key in the index.
+     *
+     * @param id   key
+     * @param hash key hash
+     * @return slot number, or -1 if not found
+     */
+    private int findSlot(byte[] id, int hash) {
+        int mask = hashes.length - 1;
+
+        for (int slot = hash & mask; hashes[slot] != 0; slot = (slot + 1) & mask) {
+            if ((hashes[slot] == hash) && keyEquals(locations[slot], id)) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean keyEquals(long location, byte[] id) {
+        ByteBuffer buffer = slabs[slabNumber(location)].buffer;
+        int offset = recordOffset(location);
+
+        return (buffer.getInt(offset) == id.length)
+                && (buffer.slice(offset + RECORD_HEADER_SIZE, id.length).mismatch(ByteBuffer.wrap(id)) == -1);
+    }
+
+    private void insert(int hash, long location) {
+        if (entryCount + 1 > hashes.length * MAX_LOAD_FACTOR) {
+            resizeIndex(hashes.length * 2);
+        }
+
+        int mask = hashes.length - 1;
+        int slot = hash & mask;
+
+        while (hashes[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = hash;
+        locations[slot] = location;
+        entryCount++;
+    }
+
+    /**
+     * Backward-shift deletion: moves subsequent entries of the same probe chain back, so lookups never need
+     * tombstones.
+     */
+    private void removeSlot(int slot) {
+        int mask = hashes.length - 1;
+        int hole = slot;
+        int next = slot;
+
+        while (true) {
+            next = (next + 1) & mask;
+
+            if (hashes[next] == 0) {
+                break;
+            }
+
+            int home = hashes[next] & mask;
+            // entry can't move to the hole if its home slot is cyclically within (hole, next]
+            boolean staysPut = (hole <= next)
+                    ? ((hole < home) && (home <= next))
+                    : ((hole < home) || (home <= next));
+
+            if (!staysPut) {
+                hashes[hole] = hashes[next];
+                locations[hole] = locations[next];
+                hole = next;
+            }
+        }
+
+        hashes[hole] = 0;
+        locations[hole] = 0;
+        entryCount--;
+    }
+
+    private void resizeIndex(int capacity) {
+        int[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        hashes = new int[capacity];
+        locations = new long[capacity];
+        int mask = capacity - 1;
+
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int slot = oldHashes[i] & mask;
+
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                hashes[slot] = oldHashes[i];
+                locations[slot] = oldLocations[i];
+            }
+        }
+    }
+
+    /**
+     * Computes non-zero key hash (0 marks empty slots), with bits spread so that linear probing doesn't cluster.
+     */
+    private static int hash(byte[] id) {
+        int hash = 1;
+
+        for (byte b : id) {
+            hash = 31 * hash + b;
+        }
+
+        // MurmurHash3 finalizer
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+
+        return (hash == 0)
+                ? 1
+                : hash;
+    }
+
+    private static int recordSize(int idLength, int payloadLength) {
+        int size = RECORD_HEADER_SIZE + idLength + payloadLength;
+        return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    private static long location(int slabNumber, int offset) {
+        return ((long) slabNumber << 32) | offset;
+    }
+
+    private static int slabNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int recordOffset(long location) {
+        return (int) location;
+    }
+
+    private static final class Slab {
+
+        private final int number;
+        private final ByteBuffer buffer;
+        private int top;
+        private int liveBytes;
+
+        private Slab(int number, ByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+
+    }
+
+}
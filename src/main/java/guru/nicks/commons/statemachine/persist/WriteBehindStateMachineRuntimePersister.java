@@ -0,0 +1,346 @@
+package guru.nicks.commons.statemachine.persist;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.persist.AbstractPersistingStateMachineInterceptor;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.support.StateMachineInterceptor;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static guru.nicks.commons.validation.dsl.ValiDsl.checkNotNull;
+
+/**
+ * Buffers context writes and flushes them to the delegate in batches, on a single background thread. Repeated writes
+ * for the same machine ID between flushes are coalesced - only the latest context is written. A flush happens when
+ * the buffer reaches {@code maxBatchSize} machines or {@code flushInterval} has elapsed, whichever comes first.
+ * <p>
+ * Reads see buffered writes (including those being flushed at the moment), so state machines are always restored
+ * from their latest contexts on this node. Other nodes reading from the same store see writes only after flushes.
+ * <p>
+ * Durability modes:
+ * <ul>
+ *     <li>{@link Durability#SYNC} - {@link #write(StateMachineContext, Object)} returns after the flush containing the
+ *         context has completed (group commit: concurrent writers share one batch), and fails if the flush has
+ *         failed (even with an {@link Error}) - same guarantees as writing to the delegate directly</li>
+ *     <li>{@link Durability#ASYNC} - {@link #write(StateMachineContext, Object)} returns immediately; contexts not
+ *         flushed yet are lost on crash; failed batches are retried on the next flush, unless newer contexts have been
+ *         written for the same machines</li>
+ * </ul>
+ * {@link #close()} flushes the buffer - call it on shutdown (Spring does this automatically for beans).
+ *
+ * @param <S> state type
+ * @param <E> event type
+ * @param <T> context object (machine ID) type
+ * @see JpaStateMachineContextBatchWriter
+ */
+@Slf4j
+public class WriteBehindStateMachineRuntimePersister<S, E, T>
+        extends AbstractPersistingStateMachineInterceptor<S, E, T>
+        implements StateMachineRuntimePersister<S, E, T>, AutoCloseable {
+
+    private final StateMachinePersist<S, E, T> delegate;
+    private final BatchWriter<S, E, T> batchWriter;
+    private final int maxBatchSize;
+    private final Durability durability;
+    private final ScheduledExecutorService flusher;
+
+    private final Object lock = new Object();
+    // guarded by 'lock'
+    private Map<T, StateMachineContext<S, E>> pendingContexts = new LinkedHashMap<>();
+    private Map<T, StateMachineContext<S, E>> flushingContexts = Map.of();
+    private CompletableFuture<Void> nextFlush = new CompletableFuture<>();
+    private boolean closed;
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder coalescedWrites = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+
+    /**
+     * Same as {@link #WriteBehindStateMachineRuntimePersister(StateMachinePersist, BatchWriter, int, Duration,
+     * Durability)}, batches are written by calling {@link StateMachinePersist#write(StateMachineContext, Object)} for
+     * each context.
+     */
+    public WriteBehindStateMachineRuntimePersister(StateMachinePersist<S, E, T> delegate, int maxBatchSize,
+            Duration flushInterval, Durability durability) {
+        this(delegate, BatchWriter.of(delegate), maxBatchSize, flushInterval, durability);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate      reads contexts not found in the buffer
+     * @param batchWriter   writes batches, usually to the same store the delegate reads from
+     * @param maxBatchSize  flush when the buffer reaches this many machines
+     * @param flushInterval flush at least this often
+     * @param durability    when writes return
+     */
+    public WriteBehindStateMachineRuntimePersister(StateMachinePersist<S, E, T> delegate,
+            BatchWriter<S, E, T> batchWriter, int maxBatchSize, Duration flushInterval, Durability durability) {
+        this.delegate = checkNotNull(delegate, "delegate");
+        this.batchWriter = checkNotNull(batchWriter, "batchWriter");
+        this.durability = checkNotNull(durability, "durability");
+        checkNotNull(flushInterval, "flushInterval");
+
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size must be positive");
+        }
+
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+
+        this.maxBatchSize = maxBatchSize;
+
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("statemachine-write-behind")
+                .daemon()
+                .factory());
+        long flushIntervalNanos = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalNanos, flushIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public StateMachineInterceptor<S, E> getInterceptor() {
+        return this;
+    }
+
+    @Override
+    public void write(StateMachineContext<S, E> context, T contextObj) throws Exception {
+        checkNotNull(context, "context");
+        checkNotNull(contextObj, "contextObj");
+
+        CompletableFuture<Void> flush;
+        int pendingCount;
+
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Write-behind persister is closed");
+            }
+
+            if (pendingContexts.put(contextObj, context) != null) {
+                coalescedWrites.increment();
+            }
+
+            flush = nextFlush;
+            pendingCount = pendingContexts.size();
+        }
+
+        writes.increment();
+
+        if ((pendingCount >= maxBatchSize) && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+
+        if (durability == Durability.SYNC) {
+            awaitFlush(flush);
+        }
+    }
+
+    @Nullable
+    @Override
+    public StateMachineContext<S, E> read(T contextObj) throws Exception {
+        checkNotNull(contextObj, "contextObj");
+
+        synchronized (lock) {
+            StateMachineContext<S, E> context = pendingContexts.get(contextObj);
+
+            if (context == null) {
+                context = flushingContexts.get(contextObj);
+            }
+
+            if (context != null) {
+                return context;
+            }
+        }
+
+        return delegate.read(contextObj);
+    }
+
+    /**
+     * Returns the number of machines whose contexts are waiting for the next flush.
+     *
+     * @return pending context count
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingContexts.size();
+        }
+    }
+
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    /**
+     * Returns the number of writes which have replaced a pending context of the same machine.
+     *
+     * @return coalesced write count
+     */
+    public long getCoalescedWriteCount() {
+        return coalescedWrites.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.sum();
+    }
+
+    /**
+     * Flushes pending contexts and stops the background thread. Subsequent writes fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        // runs after a flush possibly in progress
+        flusher.execute(this::flush);
+        flusher.shutdown();
+
+        try {
+            if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Write-behind persister not flushed in time, {} contexts may be lost", getPendingCount());
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while flushing write-behind persister");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Always runs on the flusher thread, so batches never overlap.
+     */
+    private void flush() {
+        flushRequested.set(false);
+        Map<T, StateMachineContext<S, E>> batch;
+        CompletableFuture<Void> flush;
+
+        synchronized (lock) {
+            if (pendingContexts.isEmpty()) {
+                return;
+            }
+
+            batch = pendingContexts;
+            flush = nextFlush;
+            // still visible to readers while being written
+            flushingContexts = batch;
+            pendingContexts = new LinkedHashMap<>();
+            nextFlush = new CompletableFuture<>();
+        }
+
+        try {
+            batchWriter.writeAll(batch);
+            flushes.increment();
+            flush.complete(null);
+        } catch (Throwable e) {
+            // not rethrown: the flush future must always be completed, and a scheduled task which has thrown is
+            // cancelled silently
+            failedFlushes.increment();
+            log.error("Failed to flush {} state machine contexts: {}", batch.size(), e.getMessage(), e);
+
+            if (durability == Durability.ASYNC) {
+                synchronized (lock) {
+                    // don't overwrite contexts written after this batch
+                    batch.forEach(pendingContexts::putIfAbsent);
+                }
+            }
+
+            flush.completeExceptionally(e);
+        } finally {
+            synchronized (lock) {
+                flushingContexts = Map.of();
+            }
+        }
+    }
+
+    private void awaitFlush(CompletableFuture<Void> flush) throws Exception {
+        try {
+            flush.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+
+            throw (e.getCause() instanceof Exception cause)
+                    ? cause
+                    : e;
+        }
+    }
+
+    public enum Durability {
+
+        /**
+         * Writes return after their contexts have been flushed.
+         */
+        SYNC,
+
+        /**
+         * Writes return immediately.
+         */
+        ASYNC
+
+    }
+
+    /**
+     * Writes a batch of contexts - ideally, in one round-trip (e.g. JDBC batch).
+     *
+     * @param <S> state type
+     * @param <E> event type
+     * @param <T> context object (machine ID) type
+     */
+    @FunctionalInterface
+    public interface BatchWriter<S, E, T> {
+
+        /**
+         * Creates writer calling {@link StateMachinePersist#write(StateMachineContext, Object)} for each context.
+         *
+         * @param persist persister
+         * @param <S>     state type
+         * @param <E>     event type
+         * @param <T>     context object (machine ID) type
+         * @return writer
+         */
+        static <S, E, T> BatchWriter<S, E, T> of(StateMachinePersist<S, E, T> persist) {
+            checkNotNull(persist, "persist");
+
+            return contexts -> {
+                for (Map.Entry<T, StateMachineContext<S, E>> entry : contexts.entrySet()) {
+                    persist.write(entry.getValue(), entry.getKey());
+                }
+            };
+        }
+
+        /**
+         * Writes contexts.
+         *
+         * @param contexts contexts by context object (machine ID), in the order of their first write since the
+         *                 previous flush
+         * @throws Exception write failed - the whole batch is considered failed
+         */
+        void writeAll(Map<T, StateMachineContext<S, E>> contexts) throws Exception;
+
+    }
+
+}
@@ -0,0 +1,7 @@
+/**
+ * State machine context persistence: serialisation services, runtime persisters, and their decorators.
+ */
+@NonNullApi
+package guru.nicks.commons.statemachine.persist;
+
+import org.springframework.lang.NonNullApi;
@@ -1,8 +1,13 @@
 package org.springframework.statemachine.kryo;
 
+import guru.nicks.commons.statemachine.domain.ExtendedStateVariables;
+import guru.nicks.commons.statemachine.kryo.ExtendedStateVariablesSerializer;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.Pool;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.statemachine.StateMachineContext;
 import org.springframework.statemachine.support.DefaultStateContext;
@@ -20,10 +25,85 @@ import java.util.UUID;
  * <p>
  * Solution: call {@link Kryo#setRegistrationRequired(boolean)}, passing {@code false} to it.
  * <p>
+ * The second patch replaces the per-thread Kryo instances of the parent class with a bounded {@link Pool}: with virtual
+ * threads, thread-locals would create a new Kryo instance for almost every call. Also, a {@link KryoClassRegistry} can
+ * be passed to write known classes as IDs instead of class names, optionally in strict mode (registration required).
+ * <p>
  * See {@link #configureKryoInstance(Kryo)} - the code between '// PATCH START' and '// PATCH END' is the patch.
  */
 public class KryoStateMachineSerialisationService<S, E> extends AbstractKryoStateMachineSerialisationService<S, E> {
 
+    // PATCH START
+    public static final int DEFAULT_POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final KryoClassRegistry classRegistry;
+    private final boolean registrationRequired;
+    private final Pool<Kryo> kryoPool;
+
+    /**
+     * Lenient mode (no registration required), no registered classes - all class names are written in full.
+     */
+    public KryoStateMachineSerialisationService() {
+        this(KryoClassRegistry.empty(), false, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param classRegistry        classes to register in each Kryo instance
+     * @param registrationRequired strict mode - fail on classes missing in the registry instead of writing their names
+     * @param poolSize             maximum number of idle Kryo instances kept in the pool
+     */
+    public KryoStateMachineSerialisationService(KryoClassRegistry classRegistry, boolean registrationRequired,
+            int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+
+        this.classRegistry = classRegistry;
+        this.registrationRequired = registrationRequired;
+
+        kryoPool = new Pool<>(true, false, poolSize) {
+            @Override
+            protected Kryo create() {
+                var kryo = new Kryo();
+                configureKryoInstance(kryo);
+                return kryo;
+            }
+        };
+    }
+
+    @Override
+    public byte[] serialiseStateMachineContext(StateMachineContext<S, E> context) throws Exception {
+        Kryo kryo = kryoPool.obtain();
+
+        try (var output = new Output(INITIAL_BUFFER_SIZE, -1)) {
+            doEncode(kryo, context, output);
+            return output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public StateMachineContext<S, E> deserialiseStateMachineContext(byte[] data) throws Exception {
+        if ((data == null) || (data.length == 0)) {
+            return null;
+        }
+
+        Kryo kryo = kryoPool.obtain();
+
+        try (var input = new Input(data)) {
+            return doDecode(kryo, input, StateMachineContext.class);
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+    // PATCH END
+
     @Override
     protected void doEncode(Kryo kryo, Object object, Output output) {
         kryo.writeObject(output, object);
@@ -37,11 +117,19 @@ public class KryoStateMachineSerialisationService<S, E> extends AbstractKryoStat
     @Override
     protected void configureKryoInstance(Kryo kryo) {
         // PATCH START
-        kryo.setRegistrationRequired(false);
+        kryo.setRegistrationRequired(registrationRequired);
         // PATCH END
         kryo.addDefaultSerializer(StateMachineContext.class, new StateMachineContextSerializer<S, E>());
         kryo.addDefaultSerializer(MessageHeaders.class, new MessageHeadersSerializer());
         kryo.addDefaultSerializer(UUID.class, new UUIDSerializer());
+        // PATCH START
+        kryo.addDefaultSerializer(ExtendedStateVariables.class, new ExtendedStateVariablesSerializer());
+        // default serializers are resolved at registration time, so register after adding them; the registry is null
+        // if the parent class creates Kryo instances in its constructor
+        if (classRegistry != null) {
+            classRegistry.registerIn(kryo);
+        }
+        // PATCH END
     }
 
 }
@@ -9,6 +9,7 @@ import guru.nicks.commons.cucumber.statemachine.world.TestOrderWorld;
 import guru.nicks.commons.cucumber.world.TextWorld;
 
 import io.cucumber.spring.CucumberContextConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.springframework.test.context.ContextConfiguration;
 
 /**
@@ -22,7 +23,9 @@ import org.springframework.test.context.ContextConfiguration;
         TestOrderWorld.class, TextWorld.class,
 
         TestOrderStateMachineConfig.class, TestOrderErrorHandlerAction.class, TestOrderRejectRefundAction.class,
-        TestOrderService.class, TestOrderRepository.class
+        TestOrderService.class, TestOrderRepository.class,
+        // for StateMachineMetricsMonitor
+        SimpleMeterRegistry.class
 })
 public class CucumberBootstrap {
 }
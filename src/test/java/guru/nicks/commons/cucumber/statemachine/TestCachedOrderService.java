@@ -0,0 +1,96 @@
+package guru.nicks.commons.cucumber.statemachine;
+
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEntity;
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEvent;
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderExtendedState;
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderState;
+import guru.nicks.commons.exception.http.NotFoundException;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineStartCompletionListener;
+import guru.nicks.commons.statemachine.StateMachineTransitionIndex;
+import guru.nicks.commons.statemachine.StripedEntityLock;
+import guru.nicks.commons.statemachine.persist.BatchingStateMachineRuntimePersister;
+
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.service.StateMachineService;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Same orders as in {@link TestOrderService}, but their state machines are kept started between calls and batches of
+ * events are persisted once (see {@code TestOrderStateMachineConfig#cachedOrderService}). State machine contexts are
+ * stored apart from those of {@link TestOrderService}, so an order should be driven by one service only.
+ */
+@RequiredArgsConstructor
+public class TestCachedOrderService implements
+        StateMachineAware<TestOrderState, TestOrderEvent, TestOrderExtendedState, UUID> {
+
+    // DI
+    private final StateMachineService<TestOrderState, TestOrderEvent> orderStateMachineService;
+    private final TestOrderRepository repository;
+    @Getter(onMethod_ = @Override)
+    private final StripedEntityLock stateMachineLock;
+    @Getter(onMethod_ = @Override)
+    private final StateMachineTransitionIndex<TestOrderState, TestOrderEvent> stateMachineTransitionIndex;
+    @Getter(onMethod_ = @Override)
+    private final BatchingStateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> stateMachinePersist;
+
+    /**
+     * Returns order state stored by {@link TestOrderStateMachineListener}.
+     *
+     * @param orderId order ID
+     * @return order state, {@code null} if order not found
+     */
+    @Nullable
+    @Override
+    public TestOrderState findStateWithoutStateMachine(UUID orderId) {
+        return repository.findById(orderId)
+                .map(TestOrderEntity::getState)
+                .orElse(null);
+    }
+
+    /**
+     * Because of the order existence check, the method is transactional.
+     *
+     * @param orderId order ID
+     * @throws NotFoundException order not found
+     */
+    @Transactional
+    @Nullable
+    @Override
+    public <T> T withStateMachine(UUID orderId, Function<StateMachine<TestOrderState, TestOrderEvent>, T> mapper) {
+        if (!repository.existsById(orderId)) {
+            throw new NotFoundException();
+        }
+
+        var stateMachine = waitForStateMachineStart(orderId);
+        T result = mapper.apply(stateMachine);
+        waitForStateMachineStop(orderId);
+        return result;
+    }
+
+    @Override
+    public StateMachine<TestOrderState, TestOrderEvent> waitForStateMachineStart(UUID orderId) {
+        var stateMachine = orderStateMachineService.acquireStateMachine(convertToStateMachineId(orderId), false);
+        // ensure order ID is always there
+        TestOrderExtendedState.ORDER_ID.saveInStateMachine(stateMachine, orderId);
+        StateMachineStartCompletionListener.waitForStateMachineStart(stateMachine);
+        return stateMachine;
+    }
+
+    @Override
+    public void waitForStateMachineStop(UUID orderId) {
+        orderStateMachineService.releaseStateMachine(convertToStateMachineId(orderId));
+    }
+
+    @Override
+    public String convertToStateMachineId(UUID orderId) {
+        return "orderId:" + orderId;
+    }
+
+}
@@ -5,9 +5,15 @@ import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEvent;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderExtendedState;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderState;
 import guru.nicks.commons.exception.http.NotFoundException;
+import guru.nicks.commons.statemachine.GraphvizStateMachineGraphVisualizer;
+import guru.nicks.commons.statemachine.ReactiveStateMachineAware;
 import guru.nicks.commons.statemachine.StateMachineAware;
-import guru.nicks.commons.statemachine.StateMachineGraphVisualizer;
+import guru.nicks.commons.statemachine.StateMachineGraphCache;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
 import guru.nicks.commons.statemachine.StateMachineStartCompletionListener;
+import guru.nicks.commons.statemachine.StateMachineTrafficMonitor;
+import guru.nicks.commons.statemachine.StateMachineTransitionIndex;
+import guru.nicks.commons.statemachine.StripedEntityLock;
 
 import jakarta.annotation.Nullable;
 import lombok.Getter;
@@ -15,9 +21,12 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.config.StateMachineFactory;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
 import org.springframework.statemachine.service.StateMachineService;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.UUID;
 import java.util.function.Function;
@@ -27,13 +36,28 @@ import java.util.function.Function;
 @Slf4j
 public class TestOrderService implements
         StateMachineAware<TestOrderState, TestOrderEvent, TestOrderExtendedState, UUID>,
-        StateMachineGraphVisualizer<TestOrderState, TestOrderEvent> {
+        ReactiveStateMachineAware<TestOrderState, TestOrderEvent, TestOrderExtendedState, UUID>,
+        GraphvizStateMachineGraphVisualizer<TestOrderState, TestOrderEvent> {
 
     // DI
     private final StateMachineService<TestOrderState, TestOrderEvent> orderStateMachineService;
     @Getter(onMethod_ = @Override)
     private final StateMachineFactory<TestOrderState, TestOrderEvent> stateMachineFactory;
     private final TestOrderRepository repository;
+    @Getter(onMethod_ = @Override)
+    private final StripedEntityLock stateMachineLock;
+    @Getter(onMethod_ = @Override)
+    private final StateMachineTransitionIndex<TestOrderState, TestOrderEvent> stateMachineTransitionIndex;
+    @Getter(onMethod_ = @Override)
+    private final StateMachineScheduler stateMachineScheduler;
+    @Getter(onMethod_ = @Override)
+    private final StateMachineTrafficMonitor<TestOrderState, TestOrderEvent> stateMachineTrafficMonitor;
+    // for read-only access to order states, without starting state machines
+    @Getter(onMethod_ = @Override)
+    private final StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> stateMachinePersist;
+
+    @Getter(onMethod_ = @Override)
+    private final StateMachineGraphCache stateMachineGraphCache = new StateMachineGraphCache(this);
 
     public TestOrderEntity getById(UUID id) {
         return repository.getById(id);
@@ -43,6 +67,20 @@ public class TestOrderService implements
         return repository.save(orderEntity);
     }
 
+    /**
+     * Returns order state stored by {@link TestOrderStateMachineListener}.
+     *
+     * @param orderId order ID
+     * @return order state, {@code null} if order not found
+     */
+    @Nullable
+    @Override
+    public TestOrderState findStateWithoutStateMachine(UUID orderId) {
+        return repository.findById(orderId)
+                .map(TestOrderEntity::getState)
+                .orElse(null);
+    }
+
     /**
      * Because of the order existence check, the method is transactional.
      *
@@ -80,7 +118,36 @@ public class TestOrderService implements
         orderStateMachineService.releaseStateMachine(convertToStateMachineId(orderId));
     }
 
-    private String convertToStateMachineId(UUID orderId) {
+    @Override
+    public Mono<StateMachine<TestOrderState, TestOrderEvent>> startStateMachineReactively(UUID orderId) {
+        return Mono
+                .fromCallable(() -> {
+                    if (!repository.existsById(orderId)) {
+                        throw new NotFoundException();
+                    }
+
+                    var stateMachine = orderStateMachineService.acquireStateMachine(
+                            convertToStateMachineId(orderId), false);
+                    // ensure order ID is always there
+                    TestOrderExtendedState.ORDER_ID.saveInStateMachine(stateMachine, orderId);
+                    return stateMachine;
+                })
+                // restoring machine context may involve blocking I/O
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(stateMachine -> StateMachineStartCompletionListener.startStateMachineReactively(stateMachine)
+                        .thenReturn(stateMachine));
+    }
+
+    @Override
+    public Mono<Void> stopStateMachineReactively(UUID orderId) {
+        return Mono
+                .fromRunnable(() -> waitForStateMachineStop(orderId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    @Override
+    public String convertToStateMachineId(UUID orderId) {
         return "orderId:" + orderId;
     }
 
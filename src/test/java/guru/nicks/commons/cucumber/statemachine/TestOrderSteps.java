@@ -2,26 +2,133 @@ package guru.nicks.commons.cucumber.statemachine;
 
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEntity;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEvent;
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderExtendedState;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderState;
 import guru.nicks.commons.cucumber.statemachine.world.TestOrderWorld;
 import guru.nicks.commons.cucumber.world.TextWorld;
+import guru.nicks.commons.statemachine.CachingStateMachineService;
+import guru.nicks.commons.statemachine.GraphvizStateMachineGraphVisualizer;
+import guru.nicks.commons.statemachine.PooledStateMachineService;
+import guru.nicks.commons.statemachine.StateMachineAware;
+import guru.nicks.commons.statemachine.StateMachineGraphCache;
+import guru.nicks.commons.statemachine.StateMachineGraphVisualizer;
+import guru.nicks.commons.statemachine.StateMachineInMemoryPersister;
+import guru.nicks.commons.statemachine.StateMachineMetricsMonitor;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
+import guru.nicks.commons.statemachine.StateMachineSchedulerMeterBinder;
+import guru.nicks.commons.statemachine.StateMachineTransitionIndex;
+import guru.nicks.commons.statemachine.StripedEntityLock;
+import guru.nicks.commons.statemachine.aot.StateMachineKryoRuntimeHints;
+import guru.nicks.commons.statemachine.config.CommonsKryoAutoConfiguration;
+import guru.nicks.commons.statemachine.config.StateMachineProperties;
+import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.ExtendedStateVariables;
+import guru.nicks.commons.statemachine.domain.RenderedStateMachineGraph;
+import guru.nicks.commons.statemachine.domain.StateMachineError;
+import guru.nicks.commons.statemachine.domain.StateMachineEventOutcome;
 import guru.nicks.commons.statemachine.domain.StateMachineException;
+import guru.nicks.commons.statemachine.domain.StateMachineGraphFormat;
+import guru.nicks.commons.statemachine.domain.StateMachineTrafficSnapshot;
+import guru.nicks.commons.statemachine.kryo.KryoClassRegistry;
+import guru.nicks.commons.statemachine.jfr.JfrStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.jfr.StateMachineAcquireEvent;
+import guru.nicks.commons.statemachine.jfr.StateMachineActionEvent;
+import guru.nicks.commons.statemachine.jfr.StateMachinePersistEvent;
+import guru.nicks.commons.statemachine.jfr.StateMachineStartEvent;
+import guru.nicks.commons.statemachine.jfr.StateMachineTransitionEvent;
+import guru.nicks.commons.statemachine.persist.BatchingStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.BoundedInMemoryPersisterMeterBinder;
+import guru.nicks.commons.statemachine.persist.BoundedInMemoryStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.CachingPersisterMeterBinder;
+import guru.nicks.commons.statemachine.persist.CachingStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.CompactStateMachineSerialisationService;
+import guru.nicks.commons.statemachine.persist.JournalStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.JpaStateMachineContextBatchWriter;
+import guru.nicks.commons.statemachine.persist.OffHeapPersisterMeterBinder;
+import guru.nicks.commons.statemachine.persist.OffHeapStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.WriteBehindStateMachineRuntimePersister;
+import guru.nicks.commons.statemachine.persist.WriteBehindStateMachineRuntimePersister.Durability;
 
+import com.esotericsoftware.kryo.serializers.DefaultSerializers;
 import guru.nidi.graphviz.engine.Format;
 import io.cucumber.java.Before;
 import io.cucumber.java.ParameterType;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.Nullable;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.entity.ContentType;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.statemachine.StateContext;
+import org.springframework.statemachine.StateMachine;
+import org.springframework.statemachine.StateMachineContext;
+import org.springframework.statemachine.StateMachinePersist;
+import org.springframework.statemachine.config.StateMachineBuilder;
+import org.springframework.statemachine.data.jpa.JpaRepositoryStateMachine;
+import org.springframework.statemachine.kryo.KryoStateMachineSerialisationService;
+import org.springframework.statemachine.persist.StateMachineRuntimePersister;
+import org.springframework.statemachine.service.StateMachineService;
+import org.springframework.statemachine.support.DefaultExtendedState;
+import org.springframework.statemachine.support.DefaultStateMachineContext;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -29,8 +136,11 @@ public class TestOrderSteps {
 
     // DI
     private final TestOrderService testOrderService;
+    private final TestCachedOrderService cachedOrderService;
     private final TestOrderWorld testOrderWorld;
     private final TextWorld textWorld;
+    private final MeterRegistry meterRegistry;
+    private final ListableBeanFactory beanFactory;
 
     @Before
     public void setup() {
@@ -43,6 +153,11 @@ public class TestOrderSteps {
         return TestOrderState.valueOf(str);
     }
 
+    @When("serve orders by cached order state machines")
+    public void serve_orders_by_cached_order_state_machines() {
+        testOrderWorld.setCachedStateMachines(true);
+    }
+
     @When("create order")
     // for fetching lazy-loaded properties
     @Transactional
@@ -54,6 +169,67 @@ public class TestOrderSteps {
         testOrderWorld.setOrderId(orderEntity.getId());
     }
 
+    @When("create {int} orders")
+    public void create_orders(int count) {
+        for (int i = 0; i < count; i++) {
+            create_order();
+            testOrderWorld.getOrderIds().add(testOrderWorld.getOrderId());
+        }
+    }
+
+    @When("cancel all created orders and a non-existing order in bulk")
+    public void cancel_all_created_orders_and_non_existing_order_in_bulk() {
+        List<UUID> orderIds = new ArrayList<>(testOrderWorld.getOrderIds());
+        orderIds.add(UUID.randomUUID());
+
+        testOrderWorld.setBulkEventResult(
+                testOrderService.processEventInStateMachines(orderIds, TestOrderEvent.CANCEL));
+    }
+
+    @When("cancel all created orders in bulk, each ID twice")
+    public void cancel_all_created_orders_in_bulk_each_id_twice() {
+        List<UUID> orderIds = new ArrayList<>(testOrderWorld.getOrderIds());
+        orderIds.addAll(testOrderWorld.getOrderIds());
+
+        testOrderWorld.setBulkEventResult(
+                testOrderService.processEventInStateMachines(orderIds, TestOrderEvent.CANCEL));
+    }
+
+    @Then("cancelling all created orders and a null ID in bulk fails without cancelling any order")
+    public void cancelling_all_created_orders_and_null_id_in_bulk_fails() {
+        List<UUID> orderIds = new ArrayList<>(testOrderWorld.getOrderIds());
+        orderIds.add(null);
+
+        assertThat(catchThrowable(() ->
+                testOrderService.processEventInStateMachines(orderIds, TestOrderEvent.CANCEL)))
+                .as("bulk event exception")
+                .isNotNull();
+
+        for (UUID orderId : testOrderWorld.getOrderIds()) {
+            assertThat(testOrderService.getStateFromStateMachine(orderId))
+                    .as("order state")
+                    .isEqualTo(TestOrderState.NEW);
+        }
+    }
+
+    @Then("bulk event result: {int} accepted, {int} denied, {int} failed")
+    public void bulk_event_result(int accepted, int denied, int failed) {
+        var result = testOrderWorld.getBulkEventResult();
+
+        assertThat(result.acceptedCount())
+                .as("accepted count")
+                .isEqualTo(accepted);
+        assertThat(result.deniedCount())
+                .as("denied count")
+                .isEqualTo(denied);
+        assertThat(result.failedCount())
+                .as("failed count")
+                .isEqualTo(failed);
+        assertThat(result.outcomes())
+                .as("outcome per order")
+                .hasSize(accepted + denied + failed);
+    }
+
     @When("cancel order")
     public void cancel_order() {
         sendOrderEvent(TestOrderEvent.CANCEL);
@@ -84,6 +260,120 @@ public class TestOrderSteps {
         sendOrderEvent(TestOrderEvent.REJECT_REFUND);
     }
 
+    @When("pay order concurrently {int} times")
+    public void pay_order_concurrently(int times) throws InterruptedException {
+        var acceptedEventCount = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(times)) {
+            for (int i = 0; i < times; i++) {
+                executor.execute(() -> {
+                    try {
+                        testOrderService.processEventInStateMachine(testOrderWorld.getOrderId(), TestOrderEvent.PAY);
+                        acceptedEventCount.incrementAndGet();
+                    } catch (StateMachineException e) {
+                        log.debug("Concurrent event denied: {}", e.getMessage());
+                    }
+                });
+            }
+
+            executor.shutdown();
+            assertThat(executor.awaitTermination(1, TimeUnit.MINUTES))
+                    .as("all events processed")
+                    .isTrue();
+        }
+
+        testOrderWorld.setAcceptedEventCount(acceptedEventCount.get());
+    }
+
+    @Then("{int} event(s) accepted")
+    public void events_accepted(int expectedCount) {
+        assertThat(testOrderWorld.getAcceptedEventCount())
+                .as("accepted event count")
+                .isEqualTo(expectedCount);
+    }
+
+    @When("send order events in one batch: {string}")
+    public void send_order_events_in_one_batch(String eventNames) {
+        List<TestOrderEvent> events = Arrays.stream(eventNames.split(","))
+                .map(String::strip)
+                .map(TestOrderEvent::valueOf)
+                .toList();
+
+        testOrderWorld.setContextWriteCount(getBatchingPersister().getWriteCount());
+        testOrderWorld.setEventOutcomes(
+                getOrderService().processEventsInStateMachine(testOrderWorld.getOrderId(), events));
+    }
+
+    @Then("order state machine context was written {int} time(s) for the batch")
+    public void orderStateMachineContextWasWrittenTimesForTheBatch(int expectedWriteCount) {
+        BatchingStateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> persister = getBatchingPersister();
+
+        assertThat(persister.getWriteCount() - testOrderWorld.getContextWriteCount())
+                .as("context writes")
+                .isEqualTo(expectedWriteCount);
+        assertThat(getOrderService().getPersistedState(testOrderWorld.getOrderId()))
+                .as("persisted state")
+                .isEqualTo(getOrderService().getStateFromStateMachine(testOrderWorld.getOrderId()));
+    }
+
+    @Then("order events {string} checked against persisted state have outcomes {string}")
+    public void order_events_checked_against_persisted_state_have_outcomes(String eventNames,
+            String expectedStatuses) {
+        var orderService = new PersistedStateCheckingOrderService(testOrderService);
+        List<StateMachineEventOutcome.Status> statuses = new ArrayList<>();
+        List<Integer> stateMachineCalls = new ArrayList<>();
+
+        // back to back: each event is checked against the state persisted by the previous one
+        for (String eventName : eventNames.split(",")) {
+            var event = TestOrderEvent.valueOf(eventName.strip());
+            statuses.add(orderService.processEventsInStateMachine(testOrderWorld.getOrderId(), List.of(event))
+                    .getFirst().status());
+            stateMachineCalls.add(orderService.stateMachineCalls.getAndSet(0));
+        }
+
+        List<StateMachineEventOutcome.Status> expected = Arrays.stream(expectedStatuses.split(","))
+                .map(String::strip)
+                .map(StateMachineEventOutcome.Status::valueOf)
+                .toList();
+        assertThat(statuses)
+                .as("event outcomes")
+                .isEqualTo(expected);
+        // denied events don't reach state machines
+        assertThat(stateMachineCalls)
+                .as("state machine calls per event")
+                .isEqualTo(expected.stream()
+                        .map(status -> (status == StateMachineEventOutcome.Status.DENIED) ? 0 : 1)
+                        .toList());
+    }
+
+    @Then("batch event outcomes are {string}")
+    public void batch_event_outcomes_are(String expectedStatuses) {
+        List<StateMachineEventOutcome.Status> expected = Arrays.stream(expectedStatuses.split(","))
+                .map(String::strip)
+                .map(StateMachineEventOutcome.Status::valueOf)
+                .toList();
+
+        assertThat(testOrderWorld.getEventOutcomes())
+                .as("batch event outcomes")
+                .extracting(StateMachineEventOutcome::status)
+                .containsExactlyElementsOf(expected);
+    }
+
+    @When("pay order reactively")
+    public void pay_order_reactively() {
+        textWorld.setLastException(catchThrowable(() ->
+                testOrderService.processEventInStateMachineReactively(testOrderWorld.getOrderId(), TestOrderEvent.PAY)
+                        .block()));
+    }
+
+    @Then("order state read reactively is {orderState}")
+    public void order_state_read_reactively_is(TestOrderState expectedOrderState) {
+        TestOrderState orderState = testOrderService
+                .getStateFromStateMachineReactively(testOrderWorld.getOrderId())
+                .block();
+        assertThat(orderState).isEqualTo(expectedOrderState);
+    }
+
     @Then("order state is {orderState}")
     public void order_state_is(TestOrderState expectedOrderState) {
         // check entity property set by TestOrderStateMachineListener
@@ -91,6 +381,308 @@ public class TestOrderSteps {
         assertThat(orderState).isEqualTo(expectedOrderState);
     }
 
+    @Then("order state read from persisted state machine context is {orderState}")
+    public void order_state_read_from_persisted_context_is(TestOrderState expectedOrderState) {
+        UUID orderId = testOrderWorld.getOrderId();
+
+        assertThat(testOrderService.getPersistedState(orderId))
+                .as("persisted order state")
+                .isEqualTo(expectedOrderState);
+        assertThat(testOrderService.getPersistedExtendedState(orderId, TestOrderExtendedState.ORDER_ID, UUID.class))
+                .as("persisted order ID")
+                .isEqualTo(orderId);
+    }
+
+    @Then("autoconfigured Kryo serialisation service applies class registry in strict mode only")
+    @SuppressWarnings("unchecked")
+    public void autoconfigured_kryo_serialisation_service_applies_class_registry_in_strict_mode_only()
+            throws Exception {
+        StateMachineContext<TestOrderState, TestOrderEvent> context = testOrderService
+                .readStateMachineContext(testOrderWorld.getOrderId());
+        var classRegistry = KryoClassRegistry.of(
+                KryoClassRegistry.forStateMachineAware(List.of(TestOrderService.class)));
+        var properties = new StateMachineProperties();
+
+        var lenientService = (KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>)
+                new CommonsKryoAutoConfiguration().stateMachineSerialisationService(classRegistry, properties);
+        byte[] plainPayload = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>()
+                .serialiseStateMachineContext(context);
+
+        assertThat(lenientService.serialiseStateMachineContext(context))
+                .as("payload in lenient mode")
+                .isEqualTo(plainPayload);
+
+        properties.getKryo().setRegistrationRequired(true);
+        var strictService = (KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>)
+                new CommonsKryoAutoConfiguration().stateMachineSerialisationService(classRegistry, properties);
+
+        assertThat(strictService.serialiseStateMachineContext(context).length)
+                .as("payload size in strict mode")
+                .isLessThan(plainPayload.length);
+    }
+
+    @Then("persisted state machine context is smaller with Kryo class registry and can be read back")
+    public void persisted_context_is_smaller_with_kryo_class_registry() throws Exception {
+        StateMachineContext<TestOrderState, TestOrderEvent> context = testOrderService
+                .readStateMachineContext(testOrderWorld.getOrderId());
+        assertThat(context)
+                .as("persisted context")
+                .isNotNull();
+
+        var classRegistry = KryoClassRegistry.of(
+                KryoClassRegistry.forStateMachineAware(List.of(TestOrderService.class)));
+        assertThat(classRegistry.getClasses())
+                .as("registered classes")
+                .contains(TestOrderState.class, TestOrderEvent.class, TestOrderExtendedState.class, UUID.class);
+
+        var registeredService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>(
+                classRegistry, false, 1);
+        byte[] registeredPayload = registeredService.serialiseStateMachineContext(context);
+        byte[] plainPayload = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>()
+                .serialiseStateMachineContext(context);
+
+        assertThat(registeredPayload.length)
+                .as("payload size with class registry")
+                .isLessThan(plainPayload.length);
+
+        StateMachineContext<TestOrderState, TestOrderEvent> restoredContext = registeredService
+                .deserialiseStateMachineContext(registeredPayload);
+        assertThat(restoredContext.getState())
+                .as("restored state")
+                .isEqualTo(context.getState());
+        assertThat(TestOrderExtendedState.ORDER_ID.readFromStateMachineContext(restoredContext, UUID.class))
+                .as("restored order ID")
+                .isEqualTo(testOrderWorld.getOrderId());
+    }
+
+    @Then("order state machine context variables are stored in ordinal slots and survive Kryo round trip")
+    public void context_variables_are_stored_in_ordinal_slots() throws Exception {
+        StateMachineContext<TestOrderState, TestOrderEvent> context = testOrderService
+                .readStateMachineContext(testOrderWorld.getOrderId());
+        assertThat(context)
+                .as("persisted context")
+                .isNotNull();
+
+        var variables = new ExtendedStateVariables<>(TestOrderExtendedState.class);
+        variables.putAll(context.getExtendedState().getVariables());
+        variables.putLong(TestOrderExtendedState.PAYMENT_ATTEMPTS, 2);
+
+        assertThat(variables.get(TestOrderExtendedState.ORDER_ID, UUID.class))
+                .as("order ID")
+                .isEqualTo(testOrderWorld.getOrderId());
+        assertThat(variables.get(TestOrderExtendedState.PAYMENT_ATTEMPTS))
+                .as("payment attempts seen as map value")
+                .isEqualTo(2L);
+        assertThat(catchThrowable(() -> variables.put(TestOrderExtendedState.ORDER_ID, "not a UUID")))
+                .as("exception for value of wrong class")
+                .isInstanceOf(IllegalArgumentException.class);
+
+        var kryoService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>();
+        StateMachineContext<TestOrderState, TestOrderEvent> restoredContext = kryoService
+                .deserialiseStateMachineContext(kryoService.serialiseStateMachineContext(
+                        new DefaultStateMachineContext<>(context.getState(), null, null,
+                                new DefaultExtendedState(variables), null, context.getId())));
+
+        assertThat(restoredContext.getExtendedState().getVariables())
+                .as("restored variables")
+                .isInstanceOf(ExtendedStateVariables.class)
+                .isEqualTo(variables);
+
+        @SuppressWarnings("unchecked")
+        var restoredVariables = (ExtendedStateVariables<TestOrderExtendedState>) restoredContext.getExtendedState()
+                .getVariables();
+        assertThat(restoredVariables.getLong(TestOrderExtendedState.PAYMENT_ATTEMPTS, 0))
+                .as("restored payment attempts")
+                .isEqualTo(2);
+    }
+
+    @Then("native image hints cover Kryo serialization of order state machine context")
+    public void native_image_hints_cover_kryo_serialization() {
+        var hints = new RuntimeHints();
+        new StateMachineKryoRuntimeHints().registerHints(hints, getClass().getClassLoader());
+        StateMachineKryoRuntimeHints.registerSerializedTypes(hints,
+                KryoClassRegistry.forStateMachineAwareBeans(beanFactory));
+
+        for (Class<?> clazz : List.of(DefaultStateMachineContext.class, HashMap.class, UUID.class,
+                TestOrderState.class, TestOrderEvent.class, TestOrderExtendedState.class)) {
+            assertThat(RuntimeHintsPredicates.reflection()
+                    .onType(clazz)
+                    .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)
+                    .test(hints))
+                    .as("hints for %s", clazz.getName())
+                    .isTrue();
+        }
+
+        assertThat(RuntimeHintsPredicates.reflection()
+                .onType(DefaultSerializers.EnumSerializer.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)
+                .test(hints))
+                .as("hints for Kryo default serializers")
+                .isTrue();
+    }
+
+    @Then("persisted state machine context is smaller with compact codec and can be read back")
+    public void persisted_context_is_smaller_with_compact_codec() throws Exception {
+        StateMachineContext<TestOrderState, TestOrderEvent> context = testOrderService
+                .readStateMachineContext(testOrderWorld.getOrderId());
+        assertThat(context)
+                .as("persisted context")
+                .isNotNull();
+
+        var kryoService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>();
+        var compactService = new CompactStateMachineSerialisationService<>(
+                TestOrderState.class, TestOrderEvent.class, TestOrderExtendedState.class, kryoService);
+
+        byte[] kryoPayload = kryoService.serialiseStateMachineContext(context);
+        byte[] compactPayload = compactService.serialiseStateMachineContext(context);
+        assertThat(compactPayload.length)
+                .as("compact payload size")
+                .isLessThan(kryoPayload.length);
+
+        StateMachineContext<TestOrderState, TestOrderEvent> restoredContext = compactService
+                .deserialiseStateMachineContext(compactPayload);
+        assertThat(restoredContext.getState())
+                .as("restored state")
+                .isEqualTo(context.getState());
+        assertThat(TestOrderExtendedState.ORDER_ID.readFromStateMachineContext(restoredContext, UUID.class))
+                .as("restored order ID")
+                .isEqualTo(testOrderWorld.getOrderId());
+
+        // payloads written by Kryo before switching to the compact codec are still readable
+        assertThat(compactService.deserialiseStateMachineContext(kryoPayload).getState())
+                .as("state restored from Kryo payload")
+                .isEqualTo(context.getState());
+    }
+
+    @Then("rejected refund request fails with error descriptor kept in order state machine")
+    public void rejected_refund_request_fails_with_error_descriptor_kept_in_state_machine() {
+        var service = new ErrorDescriptorKeepingOrderService(testOrderService);
+        UUID orderId = testOrderWorld.getOrderId();
+
+        Pair<StateMachineEventOutcome<TestOrderEvent>, Object> outcomeAndLastError = service.withStateMachine(orderId,
+                stateMachine -> {
+                    StateMachineEventOutcome<TestOrderEvent> outcome = service.sendEventToStateMachine(orderId,
+                            stateMachine, TestOrderEvent.REJECT_REFUND);
+                    return Pair.of(outcome,
+                            stateMachine.getExtendedState().getVariables().get(ExtendedState.LAST_EXCEPTION_KEY));
+                });
+
+        assertThat(outcomeAndLastError.getKey().status())
+                .as("outcome status")
+                .isEqualTo(StateMachineEventOutcome.Status.FAILED);
+        assertThat(outcomeAndLastError.getKey().exception())
+                .as("exception rebuilt from descriptor")
+                .isInstanceOf(StateMachineException.class)
+                .hasMessageContaining(IllegalArgumentException.class.getName());
+        assertThat(outcomeAndLastError.getValue())
+                .as("last error kept in state machine")
+                .isInstanceOf(StateMachineError.class);
+    }
+
+    @Then("order state machine error descriptor is rebuilt as exception and fits compact codec")
+    public void error_descriptor_is_rebuilt_as_exception() throws Exception {
+        var error = StateMachineError.of(new IllegalStateException("Card declined"), "CARD_DECLINED", 3);
+        assertThat(error.stackTrace())
+                .as("trimmed stack trace")
+                .contains("\tat ", " more");
+
+        StateMachineEventOutcome<TestOrderEvent> outcome = testOrderService.withStateMachine(
+                testOrderWorld.getOrderId(), stateMachine -> {
+                    ExtendedState.saveLastErrorInStateMachine(stateMachine, error);
+
+                    try {
+                        return StateMachineEventOutcome.of(stateMachine, TestOrderEvent.PAY, false);
+                    } finally {
+                        ExtendedState.saveLastErrorInStateMachine(stateMachine, null);
+                    }
+                });
+
+        assertThat(outcome.status())
+                .as("outcome status")
+                .isEqualTo(StateMachineEventOutcome.Status.FAILED);
+        assertThat(outcome.exception())
+                .as("rebuilt exception")
+                .isInstanceOf(StateMachineException.class)
+                .hasMessage("[CARD_DECLINED] java.lang.IllegalStateException: Card declined");
+
+        var extendedState = new DefaultExtendedState();
+        extendedState.getVariables().put(ExtendedState.LAST_EXCEPTION_KEY, error);
+        StateMachineContext<TestOrderState, TestOrderEvent> context = new DefaultStateMachineContext<>(
+                TestOrderState.NEW, null, null, extendedState, null, testOrderWorld.getOrderId().toString());
+
+        var kryoService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>();
+        var compactService = new CompactStateMachineSerialisationService<>(
+                TestOrderState.class, TestOrderEvent.class, TestOrderExtendedState.class, kryoService);
+
+        byte[] compactPayload = compactService.serialiseStateMachineContext(context);
+        assertThat(compactPayload.length)
+                .as("compact payload size")
+                .isLessThan(kryoService.serialiseStateMachineContext(context).length);
+        assertThat(compactService.deserialiseStateMachineContext(compactPayload)
+                .getExtendedState()
+                .getVariables()
+                .get(ExtendedState.LAST_EXCEPTION_KEY))
+                .as("restored error")
+                .isEqualTo(error);
+    }
+
+    @Then("events allowed in order state are {string}")
+    public void events_allowed_in_order_state_are(String expectedEventNames) {
+        List<TestOrderEvent> expected = Arrays.stream(expectedEventNames.split(","))
+                .map(String::strip)
+                .map(TestOrderEvent::valueOf)
+                .toList();
+        TestOrderState orderState = testOrderService.getById(testOrderWorld.getOrderId()).getState();
+
+        assertThat(testOrderService.getStateMachineTransitionIndex().allowedEvents(orderState))
+                .as("allowed events")
+                .containsExactlyInAnyOrderElementsOf(expected);
+
+        for (TestOrderEvent event : TestOrderEvent.values()) {
+            assertThat(testOrderService.getStateMachineTransitionIndex().canAccept(orderState, event))
+                    .as("can accept %s", event)
+                    .isEqualTo(expected.contains(event));
+        }
+    }
+
+    @Then("transition index of order state machine deferring {word} in {orderState} state accepts {word} in "
+            + "{orderState} state")
+    public void transition_index_of_order_state_machine_deferring_event_accepts_it(String deferredEventName,
+            TestOrderState deferringState, String acceptedEventName, TestOrderState acceptingState) throws Exception {
+        var deferredEvent = TestOrderEvent.valueOf(deferredEventName);
+        StateMachineBuilder.Builder<TestOrderState, TestOrderEvent> builder = StateMachineBuilder.builder();
+        builder.configureStates()
+                .withStates()
+                .initial(TestOrderState.NEW)
+                .state(deferringState, deferredEvent)
+                .states(EnumSet.allOf(TestOrderState.class));
+        builder.configureTransitions()
+                .withExternal()
+                .source(TestOrderState.NEW).target(TestOrderState.PAID).event(TestOrderEvent.PAY)
+                .and()
+                .withExternal()
+                .source(TestOrderState.PAID).target(TestOrderState.DELIVERED).event(TestOrderEvent.DELIVER);
+
+        var index = StateMachineTransitionIndex.of(builder.build());
+        var acceptedEvent = TestOrderEvent.valueOf(acceptedEventName);
+
+        assertThat(index.canAccept(acceptingState, acceptedEvent))
+                .as("can accept deferred event")
+                .isTrue();
+        assertThat(index.isDeferred(deferringState, deferredEvent))
+                .as("event deferred")
+                .isTrue();
+        assertThat(index.allowedEvents(deferringState))
+                .as("events with transitions")
+                .doesNotContain(deferredEvent);
+        assertThat(index.canAccept(deferringState, TestOrderEvent.REQUEST_REFUND))
+                .as("can accept event neither triggering transitions nor deferred")
+                .isFalse();
+        assertThat(index.deferredEvents(TestOrderState.PAID))
+                .as("events deferred in another state")
+                .isEmpty();
+    }
+
     @Then("exception from transition-bound action (or event doesn't match transition graph)")
     public void exception_from_state_machine() {
         assertThat(textWorld.getLastException()).isInstanceOf(StateMachineException.class);
@@ -99,7 +691,119 @@ public class TestOrderSteps {
     // to be used with exception_from_transition_bound_action / no_exception_from_transition_bound_action
     private void sendOrderEvent(TestOrderEvent event) {
         textWorld.setLastException(catchThrowable(() ->
-                testOrderService.processEventInStateMachine(testOrderWorld.getOrderId(), event)));
+                getOrderService().processEventInStateMachine(testOrderWorld.getOrderId(), event)));
+    }
+
+    @Then("transition from {orderState} to {orderState} is recorded in metrics")
+    public void transition_is_recorded_in_metrics(TestOrderState source, TestOrderState target) {
+        Timer timer = meterRegistry.find(StateMachineMetricsMonitor.TRANSITION_TIMER)
+                .tags("machine", "order", "source", source.name(), "target", target.name())
+                .timer();
+
+        assertThat(timer)
+                .as("transition timer")
+                .isNotNull();
+        assertThat(timer.count())
+                .as("transition count")
+                .isPositive();
+    }
+
+    @Then("action duration is recorded in metrics without action tag")
+    public void action_duration_is_recorded_in_metrics_without_action_tag() {
+        assertThat(meterRegistry.find(StateMachineMetricsMonitor.ACTION_TIMER).tags("machine", "order").timers())
+                .as("action timers")
+                .isNotEmpty()
+                .allSatisfy(timer -> assertThat(timer.getId().getTag("action"))
+                        .as("action tag")
+                        .isNull());
+    }
+
+    @Then("action function duration is recorded in metrics with action tag {string}")
+    public void action_function_duration_is_recorded_in_metrics_with_action_tag(String expectedActionName) {
+        var meterRegistry = new SimpleMeterRegistry();
+        var monitor = new StateMachineMetricsMonitor<TestOrderState, TestOrderEvent>(meterRegistry, "order",
+                StateMachineMetricsMonitor.byFunctionClassName());
+        StateMachine<TestOrderState, TestOrderEvent> stateMachine =
+                testOrderService.getStateMachineFactory().getStateMachine();
+
+        monitor.action(stateMachine, new TestOrderAuditFunction(), 5);
+        // lambdas are named after the class declaring them
+        monitor.action(stateMachine, context -> Mono.empty(), 7);
+
+        assertThat(meterRegistry.find(StateMachineMetricsMonitor.ACTION_TIMER)
+                .tags("action", expectedActionName)
+                .timer())
+                .as("action timer")
+                .isNotNull()
+                .satisfies(timer -> assertThat(timer.count()).isEqualTo(1));
+        assertThat(meterRegistry.find(StateMachineMetricsMonitor.ACTION_TIMER)
+                .tags("action", TestOrderSteps.class.getSimpleName())
+                .timer())
+                .as("lambda action timer")
+                .isNotNull();
+    }
+
+    @Then("cancelling new order emits JFR acquire, start, transition, action and persist events")
+    public void cancelling_new_order_emits_jfr_events() throws Exception {
+        List<RecordedEvent> events;
+        Path dump = Files.createTempFile("statemachine-", ".jfr");
+
+        try (var recording = new Recording()) {
+            List.of(StateMachineAcquireEvent.class, StateMachineStartEvent.class, StateMachineTransitionEvent.class,
+                            StateMachineActionEvent.class, StateMachinePersistEvent.class)
+                    .forEach(eventClass -> recording.enable(eventClass).withoutThreshold());
+            recording.start();
+
+            create_order();
+            cancel_order();
+            var persister = new JfrStateMachineRuntimePersister<>(getOrderService().getStateMachinePersist());
+            String machineId = getOrderService().convertToStateMachineId(testOrderWorld.getOrderId());
+            StateMachineContext<TestOrderState, TestOrderEvent> context = persister.read(machineId);
+            assertThat(context)
+                    .as("persisted context")
+                    .isNotNull();
+            persister.write(context, machineId);
+
+            recording.stop();
+            recording.dump(dump);
+            events = RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+
+        String machineId = getOrderService().convertToStateMachineId(testOrderWorld.getOrderId());
+        Map<String, List<RecordedEvent>> eventsByName = events.stream()
+                .filter(event -> machineId.equals(event.getString("machineId")))
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+
+        assertThat(eventsByName.get("guru.nicks.commons.statemachine.Acquire"))
+                .as("acquire events")
+                .isNotEmpty()
+                .anySatisfy(event -> assertThat(event.getBoolean("cached")).isFalse());
+        assertThat(eventsByName.get("guru.nicks.commons.statemachine.Start"))
+                .as("start events")
+                .isNotEmpty()
+                .allSatisfy(event -> assertThat(event.getString("state")).isEqualTo("NEW"));
+        assertThat(eventsByName.get("guru.nicks.commons.statemachine.Transition"))
+                .as("transition events")
+                .anySatisfy(event -> {
+                    assertThat(event.getString("source")).isEqualTo("NEW");
+                    assertThat(event.getString("target")).isEqualTo("CANCELLED");
+                    assertThat(event.getString("event")).isEqualTo("CANCEL");
+                    assertThat(event.getLong("transitionDuration")).isNotNegative();
+                });
+        assertThat(eventsByName.get("guru.nicks.commons.statemachine.Action"))
+                .as("action events")
+                .isNotEmpty()
+                .allSatisfy(event -> {
+                    assertThat(event.getString("state")).isNotBlank();
+                    assertThat(event.getString("action")).isNotBlank();
+                    assertThat(event.getLong("actionDuration")).isNotNegative();
+                });
+        assertThat(eventsByName.get("guru.nicks.commons.statemachine.Persist"))
+                .as("persist events")
+                .extracting(event -> event.getString("operation"), event -> event.getString("state"))
+                .contains(tuple("read", "CANCELLED"), tuple("write", "CANCELLED"));
     }
 
     @When("state machine graph is rendered in {word} format")
@@ -121,6 +825,189 @@ public class TestOrderSteps {
         textWorld.setOutput(new String(graph.getValue(), StandardCharsets.UTF_8));
     }
 
+    @Then("state machine graph visualizer renders {word} format without GraphViz on the classpath")
+    public void stateMachineGraphVisualizerRendersFormatWithoutGraphviz(String formatStr) throws Exception {
+        var classLoader = new GraphvizHidingClassLoader(getClass().getClassLoader());
+        Class<?> visualizerClass = classLoader.loadClass(StateMachineGraphVisualizer.class.getName());
+        Class<?> graphvizVisualizerClass = classLoader.loadClass(GraphvizStateMachineGraphVisualizer.class.getName());
+
+        // resolves all types in method signatures
+        assertThat(catchThrowable(visualizerClass::getMethods))
+                .as("visualizer methods without GraphViz")
+                .isNull();
+        assertThat(catchThrowable(graphvizVisualizerClass::getMethods))
+                .as("GraphViz visualizer methods without GraphViz")
+                .isInstanceOf(NoClassDefFoundError.class);
+
+        Object visualizer = createVisualizerWithoutGraphviz(classLoader, visualizerClass);
+        Class<?> formatClass = classLoader.loadClass(StateMachineGraphFormat.class.getName());
+        Object format = formatClass.getMethod("valueOf", String.class).invoke(null, formatStr);
+
+        var content = (byte[]) visualizerClass.getMethod("renderStateMachineGraphContent", formatClass)
+                .invoke(visualizer, format);
+        textWorld.setOutput(new String(content, StandardCharsets.UTF_8));
+    }
+
+    @Then("state machine graph cache fails to render {word} format without GraphViz on the classpath")
+    public void stateMachineGraphCacheFailsToRenderFormatWithoutGraphviz(String formatStr) throws Exception {
+        var classLoader = new GraphvizHidingClassLoader(getClass().getClassLoader());
+        Class<?> visualizerClass = classLoader.loadClass(StateMachineGraphVisualizer.class.getName());
+        Class<?> cacheClass = classLoader.loadClass(StateMachineGraphCache.class.getName());
+        Class<?> formatClass = classLoader.loadClass(StateMachineGraphFormat.class.getName());
+
+        Object cache = cacheClass.getConstructor(visualizerClass)
+                .newInstance(createVisualizerWithoutGraphviz(classLoader, visualizerClass));
+        Object format = formatClass.getMethod("valueOf", String.class).invoke(null, formatStr);
+        Method getMethod = cacheClass.getMethod("get", formatClass);
+
+        // the failed rendering must not stay cached - the 2nd call would wait for it forever
+        for (int i = 0; i < 2; i++) {
+            Throwable e = CompletableFuture.supplyAsync(() -> catchThrowable(() -> getMethod.invoke(cache, format)))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertThat(e)
+                    .as("rendering error #%d", i + 1)
+                    .isInstanceOf(InvocationTargetException.class);
+            assertThat(e.getCause())
+                    .as("rendering error #%d cause", i + 1)
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("GraphViz");
+        }
+    }
+
+    /**
+     * Waits until the given thread is blocked (without timeout), e.g. on a lock condition or latch.
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (thread.getState() != Thread.State.WAITING) {
+            assertThat(System.nanoTime())
+                    .as("time to wait for thread to block")
+                    .isLessThan(deadlineNanos);
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    /**
+     * Creates {@link StateMachineGraphVisualizer} (as loaded by the given class loader) backed by the real state
+     * machine factory.
+     */
+    private Object createVisualizerWithoutGraphviz(ClassLoader classLoader, Class<?> visualizerClass) {
+        return Proxy.newProxyInstance(classLoader, new Class<?>[]{visualizerClass},
+                (proxy, method, args) -> method.getName().equals("getStateMachineFactory")
+                        ? testOrderService.getStateMachineFactory()
+                        : InvocationHandler.invokeDefault(proxy, method, args));
+    }
+
+    @Then("state machine graph in {word} format is served from cache")
+    public void stateMachineGraphInFormatIsServedFromCache(String formatStr) {
+        StateMachineGraphFormat format = StateMachineGraphFormat.valueOf(formatStr);
+        RenderedStateMachineGraph graph = testOrderService.getStateMachineGraph(format);
+
+        assertThat(testOrderService.getStateMachineGraph(format))
+                .as("cached state machine graph")
+                .isSameAs(graph);
+        assertThat(graph.content())
+                .as("cached state machine graph content")
+                .isEqualTo(testOrderService.renderStateMachineGraphContent(format));
+        assertThat(graph.contentType())
+                .as("cached state machine graph content type")
+                .isEqualTo(format.getContentType());
+
+        assertThat(graph.matchesETag("W/\"stale\", " + graph.etag()))
+                .as("ETag match")
+                .isTrue();
+        assertThat(graph.matchesETag("\"stale\""))
+                .as("ETag mismatch")
+                .isFalse();
+    }
+
+    @Then("order state machine recycled from pool is restored to {orderState}")
+    public void orderStateMachineRecycledFromPoolIsRestoredTo(TestOrderState expectedState) {
+        var pool = new PooledStateMachineService<>(testOrderService.getStateMachineFactory(),
+                testOrderService.getStateMachinePersist(), 2, 1);
+        String machineId = testOrderService.convertToStateMachineId(testOrderWorld.getOrderId());
+
+        var stateMachine = pool.acquireStateMachine(machineId);
+        assertThat(stateMachine.getState().getId())
+                .as("restored state")
+                .isEqualTo(expectedState);
+        assertThat(TestOrderExtendedState.ORDER_ID.readFromStateMachine(stateMachine, UUID.class))
+                .as("restored order ID")
+                .isEqualTo(testOrderWorld.getOrderId());
+        pool.releaseStateMachine(machineId);
+
+        // another order, never persisted
+        String newMachineId = testOrderService.convertToStateMachineId(UUID.randomUUID());
+        var newStateMachine = pool.acquireStateMachine(newMachineId);
+
+        assertThat(newStateMachine)
+                .as("recycled state machine")
+                .isSameAs(stateMachine);
+        assertThat(newStateMachine.getId())
+                .as("recycled state machine ID")
+                .isEqualTo(newMachineId);
+        assertThat(newStateMachine.getState().getId())
+                .as("recycled state machine state")
+                .isEqualTo(TestOrderState.NEW);
+        assertThat(TestOrderExtendedState.ORDER_ID.readFromStateMachine(newStateMachine, UUID.class))
+                .as("recycled state machine order ID")
+                .isNull();
+        pool.releaseStateMachine(newMachineId);
+
+        assertThat(pool.getCreatedCount())
+                .as("state machines built")
+                .isEqualTo(1);
+        assertThat(pool.getRecycledCount())
+                .as("state machines recycled")
+                .isEqualTo(2);
+    }
+
+    @Then("reactive events were processed on state machine scheduler")
+    public void reactiveEventsWereProcessedOnStateMachineScheduler() {
+        StateMachineScheduler scheduler = testOrderService.getStateMachineScheduler();
+
+        // completion is counted after the outcome has been delivered, so it may lag behind
+        assertThat(scheduler.getStartedCount())
+                .as("events started")
+                .isPositive();
+        assertThat(scheduler.getQueuedCount())
+                .as("events waiting")
+                .isZero();
+        assertThat(scheduler.getRejectedCount())
+                .as("events rejected")
+                .isZero();
+
+        var meterRegistry = new SimpleMeterRegistry();
+        new StateMachineSchedulerMeterBinder(scheduler, "order").bindTo(meterRegistry);
+
+        assertThat(meterRegistry.get(StateMachineSchedulerMeterBinder.WAIT_TIMER).functionTimer().count())
+                .as("events started metric")
+                .isPositive();
+    }
+
+    @When("state machine heatmap is rendered in {word} format")
+    public void stateMachineHeatmapIsRenderedInFormat(String formatStr) {
+        StateMachineTrafficSnapshot traffic = testOrderService.getStateMachineTrafficMonitor().getSnapshot();
+
+        assertThat(traffic.getAcceptanceCount("NEW", "pay"))
+                .as("NEW -> PAID transition count")
+                .isPositive();
+        assertThat(traffic.transitions())
+                .as("NEW -> PAID transition latency")
+                .filteredOn(transition -> transition.source().equals("NEW") && transition.target().equals("PAID"))
+                .allSatisfy(transition -> assertThat(transition.p99Millis())
+                        .isBetween(transition.p50Millis(), transition.maxMillis()));
+        assertThat(traffic.getDenialCount("PAID", "pay"))
+                .as("pay denials in PAID")
+                .isPositive();
+
+        byte[] content = testOrderService.renderStateMachineHeatmapContent(traffic,
+                StateMachineGraphFormat.valueOf(formatStr));
+        textWorld.setOutput(new String(content, StandardCharsets.UTF_8));
+    }
+
     @Then("rendered state machine graph contains {string}")
     public void renderedStateMachineGraphContains(String expected) {
         assertThat(textWorld.getOutput().getFirst())
@@ -128,4 +1015,1160 @@ public class TestOrderSteps {
                 .contains(expected);
     }
 
+    @Then("cached order state machine is served without delegate on hit")
+    public void cachedOrderStateMachineIsServedWithoutDelegateOnHit() {
+        var delegate = new CountingStateMachineService(testOrderService);
+        var cache = new CachingStateMachineService<>(delegate, 2, Duration.ofMinutes(1));
+        String machineId = UUID.randomUUID().toString();
+
+        var stateMachine = cache.acquireStateMachine(machineId);
+        cache.releaseStateMachine(machineId);
+        assertThat(cache.acquireStateMachine(machineId))
+                .as("cached state machine")
+                .isSameAs(stateMachine);
+        cache.releaseStateMachine(machineId);
+
+        assertThat(cache.getMissCount())
+                .as("cache misses")
+                .isEqualTo(1);
+        assertThat(cache.getHitCount())
+                .as("cache hits")
+                .isEqualTo(1);
+        assertThat(delegate.acquiredIds)
+                .as("state machines acquired from delegate")
+                .containsExactly(machineId);
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped")
+                .isEmpty();
+        assertThat(cache.hasStateMachine(machineId))
+                .as("state machine in cache")
+                .isTrue();
+    }
+
+    @Then("order state machine being loaded into cache is neither loaded twice nor evicted")
+    public void orderStateMachineBeingLoadedIntoCacheIsNeitherLoadedTwiceNorEvicted() throws Exception {
+        var delegate = new CountingStateMachineService(testOrderService);
+        var cache = new CachingStateMachineService<>(delegate, 1, Duration.ofMinutes(1));
+        String machineId = UUID.randomUUID().toString();
+        var gate = new CountDownLatch(1);
+        delegate.acquireGate = gate;
+
+        var loadedStateMachine = new CompletableFuture<StateMachine<TestOrderState, TestOrderEvent>>();
+        Thread loadingThread = Thread.ofPlatform().start(() ->
+                loadedStateMachine.complete(cache.acquireStateMachine(machineId)));
+        awaitWaiting(loadingThread);
+
+        // acquires, releases, and tries to evict the same machine while it's being loaded
+        var acquiredStateMachine = new CompletableFuture<StateMachine<TestOrderState, TestOrderEvent>>();
+        Thread acquiringThread = Thread.ofPlatform().start(() -> {
+            acquiredStateMachine.complete(cache.acquireStateMachine(machineId));
+            cache.releaseStateMachine(machineId);
+            cache.evictAll();
+        });
+        awaitWaiting(acquiringThread);
+
+        gate.countDown();
+        acquiringThread.join(Duration.ofSeconds(10));
+
+        assertThat(acquiredStateMachine.get(10, TimeUnit.SECONDS))
+                .as("state machine acquired while being loaded")
+                .isSameAs(loadedStateMachine.get(10, TimeUnit.SECONDS));
+        assertThat(delegate.acquiredIds)
+                .as("state machines acquired from delegate")
+                .containsExactly(machineId);
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped while in use")
+                .isEmpty();
+        assertThat(cache.getMissCount())
+                .as("cache misses")
+                .isEqualTo(1);
+        assertThat(cache.getHitCount())
+                .as("cache hits")
+                .isEqualTo(1);
+
+        cache.releaseStateMachine(machineId);
+        cache.evictAll();
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped after release")
+                .containsExactly(machineId);
+    }
+
+    @Then("least recently used order state machine is stopped when cache of {int} overflows")
+    public void leastRecentlyUsedOrderStateMachineIsStoppedWhenCacheOverflows(int maxSize) {
+        var delegate = new CountingStateMachineService(testOrderService);
+        var cache = new CachingStateMachineService<>(delegate, maxSize, Duration.ofMinutes(1));
+        List<String> machineIds = new ArrayList<>();
+
+        for (int i = 0; i <= maxSize; i++) {
+            String machineId = UUID.randomUUID().toString();
+            machineIds.add(machineId);
+            cache.acquireStateMachine(machineId);
+            cache.releaseStateMachine(machineId);
+
+            // touch the first one, so the second one becomes the least recently used one
+            if (i == 0) {
+                cache.acquireStateMachine(machineId);
+                cache.releaseStateMachine(machineId);
+            }
+        }
+
+        assertThat(cache.size())
+                .as("cache size")
+                .isEqualTo(maxSize);
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped")
+                .containsExactly(machineIds.get(1));
+        assertThat(cache.getEvictionCount())
+                .as("cache evictions")
+                .isEqualTo(1);
+
+        // evicted machine is built again
+        cache.acquireStateMachine(machineIds.get(1));
+        assertThat(delegate.acquiredIds)
+                .as("state machines acquired from delegate")
+                .containsExactly(machineIds.get(0), machineIds.get(1), machineIds.get(2), machineIds.get(1));
+    }
+
+    @Then("idle order state machine is stopped after {int} ms")
+    public void idleOrderStateMachineIsStoppedAfter(int ttlMillis) throws InterruptedException {
+        var delegate = new CountingStateMachineService(testOrderService);
+        var cache = new CachingStateMachineService<>(delegate, 10, Duration.ofMillis(ttlMillis));
+        String machineId = UUID.randomUUID().toString();
+
+        cache.acquireStateMachine(machineId);
+        cache.releaseStateMachine(machineId);
+        TimeUnit.MILLISECONDS.sleep(ttlMillis * 2L);
+        cache.evictExpired();
+
+        assertThat(cache.size())
+                .as("cache size")
+                .isZero();
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped")
+                .containsExactly(machineId);
+    }
+
+    @Then("order state machine in use is not evicted")
+    public void orderStateMachineInUseIsNotEvicted() throws InterruptedException {
+        var delegate = new CountingStateMachineService(testOrderService);
+        var cache = new CachingStateMachineService<>(delegate, 1, Duration.ofMillis(10));
+        String inUseMachineId = UUID.randomUUID().toString();
+        String otherMachineId = UUID.randomUUID().toString();
+
+        cache.acquireStateMachine(inUseMachineId);
+        // exceeds max size, but the first machine is still in use
+        cache.acquireStateMachine(otherMachineId);
+        TimeUnit.MILLISECONDS.sleep(20);
+        cache.evictExpired();
+        cache.evictAll();
+
+        assertThat(cache.size())
+                .as("cache size")
+                .isEqualTo(2);
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped")
+                .isEmpty();
+
+        cache.releaseStateMachine(inUseMachineId);
+        cache.releaseStateMachine(otherMachineId);
+        assertThat(cache.size())
+                .as("cache size after release")
+                .isZero();
+        assertThat(delegate.stoppedIds)
+                .as("state machines stopped after release")
+                .containsExactlyInAnyOrder(inUseMachineId, otherMachineId);
+    }
+
+    @Then("order state machine contexts written to journal with snapshot interval {int} are restored after reopening")
+    public void contexts_written_to_journal_are_restored_after_reopening(int snapshotInterval) throws Exception {
+        Path directory = Files.createTempDirectory("statemachine-journal");
+        var order = OrderContextFixture.create();
+        var serialisationService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>();
+
+        try {
+            // large segments, so that no snapshot is copied forward by compaction
+            try (var journal = new JournalStateMachineRuntimePersister<>(directory, 1 << 20, snapshotInterval, false,
+                    serialisationService)) {
+                List<Integer> snapshotPositions = new ArrayList<>();
+
+                for (int i = 1; i <= 3 * snapshotInterval + 1; i++) {
+                    long snapshotWriteCount = journal.getSnapshotWriteCount();
+                    order.writeTo(journal, TestOrderState.PAID, TestOrderEvent.PAY, Map.of("attempt", i));
+
+                    if (journal.getSnapshotWriteCount() > snapshotWriteCount) {
+                        snapshotPositions.add(i);
+                    }
+                }
+
+                assertThat(snapshotPositions)
+                        .as("writes stored as snapshots")
+                        .containsExactly(1, 1 + snapshotInterval, 1 + 2 * snapshotInterval, 1 + 3 * snapshotInterval);
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+
+        directory = Files.createTempDirectory("statemachine-journal");
+
+        try {
+            // small segments, so that they're rotated and deleted
+            try (var journal = new JournalStateMachineRuntimePersister<>(directory, 2048, snapshotInterval, false,
+                    serialisationService)) {
+                order.writeTo(journal, TestOrderState.NEW);
+
+                for (int i = 0; i < 10; i++) {
+                    order.writeTo(journal, TestOrderState.PAID, TestOrderEvent.PAY, Map.of("attempt", i));
+                }
+
+                // 'attempt' variable removed
+                order.writeTo(journal, TestOrderState.DELIVERED, TestOrderEvent.DELIVER, Map.of());
+            }
+
+            try (var journal = new JournalStateMachineRuntimePersister<>(directory, 2048, snapshotInterval, false,
+                    serialisationService)) {
+                StateMachineContext<TestOrderState, TestOrderEvent> context = journal.read(order.machineId());
+
+                assertThat(context)
+                        .as("restored context")
+                        .isNotNull();
+                assertThat(context.getState())
+                        .as("restored state")
+                        .isEqualTo(TestOrderState.DELIVERED);
+                assertThat(context.getEvent())
+                        .as("restored event")
+                        .isEqualTo(TestOrderEvent.DELIVER);
+                assertThat(context.getExtendedState().getVariables())
+                        .as("restored variables")
+                        .containsExactlyEntriesOf(Map.of(TestOrderExtendedState.ORDER_ID, order.orderId()));
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Then("order state machine context variable mutated in place is written to journal")
+    public void context_variable_mutated_in_place_is_written_to_journal() throws Exception {
+        Path directory = Files.createTempDirectory("statemachine-journal");
+        var order = OrderContextFixture.create();
+        List<String> items = new ArrayList<>(List.of("book"));
+
+        try (var journal = new JournalStateMachineRuntimePersister<>(directory, 2048, 100, false,
+                new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>())) {
+            order.writeTo(journal, TestOrderState.NEW, null, Map.of("items", items));
+
+            // same list instance, as a transition-bound action would change it
+            items.add("pen");
+            order.writeTo(journal, TestOrderState.PAID, TestOrderEvent.PAY, Map.of("items", items));
+
+            assertThat(journal.read(order.machineId()).getExtendedState().getVariables())
+                    .as("variable mutated in place")
+                    .containsEntry("items", List.of("book", "pen"));
+        } finally {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Then("order state machine journal holding {int} rarely written contexts is compacted while being read")
+    public void journal_holding_rarely_written_contexts_is_compacted_while_being_read(int rareMachineCount)
+            throws Exception {
+        Path compactedDirectory = Files.createTempDirectory("statemachine-journal");
+        Path uncompactedDirectory = Files.createTempDirectory("statemachine-journal");
+        List<OrderContextFixture> rareOrders = new ArrayList<>();
+
+        for (int i = 0; i < rareMachineCount; i++) {
+            rareOrders.add(OrderContextFixture.create());
+        }
+
+        try {
+            int uncompactedSegmentCount;
+
+            // a segment is deleted only once it has no live records, so it's virtually never compacted
+            try (var journal = new JournalStateMachineRuntimePersister<>(uncompactedDirectory, 2048, 1, false,
+                    0.999_999, new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>())) {
+                writeRareAndFrequentContexts(journal, rareOrders);
+                uncompactedSegmentCount = journal.getSegmentCount();
+            }
+
+            try (var journal = new JournalStateMachineRuntimePersister<>(compactedDirectory, 2048, 1, false,
+                    0.5, new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>())) {
+                List<Throwable> readErrors = new CopyOnWriteArrayList<>();
+                var reading = new AtomicBoolean(true);
+
+                // compaction deletes segments - they must not vanish under concurrent reads
+                Thread reader = Thread.ofVirtual().start(() -> {
+                    while (reading.get()) {
+                        for (OrderContextFixture order : rareOrders) {
+                            try {
+                                journal.read(order.machineId());
+                            } catch (Exception | Error e) {
+                                readErrors.add(e);
+                            }
+                        }
+                    }
+                });
+
+                try {
+                    writeRareAndFrequentContexts(journal, rareOrders);
+                } finally {
+                    reading.set(false);
+                    reader.join();
+                }
+
+                assertThat(readErrors)
+                        .as("concurrent read errors")
+                        .isEmpty();
+                assertThat(journal.getCompactionCount())
+                        .as("compactions")
+                        .isPositive();
+                assertThat(journal.getSegmentCount())
+                        .as("segments after compaction")
+                        .isLessThan(uncompactedSegmentCount);
+            }
+
+            try (var journal = new JournalStateMachineRuntimePersister<>(compactedDirectory, 2048, 1, false,
+                    new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>())) {
+                for (OrderContextFixture order : rareOrders) {
+                    assertThat(journal.read(order.machineId()).getState())
+                            .as("rarely written state restored after compaction")
+                            .isEqualTo(TestOrderState.NEW);
+                }
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(compactedDirectory);
+            FileSystemUtils.deleteRecursively(uncompactedDirectory);
+        }
+    }
+
+    /**
+     * Writes each rarely written context once, interleaved with rewrites of a frequently written one, so the former
+     * end up scattered over segments otherwise full of dead records.
+     */
+    private void writeRareAndFrequentContexts(
+            JournalStateMachineRuntimePersister<TestOrderState, TestOrderEvent> journal,
+            List<OrderContextFixture> rareOrders) throws Exception {
+        var frequentOrder = OrderContextFixture.create();
+
+        for (OrderContextFixture rareOrder : rareOrders) {
+            rareOrder.writeTo(journal, TestOrderState.NEW);
+
+            for (int i = 0; i < 10; i++) {
+                frequentOrder.writeTo(journal, TestOrderState.PAID, TestOrderEvent.PAY, Map.of("attempt", i));
+            }
+        }
+    }
+
+    @Then("order state machine contexts written behind in {word} mode are coalesced and visible before flush")
+    public void contexts_written_behind_are_coalesced_and_visible_before_flush(String durabilityName)
+            throws Exception {
+        var durability = Durability.valueOf(durabilityName);
+        StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> delegate =
+                testOrderService.getStateMachinePersist();
+        List<OrderContextFixture> orders = List.of(OrderContextFixture.create(), OrderContextFixture.create());
+
+        // long interval and large batch: in ASYNC mode, nothing is flushed until closing
+        try (var persister = new WriteBehindStateMachineRuntimePersister<>(delegate, 100,
+                (durability == Durability.SYNC) ? Duration.ofMillis(10) : Duration.ofHours(1), durability)) {
+            for (TestOrderState state : List.of(TestOrderState.NEW, TestOrderState.PAID, TestOrderState.DELIVERED)) {
+                for (OrderContextFixture order : orders) {
+                    order.writeTo(persister, state);
+                }
+            }
+
+            for (OrderContextFixture order : orders) {
+                assertThat(persister.read(order.machineId()).getState())
+                        .as("state read through write-behind persister")
+                        .isEqualTo(TestOrderState.DELIVERED);
+            }
+
+            if (durability == Durability.ASYNC) {
+                assertThat(delegate.read(orders.getFirst().machineId()))
+                        .as("context not flushed yet")
+                        .isNull();
+                assertThat(persister.getCoalescedWriteCount())
+                        .as("coalesced writes")
+                        .isEqualTo(4);
+            } else {
+                assertThat(persister.getFlushCount())
+                        .as("flushes")
+                        .isEqualTo(6);
+            }
+        }
+
+        for (OrderContextFixture order : orders) {
+            assertThat(delegate.read(order.machineId()).getState())
+                    .as("flushed state")
+                    .isEqualTo(TestOrderState.DELIVERED);
+        }
+    }
+
+    @Then("order state machine context written behind survives batch writer error")
+    public void context_written_behind_survives_batch_writer_error() throws Exception {
+        StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> delegate =
+                testOrderService.getStateMachinePersist();
+        var batchWrites = new AtomicInteger();
+        WriteBehindStateMachineRuntimePersister.BatchWriter<TestOrderState, TestOrderEvent, String> batchWriter =
+                contexts -> {
+                    if (batchWrites.incrementAndGet() == 1) {
+                        throw new LinkageError("Artificial batch writer error");
+                    }
+
+                    WriteBehindStateMachineRuntimePersister.BatchWriter.of(delegate).writeAll(contexts);
+                };
+        var order = OrderContextFixture.create();
+
+        try (var persister = new WriteBehindStateMachineRuntimePersister<>(delegate, batchWriter, 100,
+                Duration.ofMillis(10), Durability.SYNC)) {
+            // in a separate thread: if the flush is never completed, the write hangs forever
+            Throwable e = CompletableFuture.supplyAsync(() -> catchThrowable(() ->
+                            order.writeTo(persister, TestOrderState.NEW)))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(e)
+                    .as("write error")
+                    .isInstanceOf(LinkageError.class)
+                    .hasMessage("Artificial batch writer error");
+
+            // flushed by the periodic task, which must still be scheduled
+            assertThat(CompletableFuture.supplyAsync(() -> catchThrowable(() ->
+                            order.writeTo(persister, TestOrderState.PAID)))
+                    .get(10, TimeUnit.SECONDS))
+                    .as("write error after batch writer recovery")
+                    .isNull();
+            assertThat(persister.getFailedFlushCount())
+                    .as("failed flushes")
+                    .isEqualTo(1);
+            assertThat(persister.getFlushCount())
+                    .as("flushes")
+                    .isEqualTo(1);
+        }
+
+        assertThat(delegate.read(order.machineId()).getState())
+                .as("flushed state")
+                .isEqualTo(TestOrderState.PAID);
+    }
+
+    @Then("{int} order state machine contexts, {int} of them having rows, are written to JPA table in one transaction")
+    public void contexts_are_written_to_jpa_table_in_one_transaction(int count, int existingCount) throws Exception {
+        var table = new FakeJpaStateMachineTable();
+        var serialisationService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>();
+        var batchWriter = new JpaStateMachineContextBatchWriter<>(table.getEntityManager(),
+                table.getTransactionOperations(), serialisationService);
+
+        Map<String, StateMachineContext<TestOrderState, TestOrderEvent>> contexts = new LinkedHashMap<>();
+        Map<String, JpaRepositoryStateMachine> existingRows = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            var order = OrderContextFixture.create();
+            contexts.put(order.machineId(), order.createContext(TestOrderState.PAID));
+
+            if (i < existingCount) {
+                existingRows.put(order.machineId(), table.insert(order.machineId(), TestOrderState.NEW));
+            }
+        }
+
+        batchWriter.writeAll(contexts);
+
+        List<Integer> expectedQuerySizes = new ArrayList<>();
+
+        for (int left = count; left > 0; left -= JpaStateMachineContextBatchWriter.MAX_IN_QUERY_SIZE) {
+            expectedQuerySizes.add(Math.min(left, JpaStateMachineContextBatchWriter.MAX_IN_QUERY_SIZE));
+        }
+
+        assertThat(table.transactionCount)
+                .as("transactions")
+                .isEqualTo(1);
+        assertThat(table.inQuerySizes)
+                .as("IN query sizes")
+                .isEqualTo(expectedQuerySizes);
+        assertThat(table.persistedRows)
+                .as("inserted rows")
+                .hasSize(count - existingCount)
+                .noneMatch(row -> existingRows.containsKey(row.getMachineId()));
+        assertThat(table.rows)
+                .as("rows")
+                .hasSize(count)
+                // existing rows are updated in place, not replaced
+                .containsAllEntriesOf(existingRows);
+
+        for (JpaRepositoryStateMachine row : table.rows.values()) {
+            assertThat(row.getState())
+                    .as("row state")
+                    .isEqualTo(TestOrderState.PAID.name());
+            assertThat(serialisationService.deserialiseStateMachineContext(row.getStateMachineContext()).getId())
+                    .as("row context machine ID")
+                    .isEqualTo(row.getMachineId());
+        }
+    }
+
+    @Then("order state machine contexts beyond {int} are evicted from memory and spilled")
+    public void contexts_beyond_limit_are_evicted_and_spilled(int maxEntries) throws Exception {
+        var spillPersister = new StateMachineInMemoryPersister<TestOrderState, TestOrderEvent>();
+        var persister = new BoundedInMemoryStateMachineRuntimePersister<>(maxEntries, Long.MAX_VALUE,
+                BoundedInMemoryStateMachineRuntimePersister::estimateSize, spillPersister);
+        var meterRegistry = new SimpleMeterRegistry();
+        new BoundedInMemoryPersisterMeterBinder(persister, "orders").bindTo(meterRegistry);
+
+        List<OrderContextFixture> orders = new ArrayList<>();
+
+        for (int i = 0; i <= maxEntries; i++) {
+            var order = OrderContextFixture.create();
+            orders.add(order);
+            order.writeTo(persister, TestOrderState.NEW);
+        }
+
+        assertThat(meterRegistry.get(BoundedInMemoryPersisterMeterBinder.ENTRIES_GAUGE).gauge().value())
+                .as("contexts in memory")
+                .isEqualTo(maxEntries);
+        assertThat(meterRegistry.get(BoundedInMemoryPersisterMeterBinder.EVICTIONS_COUNTER).functionCounter().count())
+                .as("evictions")
+                .isEqualTo(1);
+        assertThat(persister.getEstimatedBytes())
+                .as("estimated bytes")
+                .isPositive();
+
+        // least recently used one
+        assertThat(spillPersister.read(orders.getFirst().machineId()))
+                .as("spilled context")
+                .isNotNull();
+        assertThat(persister.read(orders.getFirst().machineId()).getState())
+                .as("state read from spill persister")
+                .isEqualTo(TestOrderState.NEW);
+    }
+
+    @Then("evicted order state machine context is read from memory until spilled, and spilled in eviction order")
+    public void evicted_context_is_read_from_memory_until_spilled_in_eviction_order() throws Exception {
+        var spillStarted = new CompletableFuture<Void>();
+        var spillReleased = new CompletableFuture<Void>();
+        var blockFirstSpill = new AtomicBoolean(true);
+
+        var spillPersister = new StateMachineInMemoryPersister<TestOrderState, TestOrderEvent>() {
+            @Override
+            public void write(StateMachineContext<TestOrderState, TestOrderEvent> context, Object machineId) {
+                if (blockFirstSpill.getAndSet(false)) {
+                    spillStarted.complete(null);
+                    spillReleased.join();
+                }
+
+                super.write(context, machineId);
+            }
+        };
+
+        var persister = new BoundedInMemoryStateMachineRuntimePersister<>(1, Long.MAX_VALUE,
+                BoundedInMemoryStateMachineRuntimePersister::estimateSize, spillPersister);
+        var order = OrderContextFixture.create();
+        var otherOrder = OrderContextFixture.create();
+        order.writeTo(persister, TestOrderState.NEW);
+
+        // evicts the first order, whose spill blocks
+        Thread evictingThread = Thread.ofVirtual().start(() -> {
+            try {
+                otherOrder.writeTo(persister, TestOrderState.NEW);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        spillStarted.join();
+        assertThat(spillPersister.read(order.machineId()))
+                .as("context not spilled yet")
+                .isNull();
+        assertThat(persister.read(order.machineId()).getState())
+                .as("state of context being spilled")
+                .isEqualTo(TestOrderState.NEW);
+
+        // evicts the other order, then the first one again - while its previous version is still being spilled
+        order.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of());
+        otherOrder.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of());
+
+        spillReleased.complete(null);
+        evictingThread.join();
+
+        assertThat(spillPersister.read(order.machineId()).getState())
+                .as("latest spilled state")
+                .isEqualTo(TestOrderState.PAID);
+        assertThat(persister.read(order.machineId()).getState())
+                .as("state read from spill persister")
+                .isEqualTo(TestOrderState.PAID);
+    }
+
+    @Then("{int} order state machine contexts rewritten {int} times off-heap are compacted and can be read back")
+    public void contexts_rewritten_off_heap_are_compacted_and_can_be_read_back(int machineCount, int rewriteCount)
+            throws Exception {
+        // small slabs, so that they're compacted
+        var persister = new OffHeapStateMachineRuntimePersister<TestOrderState, TestOrderEvent, String>(
+                new KryoStateMachineSerialisationService<>(), 4096, 64 * 1024, 0.5);
+        var meterRegistry = new SimpleMeterRegistry();
+        new OffHeapPersisterMeterBinder(persister, "orders").bindTo(meterRegistry);
+
+        List<OrderContextFixture> orders = new ArrayList<>();
+
+        for (int i = 0; i < machineCount; i++) {
+            var order = OrderContextFixture.create();
+            orders.add(order);
+            order.writeTo(persister, TestOrderState.NEW);
+        }
+
+        for (int i = 0; i < rewriteCount; i++) {
+            for (OrderContextFixture order : orders) {
+                order.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of("attempt", i));
+            }
+        }
+
+        assertThat(meterRegistry.get(OffHeapPersisterMeterBinder.COMPACTIONS_COUNTER).functionCounter().count())
+                .as("compactions")
+                .isPositive();
+        assertThat(persister.getAllocatedBytes())
+                .as("allocated bytes")
+                .isLessThanOrEqualTo(64 * 1024);
+
+        for (OrderContextFixture order : orders) {
+            StateMachineContext<TestOrderState, TestOrderEvent> context = persister.read(order.machineId());
+
+            assertThat(context.getState())
+                    .as("state read from off-heap store")
+                    .isEqualTo(TestOrderState.PAID);
+            assertThat(context.getExtendedState().getVariables())
+                    .as("variables read from off-heap store")
+                    .containsEntry("attempt", rewriteCount - 1);
+        }
+
+        assertThat(persister.delete(orders.getFirst().machineId()))
+                .as("deleted")
+                .isTrue();
+        assertThat(persister.read(orders.getFirst().machineId()))
+                .as("deleted context")
+                .isNull();
+        assertThat(persister.getEntryCount())
+                .as("contexts left")
+                .isEqualTo(machineCount - 1);
+    }
+
+    @Then("order state machine context read through cache is served from memory after first read")
+    public void context_read_through_cache_is_served_from_memory_after_first_read() throws Exception {
+        StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> delegate =
+                testOrderService.getStateMachinePersist();
+        var persister = new CachingStateMachineRuntimePersister<>(delegate, 10, Duration.ofMinutes(1),
+                new KryoStateMachineSerialisationService<>());
+        var meterRegistry = new SimpleMeterRegistry();
+        new CachingPersisterMeterBinder(persister, "orders").bindTo(meterRegistry);
+
+        // written by someone else
+        var order = OrderContextFixture.create();
+        order.writeTo(delegate, TestOrderState.NEW);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(persister.read(order.machineId()).getState())
+                    .as("state read through cache")
+                    .isEqualTo(TestOrderState.NEW);
+        }
+
+        // write-through
+        order.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of());
+        assertThat(delegate.read(order.machineId()).getState())
+                .as("state written through cache")
+                .isEqualTo(TestOrderState.PAID);
+        assertThat(persister.read(order.machineId()).getState())
+                .as("state read from cache after write")
+                .isEqualTo(TestOrderState.PAID);
+
+        assertThat(meterRegistry.get(CachingPersisterMeterBinder.READS_COUNTER).tag("result", "miss")
+                .functionCounter().count())
+                .as("cache misses")
+                .isEqualTo(1);
+        assertThat(meterRegistry.get(CachingPersisterMeterBinder.HIT_RATIO_GAUGE).gauge().value())
+                .as("cache hit ratio")
+                .isEqualTo(0.8);
+    }
+
+    @Then("order state machine context loaded into cache is cached unless written meanwhile")
+    public void context_loaded_into_cache_is_cached_unless_written_meanwhile() throws Exception {
+        StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> delegate =
+                testOrderService.getStateMachinePersist();
+        var slowOrder = OrderContextFixture.create();
+        var gate = new AtomicReference<CountDownLatch>();
+        var slowDelegate = new StateMachinePersist<TestOrderState, TestOrderEvent, String>() {
+            @Override
+            public void write(StateMachineContext<TestOrderState, TestOrderEvent> context, String machineId)
+                    throws Exception {
+                delegate.write(context, machineId);
+            }
+
+            @Override
+            public StateMachineContext<TestOrderState, TestOrderEvent> read(String machineId) throws Exception {
+                StateMachineContext<TestOrderState, TestOrderEvent> context = delegate.read(machineId);
+                CountDownLatch readGate = gate.get();
+
+                // returns the context read before the gate opens, even if it has been written meanwhile
+                if ((readGate != null) && machineId.equals(slowOrder.machineId())) {
+                    readGate.await();
+                }
+
+                return context;
+            }
+        };
+        var persister = new CachingStateMachineRuntimePersister<>(slowDelegate, 10, Duration.ofMinutes(1),
+                new KryoStateMachineSerialisationService<>());
+        slowOrder.writeTo(delegate, TestOrderState.NEW);
+
+        // write to another machine while loading: loaded context is cached
+        gate.set(new CountDownLatch(1));
+        var loadedContext = new CompletableFuture<StateMachineContext<TestOrderState, TestOrderEvent>>();
+        Thread loadingThread = Thread.ofPlatform().start(() -> {
+            try {
+                loadedContext.complete(persister.read(slowOrder.machineId()));
+            } catch (Exception e) {
+                loadedContext.completeExceptionally(e);
+            }
+        });
+        awaitWaiting(loadingThread);
+        OrderContextFixture.create().writeTo(persister, TestOrderState.NEW);
+        gate.get().countDown();
+
+        assertThat(loadedContext.get(10, TimeUnit.SECONDS).getState())
+                .as("state loaded while another machine was written")
+                .isEqualTo(TestOrderState.NEW);
+        assertThat(persister.read(slowOrder.machineId()).getState())
+                .as("state read from cache")
+                .isEqualTo(TestOrderState.NEW);
+        assertThat(persister.getMissCount())
+                .as("cache misses")
+                .isEqualTo(1);
+
+        // write to the same machine while loading: loaded (stale) context is not cached
+        persister.invalidate(slowOrder.machineId());
+        gate.set(new CountDownLatch(1));
+        var staleContext = new CompletableFuture<StateMachineContext<TestOrderState, TestOrderEvent>>();
+        loadingThread = Thread.ofPlatform().start(() -> {
+            try {
+                staleContext.complete(persister.read(slowOrder.machineId()));
+            } catch (Exception e) {
+                staleContext.completeExceptionally(e);
+            }
+        });
+        awaitWaiting(loadingThread);
+        slowOrder.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of());
+        gate.get().countDown();
+
+        assertThat(staleContext.get(10, TimeUnit.SECONDS).getState())
+                .as("state loaded before write")
+                .isEqualTo(TestOrderState.NEW);
+
+        assertThat(persister.read(slowOrder.machineId()).getState())
+                .as("state read from cache after write while loading")
+                .isEqualTo(TestOrderState.PAID);
+        assertThat(persister.getMissCount())
+                .as("cache misses after write while loading")
+                .isEqualTo(2);
+    }
+
+    @Then("order state machine context which can't be cached after being written is not read from cache")
+    public void context_which_cant_be_cached_after_being_written_is_not_read_from_cache() throws Exception {
+        StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> delegate =
+                testOrderService.getStateMachinePersist();
+        var failingEncoding = new AtomicBoolean();
+        var serialisationService = new KryoStateMachineSerialisationService<TestOrderState, TestOrderEvent>() {
+            @Override
+            public byte[] serialiseStateMachineContext(StateMachineContext<TestOrderState, TestOrderEvent> context)
+                    throws Exception {
+                if (failingEncoding.get()) {
+                    throw new IllegalStateException("Encoding failed");
+                }
+
+                return super.serialiseStateMachineContext(context);
+            }
+        };
+        var persister = new CachingStateMachineRuntimePersister<>(delegate, 10, Duration.ofMinutes(1),
+                serialisationService);
+
+        var order = OrderContextFixture.create();
+        order.writeTo(persister, TestOrderState.NEW);
+
+        failingEncoding.set(true);
+        assertThat(catchThrowable(() ->
+                order.writeTo(persister, TestOrderState.PAID, TestOrderEvent.PAY, Map.of())))
+                .as("encoding failure")
+                .isInstanceOf(IllegalStateException.class);
+        failingEncoding.set(false);
+
+        assertThat(delegate.read(order.machineId()).getState())
+                .as("state written to delegate")
+                .isEqualTo(TestOrderState.PAID);
+        assertThat(persister.read(order.machineId()).getState())
+                .as("state read through cache after encoding failure")
+                .isEqualTo(TestOrderState.PAID);
+    }
+
+    private BatchingStateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> getBatchingPersister() {
+        return cachedOrderService.getStateMachinePersist();
+    }
+
+    /**
+     * Returns the service chosen by 'serve orders by cached order state machines' step.
+     *
+     * @return {@link TestCachedOrderService} or {@link TestOrderService}
+     */
+    private StateMachineAware<TestOrderState, TestOrderEvent, TestOrderExtendedState, UUID> getOrderService() {
+        return testOrderWorld.isCachedStateMachines()
+                ? cachedOrderService
+                : testOrderService;
+    }
+
+    /**
+     * Order state machine context written directly to persisters, without a state machine. Each context holds the
+     * order ID variable.
+     *
+     * @param orderId   order ID
+     * @param machineId state machine ID
+     */
+    private record OrderContextFixture(
+            UUID orderId,
+            String machineId) {
+
+        static OrderContextFixture create() {
+            UUID orderId = UUID.randomUUID();
+            return new OrderContextFixture(orderId, "orderId:" + orderId);
+        }
+
+        void writeTo(StateMachinePersist<TestOrderState, TestOrderEvent, ? super String> persister,
+                TestOrderState state) throws Exception {
+            writeTo(persister, state, null, Map.of());
+        }
+
+        void writeTo(StateMachinePersist<TestOrderState, TestOrderEvent, ? super String> persister,
+                TestOrderState state, @Nullable TestOrderEvent event, Map<Object, Object> variables)
+                throws Exception {
+            persister.write(createContext(state, event, variables), machineId);
+        }
+
+        StateMachineContext<TestOrderState, TestOrderEvent> createContext(TestOrderState state) {
+            return createContext(state, null, Map.of());
+        }
+
+        StateMachineContext<TestOrderState, TestOrderEvent> createContext(TestOrderState state,
+                @Nullable TestOrderEvent event, Map<Object, Object> variables) {
+            Map<Object, Object> allVariables = new HashMap<>(variables);
+            allVariables.put(TestOrderExtendedState.ORDER_ID, orderId);
+
+            return new DefaultStateMachineContext<>(state, event, null, new DefaultExtendedState(allVariables), null,
+                    machineId);
+        }
+
+    }
+
+    /**
+     * Table of {@link JpaRepositoryStateMachine} rows behind a fake {@link EntityManager} which supports only what
+     * {@link JpaStateMachineContextBatchWriter} calls: a criteria query selecting rows by machine IDs, and
+     * {@link EntityManager#persist(Object)}. Both fail outside transactions started by
+     * {@link #getTransactionOperations()}.
+     */
+    private static class FakeJpaStateMachineTable {
+
+        private final Map<String, JpaRepositoryStateMachine> rows = new HashMap<>();
+        private final List<JpaRepositoryStateMachine> persistedRows = new ArrayList<>();
+        private final List<Integer> inQuerySizes = new ArrayList<>();
+        private int transactionCount;
+        private boolean inTransaction;
+        @Nullable
+        private Collection<?> queriedMachineIds;
+
+        @SuppressWarnings("unchecked")
+        private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+            return (T) Proxy.newProxyInstance(FakeJpaStateMachineTable.class.getClassLoader(), new Class<?>[]{type},
+                    handler);
+        }
+
+        private static UnsupportedOperationException unsupported(Method method) {
+            return new UnsupportedOperationException("Not supported by fake JPA: " + method);
+        }
+
+        JpaRepositoryStateMachine insert(String machineId, TestOrderState state) {
+            var row = new JpaRepositoryStateMachine();
+            row.setMachineId(machineId);
+            row.setState(state.name());
+            rows.put(machineId, row);
+            return row;
+        }
+
+        TransactionOperations getTransactionOperations() {
+            return new TransactionOperations() {
+                @Override
+                public <T> T execute(TransactionCallback<T> action) {
+                    transactionCount++;
+                    inTransaction = true;
+
+                    try {
+                        return action.doInTransaction(new SimpleTransactionStatus());
+                    } finally {
+                        inTransaction = false;
+                    }
+                }
+            };
+        }
+
+        EntityManager getEntityManager() {
+            return createProxy(EntityManager.class, (proxy, method, args) -> switch (method.getName()) {
+                case "getCriteriaBuilder" -> createProxy(CriteriaBuilder.class, this::handleCriteriaBuilder);
+                case "createQuery" -> createProxy(TypedQuery.class, this::handleTypedQuery);
+                case "persist" -> {
+                    checkInTransaction();
+                    var row = (JpaRepositoryStateMachine) args[0];
+                    rows.put(row.getMachineId(), row);
+                    persistedRows.add(row);
+                    yield null;
+                }
+                default -> throw unsupported(method);
+            });
+        }
+
+        private Object handleCriteriaBuilder(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createQuery")) {
+                return createProxy(CriteriaQuery.class, this::handleCriteriaQuery);
+            }
+
+            throw unsupported(method);
+        }
+
+        private Object handleCriteriaQuery(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "from" -> createProxy(Root.class, this::handleRoot);
+                case "where" -> proxy;
+                default -> throw unsupported(method);
+            };
+        }
+
+        private Object handleRoot(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("get") && "machineId".equals(args[0])) {
+                return createProxy(jakarta.persistence.criteria.Path.class, this::handlePath);
+            }
+
+            throw unsupported(method);
+        }
+
+        private Object handlePath(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("in") && (args[0] instanceof Collection<?> machineIds)) {
+                queriedMachineIds = List.copyOf(machineIds);
+                return createProxy(Predicate.class, (predicate, predicateMethod, predicateArgs) -> {
+                    throw unsupported(predicateMethod);
+                });
+            }
+
+            throw unsupported(method);
+        }
+
+        private Object handleTypedQuery(Object proxy, Method method, Object[] args) {
+            if (!method.getName().equals("getResultList")) {
+                throw unsupported(method);
+            }
+
+            checkInTransaction();
+            inQuerySizes.add(queriedMachineIds.size());
+
+            return queriedMachineIds.stream()
+                    .map(rows::get)
+                    .filter(Objects::nonNull)
+                    .toList();
+        }
+
+        private void checkInTransaction() {
+            if (!inTransaction) {
+                throw new IllegalStateException("No transaction");
+            }
+        }
+
+    }
+
+    /**
+     * Loads classes of this library itself (instead of delegating to the parent), as if the GraphViz library were
+     * absent.
+     */
+    private static class GraphvizHidingClassLoader extends ClassLoader {
+
+        private GraphvizHidingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("guru.nidi.graphviz.")) {
+                throw new ClassNotFoundException(name);
+            }
+
+            if (!name.startsWith("guru.nicks.commons.statemachine.")) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+
+                if (clazz == null) {
+                    try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        if (in == null) {
+                            throw new ClassNotFoundException(name);
+                        }
+
+                        byte[] bytes = in.readAllBytes();
+                        clazz = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+
+                return clazz;
+            }
+        }
+
+    }
+
+    /**
+     * Reactive action function, as registered with {@code actionFunction(...)}.
+     */
+    private static class TestOrderAuditFunction
+            implements Function<StateContext<TestOrderState, TestOrderEvent>, Mono<Void>> {
+
+        @Override
+        public Mono<Void> apply(StateContext<TestOrderState, TestOrderEvent> context) {
+            return Mono.empty();
+        }
+
+    }
+
+    /**
+     * Order service which doesn't know order states, so events are checked against persisted states.
+     */
+    @RequiredArgsConstructor
+    private static class PersistedStateCheckingOrderService
+            implements StateMachineAware<TestOrderState, TestOrderEvent, TestOrderExtendedState, UUID> {
+
+        private final TestOrderService delegate;
+        private final AtomicInteger stateMachineCalls = new AtomicInteger();
+
+        @Override
+        public boolean isPersistedStatePreChecked() {
+            return true;
+        }
+
+        @Override
+        public StripedEntityLock getStateMachineLock() {
+            return delegate.getStateMachineLock();
+        }
+
+        @Override
+        public StateMachineTransitionIndex<TestOrderState, TestOrderEvent> getStateMachineTransitionIndex() {
+            return delegate.getStateMachineTransitionIndex();
+        }
+
+        @Override
+        public StateMachinePersist<TestOrderState, TestOrderEvent, String> getStateMachinePersist() {
+            return delegate.getStateMachinePersist();
+        }
+
+        @Override
+        public String convertToStateMachineId(UUID orderId) {
+            return delegate.convertToStateMachineId(orderId);
+        }
+
+        @Override
+        public <T> T withStateMachine(UUID orderId, Function<StateMachine<TestOrderState, TestOrderEvent>, T> mapper) {
+            stateMachineCalls.incrementAndGet();
+            return delegate.withStateMachine(orderId, mapper);
+        }
+
+        @Override
+        public StateMachine<TestOrderState, TestOrderEvent> waitForStateMachineStart(UUID orderId) {
+            return delegate.waitForStateMachineStart(orderId);
+        }
+
+        @Override
+        public void waitForStateMachineStop(UUID orderId) {
+            delegate.waitForStateMachineStop(orderId);
+        }
+
+    }
+
+    /**
+     * Order service which keeps errors of transition-bound actions as compact descriptors.
+     */
+    private static class ErrorDescriptorKeepingOrderService extends PersistedStateCheckingOrderService {
+
+        private ErrorDescriptorKeepingOrderService(TestOrderService delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public boolean isLastErrorSavedAsDescriptor() {
+            return true;
+        }
+
+    }
+
+    /**
+     * Builds machines from the order state machine factory (without restoring them) and records calls.
+     */
+    private static class CountingStateMachineService
+            implements StateMachineService<TestOrderState, TestOrderEvent> {
+
+        private final TestOrderService testOrderService;
+        private final List<String> acquiredIds = new ArrayList<>();
+        private final List<String> stoppedIds = new ArrayList<>();
+        private final Map<String, StateMachine<TestOrderState, TestOrderEvent>> stateMachines = new HashMap<>();
+        /**
+         * If set, acquisitions wait for it to open (before being counted).
+         */
+        @Nullable
+        private volatile CountDownLatch acquireGate;
+
+        private CountingStateMachineService(TestOrderService testOrderService) {
+            this.testOrderService = testOrderService;
+        }
+
+        @Override
+        public StateMachine<TestOrderState, TestOrderEvent> acquireStateMachine(String machineId) {
+            return acquireStateMachine(machineId, true);
+        }
+
+        @Override
+        public StateMachine<TestOrderState, TestOrderEvent> acquireStateMachine(String machineId, boolean start) {
+            CountDownLatch gate = acquireGate;
+
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            synchronized (this) {
+                acquiredIds.add(machineId);
+                return stateMachines.computeIfAbsent(machineId,
+                        id -> testOrderService.getStateMachineFactory().getStateMachine(id));
+            }
+        }
+
+        @Override
+        public synchronized void releaseStateMachine(String machineId) {
+            releaseStateMachine(machineId, true);
+        }
+
+        @Override
+        public synchronized void releaseStateMachine(String machineId, boolean stop) {
+            stateMachines.remove(machineId);
+
+            if (stop) {
+                stoppedIds.add(machineId);
+            }
+        }
+
+        @Override
+        public synchronized boolean hasStateMachine(String machineId) {
+            return stateMachines.containsKey(machineId);
+        }
+
+    }
+
+
 }
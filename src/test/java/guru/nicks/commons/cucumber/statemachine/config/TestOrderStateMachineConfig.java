@@ -1,16 +1,28 @@
 package guru.nicks.commons.cucumber.statemachine.config;
 
+import guru.nicks.commons.cucumber.statemachine.TestCachedOrderService;
 import guru.nicks.commons.cucumber.statemachine.TestOrderRepository;
 import guru.nicks.commons.cucumber.statemachine.TestOrderStateMachineListener;
 import guru.nicks.commons.cucumber.statemachine.action.TestOrderErrorHandlerAction;
 import guru.nicks.commons.cucumber.statemachine.action.TestOrderRejectRefundAction;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEvent;
 import guru.nicks.commons.cucumber.statemachine.domain.TestOrderState;
+import guru.nicks.commons.statemachine.CachingStateMachineService;
+import guru.nicks.commons.statemachine.PooledStateMachineService;
 import guru.nicks.commons.statemachine.StateMachineInMemoryRuntimePersister;
 import guru.nicks.commons.statemachine.StateMachineLoggingMonitor;
+import guru.nicks.commons.statemachine.StateMachineMetricsMonitor;
+import guru.nicks.commons.statemachine.StateMachineScheduler;
+import guru.nicks.commons.statemachine.StateMachineTrafficMonitor;
+import guru.nicks.commons.statemachine.StateMachineTransitionIndex;
+import guru.nicks.commons.statemachine.StripedEntityLock;
 import guru.nicks.commons.statemachine.action.NoOpAction;
 import guru.nicks.commons.statemachine.domain.ExtendedState;
+import guru.nicks.commons.statemachine.domain.StateMachineExecutionStrategy;
+import guru.nicks.commons.statemachine.jfr.StateMachineJfrMonitor;
+import guru.nicks.commons.statemachine.persist.BatchingStateMachineRuntimePersister;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -18,6 +30,7 @@ import org.springframework.statemachine.StateMachine;
 import org.springframework.statemachine.action.Action;
 import org.springframework.statemachine.config.EnableStateMachineFactory;
 import org.springframework.statemachine.config.EnumStateMachineConfigurerAdapter;
+import org.springframework.statemachine.config.StateMachineBuilder;
 import org.springframework.statemachine.config.StateMachineFactory;
 import org.springframework.statemachine.config.builders.StateMachineConfigurationConfigurer;
 import org.springframework.statemachine.config.builders.StateMachineStateConfigurer;
@@ -26,6 +39,7 @@ import org.springframework.statemachine.persist.StateMachineRuntimePersister;
 import org.springframework.statemachine.service.DefaultStateMachineService;
 import org.springframework.statemachine.service.StateMachineService;
 
+import java.time.Duration;
 import java.util.EnumSet;
 
 @Configuration
@@ -37,6 +51,7 @@ public class TestOrderStateMachineConfig extends EnumStateMachineConfigurerAdapt
     private final TestOrderErrorHandlerAction errorHandlerAction;
     private final TestOrderRejectRefundAction rejectRefundAction;
     private final TestOrderRepository orderRepository;
+    private final MeterRegistry meterRegistry;
 
     private final Action<TestOrderState, TestOrderEvent> noOpAction = new NoOpAction<>();
 
@@ -51,6 +66,7 @@ public class TestOrderStateMachineConfig extends EnumStateMachineConfigurerAdapt
         // @formatter:off
         config.withConfiguration()
                 .listener(new TestOrderStateMachineListener(orderRepository))
+                .listener(orderStateMachineTrafficMonitor().getListener())
                 .and()
                 .withVerifier()
                     .enabled(true)
@@ -59,7 +75,10 @@ public class TestOrderStateMachineConfig extends EnumStateMachineConfigurerAdapt
                     .runtimePersister(orderStateMachineRuntimePersister())
                 .and()
                 .withMonitoring()
-                    .monitor(new StateMachineLoggingMonitor<>());
+                    .monitor(new StateMachineLoggingMonitor<>())
+                    .monitor(new StateMachineMetricsMonitor<>(meterRegistry, "order"))
+                    .monitor(new StateMachineJfrMonitor<>())
+                    .monitor(orderStateMachineTrafficMonitor());
         // @formatter:on
     }
 
@@ -162,4 +181,98 @@ public class TestOrderStateMachineConfig extends EnumStateMachineConfigurerAdapt
         return new StateMachineInMemoryRuntimePersister<>();
     }
 
+    /**
+     * Creates an order service whose state machines come from a separate factory: started machines are kept in
+     * {@link CachingStateMachineService} between calls, evicted ones are recycled by {@link PooledStateMachineService},
+     * and batches of events are persisted once by {@link BatchingStateMachineRuntimePersister}. Contexts are stored
+     * apart from {@link #orderStateMachineRuntimePersister()}.
+     *
+     * @param orderStateMachineTransitionIndex transition index
+     * @return service bean
+     * @throws Exception error from state machine
+     */
+    @Bean
+    public TestCachedOrderService cachedOrderService(
+            StateMachineTransitionIndex<TestOrderState, TestOrderEvent> orderStateMachineTransitionIndex)
+            throws Exception {
+        var persister = new BatchingStateMachineRuntimePersister<TestOrderState, TestOrderEvent, String>(
+                new StateMachineInMemoryRuntimePersister<>());
+        var stateMachineService = new CachingStateMachineService<>(
+                new PooledStateMachineService<>(createCachedOrderStateMachineFactory(persister), persister, 100, 10),
+                1000, Duration.ofMinutes(1));
+
+        return new TestCachedOrderService(stateMachineService, orderRepository, orderStateMachineLock(),
+                orderStateMachineTransitionIndex, persister);
+    }
+
+    /**
+     * Records traffic for state graph heatmaps.
+     *
+     * @return monitor bean
+     */
+    @Bean
+    public StateMachineTrafficMonitor<TestOrderState, TestOrderEvent> orderStateMachineTrafficMonitor() {
+        return new StateMachineTrafficMonitor<>();
+    }
+
+    /**
+     * Compiles the transition graph once, so impossible events are denied without starting state machines.
+     *
+     * @param stateMachineFactory state machine factory
+     * @return index bean
+     */
+    @Bean
+    public StateMachineTransitionIndex<TestOrderState, TestOrderEvent> orderStateMachineTransitionIndex(
+            StateMachineFactory<TestOrderState, TestOrderEvent> stateMachineFactory) {
+        return StateMachineTransitionIndex.of(stateMachineFactory);
+    }
+
+    /**
+     * Processes reactive events off the caller's thread, so blocking actions don't stall it.
+     *
+     * @return scheduler bean
+     */
+    @Bean
+    public StateMachineScheduler orderStateMachineScheduler() {
+        return StateMachineScheduler.create(StateMachineExecutionStrategy.BOUNDED_ELASTIC, 4, 1000, "order");
+    }
+
+    /**
+     * Serializes events sent to the same order.
+     *
+     * @return lock bean
+     */
+    @Bean
+    public StripedEntityLock orderStateMachineLock() {
+        return new StripedEntityLock(16, false);
+    }
+
+    /**
+     * Builds state machines for {@link #cachedOrderService(StateMachineTransitionIndex)} out of the same states and
+     * transitions, but bound to their own persister.
+     *
+     * @param persister context persister
+     * @return state machine factory
+     * @throws Exception error from state machine
+     */
+    private StateMachineFactory<TestOrderState, TestOrderEvent> createCachedOrderStateMachineFactory(
+            StateMachineRuntimePersister<TestOrderState, TestOrderEvent, String> persister) throws Exception {
+        StateMachineBuilder.Builder<TestOrderState, TestOrderEvent> builder = StateMachineBuilder.builder();
+        // @formatter:off
+        builder.configureConfiguration()
+                .withConfiguration()
+                    .listener(new TestOrderStateMachineListener(orderRepository))
+                .and()
+                .withPersistence()
+                    .runtimePersister(persister)
+                .and()
+                .withMonitoring()
+                    .monitor(new StateMachineLoggingMonitor<>())
+                    .monitor(new StateMachineJfrMonitor<>());
+        // @formatter:on
+        configure(builder.configureStates());
+        configure(builder.configureTransitions());
+        return builder.createFactory();
+    }
+
 }
@@ -17,7 +17,8 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public enum TestOrderExtendedState implements ExtendedState {
 
-    ORDER_ID(UUID.class);
+    ORDER_ID(UUID.class),
+    PAYMENT_ATTEMPTS(Long.class);
 
     private final Class<?> valueClass;
 
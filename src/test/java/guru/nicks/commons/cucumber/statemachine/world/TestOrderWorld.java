@@ -1,9 +1,15 @@
 package guru.nicks.commons.cucumber.statemachine.world;
 
+import guru.nicks.commons.cucumber.statemachine.domain.TestOrderEvent;
+import guru.nicks.commons.statemachine.domain.StateMachineBulkEventResult;
+import guru.nicks.commons.statemachine.domain.StateMachineEventOutcome;
+
 import io.cucumber.spring.ScenarioScope;
 import lombok.Data;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -16,5 +22,11 @@ import java.util.UUID;
 public class TestOrderWorld {
 
     private UUID orderId;
+    private int acceptedEventCount;
+    private List<StateMachineEventOutcome<TestOrderEvent>> eventOutcomes;
+    private List<UUID> orderIds = new ArrayList<>();
+    private StateMachineBulkEventResult<UUID, TestOrderEvent> bulkEventResult;
+    private long contextWriteCount;
+    private boolean cachedStateMachines;
 
 }
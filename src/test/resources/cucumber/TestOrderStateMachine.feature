@@ -113,6 +113,79 @@ Feature: Order State Machine
     Then order state is REFUND_REQUESTED
     And exception from transition-bound action or event doesn't match transition graph
 
+  Scenario: Events allowed in order state are known without state machine
+    When create order
+    Then events allowed in order state are "CANCEL, PAY"
+    When pay order
+    Then events allowed in order state are "DELIVER, REQUEST_REFUND"
+    When cancel order
+    Then order state is PAID
+    And exception from transition-bound action or event doesn't match transition graph
+
+  Scenario: Pay order concurrently (events for the same order are serialized)
+    When create order
+    And pay order concurrently 8 times
+    Then order state is PAID
+    And 1 event accepted
+
+  Scenario: Send events in one batch
+    When create order
+    And send order events in one batch: "PAY, DELIVER, REQUEST_REFUND"
+    Then order state is REFUND_REQUESTED
+    And batch event outcomes are "ACCEPTED, ACCEPTED, ACCEPTED"
+
+  Scenario: Send events in one batch - processing stops at the first denied event
+    When create order
+    And send order events in one batch: "PAY, APPROVE_REFUND, DELIVER"
+    Then order state is PAID
+    And batch event outcomes are "ACCEPTED, DENIED, SKIPPED"
+
+  Scenario: Send events in one batch - processing stops at the first failed action
+    When create order
+    And send order events in one batch: "PAY, REQUEST_REFUND, REJECT_REFUND, APPROVE_REFUND"
+    Then order state is REFUND_REQUESTED
+    And batch event outcomes are "ACCEPTED, ACCEPTED, FAILED, SKIPPED"
+
+  Scenario: Send events in one batch - context is persisted once
+    When serve orders by cached order state machines
+    And create order
+    And pay order
+    And send order events in one batch: "DELIVER, REQUEST_REFUND, APPROVE_REFUND"
+    Then order state is REFUNDED
+    And batch event outcomes are "ACCEPTED, ACCEPTED, ACCEPTED"
+    And order state machine context was written 1 time for the batch
+
+  Scenario: Cancel orders in bulk
+    When create 20 orders
+    And cancel order
+    And cancel all created orders and a non-existing order in bulk
+    Then order state is CANCELLED
+    And bulk event result: 19 accepted, 1 denied, 1 failed
+
+  Scenario: Cancel orders in bulk - duplicate IDs are processed once
+    When create 5 orders
+    And cancel all created orders in bulk, each ID twice
+    Then bulk event result: 5 accepted, 0 denied, 0 failed
+
+  Scenario: Cancel orders in bulk - null ID fails the whole call
+    When create 5 orders
+    Then cancelling all created orders and a null ID in bulk fails without cancelling any order
+
+  Scenario: Pay order reactively
+    When create order
+    And pay order reactively
+    Then order state is PAID
+    And order state read reactively is PAID
+    And no exception should be thrown
+    And reactive events were processed on state machine scheduler
+
+  Scenario: Pay already paid order reactively
+    When create order
+    And pay order reactively
+    And pay order reactively
+    Then order state is PAID
+    And exception from transition-bound action or event doesn't match transition graph
+
   Scenario: Render state machine graph in SVG format
     When state machine graph is rendered in SVG format
     Then rendered state machine graph contains "<svg "
@@ -122,3 +195,141 @@ Feature: Order State Machine
     And rendered state machine graph contains ">PAID<"
     # transition from NEW to PAID (as a comment)
     And rendered state machine graph contains "<!-- NEW&#45;&gt;PAID -->"
+    And state machine graph in SVG format is served from cache
+
+  Scenario: Render state machine graph in DOT format
+    When state machine graph is rendered in DOT format
+    Then rendered state machine graph contains "digraph {"
+    And rendered state machine graph contains "\"NEW\" -> \"PAID\" [label=\"pay\"]"
+    And state machine graph in DOT format is served from cache
+
+  Scenario: Render state machine graph without GraphViz on the classpath
+    Then state machine graph visualizer renders SVG format without GraphViz on the classpath
+    And rendered state machine graph contains "<svg"
+
+  Scenario: Fail to render state machine graph in PNG format without GraphViz on the classpath
+    Then state machine graph cache fails to render PNG format without GraphViz on the classpath
+
+  Scenario: Render state machine traffic heatmap
+    When create order
+    And pay order
+    And pay order
+    And state machine heatmap is rendered in SVG format
+    Then rendered state machine graph contains "<!-- NEW&#45;&gt;PAID -->"
+    And rendered state machine graph contains "pay: "
+    And rendered state machine graph contains " ms, p99 "
+    And rendered state machine graph contains "denied: pay "
+    When state machine heatmap is rendered in DOT format
+    Then rendered state machine graph contains "penwidth="
+
+  Scenario: Keep started order state machines in cache
+    Then cached order state machine is served without delegate on hit
+    And least recently used order state machine is stopped when cache of 2 overflows
+    And idle order state machine is stopped after 50 ms
+    And order state machine in use is not evicted
+    And order state machine being loaded into cache is neither loaded twice nor evicted
+
+  Scenario: Record order transition in metrics
+    When create order
+    And pay order
+    Then transition from NEW to PAID is recorded in metrics
+
+  Scenario: Record order action duration in metrics without action tag
+    When create order
+    And cancel order
+    Then action duration is recorded in metrics without action tag
+
+  Scenario: Tag action metrics by action function name
+    Then action function duration is recorded in metrics with action tag "TestOrderAuditFunction"
+
+  Scenario: Emit JFR events for order state machine lifecycle
+    When serve orders by cached order state machines
+    Then cancelling new order emits JFR acquire, start, transition, action and persist events
+
+  Scenario: Events deferred in order state are not denied by transition index
+    Then transition index of order state machine deferring DELIVER in NEW state accepts DELIVER in NEW state
+
+  Scenario: Read order state from persisted state machine context
+    When create order
+    And pay order
+    Then order state read from persisted state machine context is PAID
+
+  Scenario: Check order events against persisted state under entity lock
+    When create order
+    Then order events "PAY, DELIVER, PAY" checked against persisted state have outcomes "ACCEPTED, ACCEPTED, DENIED"
+
+  Scenario: Serialize order state machine context with Kryo class registry
+    When create order
+    And pay order
+    Then persisted state machine context is smaller with Kryo class registry and can be read back
+    And autoconfigured Kryo serialisation service applies class registry in strict mode only
+
+  Scenario: Serialize order state machine context with compact codec
+    When create order
+    And pay order
+    Then persisted state machine context is smaller with compact codec and can be read back
+
+  Scenario: Recycle order state machines from pool
+    When create order
+    And pay order
+    Then order state machine recycled from pool is restored to PAID
+
+  Scenario: Register native image hints for Kryo serialization
+    When create order
+    And pay order
+    Then native image hints cover Kryo serialization of order state machine context
+
+  Scenario: Store order state machine context variables in ordinal slots
+    When create order
+    And pay order
+    Then order state machine context variables are stored in ordinal slots and survive Kryo round trip
+
+  Scenario: Store order state machine errors as compact descriptors
+    When create order
+    And pay order
+    Then order state machine error descriptor is rebuilt as exception and fits compact codec
+
+  Scenario: Keep errors of transition-bound actions as compact descriptors
+    When create order
+    And pay order
+    And request refund
+    Then rejected refund request fails with error descriptor kept in order state machine
+
+  Scenario: Restore order state machine context from journal
+    Then order state machine contexts written to journal with snapshot interval 4 are restored after reopening
+
+  Scenario: Write order state machine context variable mutated in place to journal
+    Then order state machine context variable mutated in place is written to journal
+
+  Scenario: Compact order state machine journal
+    Then order state machine journal holding 20 rarely written contexts is compacted while being read
+
+  Scenario Outline: Write order state machine contexts behind
+    Then order state machine contexts written behind in <durability> mode are coalesced and visible before flush
+
+    Examples:
+      | durability |
+      | ASYNC      |
+      | SYNC       |
+
+  Scenario: Evict order state machine contexts from bounded in-memory persister
+    Then order state machine contexts beyond 3 are evicted from memory and spilled
+
+  Scenario: Read order state machine context being spilled from bounded in-memory persister
+    Then evicted order state machine context is read from memory until spilled, and spilled in eviction order
+
+  Scenario: Compact order state machine contexts stored off-heap
+    Then 20 order state machine contexts rewritten 10 times off-heap are compacted and can be read back
+
+  Scenario: Read order state machine context through cache
+    Then order state machine context read through cache is served from memory after first read
+    And order state machine context loaded into cache is cached unless written meanwhile
+
+  Scenario: Drop cached order state machine context which can't be cached after being written
+    Then order state machine context which can't be cached after being written is not read from cache
+
+  Scenario: Keep flushing order state machine contexts written behind after batch writer error
+    Then order state machine context written behind survives batch writer error
+
+  Scenario: Write order state machine contexts to JPA table in one transaction
+    Then 2500 order state machine contexts, 700 of them having rows, are written to JPA table in one transaction